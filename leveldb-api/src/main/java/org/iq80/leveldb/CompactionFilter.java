@@ -0,0 +1,40 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iq80.leveldb;
+
+/**
+ * Inspects the values met by compactions, to remove expired entries or rewrite values in the
+ * background instead of in a separate pass over the database. A value is only shown to the filter
+ * when no open snapshot can see it, so removing or changing it never changes what a snapshot
+ * reads. Values older than a snapshot are kept as they are until the snapshot is closed.
+ *
+ * <p>Values not yet compacted are returned unchanged by reads, so a filter removing expired
+ * entries does not make them disappear at once. Implementations must be thread safe.
+ */
+public interface CompactionFilter {
+    /**
+     * Decide what compaction writes for {@code key}.
+     *
+     * @param level level the compaction reads from
+     * @param key key of the entry
+     * @param value current value of the key
+     * @return {@code value} to keep the entry, another array to replace the value, or {@code
+     *     null} to delete the key
+     */
+    byte[] filter(int level, byte[] key, byte[] value);
+}
@@ -18,7 +18,12 @@
 package org.iq80.leveldb;
 
 import java.io.Closeable;
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * A DB is a persistent ordered map from keys to values. A DB is safe for concurrent access from
@@ -42,6 +47,72 @@ public interface DB extends Iterable<Map.Entry<byte[], byte[]>>, Closeable {
      */
     byte[] get(byte[] key, ReadOptions options) throws DBException;
 
+    /**
+     * Same as {@link DB#get(byte[], ReadOptions)}, without copying the value when the
+     * implementation can avoid it. The returned buffer is a read-only view of the value, which
+     * stays valid for as long as the buffer is referenced.
+     *
+     * <p>Default implementation wraps the value returned by get.
+     *
+     * @param key key to search for
+     * @param options read option
+     * @return read-only buffer holding the value between its position and limit, or {@code null}
+     * @throws DBException if error occurred in accessing db sate
+     */
+    default ByteBuffer getBuffer(byte[] key, ReadOptions options) throws DBException {
+        byte[] value = get(key, options);
+        return value == null ? null : ByteBuffer.wrap(value).asReadOnlyBuffer();
+    }
+
+    /**
+     * Same as {@link DB#get(byte[], ReadOptions)}, copying the value into {@code value} instead of
+     * a new array. At most {@code value.remaining()} bytes are copied, from the position of {@code
+     * value}, which is advanced by the number of bytes copied. The value was truncated if the
+     * returned length is greater than the number of bytes copied.
+     *
+     * <p>Default implementation copies the value returned by get.
+     *
+     * @param key key to search for
+     * @param value buffer receiving the value
+     * @param options read option
+     * @return length of the value, or -1 if there is no entry for "key"
+     * @throws DBException if error occurred in accessing db sate
+     */
+    default int get(byte[] key, ByteBuffer value, ReadOptions options) throws DBException {
+        byte[] found = get(key, options);
+        if (found == null) {
+            return -1;
+        }
+        value.put(found, 0, Math.min(found.length, value.remaining()));
+        return found.length;
+    }
+
+    /** Same as calling {@link DB#multiGet(List, ReadOptions)} with default options */
+    default List<byte[]> multiGet(List<byte[]> keys) throws DBException {
+        return multiGet(keys, new ReadOptions());
+    }
+
+    /**
+     * Look up all "keys" at once, as if by {@link DB#get(byte[], ReadOptions)} on the same state
+     * of the database. Lookups share the work of reading the database, which makes this faster than
+     * one get per key when several keys are read.
+     *
+     * <p>Default implementation calls get for each key, lookups see the writes made in between
+     * unless {@link ReadOptions#snapshot()} is set.
+     *
+     * @param keys keys to search for
+     * @param options read option
+     * @return value of each key, in the order of {@code keys}, {@code null} for keys without entry
+     * @throws DBException if error occurred in accessing db sate
+     */
+    default List<byte[]> multiGet(List<byte[]> keys, ReadOptions options) throws DBException {
+        List<byte[]> values = new ArrayList<>(keys.size());
+        for (byte[] key : keys) {
+            values.add(get(key, options));
+        }
+        return values;
+    }
+
     /** Same as calling {@link DB#iterator(ReadOptions)} with default options */
     @Override
     DBIterator iterator();
@@ -92,6 +163,47 @@ public interface DB extends Iterable<Map.Entry<byte[], byte[]>>, Closeable {
      */
     Snapshot delete(byte[] key, WriteOptions options) throws DBException;
 
+    /** Same as calling {@link DB#merge(byte[], byte[], WriteOptions)} with default options */
+    default void merge(byte[] key, byte[] value) throws DBException {
+        merge(key, value, new WriteOptions());
+    }
+
+    /**
+     * Add the operand "value" to the database entry for "key". Operands are combined with the value
+     * of the key by {@link Options#mergeOperator()} when the key is read, without reading the key
+     * when writing.
+     *
+     * <p>Default implementation does not support merge operands.
+     *
+     * @return null if {@link WriteOptions#snapshot()}==false otherwise returns a snapshot of the DB
+     *     after this operation.
+     * @throws DBException on any write failure
+     */
+    default Snapshot merge(byte[] key, byte[] value, WriteOptions options) throws DBException {
+        throw new UnsupportedOperationException("merge");
+    }
+
+    /** Same as calling {@link DB#deleteRange(byte[], byte[], WriteOptions)} with default options */
+    default void deleteRange(byte[] begin, byte[] end) throws DBException {
+        deleteRange(begin, end, new WriteOptions());
+    }
+
+    /**
+     * Remove the database entries (if any) for all keys in the range ["begin", "end"), "begin" must
+     * be before "end" in the comparator order. Deleted keys are hidden with a single range
+     * tombstone, which costs about as much as deleting one key whatever the size of the range.
+     *
+     * <p>Default implementation does not support range deletions.
+     *
+     * @return null if {@link WriteOptions#snapshot()}==false otherwise returns a snapshot of the DB
+     *     after this operation.
+     * @throws DBException on any write failure
+     */
+    default Snapshot deleteRange(byte[] begin, byte[] end, WriteOptions options)
+            throws DBException {
+        throw new UnsupportedOperationException("deleteRange");
+    }
+
     /**
      * Apply the specified updates to the database.
      *
@@ -103,6 +215,52 @@ public interface DB extends Iterable<Map.Entry<byte[], byte[]>>, Closeable {
      */
     Snapshot write(WriteBatch updates, WriteOptions options) throws DBException;
 
+    /**
+     * Apply the specified updates to the database without blocking the calling thread. The write is
+     * committed with the same guarantees as {@link #write(WriteBatch, WriteOptions)}.
+     *
+     * <p>{@code updates} must not be modified or closed until the returned future is done. The
+     * future is completed from {@link java.util.concurrent.ForkJoinPool#commonPool()}, never from a
+     * database write thread: dependent stages may write to the database, but a stage that blocks
+     * holds a thread of the common pool. Futures of writes committed together may complete in any
+     * order. Once the database is closed, the future completes exceptionally.
+     *
+     * <p>Default implementation completes the write synchronously.
+     *
+     * @return future completed with null if {@link WriteOptions#snapshot()}==false otherwise with a
+     *     snapshot of the DB after this operation, or completed exceptionally with a {@link
+     *     DBException} on any write failure
+     */
+    default CompletableFuture<Snapshot> writeAsync(WriteBatch updates, WriteOptions options) {
+        CompletableFuture<Snapshot> future = new CompletableFuture<>();
+        try {
+            future.complete(write(updates, options));
+        } catch (DBException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    /**
+     * Add table files written outside of the database, by a table writer of the implementation, to
+     * the database without passing their entries through the log and the memtable. All entries of
+     * the files become visible at once, as if written by a single write that happens after all
+     * writes started before this call. Each file is placed in the deepest level that none of the
+     * database files overlaps, or in level 0.
+     *
+     * <p>The files are copied into the database directory, and deleted once the copies are part of
+     * the database. The files are left in place when the ingestion fails. The key ranges of the
+     * files must not overlap each other.
+     *
+     * <p>Default implementation does not support ingestion.
+     *
+     * @param files table files to add to the database
+     * @throws DBException if a file cannot be read or added
+     */
+    default void ingestExternalFiles(List<File> files) throws DBException {
+        throw new UnsupportedOperationException("ingestExternalFiles");
+    }
+
     /**
      * Return a handle to the current DB state. Iterators created with this handle will all observe
      * a stable snapshot of the current DB state. The caller must call {@link Snapshot#close()} when
@@ -0,0 +1,41 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iq80.leveldb;
+
+import java.util.List;
+
+/**
+ * Combines the operands written by {@link DB#merge(byte[], byte[])} with the value they apply to,
+ * so that read-modify-write updates like counters or appends need neither a read before the write
+ * nor external locking. Operands are combined when the key is read and when compactions meet them.
+ *
+ * <p>REQUIRES: the same operator must be configured every time a database holding operands is
+ * opened. Implementations must be thread safe.
+ */
+public interface MergeOperator {
+    /**
+     * Apply {@code operands} to {@code existingValue}.
+     *
+     * @param key key of the entries
+     * @param existingValue value the operands apply to, or {@code null} if the key has no value or
+     *     is deleted
+     * @param operands operands of the key, oldest first
+     * @return the new value of the key, never {@code null}
+     */
+    byte[] fullMerge(byte[] key, byte[] existingValue, List<byte[]> operands);
+}
@@ -35,6 +35,22 @@ public class Options {
     private long cacheSize = 8 << 20;
     private XFilterPolicy filterPolicy;
     private boolean reuseLogs = false;
+    private boolean allowConcurrentMemtableWrite = false;
+    private XMemTableFactory memTableFactory;
+    private XRateLimiter rateLimiter;
+    private MergeOperator mergeOperator;
+    private CompactionFilter compactionFilter;
+    private int maxImmutableMemTables = 1;
+    private boolean mergeImmutableMemTables = false;
+    private long groupCommitWindowMicros = 0;
+    private int groupCommitMaxBytes = 1 << 20;
+    private long delayedWriteRate = 16L << 20;
+    private long softPendingCompactionBytesLimit = 64L << 30;
+    private long hardPendingCompactionBytesLimit = 256L << 30;
+    private boolean partitionIndex;
+    private boolean fullFilter;
+    private PrefixExtractor prefixExtractor;
+    private double memTableBloomSizeRatio;
 
     /** Clone, create a copy of the provided instance of {@link Options} */
     public static Options fromOptions(Options options) {
@@ -54,6 +70,22 @@ public class Options {
         options1.cacheSize = options.cacheSize;
         options1.filterPolicy = options.filterPolicy;
         options1.reuseLogs = options.reuseLogs;
+        options1.allowConcurrentMemtableWrite = options.allowConcurrentMemtableWrite;
+        options1.memTableFactory = options.memTableFactory;
+        options1.rateLimiter = options.rateLimiter;
+        options1.mergeOperator = options.mergeOperator;
+        options1.compactionFilter = options.compactionFilter;
+        options1.maxImmutableMemTables = options.maxImmutableMemTables;
+        options1.mergeImmutableMemTables = options.mergeImmutableMemTables;
+        options1.groupCommitWindowMicros = options.groupCommitWindowMicros;
+        options1.groupCommitMaxBytes = options.groupCommitMaxBytes;
+        options1.delayedWriteRate = options.delayedWriteRate;
+        options1.softPendingCompactionBytesLimit = options.softPendingCompactionBytesLimit;
+        options1.hardPendingCompactionBytesLimit = options.hardPendingCompactionBytesLimit;
+        options1.partitionIndex = options.partitionIndex;
+        options1.fullFilter = options.fullFilter;
+        options1.prefixExtractor = options.prefixExtractor;
+        options1.memTableBloomSizeRatio = options.memTableBloomSizeRatio;
         return options1;
     }
 
@@ -283,4 +315,289 @@ public class Options {
     public boolean reuseLogs() {
         return this.reuseLogs;
     }
+
+    /**
+     * If true, writers grouped together behind a single log write will insert their own batch into
+     * the memtable concurrently with the group leader instead of having the leader replay the whole
+     * group alone. Sequence numbers are still assigned by the leader, so the result is identical;
+     * only the memtable insertion work is spread across the writing threads.
+     *
+     * <p>Default: false
+     */
+    public Options allowConcurrentMemtableWrite(boolean allowConcurrentMemtableWrite) {
+        this.allowConcurrentMemtableWrite = allowConcurrentMemtableWrite;
+        return this;
+    }
+
+    public boolean allowConcurrentMemtableWrite() {
+        return allowConcurrentMemtableWrite;
+    }
+
+    /**
+     * Set the factory used to create memtables. If null, entries are kept in a concurrent skiplist.
+     *
+     * @param memTableFactory new memtable factory
+     * @return self
+     */
+    public Options memTableFactory(XMemTableFactory memTableFactory) {
+        this.memTableFactory = memTableFactory;
+        return this;
+    }
+
+    public XMemTableFactory memTableFactory() {
+        return memTableFactory;
+    }
+
+    /**
+     * When positive, a sync write leading a group commit waits up to this many microseconds for
+     * other writers to join its group before appending to the log, so that they all share a single
+     * log append and a single fsync. The wait ends early once {@link #groupCommitMaxBytes(int)}
+     * bytes are queued. Trades the latency of sync writes for sync write throughput.
+     *
+     * <p>Default: 0, no wait
+     */
+    public Options groupCommitWindowMicros(long groupCommitWindowMicros) {
+        this.groupCommitWindowMicros = groupCommitWindowMicros;
+        return this;
+    }
+
+    public long groupCommitWindowMicros() {
+        return groupCommitWindowMicros;
+    }
+
+    /**
+     * Maximum size of the updates committed by a sync group when {@link
+     * #groupCommitWindowMicros(long)} is enabled.
+     *
+     * <p>Default: 1MB
+     */
+    public Options groupCommitMaxBytes(int groupCommitMaxBytes) {
+        this.groupCommitMaxBytes = groupCommitMaxBytes;
+        return this;
+    }
+
+    public int groupCommitMaxBytes() {
+        return groupCommitMaxBytes;
+    }
+
+    /**
+     * Write rate, in bytes per second, allowed when compactions start to fall behind. The rate is
+     * lowered further the closer level-0 file count, memtable usage while the previous memtable is
+     * being flushed and pending compaction bytes get to the point where writes stop.
+     *
+     * <p>Default: 16MB/s
+     */
+    public Options delayedWriteRate(long delayedWriteRate) {
+        this.delayedWriteRate = delayedWriteRate;
+        return this;
+    }
+
+    public long delayedWriteRate() {
+        return delayedWriteRate;
+    }
+
+    /**
+     * Writes are delayed when compactions are estimated to need to rewrite more than this many
+     * bytes. 0 disables the limit.
+     *
+     * <p>Default: 64GB
+     */
+    public Options softPendingCompactionBytesLimit(long softPendingCompactionBytesLimit) {
+        this.softPendingCompactionBytesLimit = softPendingCompactionBytesLimit;
+        return this;
+    }
+
+    public long softPendingCompactionBytesLimit() {
+        return softPendingCompactionBytesLimit;
+    }
+
+    /**
+     * Writes are stopped when compactions are estimated to need to rewrite more than this many
+     * bytes. 0 disables the limit.
+     *
+     * <p>Default: 256GB
+     */
+    public Options hardPendingCompactionBytesLimit(long hardPendingCompactionBytesLimit) {
+        this.hardPendingCompactionBytesLimit = hardPendingCompactionBytesLimit;
+        return this;
+    }
+
+    public long hardPendingCompactionBytesLimit() {
+        return hardPendingCompactionBytesLimit;
+    }
+
+    /**
+     * Limit the bandwidth used to write tables of memtable flushes and compactions. If null,
+     * background writes are not limited.
+     *
+     * @param rateLimiter new rate limiter
+     * @return self
+     */
+    public Options rateLimiter(XRateLimiter rateLimiter) {
+        this.rateLimiter = rateLimiter;
+        return this;
+    }
+
+    public XRateLimiter rateLimiter() {
+        return rateLimiter;
+    }
+
+    /**
+     * Maximum number of full memtables waiting to be flushed to level-0 before writes stop. More
+     * memtables absorb longer write bursts at the cost of memory and of reads that have to consult
+     * each of them.
+     *
+     * <p>Default: 1
+     */
+    public Options maxImmutableMemTables(int maxImmutableMemTables) {
+        this.maxImmutableMemTables = maxImmutableMemTables;
+        return this;
+    }
+
+    public int maxImmutableMemTables() {
+        return maxImmutableMemTables;
+    }
+
+    /**
+     * If true, a flush writes all the memtables waiting to be flushed into a single level-0 table
+     * instead of one table per memtable.
+     *
+     * <p>Default: false
+     */
+    public Options mergeImmutableMemTables(boolean mergeImmutableMemTables) {
+        this.mergeImmutableMemTables = mergeImmutableMemTables;
+        return this;
+    }
+
+    public boolean mergeImmutableMemTables() {
+        return mergeImmutableMemTables;
+    }
+
+    /**
+     * Operator combining the operands written by {@link DB#merge(byte[], byte[])} with the value of
+     * their key. Required to write or read merge operands.
+     *
+     * <p>Default: null
+     *
+     * @param mergeOperator new merge operator
+     * @return self
+     */
+    public Options mergeOperator(MergeOperator mergeOperator) {
+        this.mergeOperator = mergeOperator;
+        return this;
+    }
+
+    public MergeOperator mergeOperator() {
+        return mergeOperator;
+    }
+
+    /**
+     * Filter deciding whether compactions keep, remove or rewrite the values they meet, see {@link
+     * CompactionFilter}.
+     *
+     * <p>Default: null
+     *
+     * @param compactionFilter new compaction filter
+     * @return self
+     */
+    public Options compactionFilter(CompactionFilter compactionFilter) {
+        this.compactionFilter = compactionFilter;
+        return this;
+    }
+
+    public CompactionFilter compactionFilter() {
+        return compactionFilter;
+    }
+
+    /**
+     * If true, the index of new tables is split in partitions of about {@link #blockSize()} bytes,
+     * read through the block cache when a lookup needs them, with only a small top-level index
+     * pointing at the partitions kept in memory for each open table. This bounds the memory used by
+     * the indexes of large tables by the cache size instead of the data size. Tables with a
+     * partitioned index cannot be read by implementations that do not support them.
+     *
+     * <p>Default: false
+     *
+     * @param partitionIndex whether to partition the index of new tables
+     * @return self
+     */
+    public Options partitionIndex(boolean partitionIndex) {
+        this.partitionIndex = partitionIndex;
+        return this;
+    }
+
+    public boolean partitionIndex() {
+        return partitionIndex;
+    }
+
+    /**
+     * If true, new tables get one filter for all their keys, instead of one filter per 2KB of data
+     * found after searching the index. Lookups check it before searching the index, so that keys
+     * missing from a table cost no index search at all. The keys of a table are kept in memory
+     * until the table is finished to build its filter.
+     *
+     * <p>If {@link #partitionIndex()} is also true, the filter is partitioned along with the index,
+     * each partition covering the keys of one index partition. Only a small top-level filter index
+     * is then kept in memory for each open table, the partitions are read through the block cache,
+     * and the keys of one partition only are kept in memory while writing a table.
+     *
+     * <p>Has no effect without a {@link #filterPolicy()}.
+     *
+     * <p>Default: false
+     *
+     * @param fullFilter whether to build one filter per table
+     * @return self
+     */
+    public Options fullFilter(boolean fullFilter) {
+        this.fullFilter = fullFilter;
+        return this;
+    }
+
+    public boolean fullFilter() {
+        return fullFilter;
+    }
+
+    /**
+     * Extractor of the key prefixes added to the filters of new tables along with the keys.
+     * Iterators read with {@link ReadOptions#prefixSameAsStart()} look up the prefix of their seek
+     * target in the filters, and skip the tables and blocks that have no key with that prefix.
+     *
+     * <p>Has no effect without a {@link #filterPolicy()}.
+     *
+     * <p>Default: null
+     *
+     * @param prefixExtractor extractor of the key prefixes, or null to filter whole keys only
+     * @return self
+     */
+    public Options prefixExtractor(PrefixExtractor prefixExtractor) {
+        this.prefixExtractor = prefixExtractor;
+        return this;
+    }
+
+    public PrefixExtractor prefixExtractor() {
+        return prefixExtractor;
+    }
+
+    /**
+     * Size of a bloom filter of the keys of each memtable, as a fraction of {@link
+     * #writeBufferSize()}. Lookups of keys missing from a memtable are answered by its filter
+     * without searching the memtable, which speeds up reads of keys that are mostly absent from
+     * large write buffers. The filter counts towards the write buffer, memtables with a filter
+     * hold fewer entries when flushed.
+     *
+     * <p>Must be between 0 and 0.25, 0 disables the filter. About 0.02 suits entries of 50 bytes.
+     *
+     * <p>Default: 0
+     *
+     * @param memTableBloomSizeRatio size of the memtable filters relative to the write buffer
+     * @return self
+     */
+    public Options memTableBloomSizeRatio(double memTableBloomSizeRatio) {
+        this.memTableBloomSizeRatio = memTableBloomSizeRatio;
+        return this;
+    }
+
+    public double memTableBloomSizeRatio() {
+        return memTableBloomSizeRatio;
+    }
 }
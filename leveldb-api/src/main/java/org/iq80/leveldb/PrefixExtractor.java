@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iq80.leveldb;
+
+/**
+ * Extracts the prefix of keys, for filters that rule out all the keys of a prefix at once. Filters
+ * built by the database hold the prefixes of the keys along with the keys, iterators read with
+ * {@link ReadOptions#prefixSameAsStart()} skip the tables and blocks whose filter does not have the
+ * prefix of the seek target.
+ *
+ * <p>REQUIRES: keys having the same prefix must be adjacent in the order of the comparator, and
+ * the prefix of a key must be a prefix of its bytes. Implementations must be thread safe.
+ */
+public interface PrefixExtractor {
+    /**
+     * The name of the extractor, recorded in the tables whose filters hold the prefixes. Prefixes
+     * are only looked up in tables written by an extractor of the same name, change the name
+     * whenever the extracted prefixes change.
+     */
+    String name();
+
+    /**
+     * Length of the prefix of the key made of the {@code length} bytes of {@code key} starting at
+     * {@code offset}.
+     *
+     * @return length of the prefix, at most {@code length}, or -1 if the key has no prefix
+     */
+    int prefixLength(byte[] key, int offset, int length);
+
+    /**
+     * Extractor of the first {@code length} bytes of the keys, shorter keys have no prefix.
+     *
+     * @param length length of the prefixes
+     * @return new extractor
+     */
+    static PrefixExtractor fixedLength(final int length) {
+        if (length <= 0) {
+            throw new IllegalArgumentException("length must be positive");
+        }
+        return new PrefixExtractor() {
+            @Override
+            public String name() {
+                return "leveldb.FixedPrefix." + length;
+            }
+
+            @Override
+            public int prefixLength(byte[] key, int offset, int keyLength) {
+                return keyLength >= length ? length : -1;
+            }
+        };
+    }
+}
@@ -22,6 +22,7 @@ public class ReadOptions {
     private boolean verifyChecksums;
     private boolean fillCache = true;
     private Snapshot snapshot;
+    private boolean prefixSameAsStart;
 
     public Snapshot snapshot() {
         return snapshot;
@@ -62,4 +63,22 @@ public class ReadOptions {
         this.verifyChecksums = verifyChecksums;
         return this;
     }
+
+    public boolean prefixSameAsStart() {
+        return prefixSameAsStart;
+    }
+
+    /**
+     * If true, iterators only return the keys having the same prefix, by {@link
+     * Options#prefixExtractor()}, as the target of their last seek: the iteration ends at the first
+     * key of another prefix. Seeks skip the tables and blocks whose filter has no key with the
+     * prefix of the target. Iterators that were not positioned by a seek, or whose seek target has
+     * no prefix, return all keys.
+     *
+     * <p>Has no effect without a prefix extractor.
+     */
+    public ReadOptions prefixSameAsStart(boolean prefixSameAsStart) {
+        this.prefixSameAsStart = prefixSameAsStart;
+        return this;
+    }
 }
@@ -37,4 +37,22 @@ public interface WriteBatch extends Closeable {
 
     /** If the database contains a mapping for "key", erase it. Else do nothing. */
     WriteBatch delete(byte[] key);
+
+    /**
+     * Add the operand "value" to the database entry for "key", see {@link DB#merge(byte[], byte[])}.
+     *
+     * <p>Default implementation does not support merge operands.
+     */
+    default WriteBatch merge(byte[] key, byte[] value) {
+        throw new UnsupportedOperationException("merge");
+    }
+
+    /**
+     * Delete all keys in the range ["begin", "end"), see {@link DB#deleteRange(byte[], byte[])}.
+     *
+     * <p>Default implementation does not support range deletions.
+     */
+    default WriteBatch deleteRange(byte[] begin, byte[] end) {
+        throw new UnsupportedOperationException("deleteRange");
+    }
 }
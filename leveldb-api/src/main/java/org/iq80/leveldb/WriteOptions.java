@@ -21,6 +21,7 @@ package org.iq80.leveldb;
 public class WriteOptions {
     private boolean sync;
     private boolean snapshot;
+    private boolean disableWAL;
 
     /**
      * If true, the write will be flushed from the operating system buffer cache (by calling
@@ -55,4 +56,21 @@ public class WriteOptions {
         this.snapshot = snapshot;
         return this;
     }
+
+    /**
+     * If true, the write is not appended to the write ahead log, it is only inserted into the
+     * memtable. Such writes are lost if the process crashes before the memtable is flushed to a
+     * table file, use it only for data that can be rebuilt. Cannot be combined with {@link
+     * #sync(boolean)}.
+     *
+     * <p>Default: false
+     */
+    public boolean disableWAL() {
+        return disableWAL;
+    }
+
+    public WriteOptions disableWAL(boolean disableWAL) {
+        this.disableWAL = disableWAL;
+        return this;
+    }
 }
@@ -0,0 +1,28 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iq80.leveldb;
+
+/**
+ * A database can be configured with a custom MemTableFactory object. This object creates the in
+ * memory write buffers of the database, letting each workload pick the representation that fits its
+ * access pattern: sorted skiplist for mixed reads and writes, hash partitioned skiplist for prefix
+ * heavy point lookups or unsorted vector for bulk loads.
+ *
+ * <p>Builtin factories are provided by the {@code MemTableFactory} interface of the implementation.
+ */
+public interface XMemTableFactory {}
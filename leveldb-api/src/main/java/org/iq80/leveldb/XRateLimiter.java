@@ -0,0 +1,27 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iq80.leveldb;
+
+/**
+ * A database can be configured with a RateLimiter object to bound the bandwidth used to write the
+ * tables produced by memtable flushes and compactions, so that background writes do not starve
+ * foreground reads sharing the same device. The same limiter can be shared by several databases.
+ *
+ * <p>The builtin token bucket limiter is {@code org.iq80.leveldb.env.RateLimiter}.
+ */
+public interface XRateLimiter {}
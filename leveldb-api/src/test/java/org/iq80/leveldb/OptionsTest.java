@@ -32,6 +32,11 @@ public class OptionsTest {
         MyDBComparator comparator = new MyDBComparator();
         Logger logger = msg -> {};
         XFilterPolicy filterPolicy = new XFilterPolicy() {};
+        XMemTableFactory memTableFactory = new XMemTableFactory() {};
+        XRateLimiter rateLimiter = new XRateLimiter() {};
+        MergeOperator mergeOperator = (key, existingValue, operands) -> existingValue;
+        CompactionFilter compactionFilter = (level, key, value) -> value;
+        PrefixExtractor prefixExtractor = PrefixExtractor.fixedLength(4);
         Options op = new Options();
         op.createIfMissing(false);
         op.errorIfExists(true);
@@ -47,6 +52,22 @@ public class OptionsTest {
         op.cacheSize(678);
         op.filterPolicy(filterPolicy);
         op.reuseLogs(true);
+        op.allowConcurrentMemtableWrite(true);
+        op.memTableFactory(memTableFactory);
+        op.groupCommitWindowMicros(250);
+        op.groupCommitMaxBytes(4096);
+        op.delayedWriteRate(1 << 20);
+        op.rateLimiter(rateLimiter);
+        op.maxImmutableMemTables(3);
+        op.mergeImmutableMemTables(true);
+        op.mergeOperator(mergeOperator);
+        op.compactionFilter(compactionFilter);
+        op.partitionIndex(true);
+        op.fullFilter(true);
+        op.prefixExtractor(prefixExtractor);
+        op.memTableBloomSizeRatio(0.02);
+        op.softPendingCompactionBytesLimit(1 << 30);
+        op.hardPendingCompactionBytesLimit(2L << 30);
         Options op2 = Options.fromOptions(op);
 
         assertEquals(op2.createIfMissing(), false);
@@ -63,6 +84,22 @@ public class OptionsTest {
         assertEquals(op2.cacheSize(), 678);
         assertEquals(op2.filterPolicy(), filterPolicy);
         assertEquals(op2.reuseLogs(), true);
+        assertEquals(op2.allowConcurrentMemtableWrite(), true);
+        assertEquals(op2.memTableFactory(), memTableFactory);
+        assertEquals(op2.groupCommitWindowMicros(), 250);
+        assertEquals(op2.groupCommitMaxBytes(), 4096);
+        assertEquals(op2.delayedWriteRate(), 1 << 20);
+        assertEquals(op2.rateLimiter(), rateLimiter);
+        assertEquals(op2.maxImmutableMemTables(), 3);
+        assertEquals(op2.mergeImmutableMemTables(), true);
+        assertEquals(op2.mergeOperator(), mergeOperator);
+        assertEquals(op2.compactionFilter(), compactionFilter);
+        assertEquals(op2.partitionIndex(), true);
+        assertEquals(op2.fullFilter(), true);
+        assertEquals(op2.prefixExtractor(), prefixExtractor);
+        assertEquals(op2.memTableBloomSizeRatio(), 0.02);
+        assertEquals(op2.softPendingCompactionBytesLimit(), 1 << 30);
+        assertEquals(op2.hardPendingCompactionBytesLimit(), 2L << 30);
     }
 
     private static class MyDBComparator implements DBComparator {
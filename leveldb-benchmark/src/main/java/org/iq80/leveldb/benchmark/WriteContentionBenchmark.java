@@ -0,0 +1,206 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iq80.leveldb.benchmark;
+
+import static org.iq80.leveldb.benchmark.DbBenchmark.formatNumber;
+
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import java.io.File;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.iq80.leveldb.DB;
+import org.iq80.leveldb.DBFactory;
+import org.iq80.leveldb.Options;
+import org.iq80.leveldb.WriteOptions;
+import org.iq80.leveldb.fileenv.FileUtils;
+
+/**
+ * Measures write throughput and per write latency while an increasing number of threads write to
+ * the same database concurrently. Useful to compare write path changes, run it once per build.
+ *
+ * <p>Flags: {@code --threads=1,2,4,...}, {@code --num=<total writes per run>}, {@code
+ * --value_size=<bytes>}, {@code --sync=<true|false>}, {@code --group_commit_window_micros=<us>},
+ * {@code --db=<path>}
+ */
+public class WriteContentionBenchmark {
+    private final DBFactory factory;
+    private final File databaseDir;
+    private final List<Integer> threadCounts;
+    private final int num;
+    private final int valueSize;
+    private final boolean sync;
+    private final long groupCommitWindowMicros;
+
+    private WriteContentionBenchmark(
+            DBFactory factory,
+            File databaseDir,
+            List<Integer> threadCounts,
+            int num,
+            int valueSize,
+            boolean sync,
+            long groupCommitWindowMicros) {
+        this.factory = factory;
+        this.databaseDir = databaseDir;
+        this.threadCounts = threadCounts;
+        this.num = num;
+        this.valueSize = valueSize;
+        this.sync = sync;
+        this.groupCommitWindowMicros = groupCommitWindowMicros;
+    }
+
+    private void run() throws Exception {
+        System.out.printf("LevelDB:    %s%n", factory);
+        System.out.printf("Entries:    %d per run%n", num);
+        System.out.printf("Values:     %d bytes each%n", valueSize);
+        System.out.printf("Sync:       %s%n", sync);
+        System.out.printf("Window:     %d us%n", groupCommitWindowMicros);
+        DbBenchmark.printWarnings();
+        System.out.printf("------------------------------------------------%n");
+        System.out.printf(
+                "%7s %12s %10s %10s %10s %10s %10s%n",
+                "threads", "op/sec", "avg", "p50", "p99", "p99.9", "max");
+        for (int threads : threadCounts) {
+            runOnce(threads);
+        }
+    }
+
+    private void runOnce(int threads) throws Exception {
+        FileUtils.deleteRecursively(databaseDir);
+        final Histogram histogram = new Histogram();
+        final WriteOptions writeOptions = new WriteOptions().sync(sync);
+        final int perThread = Math.max(1, num / threads);
+        try (DB db =
+                factory.open(
+                        databaseDir,
+                        new Options()
+                                .createIfMissing(true)
+                                .groupCommitWindowMicros(groupCommitWindowMicros))) {
+            final CountDownLatch start = new CountDownLatch(1);
+            final CountDownLatch done = new CountDownLatch(threads);
+            final Histogram[] histograms = new Histogram[threads];
+            for (int t = 0; t < threads; t++) {
+                final Histogram threadHistogram = new Histogram();
+                threadHistogram.clear();
+                histograms[t] = threadHistogram;
+                final Random random = new Random(1000 + t);
+                final byte[] value = new byte[valueSize];
+                random.nextBytes(value);
+                Thread thread =
+                        new Thread(
+                                () -> {
+                                    try {
+                                        start.await();
+                                        for (int i = 0; i < perThread; i++) {
+                                            byte[] key = formatNumber(random.nextInt(num));
+                                            long opStart = System.nanoTime();
+                                            db.put(key, value, writeOptions);
+                                            threadHistogram.add(
+                                                    (System.nanoTime() - opStart) / 1000.0d);
+                                        }
+                                    } catch (InterruptedException e) {
+                                        Thread.currentThread().interrupt();
+                                    } finally {
+                                        done.countDown();
+                                    }
+                                },
+                                "writer-" + t);
+                thread.start();
+            }
+            long startNanos = System.nanoTime();
+            start.countDown();
+            done.await();
+            double seconds =
+                    (System.nanoTime() - startNanos) / (double) TimeUnit.SECONDS.toNanos(1);
+
+            histogram.clear();
+            for (Histogram threadHistogram : histograms) {
+                histogram.merge(threadHistogram);
+            }
+            System.out.printf(
+                    "%7d %12.0f %10.1f %10.1f %10.1f %10.1f %10.1f%n",
+                    threads,
+                    (perThread * (double) threads) / seconds,
+                    histogram.average(),
+                    histogram.median(),
+                    histogram.percentile(99),
+                    histogram.percentile(99.9),
+                    histogram.percentile(100));
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        List<Integer> threadCounts = ImmutableList.of(1, 2, 4, 8, 16, 32, 64);
+        int num = 1000000;
+        int valueSize = 100;
+        boolean sync = false;
+        long groupCommitWindowMicros = 0;
+        String db = "/tmp/dbbench-contention";
+        for (String arg : args) {
+            List<String> parts =
+                    arg.startsWith("--")
+                            ? Splitter.on("=").limit(2).splitToList(arg.substring(2))
+                            : ImmutableList.of();
+            if (parts.size() != 2) {
+                System.err.println("Invalid argument " + arg);
+                System.exit(1);
+            }
+            String value = parts.get(1);
+            switch (parts.get(0)) {
+                case "threads":
+                    ImmutableList.Builder<Integer> builder = ImmutableList.builder();
+                    for (String count : Splitter.on(",").trimResults().split(value)) {
+                        builder.add(Integer.parseInt(count));
+                    }
+                    threadCounts = builder.build();
+                    break;
+                case "num":
+                    num = Integer.parseInt(value);
+                    break;
+                case "value_size":
+                    valueSize = Integer.parseInt(value);
+                    break;
+                case "sync":
+                    sync = Boolean.parseBoolean(value);
+                    break;
+                case "group_commit_window_micros":
+                    groupCommitWindowMicros = Long.parseLong(value);
+                    break;
+                case "db":
+                    db = value;
+                    break;
+                default:
+                    System.err.println("Invalid argument " + arg);
+                    System.exit(1);
+            }
+        }
+        ClassLoader cl = WriteContentionBenchmark.class.getClassLoader();
+        DBFactory factory = (DBFactory) cl.loadClass(DbBenchmark.FACTORY_CLASS).newInstance();
+        new WriteContentionBenchmark(
+                        factory,
+                        new File(db),
+                        threadCounts,
+                        num,
+                        valueSize,
+                        sync,
+                        groupCommitWindowMicros)
+                .run();
+    }
+}
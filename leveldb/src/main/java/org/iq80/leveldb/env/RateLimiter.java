@@ -0,0 +1,188 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iq80.leveldb.env;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.util.Objects.requireNonNull;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import org.iq80.leveldb.XRateLimiter;
+import org.iq80.leveldb.util.Slice;
+
+/**
+ * Token bucket bounding the bandwidth of background table writes.
+ *
+ * <p>Tokens are tracked as virtual clocks: each request pushes the clock of its priority forward by
+ * the time the configured rate needs to transfer its bytes and waits until the clock is reached.
+ * Unused bandwidth accumulates for at most 100ms. Low priority requests (compactions) pay for every
+ * byte written, high priority requests (memtable flushes) only wait for other high priority
+ * requests: they borrow ahead from the low priority budget, which then waits for them.
+ *
+ * <p>An auto tuned limiter moves its rate between a base and a maximum rate following the
+ * compaction debt reported by the databases using it.
+ */
+public final class RateLimiter implements XRateLimiter {
+    public enum Priority {
+        HIGH,
+        LOW
+    }
+
+    private static final long BURST_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private final long baseBytesPerSecond;
+    private final long maxBytesPerSecond;
+    private volatile long bytesPerSecond;
+
+    // guarded by this
+    private long highPriorityClock;
+    private long lowPriorityClock;
+    private long totalBytesThrough;
+
+    public RateLimiter(long bytesPerSecond) {
+        this(bytesPerSecond, bytesPerSecond);
+    }
+
+    private RateLimiter(long baseBytesPerSecond, long maxBytesPerSecond) {
+        checkArgument(baseBytesPerSecond > 0, "bytesPerSecond must be positive");
+        checkArgument(
+                maxBytesPerSecond >= baseBytesPerSecond,
+                "maxBytesPerSecond must not be lower than bytesPerSecond");
+        this.baseBytesPerSecond = baseBytesPerSecond;
+        this.maxBytesPerSecond = maxBytesPerSecond;
+        this.bytesPerSecond = baseBytesPerSecond;
+        this.highPriorityClock = System.nanoTime();
+        this.lowPriorityClock = highPriorityClock;
+    }
+
+    /**
+     * Limiter starting at {@code bytesPerSecond} that raises its rate up to {@code
+     * maxBytesPerSecond} as compaction debt grows toward the pending compaction bytes limits of the
+     * database.
+     */
+    public static RateLimiter autoTuned(long bytesPerSecond, long maxBytesPerSecond) {
+        return new RateLimiter(bytesPerSecond, maxBytesPerSecond);
+    }
+
+    public long getBytesPerSecond() {
+        return bytesPerSecond;
+    }
+
+    public synchronized long getTotalBytesThrough() {
+        return totalBytesThrough;
+    }
+
+    /**
+     * Adjust the rate of an auto tuned limiter to the compaction debt of a database. Does nothing
+     * if this limiter is not auto tuned.
+     *
+     * @param pendingCompactionBytes bytes compactions are estimated to need to rewrite
+     * @param debtLimit debt at which the maximum rate is used
+     */
+    public void tune(long pendingCompactionBytes, long debtLimit) {
+        if (maxBytesPerSecond == baseBytesPerSecond || debtLimit <= 0) {
+            return;
+        }
+        double debt = Math.min(1.0, (double) pendingCompactionBytes / debtLimit);
+        bytesPerSecond =
+                baseBytesPerSecond + (long) ((maxBytesPerSecond - baseBytesPerSecond) * debt);
+    }
+
+    /**
+     * Wait until {@code bytes} can be written at {@code priority}.
+     *
+     * @throws InterruptedIOException if interrupted while waiting
+     */
+    public void request(long bytes, Priority priority) throws InterruptedIOException {
+        long now = System.nanoTime();
+        long delayNanos = reserve(bytes, priority, now);
+        long remaining = delayNanos;
+        while (remaining > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(remaining);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while rate limited");
+            }
+            remaining = delayNanos - (System.nanoTime() - now);
+        }
+    }
+
+    /** @return nanoseconds to wait before writing {@code bytes} */
+    synchronized long reserve(long bytes, Priority priority, long nowNanos) {
+        requireNonNull(priority, "priority is null");
+        long costNanos = (long) (bytes * 1e9 / bytesPerSecond);
+        totalBytesThrough += bytes;
+        lowPriorityClock = Math.max(lowPriorityClock, nowNanos - BURST_NANOS) + costNanos;
+        if (priority == Priority.HIGH) {
+            highPriorityClock = Math.max(highPriorityClock, nowNanos - BURST_NANOS) + costNanos;
+            return Math.max(0, highPriorityClock - nowNanos);
+        }
+        return Math.max(0, lowPriorityClock - nowNanos);
+    }
+
+    /** Wrap {@code file} so that all its appends are rate limited at {@code priority}. */
+    public WritableFile limit(WritableFile file, Priority priority) {
+        requireNonNull(file, "file is null");
+        requireNonNull(priority, "priority is null");
+        return new RateLimitedWritableFile(file, priority);
+    }
+
+    private class RateLimitedWritableFile implements WritableFile {
+        private final WritableFile file;
+        private final Priority priority;
+
+        RateLimitedWritableFile(WritableFile file, Priority priority) {
+            this.file = file;
+            this.priority = priority;
+        }
+
+        @Override
+        public void append(Slice data) throws IOException {
+            request(data.length(), priority);
+            file.append(data);
+        }
+
+        @Override
+        public void append(ByteBuffer[] data, int offset, int length) throws IOException {
+            long bytes = 0;
+            for (int i = offset; i < offset + length; i++) {
+                bytes += data[i].remaining();
+            }
+            request(bytes, priority);
+            file.append(data, offset, length);
+        }
+
+        @Override
+        public void force() throws IOException {
+            file.force();
+        }
+
+        @Override
+        public void close() throws IOException {
+            file.close();
+        }
+
+        @Override
+        public String toString() {
+            return "RateLimitedWritableFile{" + "file=" + file + ", priority=" + priority + '}';
+        }
+    }
+}
@@ -19,7 +19,9 @@ package org.iq80.leveldb.env;
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import org.iq80.leveldb.util.Slice;
+import org.iq80.leveldb.util.Slices;
 
 /**
  * A file abstraction for sequential writing. The implementation must provide buffering since
@@ -36,6 +38,22 @@ public interface WritableFile extends Closeable {
      */
     void append(Slice data) throws IOException;
 
+    /**
+     * Append the remaining bytes of {@code length} buffers of {@code data}, starting at {@code
+     * offset}, in order to current file position. Implementations should write them with a single
+     * gathering write. Position of the buffers is undefined after this call.
+     *
+     * @param data buffers to append
+     * @param offset index of the first buffer to append
+     * @param length number of buffers to append
+     * @throws IOException on any error accessing file
+     */
+    default void append(ByteBuffer[] data, int offset, int length) throws IOException {
+        for (int i = offset; i < offset + length; i++) {
+            append(Slices.avoidCopiedBuffer(data[i]));
+        }
+    }
+
     /**
      * Force sync bytes to filesystem.
      *
@@ -177,6 +177,11 @@ public class EnvImpl implements Env {
             open.append(data);
         }
 
+        @Override
+        public void append(ByteBuffer[] data, int offset, int length) throws IOException {
+            open.append(data, offset, length);
+        }
+
         @Override
         public void force() throws IOException {
             open.force();
@@ -21,6 +21,7 @@ import com.google.common.io.Files;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
 import org.iq80.leveldb.env.WritableFile;
@@ -51,6 +52,18 @@ class MMWritableFile implements WritableFile {
         data.getBytes(0, mappedByteBuffer);
     }
 
+    @Override
+    public void append(ByteBuffer[] data, int offset, int length) throws IOException {
+        int size = 0;
+        for (int i = offset; i < offset + length; i++) {
+            size += data[i].remaining();
+        }
+        ensureCapacity(size);
+        for (int i = offset; i < offset + length; i++) {
+            mappedByteBuffer.put(data[i]);
+        }
+    }
+
     private void destroyMappedByteBuffer() {
         if (mappedByteBuffer != null) {
             fileOffset += mappedByteBuffer.position();
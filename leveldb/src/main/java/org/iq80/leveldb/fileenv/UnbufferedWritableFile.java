@@ -21,6 +21,7 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import org.iq80.leveldb.env.WritableFile;
 import org.iq80.leveldb.util.Slice;
@@ -44,6 +45,17 @@ class UnbufferedWritableFile implements WritableFile {
         channel.write(data.toByteBuffer());
     }
 
+    @Override
+    public void append(ByteBuffer[] data, int offset, int length) throws IOException {
+        long remaining = 0;
+        for (int i = offset; i < offset + length; i++) {
+            remaining += data[i].remaining();
+        }
+        while (remaining > 0) {
+            remaining -= channel.write(data, offset, length);
+        }
+    }
+
     @Override
     public void force() throws IOException {
         channel.force(false);
@@ -0,0 +1,586 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iq80.leveldb.impl;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.util.Objects.requireNonNull;
+import static org.iq80.leveldb.util.SizeOf.SIZE_OF_INT;
+import static org.iq80.leveldb.util.SizeOf.SIZE_OF_LONG;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import org.iq80.leveldb.iterator.ASeekingIterator;
+import org.iq80.leveldb.iterator.InternalIterator;
+import org.iq80.leveldb.table.UserComparator;
+import org.iq80.leveldb.util.Slice;
+
+/**
+ * {@link MemTable} that copies entries into large {@code byte[]} blocks and indexes them with a
+ * lock free skiplist whose nodes are primitive {@code long}s, also allocated in large blocks.
+ *
+ * <p>Each put costs a couple of bump allocations instead of several small heap objects. Blocks are
+ * taken from a {@link BlockPool} shared by the memtables of a factory and given back by {@link
+ * #release()}, so a big write buffer reuses the blocks of flushed tables instead of churning the
+ * garbage collector. Keys and values returned by {@link #get} and {@link #iterator()} are views on
+ * the blocks, they are never copied and must not be used once the table is released.
+ *
+ * <p>Entry layout: {@code internal key length (int) | user key | packed sequence and type (long) |
+ * value length (int) | value}. Node layout: {@code entry address | next[0] | ... | next[height -
+ * 1]}. Addresses are {@code block index << 32 | offset in block}.
+ */
+public final class ArenaMemTable implements MemTable {
+    private static final int MAX_HEIGHT = 12;
+    private static final int BRANCHING = 4;
+    private static final long NIL = -1L;
+
+    private final UserComparator userComparator;
+    private final ByteArena entries;
+    private final LongArena nodes;
+    private final long head;
+    private final AtomicInteger maxHeight = new AtomicInteger(1);
+    // range deletions are rare, they are kept on the heap
+    private final Queue<RangeTombstone> rangeTombstones = new ConcurrentLinkedQueue<>();
+    private final AtomicLong rangeTombstoneMemoryUsage = new AtomicLong();
+    private final AtomicBoolean released = new AtomicBoolean();
+
+    /** Table whose blocks are not recycled. */
+    public ArenaMemTable(InternalKeyComparator internalKeyComparator, int blockSize) {
+        this(internalKeyComparator, new BlockPool(blockSize, 0));
+    }
+
+    public ArenaMemTable(InternalKeyComparator internalKeyComparator, BlockPool blockPool) {
+        requireNonNull(blockPool, "blockPool is null");
+        this.userComparator = internalKeyComparator.getUserComparator();
+        this.entries = new ByteArena(blockPool);
+        this.nodes = new LongArena(blockPool);
+        this.head = nodes.allocate(1 + MAX_HEIGHT);
+        nodes.set(head, NIL);
+        for (int level = 0; level < MAX_HEIGHT; level++) {
+            setNext(head, level, NIL);
+        }
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return nextNode(head, 0) == NIL && rangeTombstones.isEmpty();
+    }
+
+    @Override
+    public long approximateMemoryUsage() {
+        return entries.memoryUsage() + nodes.memoryUsage() + rangeTombstoneMemoryUsage.get();
+    }
+
+    /** Give the blocks back to the pool, the table must not be used anymore. */
+    @Override
+    public void release() {
+        if (released.compareAndSet(false, true)) {
+            entries.release();
+            nodes.release();
+        }
+    }
+
+    @Override
+    public void add(long sequenceNumber, ValueType valueType, Slice key, Slice value) {
+        requireNonNull(valueType, "valueType is null");
+        requireNonNull(key, "key is null");
+        requireNonNull(value, "value is null");
+
+        int internalKeyLength = key.length() + SIZE_OF_LONG;
+        long entry =
+                entries.allocate(SIZE_OF_INT + internalKeyLength + SIZE_OF_INT + value.length());
+        byte[] block = entries.block(entry);
+        int offset = offset(entry);
+        offset = putInt(block, offset, internalKeyLength);
+        key.getBytes(0, block, offset, key.length());
+        offset += key.length();
+        offset =
+                putLong(
+                        block,
+                        offset,
+                        SequenceNumber.packSequenceAndValueType(sequenceNumber, valueType));
+        offset = putInt(block, offset, value.length());
+        value.getBytes(0, block, offset, value.length());
+
+        insert(entry, key, sequenceNumber);
+    }
+
+    @Override
+    public void addRangeDeletion(long sequenceNumber, Slice begin, Slice end) {
+        requireNonNull(begin, "begin is null");
+        requireNonNull(end, "end is null");
+
+        rangeTombstones.add(
+                new RangeTombstone(begin.copySlice(), end.copySlice(), sequenceNumber));
+
+        rangeTombstoneMemoryUsage.addAndGet(begin.length() + SIZE_OF_LONG + end.length());
+    }
+
+    @Override
+    public Collection<RangeTombstone> rangeTombstones() {
+        return Collections.unmodifiableCollection(rangeTombstones);
+    }
+
+    @Override
+    public LookupResult get(LookupKey key) {
+        requireNonNull(key, "key is null");
+
+        InternalKey internalKey = key.getInternalKey();
+        long node = findGreaterOrEqual(internalKey.getUserKey(), internalKey.getSequenceNumber());
+        if (node == NIL) {
+            return null;
+        }
+        long entry = nodes.get(node);
+        if (userComparator.compare(userKey(entry), key.getUserKey()) == 0) {
+            long sequenceNumber = SequenceNumber.unpackSequenceNumber(tag(entry));
+            if (valueType(entry) == ValueType.DELETION) {
+                return LookupResult.deleted(key, sequenceNumber);
+            } else if (valueType(entry) == ValueType.MERGE) {
+                return LookupResult.merge(key, valueOf(entry), sequenceNumber);
+            } else {
+                return LookupResult.ok(key, valueOf(entry), sequenceNumber);
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public InternalIterator iterator() {
+        return new ArenaMemTableIterator();
+    }
+
+    private void insert(long entry, Slice key, long sequenceNumber) {
+        int height = randomHeight();
+        int currentMaxHeight = maxHeight.get();
+        while (height > currentMaxHeight && !maxHeight.compareAndSet(currentMaxHeight, height)) {
+            currentMaxHeight = maxHeight.get();
+        }
+        long node = nodes.allocate(1 + height);
+        nodes.set(node, entry);
+
+        // find insertion point at every level, starting from the top
+        long[] prev = new long[height];
+        long[] next = new long[height];
+        long x = head;
+        for (int level = Math.max(height, currentMaxHeight) - 1; level >= 0; level--) {
+            long n = nextNode(x, level);
+            while (n != NIL && compare(nodes.get(n), key, sequenceNumber) < 0) {
+                x = n;
+                n = nextNode(x, level);
+            }
+            if (level < height) {
+                prev[level] = x;
+                next[level] = n;
+            }
+        }
+
+        // link bottom up, a concurrent insert may have changed the splice so retry from prev
+        for (int level = 0; level < height; level++) {
+            while (true) {
+                setNext(node, level, next[level]);
+                if (nodes.compareAndSet(prev[level] + 1 + level, next[level], node)) {
+                    break;
+                }
+                x = prev[level];
+                long n = nextNode(x, level);
+                while (n != NIL && compare(nodes.get(n), key, sequenceNumber) < 0) {
+                    x = n;
+                    n = nextNode(x, level);
+                }
+                prev[level] = x;
+                next[level] = n;
+            }
+        }
+    }
+
+    /** First node at or after (userKey, sequenceNumber), {@link #NIL} if there is none */
+    private long findGreaterOrEqual(Slice userKey, long sequenceNumber) {
+        long x = head;
+        long n = NIL;
+        for (int level = maxHeight.get() - 1; level >= 0; level--) {
+            n = nextNode(x, level);
+            while (n != NIL && compare(nodes.get(n), userKey, sequenceNumber) < 0) {
+                x = n;
+                n = nextNode(x, level);
+            }
+        }
+        return n;
+    }
+
+    /** Last node before {@code entry}, {@link #NIL} if there is none */
+    private long findLessThan(long entry) {
+        Slice userKey = userKey(entry);
+        long sequenceNumber = SequenceNumber.unpackSequenceNumber(tag(entry));
+        long x = head;
+        for (int level = maxHeight.get() - 1; level >= 0; level--) {
+            long n = nextNode(x, level);
+            while (n != NIL && compare(nodes.get(n), userKey, sequenceNumber) < 0) {
+                x = n;
+                n = nextNode(x, level);
+            }
+        }
+        return x == head ? NIL : x;
+    }
+
+    private long findLast() {
+        long x = head;
+        for (int level = maxHeight.get() - 1; level >= 0; level--) {
+            long n = nextNode(x, level);
+            while (n != NIL) {
+                x = n;
+                n = nextNode(x, level);
+            }
+        }
+        return x == head ? NIL : x;
+    }
+
+    /** Same ordering as {@link InternalKeyComparator}: user key ascending, sequence descending. */
+    private int compare(long entry, Slice userKey, long sequenceNumber) {
+        int result = userComparator.compare(userKey(entry), userKey);
+        if (result != 0) {
+            return result;
+        }
+        return Long.compare(sequenceNumber, SequenceNumber.unpackSequenceNumber(tag(entry)));
+    }
+
+    private long nextNode(long node, int level) {
+        return nodes.get(node + 1 + level);
+    }
+
+    private void setNext(long node, int level, long next) {
+        nodes.set(node + 1 + level, next);
+    }
+
+    private static int randomHeight() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int height = 1;
+        while (height < MAX_HEIGHT && random.nextInt(BRANCHING) == 0) {
+            height++;
+        }
+        return height;
+    }
+
+    private Slice userKey(long entry) {
+        byte[] block = entries.block(entry);
+        int offset = offset(entry);
+        return new Slice(block, offset + SIZE_OF_INT, getInt(block, offset) - SIZE_OF_LONG);
+    }
+
+    private long tag(long entry) {
+        byte[] block = entries.block(entry);
+        int offset = offset(entry);
+        return getLong(block, offset + getInt(block, offset) - SIZE_OF_LONG + SIZE_OF_INT);
+    }
+
+    private ValueType valueType(long entry) {
+        return SequenceNumber.unpackValueType(tag(entry));
+    }
+
+    private InternalKey keyOf(long entry) {
+        byte[] block = entries.block(entry);
+        int offset = offset(entry);
+        return new InternalKey(new Slice(block, offset + SIZE_OF_INT, getInt(block, offset)));
+    }
+
+    private Slice valueOf(long entry) {
+        byte[] block = entries.block(entry);
+        int offset = offset(entry);
+        offset += SIZE_OF_INT + getInt(block, offset);
+        return new Slice(block, offset + SIZE_OF_INT, getInt(block, offset));
+    }
+
+    private static int offset(long address) {
+        return (int) address;
+    }
+
+    private static int putInt(byte[] data, int index, int value) {
+        data[index] = (byte) value;
+        data[index + 1] = (byte) (value >>> 8);
+        data[index + 2] = (byte) (value >>> 16);
+        data[index + 3] = (byte) (value >>> 24);
+        return index + SIZE_OF_INT;
+    }
+
+    private static int putLong(byte[] data, int index, long value) {
+        putInt(data, index, (int) value);
+        return putInt(data, index + SIZE_OF_INT, (int) (value >>> 32));
+    }
+
+    private static int getInt(byte[] data, int index) {
+        return (data[index] & 0xff)
+                | (data[index + 1] & 0xff) << 8
+                | (data[index + 2] & 0xff) << 16
+                | (data[index + 3] & 0xff) << 24;
+    }
+
+    private static long getLong(byte[] data, int index) {
+        return (getInt(data, index) & 0xffffffffL)
+                | ((long) getInt(data, index + SIZE_OF_INT)) << 32;
+    }
+
+    /**
+     * Blocks of released tables, kept for the next tables up to a capacity in bytes. Blocks are
+     * handed out as they were left, every byte of a block is written before being read.
+     */
+    public static final class BlockPool {
+        private final int blockSize;
+        private final long capacity;
+        private final Queue<byte[]> byteBlocks = new ConcurrentLinkedQueue<>();
+        private final Queue<AtomicLongArray> longBlocks = new ConcurrentLinkedQueue<>();
+        private final AtomicLong pooledBytes = new AtomicLong();
+
+        /**
+         * @param blockSize size in bytes of the blocks of the tables
+         * @param capacity maximum number of bytes of blocks kept for reuse
+         */
+        public BlockPool(int blockSize, long capacity) {
+            checkArgument(blockSize >= 1024, "blockSize must be at least 1024 bytes");
+            checkArgument(capacity >= 0, "capacity must not be negative");
+            this.blockSize = blockSize;
+            this.capacity = capacity;
+        }
+
+        /** Number of bytes of blocks waiting to be reused. */
+        public long pooledBytes() {
+            return pooledBytes.get();
+        }
+
+        private byte[] takeBytes() {
+            byte[] block = byteBlocks.poll();
+            if (block == null) {
+                return new byte[blockSize];
+            }
+            pooledBytes.addAndGet(-blockSize);
+            return block;
+        }
+
+        private AtomicLongArray takeLongs() {
+            AtomicLongArray block = longBlocks.poll();
+            if (block == null) {
+                return new AtomicLongArray(blockSize / SIZE_OF_LONG);
+            }
+            pooledBytes.addAndGet(-blockSize);
+            return block;
+        }
+
+        private <T> void recycle(Queue<T> blocks, T block) {
+            if (pooledBytes.addAndGet(blockSize) <= capacity) {
+                blocks.add(block);
+            } else {
+                pooledBytes.addAndGet(-blockSize);
+            }
+        }
+    }
+
+    /**
+     * Lock free bump allocator over fixed size blocks. Allocations larger than a quarter of a block
+     * get a dedicated block so that they do not waste the tail of the current one, only fixed size
+     * blocks are recycled.
+     */
+    private abstract static class Arena<T> {
+        final BlockPool blockPool;
+        private final int blockSize;
+        private final AtomicLong cursor;
+        private final AtomicLong allocated = new AtomicLong();
+        private volatile Object[] blocks = new Object[16];
+        private int blockCount;
+
+        Arena(BlockPool blockPool, int blockSize) {
+            this.blockPool = blockPool;
+            this.blockSize = blockSize;
+            this.cursor = new AtomicLong(address(addBlock(newBlock(blockSize), blockSize), 0));
+        }
+
+        /** New block of {@code size} units, taken from the pool if it has the pooled size. */
+        abstract T newBlock(int size);
+
+        /** Give a block of the pooled size back to the pool. */
+        abstract void recycle(T block);
+
+        /** Allocate {@code size} units, return address of the first one */
+        long allocate(int size) {
+            if (size > blockSize / 4) {
+                synchronized (this) {
+                    return address(addBlock(newBlock(size), size), 0);
+                }
+            }
+            while (true) {
+                long current = cursor.get();
+                if (offset(current) + size <= blockSize) {
+                    if (cursor.compareAndSet(current, current + size)) {
+                        return current;
+                    }
+                } else {
+                    synchronized (this) {
+                        if (cursor.get() == current) {
+                            cursor.set(address(addBlock(newBlock(blockSize), blockSize), 0));
+                        }
+                    }
+                }
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        final T block(long address) {
+            return (T) blocks[(int) (address >>> 32)];
+        }
+
+        /** Units allocated in blocks, used or not. */
+        long memoryUsage() {
+            return allocated.get();
+        }
+
+        @SuppressWarnings("unchecked")
+        synchronized void release() {
+            Object[] current = blocks;
+            for (int i = 0; i < blockCount; i++) {
+                recycle((T) current[i]);
+                current[i] = null;
+            }
+        }
+
+        // REQUIRES: lock on this
+        private int addBlock(T block, int size) {
+            Object[] current = blocks;
+            if (blockCount == current.length) {
+                current = Arrays.copyOf(current, blockCount * 2);
+            }
+            current[blockCount] = block;
+            // publish the new array reference after the slot is filled
+            blocks = current;
+            allocated.addAndGet(size);
+            return blockCount++;
+        }
+
+        private static long address(int blockIndex, int offset) {
+            return ((long) blockIndex << 32) | offset;
+        }
+    }
+
+    private static final class ByteArena extends Arena<byte[]> {
+        ByteArena(BlockPool blockPool) {
+            super(blockPool, blockPool.blockSize);
+        }
+
+        @Override
+        byte[] newBlock(int size) {
+            return size == blockPool.blockSize ? blockPool.takeBytes() : new byte[size];
+        }
+
+        @Override
+        void recycle(byte[] block) {
+            if (block.length == blockPool.blockSize) {
+                blockPool.recycle(blockPool.byteBlocks, block);
+            }
+        }
+    }
+
+    private static final class LongArena extends Arena<AtomicLongArray> {
+        LongArena(BlockPool blockPool) {
+            super(blockPool, blockPool.blockSize / SIZE_OF_LONG);
+        }
+
+        @Override
+        AtomicLongArray newBlock(int size) {
+            return size == blockPool.blockSize / SIZE_OF_LONG
+                    ? blockPool.takeLongs()
+                    : new AtomicLongArray(size);
+        }
+
+        @Override
+        void recycle(AtomicLongArray block) {
+            if (block.length() == blockPool.blockSize / SIZE_OF_LONG) {
+                blockPool.recycle(blockPool.longBlocks, block);
+            }
+        }
+
+        @Override
+        long memoryUsage() {
+            return super.memoryUsage() * SIZE_OF_LONG;
+        }
+
+        long get(long address) {
+            return block(address).get(offset(address));
+        }
+
+        void set(long address, long value) {
+            block(address).set(offset(address), value);
+        }
+
+        boolean compareAndSet(long address, long expect, long update) {
+            return block(address).compareAndSet(offset(address), expect, update);
+        }
+    }
+
+    private final class ArenaMemTableIterator extends ASeekingIterator<InternalKey, Slice>
+            implements InternalIterator {
+        private long node = NIL;
+
+        @Override
+        protected boolean internalSeekToFirst() {
+            node = nextNode(head, 0);
+            return node != NIL;
+        }
+
+        @Override
+        protected boolean internalSeekToLast() {
+            node = findLast();
+            return node != NIL;
+        }
+
+        @Override
+        protected boolean internalSeek(InternalKey targetKey) {
+            node = findGreaterOrEqual(targetKey.getUserKey(), targetKey.getSequenceNumber());
+            return node != NIL;
+        }
+
+        @Override
+        protected boolean internalNext(boolean switchDirection) {
+            node = nextNode(node, 0);
+            return node != NIL;
+        }
+
+        @Override
+        protected boolean internalPrev(boolean switchDirection) {
+            node = findLessThan(nodes.get(node));
+            return node != NIL;
+        }
+
+        @Override
+        protected InternalKey internalKey() {
+            return keyOf(nodes.get(node));
+        }
+
+        @Override
+        protected Slice internalValue() {
+            return valueOf(nodes.get(node));
+        }
+
+        @Override
+        protected void internalClose() {
+            node = NIL;
+        }
+    }
+}
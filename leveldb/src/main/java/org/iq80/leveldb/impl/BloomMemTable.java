@@ -0,0 +1,142 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iq80.leveldb.impl;
+
+import static java.util.Objects.requireNonNull;
+
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicLongArray;
+import org.iq80.leveldb.iterator.InternalIterator;
+import org.iq80.leveldb.util.Hash;
+import org.iq80.leveldb.util.Slice;
+
+/**
+ * {@link MemTable} keeping a bloom filter of the user keys added to another memtable. Lookups of
+ * keys that were never added are answered from the filter, without searching the memtable.
+ *
+ * <p>All the probes of a key are set within one 64 bytes line of the filter. Bits are set before
+ * the entry is added to the memtable, so that a reader finding the entry also finds its bits.
+ */
+public class BloomMemTable implements MemTable {
+    private static final int LINE_LONGS = 8;
+    private static final int LINE_BITS = LINE_LONGS * Long.SIZE;
+    private static final int PROBES = 6;
+
+    private final MemTable memTable;
+    private final AtomicLongArray bits;
+    private final int lines;
+
+    /**
+     * @param memTable memtable the entries are added to
+     * @param filterBytes size of the filter, rounded up to whole 64 bytes lines
+     */
+    public BloomMemTable(MemTable memTable, int filterBytes) {
+        this.memTable = requireNonNull(memTable, "memTable is null");
+        this.lines = Math.max(1, (filterBytes + LINE_LONGS * 8 - 1) / (LINE_LONGS * 8));
+        this.bits = new AtomicLongArray(lines * LINE_LONGS);
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return memTable.isEmpty();
+    }
+
+    @Override
+    public long approximateMemoryUsage() {
+        return memTable.approximateMemoryUsage() + (long) bits.length() * Long.BYTES;
+    }
+
+    @Override
+    public void add(long sequenceNumber, ValueType valueType, Slice key, Slice value) {
+        requireNonNull(key, "key is null");
+
+        int h = bloomHash(key);
+        int line = line(h);
+        int probe = remix(h);
+        for (int j = 0; j < PROBES; j++) {
+            probe *= 0x9e3779b9;
+            int bitpos = probe >>> 23;
+            int index = line + (bitpos >>> 6);
+            long mask = 1L << bitpos;
+            // most keys of a large memtable find their bits set, avoid contending on the line
+            if ((bits.get(index) & mask) == 0) {
+                bits.accumulateAndGet(index, mask, (a, b) -> a | b);
+            }
+        }
+        memTable.add(sequenceNumber, valueType, key, value);
+    }
+
+    @Override
+    public void addRangeDeletion(long sequenceNumber, Slice begin, Slice end) {
+        memTable.addRangeDeletion(sequenceNumber, begin, end);
+    }
+
+    @Override
+    public Collection<RangeTombstone> rangeTombstones() {
+        return memTable.rangeTombstones();
+    }
+
+    @Override
+    public LookupResult get(LookupKey key) {
+        requireNonNull(key, "key is null");
+
+        if (!mayContain(key.getUserKey())) {
+            return null;
+        }
+        return memTable.get(key);
+    }
+
+    @Override
+    public InternalIterator iterator() {
+        return memTable.iterator();
+    }
+
+    @Override
+    public void release() {
+        memTable.release();
+    }
+
+    /** False if {@code userKey} was never added to this table. */
+    boolean mayContain(Slice userKey) {
+        int h = bloomHash(userKey);
+        int line = line(h);
+        int probe = remix(h);
+        for (int j = 0; j < PROBES; j++) {
+            probe *= 0x9e3779b9;
+            int bitpos = probe >>> 23;
+            if ((bits.get(line + (bitpos >>> 6)) & (1L << bitpos)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int bloomHash(Slice data) {
+        return Hash.hash(data.getRawArray(), data.getRawOffset(), data.length(), 0xbc9f1d34);
+    }
+
+    /** Index of the first long of the line of the hash, picked by its high bits. */
+    private int line(int h) {
+        return (int) (((h & 0xffffffffL) * lines) >>> 32) * LINE_LONGS;
+    }
+
+    /** Probes are drawn from the low bits of the hash too, so that keys of a line differ. */
+    private static int remix(int h) {
+        return (h ^ (h >>> 16)) * 0x85ebca6b;
+    }
+}
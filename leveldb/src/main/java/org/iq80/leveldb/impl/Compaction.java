@@ -163,6 +163,17 @@ public class Compaction implements AutoCloseable {
         return true;
     }
 
+    // Returns true if no data exists in levels greater than "level+1" for the user keys in
+    // [begin, end), a range tombstone visible to all snapshots is obsolete then.
+    public boolean isBaseLevelForRange(Slice begin, Slice end) {
+        for (int level = this.level + 2; level < NUM_LEVELS; level++) {
+            if (inputVersion.overlapInLevel(level, begin, end)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     // Returns true iff we should stop building the current output
     // before processing "internal_key".
     public boolean shouldStopBefore(InternalKey internalKey) {
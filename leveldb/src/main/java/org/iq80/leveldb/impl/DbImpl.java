@@ -20,42 +20,48 @@ package org.iq80.leveldb.impl;
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkState;
 import static java.util.Objects.requireNonNull;
-import static org.iq80.leveldb.impl.DbConstants.L0_SLOWDOWN_WRITES_TRIGGER;
 import static org.iq80.leveldb.impl.DbConstants.L0_STOP_WRITES_TRIGGER;
 import static org.iq80.leveldb.impl.DbConstants.NUM_NON_TABLE_CACHE_FILES;
 import static org.iq80.leveldb.impl.SequenceNumber.MAX_SEQUENCE_NUMBER;
 import static org.iq80.leveldb.impl.ValueType.DELETION;
+import static org.iq80.leveldb.impl.ValueType.MERGE;
 import static org.iq80.leveldb.impl.ValueType.VALUE;
-import static org.iq80.leveldb.util.SizeOf.SIZE_OF_INT;
-import static org.iq80.leveldb.util.SizeOf.SIZE_OF_LONG;
-import static org.iq80.leveldb.util.Slices.readLengthPrefixedBytes;
-import static org.iq80.leveldb.util.Slices.writeLengthPrefixedBytes;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableList;
 import com.google.common.io.Closer;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
-import java.util.Deque;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
+import org.iq80.leveldb.CompactionFilter;
 import org.iq80.leveldb.DB;
 import org.iq80.leveldb.DBComparator;
 import org.iq80.leveldb.DBException;
@@ -69,26 +75,27 @@ import org.iq80.leveldb.env.DbLock;
 import org.iq80.leveldb.env.Env;
 import org.iq80.leveldb.env.File;
 import org.iq80.leveldb.env.NoOpLogger;
+import org.iq80.leveldb.env.RandomInputFile;
+import org.iq80.leveldb.env.RateLimiter;
 import org.iq80.leveldb.env.SequentialFile;
 import org.iq80.leveldb.env.WritableFile;
 import org.iq80.leveldb.impl.Filename.FileInfo;
 import org.iq80.leveldb.impl.Filename.FileType;
-import org.iq80.leveldb.impl.WriteBatchImpl.Handler;
 import org.iq80.leveldb.iterator.DBIteratorAdapter;
 import org.iq80.leveldb.iterator.DbIterator;
 import org.iq80.leveldb.iterator.InternalIterator;
+import org.iq80.leveldb.iterator.InternalTableIterator;
 import org.iq80.leveldb.iterator.MergingIterator;
 import org.iq80.leveldb.iterator.SnapshotSeekingIterator;
 import org.iq80.leveldb.table.BytewiseComparator;
 import org.iq80.leveldb.table.CustomUserComparator;
 import org.iq80.leveldb.table.FilterPolicy;
+import org.iq80.leveldb.table.Table;
 import org.iq80.leveldb.table.TableBuilder;
 import org.iq80.leveldb.table.UserComparator;
 import org.iq80.leveldb.util.Closeables;
 import org.iq80.leveldb.util.SafeListBuilder;
 import org.iq80.leveldb.util.Slice;
-import org.iq80.leveldb.util.SliceInput;
-import org.iq80.leveldb.util.SliceOutput;
 import org.iq80.leveldb.util.Slices;
 
 @SuppressWarnings("AccessingNonPublicFieldOfAnotherObject")
@@ -100,28 +107,51 @@ public class DbImpl implements DB {
     private final DbLock dbLock;
     private final VersionSet versions;
 
+    // set first by close, writes that have not started to lead fail from then on
+    private final AtomicBoolean closing = new AtomicBoolean();
     private final AtomicBoolean shuttingDown = new AtomicBoolean();
     private final ReentrantLock mutex = new ReentrantLock();
     private final Condition backgroundCondition = mutex.newCondition();
 
     private final List<Long> pendingOutputs = new ArrayList<>(); // todo
-    private final Deque<WriteBatchInternal> writers = new LinkedList<>();
+    private final WriteQueue writeQueue = new WriteQueue();
     private final SnapshotList snapshots = new SnapshotList(mutex);
     private final WriteBatchImpl tmpBatch = new WriteBatchImpl();
+    private final WriteController writeController;
+    // size of the last group committed, only accessed by the group leader
+    private int lastBatchGroupSize;
     private final Env env;
 
     private LogWriter log;
 
-    private MemTable memTable;
-    private volatile MemTable immutableMemTable;
+    private volatile MemTable memTable;
+    // memtables waiting to be flushed, newest first, replaced as a whole under the mutex
+    private volatile ImmutableList<ImmutableMemTable> immutableMemTables = ImmutableList.of();
+    // memtables and current version of the readers, replaced whenever one of them changes
+    private volatile SuperVersion superVersion;
+    // number of super versions holding each memtable, a memtable is released once none does
+    private final Map<MemTable, Integer> memTableReferences = new IdentityHashMap<>();
+    // memtable holding writes that were not logged, it must be flushed on close
+    private volatile boolean memTableUnlogged;
 
     private final InternalKeyComparator internalKeyComparator;
+    private final MemTableFactory memTableFactory;
+    // bounds the bandwidth of table writes, null when not limited
+    private final RateLimiter rateLimiter;
+    private final UserMergeOperator mergeOperator;
+    // null if no prefix extractor is configured
+    private final UserPrefixExtractor prefixExtractor;
+    // shown the values compactions keep, null when not configured
+    private final CompactionFilter compactionFilter;
 
     private volatile Throwable backgroundException;
     private final ExecutorService compactionExecutor;
+    // runs the group leader on behalf of asynchronous writers, at most one leader at a time
+    private final ExecutorService asyncWriteExecutor;
     private Future<?> backgroundCompaction;
 
     private ManualCompaction manualCompaction;
+    private ExternalFileIngestion pendingIngestion;
 
     private final CompactionStats[] stats = new CompactionStats[DbConstants.NUM_LEVELS];
 
@@ -132,6 +162,11 @@ public class DbImpl implements DB {
         final File databaseDir = env.toFile(dbname);
         this.options = sanitizeOptions(databaseDir, rawOptions);
         this.ownsLogger = this.options.logger() != rawOptions.logger();
+        this.writeController =
+                new WriteController(
+                        this.options.delayedWriteRate(),
+                        this.options.softPendingCompactionBytesLimit(),
+                        this.options.hardPendingCompactionBytesLimit());
 
         this.databaseDir = databaseDir;
 
@@ -139,7 +174,31 @@ public class DbImpl implements DB {
             checkArgument(
                     this.options.filterPolicy() instanceof FilterPolicy,
                     "Filter policy must implement Java interface FilterPolicy");
-            this.options.filterPolicy(InternalFilterPolicy.convert(this.options.filterPolicy()));
+            this.options.filterPolicy(
+                    InternalFilterPolicy.convert(
+                            this.options.filterPolicy(), this.options.prefixExtractor()));
+        }
+
+        if (this.options.memTableFactory() != null) {
+            checkArgument(
+                    this.options.memTableFactory() instanceof MemTableFactory,
+                    "MemTable factory must implement Java interface MemTableFactory");
+            this.memTableFactory = (MemTableFactory) this.options.memTableFactory();
+        } else {
+            this.memTableFactory = MemTableFactory.skipList();
+        }
+
+        checkArgument(
+                options.memTableBloomSizeRatio() >= 0 && options.memTableBloomSizeRatio() <= 0.25,
+                "memTableBloomSizeRatio must be between 0 and 0.25");
+
+        if (this.options.rateLimiter() != null) {
+            checkArgument(
+                    this.options.rateLimiter() instanceof RateLimiter,
+                    "Rate limiter must be an instance of RateLimiter");
+            this.rateLimiter = (RateLimiter) this.options.rateLimiter();
+        } else {
+            this.rateLimiter = null;
         }
 
         // use custom comparator if set
@@ -150,7 +209,9 @@ public class DbImpl implements DB {
                         : new BytewiseComparator();
 
         internalKeyComparator = new InternalKeyComparator(userComparator);
-        immutableMemTable = null;
+        mergeOperator = new UserMergeOperator(options.mergeOperator());
+        prefixExtractor = UserPrefixExtractor.of(options.prefixExtractor());
+        compactionFilter = options.compactionFilter();
 
         final String compactionThreadFmt = "leveldb-" + databaseDir.getName() + "-%s";
         ThreadFactory compactionThreadFactory =
@@ -170,6 +231,18 @@ public class DbImpl implements DB {
                                 })
                         .build();
         compactionExecutor = Executors.newSingleThreadExecutor(compactionThreadFactory);
+        asyncWriteExecutor =
+                new ThreadPoolExecutor(
+                        0,
+                        1,
+                        60L,
+                        TimeUnit.SECONDS,
+                        new LinkedBlockingQueue<>(),
+                        new ThreadFactoryBuilder()
+                                .setNameFormat("leveldb-" + databaseDir.getName() + "-write-%s")
+                                .build(),
+                        // once closed, fail elected asynchronous leaders so the queue drains
+                        (task, executor) -> ((AsyncWriteLeader) task).reject());
 
         // Reserve ten files or so for other uses and give the rest to TableCache.
         int tableCacheSize = options.maxOpenFiles() - DbConstants.NUM_NON_TABLE_CACHE_FILES;
@@ -286,7 +359,7 @@ public class DbImpl implements DB {
                                 env);
                 c.register(log);
                 edit.setLogNumber(log.getFileNumber());
-                memTable = new MemTable(internalKeyComparator);
+                memTable = newMemTable();
             }
 
             if (saveManifest) {
@@ -295,12 +368,14 @@ public class DbImpl implements DB {
                 // apply recovered edits
                 versions.logAndApply(edit, mutex);
             }
+            installSuperVersion();
 
             // cleanup unused files
             deleteObsoleteFiles();
 
             // schedule compactions
             maybeScheduleCompaction();
+            updateWriteController();
             success = true;
         } catch (Throwable e) {
             throw c.rethrow(e);
@@ -336,6 +411,12 @@ public class DbImpl implements DB {
         result.writeBufferSize(clipToRange(src.writeBufferSize(), 64 << 10, 1 << 30));
         result.maxFileSize(clipToRange(src.maxFileSize(), 1 << 20, 1 << 30));
         result.blockSize(clipToRange(src.blockSize(), 1 << 10, 4 << 20));
+        result.groupCommitWindowMicros(clipToRange(src.groupCommitWindowMicros(), 0L, 1000000L));
+        result.groupCommitMaxBytes(clipToRange(src.groupCommitMaxBytes(), 4 << 10, 64 << 20));
+        result.maxImmutableMemTables(clipToRange(src.maxImmutableMemTables(), 1, 64));
+        result.delayedWriteRate(
+                clipToRange(
+                        src.delayedWriteRate(), WriteController.MIN_DELAYED_WRITE_RATE, 1L << 40));
         if (result.logger() == null
                 && databaseDir != null
                 && (databaseDir.isDirectory() || databaseDir.mkdirs())) {
@@ -368,9 +449,15 @@ public class DbImpl implements DB {
 
     @Override
     public void close() {
-        if (shuttingDown.getAndSet(true)) {
+        if (closing.getAndSet(true)) {
             return;
         }
+        try {
+            flushUnloggedWrites();
+        } catch (DBException e) {
+            options.logger().log("Unable to flush unlogged writes on close: %s", e);
+        }
+        shuttingDown.set(true);
 
         mutex.lock();
         try {
@@ -382,11 +469,20 @@ public class DbImpl implements DB {
         }
 
         compactionExecutor.shutdown();
+        asyncWriteExecutor.shutdown();
         try {
             compactionExecutor.awaitTermination(1, TimeUnit.DAYS);
+            asyncWriteExecutor.awaitTermination(1, TimeUnit.DAYS);
         } catch (InterruptedException e) {
             Thread.currentThread().interrupt();
         }
+        mutex.lock();
+        try {
+            // no write runs anymore, the memtables are released with the last reader
+            superVersion.release();
+        } finally {
+            mutex.unlock();
+        }
         try {
             versions.release();
         } catch (IOException ignored) {
@@ -437,6 +533,14 @@ public class DbImpl implements DB {
                     }
                 }
                 return stringBuilder.toString();
+            } else if ("write-stall-state".equals(key)) {
+                return writeController.getState().name();
+            } else if ("delayed-write-rate".equals(key)) {
+                return String.valueOf(writeController.getDelayedWriteRate());
+            } else if ("write-stall-micros".equals(key)) {
+                return String.valueOf(writeController.getStallMicros());
+            } else if ("pending-compaction-bytes".equals(key)) {
+                return String.valueOf(versions.getPendingCompactionBytes());
             } else if ("sstables".equals(key)) {
                 return versions.getCurrent().toString();
             } else if ("approximate-memory-usage".equals(key)) {
@@ -444,8 +548,8 @@ public class DbImpl implements DB {
                 if (memTable != null) {
                     sizeTotal += memTable.approximateMemoryUsage();
                 }
-                if (immutableMemTable != null) {
-                    sizeTotal += immutableMemTable.approximateMemoryUsage();
+                for (ImmutableMemTable immutableMemTable : immutableMemTables) {
+                    sizeTotal += immutableMemTable.memTable.approximateMemoryUsage();
                 }
                 return Long.toUnsignedString(sizeTotal);
             }
@@ -528,8 +632,9 @@ public class DbImpl implements DB {
             // DB is being shutdown; no more background compactions
         } else if (backgroundException != null) {
             // Already got an error; no more changes
-        } else if (immutableMemTable == null
+        } else if (immutableMemTables.isEmpty()
                 && manualCompaction == null
+                && pendingIngestion == null
                 && !versions.needsCompaction()) {
             // No work to be done
         } else {
@@ -559,6 +664,7 @@ public class DbImpl implements DB {
             // Previous compaction may have produced too many files in a level,
             // so reschedule another compaction if needed.
             maybeScheduleCompaction();
+            updateWriteController();
         } catch (DatabaseShutdownException ignored) {
         } catch (Throwable throwable) {
             recordBackgroundError(throwable);
@@ -574,7 +680,13 @@ public class DbImpl implements DB {
     private void backgroundCompaction() throws IOException {
         checkState(mutex.isHeldByCurrentThread());
 
-        if (immutableMemTable != null) {
+        if (pendingIngestion != null) {
+            // the ingesting thread holds back all writes until the files are installed
+            installIngestedFiles();
+            return;
+        }
+
+        if (!immutableMemTables.isEmpty()) {
             compactMemTable();
             return;
         }
@@ -610,6 +722,7 @@ public class DbImpl implements DB {
             compaction.getEdit().deleteFile(compaction.getLevel(), fileMetaData.getNumber());
             compaction.getEdit().addFile(compaction.getLevel() + 1, fileMetaData);
             versions.logAndApply(compaction.getEdit(), mutex);
+            installSuperVersion();
             options.logger()
                     .log(
                             "Moved #%s to level-%s %s bytes: %s",
@@ -620,7 +733,11 @@ public class DbImpl implements DB {
         } else {
             CompactionState compactionState = new CompactionState(compaction);
             try {
-                doCompactionWork(compactionState);
+                while (!doCompactionWork(compactionState)) {
+                    // a snapshot taken meanwhile sees values the filter changed, redo the work
+                    cleanupCompaction(compactionState);
+                    compactionState = new CompactionState(compaction);
+                }
             } catch (Exception e) {
                 options.logger().log("Compaction error: %s", e.getMessage());
                 recordBackgroundError(e);
@@ -709,22 +826,20 @@ public class DbImpl implements DB {
             for (Slice record = logReader.readRecord();
                     record != null;
                     record = logReader.readRecord()) {
-                SliceInput sliceInput = record.input();
                 // read header
-                if (sliceInput.available() < 12) {
-                    logMonitor.corruption(sliceInput.available(), "log record too small");
+                if (record.length() < WriteBatchImpl.HEADER_SIZE) {
+                    logMonitor.corruption(record.length(), "log record too small");
                     continue;
                 }
-                long sequenceBegin = sliceInput.readLong();
-                int updateSize = sliceInput.readInt();
+                long sequenceBegin = record.getLong(0);
+                int updateSize = record.getInt(8);
 
-                // read entries
-                try (WriteBatchImpl writeBatch = readWriteBatch(sliceInput, updateSize)) {
-                    // apply entries to memTable
+                // apply entries to memTable, decoding them in place
+                try {
                     if (mem == null) {
-                        mem = new MemTable(internalKeyComparator);
+                        mem = newMemTable();
                     }
-                    writeBatch.forEach(new InsertIntoHandler(mem, sequenceBegin));
+                    WriteBatchImpl.forEach(record, new InsertIntoHandler(mem, sequenceBegin));
                 } catch (Exception e) {
                     if (!options.paranoidChecks()) {
                         options.logger().log("Ignoring error %s", e);
@@ -761,7 +876,7 @@ public class DbImpl implements DB {
                     mem = null;
                 } else {
                     // mem can be NULL if lognum exists but was empty.
-                    this.memTable = new MemTable(internalKeyComparator);
+                    this.memTable = newMemTable();
                 }
             }
 
@@ -782,47 +897,170 @@ public class DbImpl implements DB {
 
     @Override
     public byte[] get(byte[] key, ReadOptions options) throws DBException {
-        LookupKey lookupKey;
-        LookupResult lookupResult;
-        mutex.lock();
+        return getValue(key, options, (value, inTableBlock) -> value.getBytes());
+    }
+
+    /**
+     * The buffer is a view of the table block holding the value. Blocks are never modified once
+     * read and are kept in memory by the buffer, even after eviction from the block cache, so the
+     * buffer needs no release. Values found in a memtable, which may reuse its memory once
+     * flushed, and merged values are copied.
+     */
+    @Override
+    public ByteBuffer getBuffer(byte[] key, ReadOptions options) throws DBException {
+        return getValue(
+                key,
+                options,
+                (value, inTableBlock) ->
+                        (inTableBlock ? value : value.copySlice())
+                                .toByteBuffer()
+                                .slice()
+                                .asReadOnlyBuffer());
+    }
+
+    @Override
+    public int get(byte[] key, ByteBuffer value, ReadOptions options) throws DBException {
+        requireNonNull(value, "value is null");
+        Integer length =
+                getValue(
+                        key,
+                        options,
+                        (found, inTableBlock) -> {
+                            found.getBytes(0, value);
+                            return found.length();
+                        });
+        return length == null ? -1 : length;
+    }
+
+    /**
+     * Look up key and read its value, if any, before releasing the memtables the value may point
+     * into. Returns null if there is no value.
+     */
+    private <T> T getValue(byte[] key, ReadOptions options, ValueReader<T> reader) {
+        SuperVersion superVersion = acquireSuperVersion();
+        ReadStats readStats = new ReadStats();
         try {
-            long lastSequence =
-                    options.snapshot() != null
-                            ? snapshots.getSequenceFrom(options.snapshot())
-                            : versions.getLastSequence();
-            lookupKey = new LookupKey(Slices.wrappedBuffer(key), lastSequence);
-
-            // First look in the memtable, then in the immutable memtable (if any).
-            final MemTable memTable = this.memTable;
-            final MemTable immutableMemTable = this.immutableMemTable;
-            final Version current = versions.getCurrent();
-            current.retain();
-            ReadStats readStats = null;
-            mutex.unlock();
-            try {
-                lookupResult = memTable.get(lookupKey);
-                if (lookupResult == null && immutableMemTable != null) {
-                    lookupResult = immutableMemTable.get(lookupKey);
-                }
+            // read after acquiring the memtables, which then hold all entries up to it
+            long lastSequence = getSnapshot(options);
+            LookupKey lookupKey = new LookupKey(Slices.wrappedBuffer(key), lastSequence);
+
+            LookupResult lookupResult = get(superVersion, lookupKey);
+            boolean inTableBlock = lookupResult == null;
+            if (inTableBlock) {
+                // Not in memTables; try live files in level order
+                lookupResult = superVersion.current.get(options, lookupKey, readStats);
+                inTableBlock = lookupResult != null && !lookupResult.isMerge();
+            }
+            lookupResult = applyMergeOperands(options, lookupResult, superVersion, readStats);
+            Slice value = lookupResult == null ? null : lookupResult.getValue();
+            return value == null ? null : reader.read(value, inTableBlock);
+        } finally {
+            releaseAfterRead(superVersion, readStats);
+        }
+    }
 
-                if (lookupResult == null) {
-                    // Not in memTables; try live files in level order
-                    readStats = new ReadStats();
-                    lookupResult = current.get(options, lookupKey, readStats);
-                }
+    @Override
+    public List<byte[]> multiGet(List<byte[]> keys, ReadOptions options) throws DBException {
+        requireNonNull(keys, "keys is null");
+        // sort the keys once, every source is then searched in key order
+        UserComparator userComparator = internalKeyComparator.getUserComparator();
+        Integer[] order = new Integer[keys.size()];
+        List<Slice> userKeys = new ArrayList<>(keys.size());
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+            userKeys.add(Slices.wrappedBuffer(keys.get(i)));
+        }
+        Arrays.sort(order, (a, b) -> userComparator.compare(userKeys.get(a), userKeys.get(b)));
+
+        LookupResult[] lookupResults = new LookupResult[order.length];
+        SuperVersion superVersion = acquireSuperVersion();
+        ReadStats readStats = new ReadStats();
+        try {
+            // read after acquiring the memtables, which then hold all entries up to it
+            long lastSequence = getSnapshot(options);
+            List<LookupKey> lookupKeys = new ArrayList<>(order.length);
+            for (Integer index : order) {
+                lookupKeys.add(new LookupKey(userKeys.get(index), lastSequence));
+            }
 
-                // schedule compaction if necessary
-            } finally {
-                mutex.lock();
-                if (readStats != null && current.updateStats(readStats)) {
-                    maybeScheduleCompaction();
+            List<MemTable> memTables = new ArrayList<>();
+            memTables.add(superVersion.memTable);
+            for (ImmutableMemTable immutableMemTable : superVersion.immutableMemTables) {
+                memTables.add(immutableMemTable.memTable);
+            }
+            for (MemTable memTable : memTables) {
+                for (int i = 0; i < lookupResults.length; i++) {
+                    if (lookupResults[i] == null) {
+                        lookupResults[i] = get(memTable, lookupKeys.get(i), userComparator);
+                    }
                 }
-                current.release();
             }
+
+            // Not in memTables; try live files in level order
+            superVersion.current.get(options, lookupKeys, lookupResults, readStats);
+
+            for (int i = 0; i < lookupResults.length; i++) {
+                lookupResults[i] =
+                        applyMergeOperands(options, lookupResults[i], superVersion, readStats);
+            }
+
+            byte[][] values = new byte[order.length][];
+            for (int i = 0; i < order.length; i++) {
+                values[order[i]] = valueOf(lookupResults[i]);
+            }
+            return Arrays.asList(values);
         } finally {
-            mutex.unlock();
+            releaseAfterRead(superVersion, readStats);
         }
+    }
+
+    /**
+     * If {@code lookupResult} is a merge operand, collect the older operands and the value they
+     * apply to, each of them is the newest entry of the key below the sequence of the previous one.
+     */
+    private LookupResult applyMergeOperands(
+            ReadOptions options,
+            LookupResult lookupResult,
+            SuperVersion superVersion,
+            ReadStats readStats) {
+        if (lookupResult == null || !lookupResult.isMerge()) {
+            return lookupResult;
+        }
+        LookupKey lookupKey = lookupResult.getKey();
+        List<Slice> operands = new ArrayList<>();
+        while (lookupResult != null && lookupResult.isMerge()) {
+            operands.add(lookupResult.getValue());
+            long sequence = lookupResult.getSequenceNumber();
+            lookupResult =
+                    sequence == 0
+                            ? null
+                            : get(
+                                    options,
+                                    new LookupKey(lookupKey.getUserKey(), sequence - 1),
+                                    superVersion,
+                                    readStats);
+        }
+        Slice existingValue = lookupResult != null ? lookupResult.getValue() : null;
+        return LookupResult.ok(
+                lookupKey,
+                mergeOperator.fullMerge(lookupKey.getUserKey(), existingValue, operands),
+                lookupKey.getInternalKey().getSequenceNumber());
+    }
 
+    private void releaseAfterRead(SuperVersion superVersion, ReadStats readStats) {
+        // schedule compaction if necessary, seek stats are counted without the mutex
+        if (superVersion.current.updateStats(readStats)) {
+            mutex.lock();
+            try {
+                maybeScheduleCompaction();
+            } finally {
+                mutex.unlock();
+            }
+        }
+        superVersion.release();
+    }
+
+    private static byte[] valueOf(LookupResult lookupResult) {
         if (lookupResult != null) {
             Slice value = lookupResult.getValue();
             if (value != null) {
@@ -832,6 +1070,52 @@ public class DbImpl implements DB {
         return null;
     }
 
+    /**
+     * First look in the memtable, then in the immutable memtables, newest first. A range deletion
+     * hides the older entries of its own table and of all older sources.
+     */
+    private static LookupResult get(
+            ReadOptions options,
+            LookupKey lookupKey,
+            SuperVersion superVersion,
+            ReadStats readStats) {
+        LookupResult lookupResult = get(superVersion, lookupKey);
+        if (lookupResult == null) {
+            // Not in memTables; try live files in level order
+            lookupResult = superVersion.current.get(options, lookupKey, readStats);
+        }
+        return lookupResult;
+    }
+
+    /** Look in the memtable, then in the immutable memtables, newest first. */
+    private static LookupResult get(SuperVersion superVersion, LookupKey lookupKey) {
+        List<ImmutableMemTable> immutableMemTables = superVersion.immutableMemTables;
+        UserComparator userComparator =
+                superVersion.current.getInternalKeyComparator().getUserComparator();
+        LookupResult lookupResult = get(superVersion.memTable, lookupKey, userComparator);
+        for (int i = 0; lookupResult == null && i < immutableMemTables.size(); i++) {
+            lookupResult = get(immutableMemTables.get(i).memTable, lookupKey, userComparator);
+        }
+        return lookupResult;
+    }
+
+    private static LookupResult get(
+            MemTable memTable, LookupKey lookupKey, UserComparator userComparator) {
+        LookupResult lookupResult = memTable.get(lookupKey);
+        Collection<RangeTombstone> rangeTombstones = memTable.rangeTombstones();
+        if (rangeTombstones.isEmpty()) {
+            return lookupResult;
+        }
+        return LookupResult.withRangeDeletion(
+                lookupResult,
+                lookupKey,
+                RangeTombstone.maxCoveringSequence(
+                        rangeTombstones,
+                        userComparator,
+                        lookupKey.getUserKey(),
+                        lookupKey.getInternalKey().getSequenceNumber()));
+    }
+
     @Override
     public void put(byte[] key, byte[] value) throws DBException {
         put(key, value, new WriteOptions());
@@ -856,6 +1140,28 @@ public class DbImpl implements DB {
         }
     }
 
+    @Override
+    public Snapshot merge(byte[] key, byte[] value, WriteOptions options) throws DBException {
+        checkState(this.options.mergeOperator() != null, "Merge requires a merge operator");
+        try (WriteBatchImpl writeBatch = new WriteBatchImpl()) {
+            return writeInternal(writeBatch.merge(key, value), options);
+        }
+    }
+
+    @Override
+    public Snapshot deleteRange(byte[] begin, byte[] end, WriteOptions options)
+            throws DBException {
+        checkArgument(
+                internalKeyComparator
+                                .getUserComparator()
+                                .compare(Slices.wrappedBuffer(begin), Slices.wrappedBuffer(end))
+                        < 0,
+                "begin must be before end");
+        try (WriteBatchImpl writeBatch = new WriteBatchImpl()) {
+            return writeInternal(writeBatch.deleteRange(begin, end), options);
+        }
+    }
+
     @Override
     public void write(WriteBatch updates) throws DBException {
         writeInternal((WriteBatchImpl) updates, new WriteOptions());
@@ -868,87 +1174,238 @@ public class DbImpl implements DB {
 
     public Snapshot writeInternal(WriteBatchImpl myBatch, WriteOptions options) throws DBException {
         checkBackgroundException();
-        final WriteBatchInternal w =
-                new WriteBatchInternal(myBatch, options.sync(), mutex.newCondition());
-        mutex.lock();
-        try {
-            writers.offerLast(w);
-            while (!w.done && writers.peekFirst() != w) {
-                w.backgroundCondition.awaitUninterruptibly();
-            }
-            if (w.done) {
-                w.checkExceptions();
-                return options.snapshot()
-                        ? snapshots.newSnapshot(versions.getLastSequence())
-                        : null;
-            }
-            ValueHolder<WriteBatchInternal> lastWriterVh = new ValueHolder<>(w);
+        checkArgument(
+                !options.sync() || !options.disableWAL(), "Sync writes cannot disable the WAL");
+        final WriteQueue.Writer w =
+                new WriteQueue.Writer(myBatch, options.sync(), options.disableWAL());
+        int state = writeQueue.joinBatchGroup(w);
+        if (state == WriteQueue.STATE_MEMTABLE_WRITER) {
+            // leader has logged our batch; apply it to the memtable ourselves
             Throwable error = null;
             try {
-                multipleWriteGroup(myBatch, options, lastWriterVh);
-            } catch (Exception e) {
-                // all writers must be notified of this exception
+                myBatch.forEach(new InsertIntoHandler(w.memTable, w.sequence));
+            } catch (Throwable e) {
                 error = e;
             }
-
-            WriteBatchInternal lastWrite = lastWriterVh.getValue();
-            while (true) {
-                WriteBatchInternal ready = writers.peekFirst();
-                writers.pollFirst();
-                if (ready != w) {
-                    assert ready != null;
-                    ready.error = error;
-                    ready.done = true;
-                    ready.signal();
-                }
-                if (ready == lastWrite) {
-                    break;
-                }
+            state = writeQueue.completeParallelMemTableWriter(w, error);
+        }
+        if (state == WriteQueue.STATE_COMPLETED) {
+            // our write was committed by another leader
+            checkBackgroundException();
+            if (w.error instanceof Error) {
+                throw (Error) w.error;
+            }
+            if (w.error != null) {
+                throw new DBException(w.error);
             }
+            return options.snapshot() ? getSnapshot() : null;
+        }
+
+        Throwable error = leadWriteGroup(w, options);
 
-            // Notify new head of write queue
-            if (!writers.isEmpty()) {
-                writers.peekFirst().signal();
+        checkBackgroundException();
+        if (error != null) {
+            Throwables.propagateIfPossible(error, DBException.class);
+            throw new DBException(error);
+        }
+        return options.snapshot() ? getSnapshot() : null;
+    }
+
+    @Override
+    public CompletableFuture<Snapshot> writeAsync(WriteBatch updates, WriteOptions options) {
+        CompletableFuture<Snapshot> future = new CompletableFuture<>();
+        try {
+            if (closing.get()) {
+                throw new DatabaseShutdownException("Database is closed");
             }
+            checkBackgroundException();
+            checkArgument(
+                    !options.sync() || !options.disableWAL(), "Sync writes cannot disable the WAL");
+        } catch (DBException | IllegalArgumentException e) {
+            future.completeExceptionally(e);
+            return future;
+        }
+        final WriteQueue.Writer w =
+                new WriteQueue.Writer(
+                        (WriteBatchImpl) updates,
+                        options.sync(),
+                        options.disableWAL(),
+                        writer -> onAsyncWriterState(writer, options, future));
+        if (writeQueue.joinBatchGroupAsync(w)) {
+            onAsyncWriterState(w, options, future);
+        }
+        return future;
+    }
+
+    private void onAsyncWriterState(
+            WriteQueue.Writer w, WriteOptions options, CompletableFuture<Snapshot> future) {
+        if (w.state == WriteQueue.STATE_GROUP_LEADER) {
+            // leading may block on the log or on compactions, never do it on the caller thread
+            asyncWriteExecutor.execute(new AsyncWriteLeader(w, options, future));
+        } else {
+            completeAsyncWrite(future, w.error, options);
+        }
+    }
+
+    /**
+     * Complete {@code future} with the result of the write. Futures are completed from the common
+     * pool: dependent stages must neither run on the thread electing the next leader nor on the
+     * single thread leading asynchronous groups, a stage waiting on a write would never return.
+     */
+    private void completeAsyncWrite(
+            CompletableFuture<Snapshot> future, Throwable error, WriteOptions options) {
+        Snapshot snapshot = null;
+        Throwable failure = null;
+        try {
             checkBackgroundException();
             if (error != null) {
                 Throwables.propagateIfPossible(error, DBException.class);
                 throw new DBException(error);
             }
-            return options.snapshot() ? snapshots.newSnapshot(versions.getLastSequence()) : null;
+            snapshot = options.snapshot() ? getSnapshot() : null;
+        } catch (Throwable e) {
+            failure = e;
+        }
+        final Snapshot result = snapshot;
+        final Throwable resultFailure = failure;
+        ForkJoinPool.commonPool()
+                .execute(
+                        () -> {
+                            if (resultFailure != null) {
+                                future.completeExceptionally(resultFailure);
+                            } else {
+                                future.complete(result);
+                            }
+                        });
+    }
+
+    /** Asynchronous writer elected leader, leads its group on the async write thread. */
+    private final class AsyncWriteLeader implements Runnable {
+        private final WriteQueue.Writer writer;
+        private final WriteOptions options;
+        private final CompletableFuture<Snapshot> future;
+
+        private AsyncWriteLeader(
+                WriteQueue.Writer writer,
+                WriteOptions options,
+                CompletableFuture<Snapshot> future) {
+            this.writer = writer;
+            this.options = options;
+            this.future = future;
+        }
+
+        @Override
+        public void run() {
+            completeAsyncWrite(future, leadWriteGroup(writer, options), options);
+        }
+
+        /**
+         * The database is closed: fail the group this writer would have led and elect the next
+         * leader, so that writers queued behind do not wait forever.
+         */
+        private void reject() {
+            Throwable error = new DatabaseShutdownException("Database shutdown during write");
+            WriteQueue.WriteGroup group = new WriteQueue.WriteGroup(writer);
+            writeQueue.enterAsBatchGroupLeader(group);
+            writeQueue.exitAsBatchGroupLeader(group, error);
+            completeAsyncWrite(future, error, options);
+        }
+    }
+
+    /**
+     * Commit the group led by {@code w} and elect next leader.
+     *
+     * @return error that failed the group, if any
+     */
+    private Throwable leadWriteGroup(WriteQueue.Writer w, WriteOptions options) {
+        WriteQueue.WriteGroup group = new WriteQueue.WriteGroup(w);
+        Throwable error = null;
+        try {
+            multipleWriteGroup(w.batch, options, group);
+        } catch (Exception e) {
+            // all writers must be notified of this exception
+            error = e;
         } finally {
-            mutex.unlock();
+            writeQueue.exitAsBatchGroupLeader(group, error);
         }
+        return error;
     }
 
     private void multipleWriteGroup(
-            WriteBatchImpl myBatch,
-            WriteOptions options,
-            ValueHolder<WriteBatchInternal> lastWriter) {
-        long sequenceEnd;
-        WriteBatchImpl updates = null;
+            WriteBatchImpl myBatch, WriteOptions options, WriteQueue.WriteGroup group) {
+        if (myBatch != null && closing.get()) {
+            // close may already be flushing the memtable, the write would not be persisted
+            throw new DatabaseShutdownException("Database is closed");
+        }
+        // The mutex is only needed when the memtable or log must change.
         // May temporarily unlock and wait.
-        makeRoomForWrite(myBatch == null);
+        if (myBatch == null || !hasRoomForWrite()) {
+            mutex.lock();
+            try {
+                makeRoomForWrite(myBatch == null);
+            } finally {
+                mutex.unlock();
+            }
+        }
         if (myBatch != null) {
-            updates = buildBatchGroup(lastWriter);
+            int maxGroupSize = 0;
+            if (options.sync() && this.options.groupCommitWindowMicros() > 0) {
+                // let other writers join so that they share our log append and fsync
+                maxGroupSize = this.options.groupCommitMaxBytes();
+                writeQueue.awaitGroupCommitWindow(
+                        group,
+                        TimeUnit.MICROSECONDS.toNanos(this.options.groupCommitWindowMicros()),
+                        maxGroupSize);
+            }
+            writeQueue.enterAsBatchGroupLeader(group, maxGroupSize);
+            WriteBatchImpl updates = buildBatchGroup(group);
+            lastBatchGroupSize = updates.getApproximateSize();
 
-            // Get sequence numbers for this change set
+            // Get sequence numbers for this change set. Only the group leader
+            // assigns sequences, so this does not need the mutex.
             long sequenceBegin = versions.getLastSequence() + 1;
-            sequenceEnd = sequenceBegin + updates.size() - 1;
-
-            // Add to log and apply to memtable.  We can release the lock
-            // during this phase since "w" is currently responsible for logging
-            // and protects against concurrent loggers and concurrent writes
-            // into mem_.
-            // log and memtable are modified by makeRoomForWrite
-            mutex.unlock();
+            long sequenceEnd = sequenceBegin + updates.size() - 1;
+
+            // When other writers joined the group they can insert their own
+            // batch into the memtable in parallel with us once the log record
+            // is written.
+            final boolean concurrentInsert =
+                    this.options.allowConcurrentMemtableWrite() && updates == tmpBatch;
+
+            // Add to log and apply to memtable.  Being the group leader "w" is
+            // responsible for logging and protects against concurrent loggers
+            // and concurrent writes into mem_.
+            // log and memtable are only modified by makeRoomForWrite, run by the leader
             try {
-                // Log write
-                Slice record = writeWriteBatch(updates, sequenceBegin);
-                log.addRecord(record, options.sync());
+                if (options.disableWAL()) {
+                    // the memtable must be flushed before close, nothing else can recover it
+                    memTableUnlogged = true;
+                } else {
+                    // Log write
+                    log.addRecord(updates.contents(sequenceBegin), options.sync());
+                }
                 // Update memtable
-                // this.memTable is modified by makeRoomForWrite
-                updates.forEach(new InsertIntoHandler(this.memTable, sequenceBegin));
+                if (concurrentInsert) {
+                    writeQueue.launchParallelMemTableWriters(group, memTable, sequenceBegin);
+                    Throwable insertError;
+                    try {
+                        myBatch.forEach(new InsertIntoHandler(memTable, sequenceBegin));
+                        // asynchronous followers have no thread to insert with
+                        for (WriteQueue.Writer w : group) {
+                            if (w.isAsync() && w != group.getLeader() && w.batch != null) {
+                                w.batch.forEach(new InsertIntoHandler(memTable, w.sequence));
+                            }
+                        }
+                    } finally {
+                        insertError = writeQueue.awaitParallelMemTableWriters(group);
+                    }
+                    if (insertError != null) {
+                        Throwables.throwIfUnchecked(insertError);
+                        throw new DBException(insertError);
+                    }
+                } else {
+                    updates.forEach(new InsertIntoHandler(memTable, sequenceBegin));
+                }
             } catch (Exception e) {
                 // The state of the log file is indeterminate: the log record we
                 // just added may or may not show up when the DB is re-opened.
@@ -960,8 +1417,6 @@ public class DbImpl implements DB {
                 } finally {
                     mutex.unlock();
                 }
-            } finally {
-                mutex.lock();
             }
             if (updates == tmpBatch) {
                 tmpBatch.clear();
@@ -971,53 +1426,270 @@ public class DbImpl implements DB {
         }
     }
 
-    /** REQUIRES: Writer list must be non-empty REQUIRES: First writer must have a non-NULL batch */
-    private WriteBatchImpl buildBatchGroup(ValueHolder<WriteBatchInternal> lastWriter) {
-        checkArgument(!writers.isEmpty(), "A least one writer is required");
-        final WriteBatchInternal first = writers.peekFirst();
-        WriteBatchImpl result = first.batch;
-        checkArgument(result != null, "Batch must be non null");
+    /** REQUIRES: group leader must have a non-NULL batch */
+    private WriteBatchImpl buildBatchGroup(WriteQueue.WriteGroup group) {
+        final WriteBatchImpl first = group.getLeader().batch;
+        checkArgument(first != null, "Batch must be non null");
+        WriteBatchImpl result = first;
+        for (WriteQueue.Writer w : group) {
+            if (w.batch != null && w.batch != first) {
+                // Append to result
+                if (result == first) {
+                    // Switch to temporary batch instead of disturbing caller's batch
+                    result = tmpBatch;
+                    checkState(result.size() == 0, "Temp batch should be clean");
+                    result.append(first);
+                }
+                result.append(w.batch);
+            }
+        }
+        return result;
+    }
 
-        int sizeInit;
-        sizeInit = first.batch.getApproximateSize();
-        /*
-         * Allow the group to grow up to a maximum size, but if the
-         * original write is small, limit the growth so we do not slow
-         * down the small write too much.
-         */
-        int maxSize = 1 << 20;
-        if (sizeInit <= (128 << 10)) {
-            maxSize = sizeInit + (128 << 10);
+    @Override
+    public void ingestExternalFiles(List<java.io.File> externalFiles) throws DBException {
+        checkBackgroundException();
+        List<ExternalFile> files = new ArrayList<>(externalFiles.size());
+        for (java.io.File externalFile : externalFiles) {
+            files.add(readExternalFile(env.toFile(externalFile.getAbsolutePath())));
+        }
+        if (files.isEmpty()) {
+            return;
         }
+        // all files get the same sequence number, a key must not be found in two of them
+        files.sort((f1, f2) -> internalKeyComparator.compare(f1.smallest, f2.smallest));
+        UserComparator userComparator = internalKeyComparator.getUserComparator();
+        for (int i = 1; i < files.size(); i++) {
+            checkArgument(
+                    userComparator.compare(
+                                    files.get(i - 1).largest.getUserKey(),
+                                    files.get(i).smallest.getUserKey())
+                            < 0,
+                    "Files to ingest overlap: %s and %s",
+                    files.get(i - 1).file,
+                    files.get(i).file);
+        }
+
+        // writers without a batch always lead, no write runs until we are done
+        final WriteQueue.Writer w = new WriteQueue.Writer(null, false);
+        checkState(
+                writeQueue.joinBatchGroup(w) == WriteQueue.STATE_GROUP_LEADER,
+                "Ingestion must lead the write queue");
+        WriteQueue.WriteGroup group = new WriteQueue.WriteGroup(w);
+        Throwable error = null;
+        try {
+            ingestAsLeader(files);
+        } catch (Throwable e) {
+            error = e;
+            throw e;
+        } finally {
+            writeQueue.exitAsBatchGroupLeader(group, error);
+        }
+    }
 
-        int size = 0;
-        lastWriter.setValue(first);
-        for (WriteBatchInternal w : writers) {
-            if (w.sync && !lastWriter.getValue().sync) {
-                // Do not include a sync write into a batch handled by a non-sync write.
-                break;
+    private ExternalFile readExternalFile(File file) {
+        try {
+            RandomInputFile source = env.newRandomAccessFile(file);
+            try (Table table =
+                            Closeables.wrapResource(
+                                    () ->
+                                            new Table(
+                                                    source,
+                                                    new InternalUserComparator(
+                                                            internalKeyComparator),
+                                                    options.paranoidChecks(),
+                                                    null,
+                                                    null),
+                                    source);
+                    InternalTableIterator iterator =
+                            new InternalTableIterator(table.iterator(new ReadOptions()))) {
+                checkArgument(iterator.seekToFirst(), "File to ingest %s is empty", file);
+                InternalKey smallest = iterator.key();
+                iterator.seekToLast();
+                InternalKey largest = iterator.key();
+                checkArgument(
+                        smallest.getSequenceNumber() == 0 && largest.getSequenceNumber() == 0,
+                        "File to ingest %s was not written by SstFileWriter",
+                        file);
+                return new ExternalFile(file, file.length(), smallest, largest);
             }
+        } catch (IOException e) {
+            throw new DBException("Unable to read file to ingest " + file, e);
+        }
+    }
 
-            if (w.batch != null) {
-                size += w.batch.getApproximateSize();
-                if (size > maxSize) {
-                    // Do not make batch too big
-                    break;
+    /** REQUIRES: caller leads the write queue */
+    private void ingestAsLeader(List<ExternalFile> files) {
+        mutex.lock();
+        try {
+            // Entries of the memtables are older than the ingested ones. They must reach
+            // level-0 first, newer level-0 files must hold newer entries.
+            if (memTablesOverlap(files)) {
+                makeRoomForWrite(true);
+                while (!immutableMemTables.isEmpty() && backgroundException == null) {
+                    backgroundCondition.awaitUninterruptibly();
                 }
+                checkBackgroundException();
+            }
+            for (ExternalFile file : files) {
+                file.number = versions.getNextFileNumber();
+                pendingOutputs.add(file.number);
+            }
+        } finally {
+            mutex.unlock();
+        }
 
-                // Append to result
-                if (result == first.batch) {
-                    // Switch to temporary batch instead of disturbing caller's batch
-                    result = tmpBatch;
-                    checkState(result.size() == 0, "Temp batch should be clean");
-                    result.append(first.batch);
-                } else if (first.batch != w.batch) {
-                    result.append(w.batch);
+        try {
+            // the sources stay untouched until the files are part of the database, a failed
+            // ingestion leaves them where they were
+            for (ExternalFile file : files) {
+                copyExternalFile(file);
+            }
+
+            // Install from the compaction thread, the only one that changes versions.
+            // We lead the write queue, nobody else takes sequence numbers.
+            ExternalFileIngestion ingestion =
+                    new ExternalFileIngestion(files, versions.getLastSequence() + 1);
+            mutex.lock();
+            try {
+                pendingIngestion = ingestion;
+                maybeScheduleCompaction();
+                while (!ingestion.done && !shuttingDown.get() && backgroundException == null) {
+                    backgroundCondition.awaitUninterruptibly();
+                }
+                if (pendingIngestion == ingestion) {
+                    pendingIngestion = null;
+                }
+                if (!ingestion.done) {
+                    checkBackgroundException();
+                    throw new DatabaseShutdownException("Database shutdown during ingestion");
                 }
+            } finally {
+                mutex.unlock();
+            }
+
+            // the edit is in the manifest, the copies are now the only needed ones
+            for (ExternalFile file : files) {
+                if (!file.file.delete()) {
+                    options.logger().log("Unable to delete ingested file %s", file.file);
+                }
+            }
+        } finally {
+            mutex.lock();
+            try {
+                for (ExternalFile file : files) {
+                    pendingOutputs.remove(file.number);
+                }
+            } finally {
+                mutex.unlock();
             }
-            lastWriter.setValue(w);
         }
-        return result;
+    }
+
+    private boolean memTablesOverlap(List<ExternalFile> files) {
+        List<MemTable> memTables = new ArrayList<>();
+        memTables.add(memTable);
+        for (ImmutableMemTable immutableMemTable : immutableMemTables) {
+            memTables.add(immutableMemTable.memTable);
+        }
+        UserComparator userComparator = internalKeyComparator.getUserComparator();
+        for (MemTable mem : memTables) {
+            for (ExternalFile file : files) {
+                try (InternalIterator iterator = mem.iterator()) {
+                    if (iterator.seek(
+                                    new InternalKey(
+                                            file.smallest.getUserKey(), MAX_SEQUENCE_NUMBER, VALUE))
+                            && userComparator.compare(
+                                            iterator.key().getUserKey(),
+                                            file.largest.getUserKey())
+                                    <= 0) {
+                        return true;
+                    }
+                } catch (IOException e) {
+                    throw new DBException(e);
+                }
+                for (RangeTombstone tombstone : mem.rangeTombstones()) {
+                    if (userComparator.compare(tombstone.getBegin(), file.largest.getUserKey()) <= 0
+                            && userComparator.compare(
+                                            file.smallest.getUserKey(), tombstone.getEnd())
+                                    < 0) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    /** Copy the file in the database directory, under its file number. */
+    private void copyExternalFile(ExternalFile file) {
+        File target = databaseDir.child(Filename.tableFileName(file.number));
+        try {
+            try (SequentialFile in = env.newSequentialFile(file.file);
+                    WritableFile out = env.newWritableFile(target)) {
+                Slice buffer = Slices.allocate(64 << 10);
+                for (int read = in.read(buffer.length(), buffer.output());
+                        read >= 0;
+                        read = in.read(buffer.length(), buffer.output())) {
+                    out.append(buffer.slice(0, read));
+                }
+                out.force();
+            }
+        } catch (IOException e) {
+            target.delete();
+            throw new DBException("Unable to copy file to ingest " + file.file, e);
+        }
+    }
+
+    private void installIngestedFiles() throws IOException {
+        checkState(mutex.isHeldByCurrentThread());
+        ExternalFileIngestion ingestion = pendingIngestion;
+        try {
+            VersionEdit edit = new VersionEdit();
+            Version current = versions.getCurrent();
+            for (ExternalFile file : ingestion.files) {
+                int level =
+                        pickLevelForIngestedFile(
+                                current, file.smallest.getUserKey(), file.largest.getUserKey());
+                edit.addFile(
+                        level,
+                        new FileMetaData(
+                                file.number,
+                                file.fileSize,
+                                withSequence(file.smallest, ingestion.sequence),
+                                withSequence(file.largest, ingestion.sequence),
+                                ingestion.sequence));
+                options.logger()
+                        .log(
+                                "Ingested table #%s to level-%s: %s bytes",
+                                file.number,
+                                level,
+                                file.fileSize);
+            }
+            versions.setLastSequence(ingestion.sequence);
+            versions.logAndApply(edit, mutex);
+            installSuperVersion();
+            ingestion.done = true;
+        } finally {
+            pendingIngestion = null;
+        }
+    }
+
+    /** Deepest level such that neither it nor any level above it overlaps the key range. */
+    private static int pickLevelForIngestedFile(
+            Version current, Slice smallestUserKey, Slice largestUserKey) {
+        int level = 0;
+        if (!current.overlapInLevel(0, smallestUserKey, largestUserKey)) {
+            while (level + 1 < current.numberOfLevels()
+                    && !current.overlapInLevel(level + 1, smallestUserKey, largestUserKey)) {
+                level++;
+            }
+        }
+        return level;
+    }
+
+    private static InternalKey withSequence(InternalKey key, long sequence) {
+        return new InternalKey(key.getUserKey(), sequence, key.getValueType());
     }
 
     @Override
@@ -1033,9 +1705,9 @@ public class DbImpl implements DB {
 
     @Override
     public DBIteratorAdapter iterator(ReadOptions options) {
-        mutex.lock();
+        SuperVersion superVersion = acquireSuperVersion();
         try {
-            InternalIterator rawIterator = internalIterator(options);
+            InternalIterator rawIterator = internalIterator(options, superVersion);
 
             // filter out any entries not visible in our snapshot
             long snapshot = getSnapshot(options);
@@ -1044,38 +1716,57 @@ public class DbImpl implements DB {
                             rawIterator,
                             snapshot,
                             internalKeyComparator.getUserComparator(),
-                            new RecordBytesListener());
+                            new RecordBytesListener(),
+                            mergeOperator,
+                            rangeTombstones(superVersion, snapshot),
+                            options.prefixSameAsStart() ? prefixExtractor : null);
             return new DBIteratorAdapter(snapshotIterator);
         } finally {
-            mutex.unlock();
+            superVersion.release();
+        }
+    }
+
+    /** Range tombstones of the memtables and of the current version visible at snapshot. */
+    private RangeTombstones rangeTombstones(SuperVersion superVersion, long snapshot) {
+        List<RangeTombstone> rangeTombstones =
+                new ArrayList<>(superVersion.memTable.rangeTombstones());
+        for (ImmutableMemTable immutableMemTable : superVersion.immutableMemTables) {
+            rangeTombstones.addAll(immutableMemTable.memTable.rangeTombstones());
+        }
+        Version current = superVersion.current;
+        for (int level = 0; level < current.numberOfLevels(); level++) {
+            for (FileMetaData file : current.getFiles(level)) {
+                rangeTombstones.addAll(tableCache.getRangeTombstones(file));
+            }
         }
+        return RangeTombstones.create(
+                rangeTombstones, internalKeyComparator.getUserComparator(), snapshot);
     }
 
     InternalIterator internalIterator(ReadOptions options) {
-        mutex.lock();
+        SuperVersion superVersion = acquireSuperVersion();
+        try {
+            return internalIterator(options, superVersion);
+        } finally {
+            superVersion.release();
+        }
+    }
+
+    /** Iterator over the entries of {@code superVersion}, which it retains until closed. */
+    private InternalIterator internalIterator(ReadOptions options, SuperVersion superVersion) {
         try (SafeListBuilder<InternalIterator> builder = SafeListBuilder.builder()) {
-            // merge together the memTable, immutableMemTable, and tables in version set
-            builder.add(memTable.iterator());
-            if (immutableMemTable != null) {
-                builder.add(immutableMemTable.iterator());
+            // merge together the memTable, immutableMemTables, and tables in version set
+            builder.add(superVersion.memTable.iterator());
+            for (ImmutableMemTable immutableMemTable : superVersion.immutableMemTables) {
+                builder.add(immutableMemTable.memTable.iterator());
             }
-            Version current = versions.getCurrent();
-            builder.addAll(current.getLevelIterators(options));
-            current.retain();
+            builder.addAll(superVersion.current.getLevelIterators(options));
+            superVersion.retain();
             return new DbIterator(
                     new MergingIterator(builder.build(), internalKeyComparator),
-                    () -> {
-                        mutex.lock();
-                        try {
-                            current.release();
-                        } finally {
-                            mutex.unlock();
-                        }
-                    });
+                    superVersion::release);
         } catch (IOException e) {
             throw new DBException(e);
-        } finally {
-            mutex.unlock();
         }
     }
 
@@ -1084,13 +1775,62 @@ public class DbImpl implements DB {
      * once every config::READ_BYTES_PERIOD bytes.
      */
     void recordReadSample(InternalKey key) {
-        mutex.lock();
+        SuperVersion superVersion = acquireSuperVersion();
         try {
-            if (versions.getCurrent().recordReadSample(key)) {
-                maybeScheduleCompaction();
+            if (superVersion.current.recordReadSample(key)) {
+                mutex.lock();
+                try {
+                    maybeScheduleCompaction();
+                } finally {
+                    mutex.unlock();
+                }
             }
         } finally {
-            mutex.unlock();
+            superVersion.release();
+        }
+    }
+
+    /**
+     * Retain the memtables and current version of the readers without taking the mutex. The
+     * caller must release the returned holder.
+     */
+    private SuperVersion acquireSuperVersion() {
+        while (true) {
+            SuperVersion superVersion = this.superVersion;
+            if (superVersion.tryRetain()) {
+                return superVersion;
+            }
+            if (superVersion == this.superVersion) {
+                throw new DatabaseShutdownException("Database is closed");
+            }
+            // replaced and released since it was read, retry with the new one
+        }
+    }
+
+    private void retainMemTable(MemTable memTable) {
+        synchronized (memTableReferences) {
+            memTableReferences.merge(memTable, 1, Integer::sum);
+        }
+    }
+
+    /** Release a memtable once no super version holds it anymore. */
+    private void releaseMemTable(MemTable memTable) {
+        synchronized (memTableReferences) {
+            if (memTableReferences.merge(memTable, -1, Integer::sum) > 0) {
+                return;
+            }
+            memTableReferences.remove(memTable);
+        }
+        memTable.release();
+    }
+
+    /** Publish the memtables and current version after one of them changed. */
+    private void installSuperVersion() {
+        checkState(mutex.isHeldByCurrentThread());
+        SuperVersion previous = superVersion;
+        superVersion = new SuperVersion(memTable, immutableMemTables, versions.getCurrent());
+        if (previous != null) {
+            previous.release();
         }
     }
 
@@ -1111,29 +1851,41 @@ public class DbImpl implements DB {
                 : versions.getLastSequence();
     }
 
+    /** Check, without the mutex, whether the current memtable can take a write without delay. */
+    private boolean hasRoomForWrite() {
+        // when no more memtables can wait to be flushed, a memtable filling up slows writes down
+        int limit =
+                immutableMemTables.size() < options.maxImmutableMemTables()
+                        ? options.writeBufferSize()
+                        : options.writeBufferSize() / 2;
+        return backgroundException == null
+                && writeController.getState() == WriteController.State.NORMAL
+                && memTable.approximateMemoryUsage() <= limit;
+    }
+
     private void makeRoomForWrite(boolean force) {
         checkState(mutex.isHeldByCurrentThread());
-        checkState(!writers.isEmpty());
 
         boolean allowDelay = !force;
 
         while (true) {
             checkBackgroundException();
-            if (allowDelay && versions.numberOfFilesInLevel(0) > L0_SLOWDOWN_WRITES_TRIGGER) {
-                // We are getting close to hitting a hard limit on the number of
-                // L0 files.  Rather than delaying a single write by several
-                // seconds when we hit the hard limit, start delaying each
-                // individual write by 1ms to reduce latency variance.  Also,
-                // this delay hands over some CPU to the compaction thread in
-                // case it is sharing the same core as the writer.
-                try {
+            updateWriteController();
+            if (allowDelay && writeController.getState() == WriteController.State.DELAYED) {
+                // Compactions are falling behind. Rather than stopping writes for several
+                // seconds once a hard limit is hit, meter writes at the delayed write rate,
+                // each group paying in proportion to its size. This also hands over some CPU
+                // to the compaction thread in case it is sharing the same core as the writer.
+                long start = System.nanoTime();
+                long delayNanos = writeController.getDelayNanos(lastBatchGroupSize, start);
+                if (delayNanos > 0) {
                     mutex.unlock();
-                    Thread.sleep(1);
-                } catch (InterruptedException e) {
-                    Thread.currentThread().interrupt();
-                    throw new DBException(e);
-                } finally {
-                    mutex.lock();
+                    try {
+                        awaitDelay(start, delayNanos);
+                    } finally {
+                        mutex.lock();
+                        writeController.recordStall(System.nanoTime() - start);
+                    }
                 }
 
                 // Do not delay a single write more than once
@@ -1141,15 +1893,19 @@ public class DbImpl implements DB {
             } else if (!force && memTable.approximateMemoryUsage() <= options.writeBufferSize()) {
                 // There is room in current memtable
                 break;
-            } else if (immutableMemTable != null) {
+            } else if (immutableMemTables.size() >= options.maxImmutableMemTables()) {
                 // We have filled up the current memtable, but the previous
-                // one is still being compacted, so we wait.
+                // ones are still being compacted, so we wait.
                 options.logger().log("Current memtable full; waiting...");
-                backgroundCondition.awaitUninterruptibly();
+                awaitBackgroundWork();
             } else if (versions.numberOfFilesInLevel(0) >= L0_STOP_WRITES_TRIGGER) {
                 // There are too many level-0 files.
                 options.logger().log("Too many L0 files; waiting...");
-                backgroundCondition.awaitUninterruptibly();
+                awaitBackgroundWork();
+            } else if (writeController.getState() == WriteController.State.STOPPED) {
+                // Compactions have too many bytes to rewrite
+                options.logger().log("Too many pending compaction bytes; waiting...");
+                awaitBackgroundWork();
             } else {
                 // Attempt to switch to a new memtable and trigger compaction of old
                 checkState(versions.getPrevLogNumber() == 0);
@@ -1176,9 +1932,15 @@ public class DbImpl implements DB {
                             e);
                 }
 
-                // create a new mem table
-                immutableMemTable = memTable;
-                memTable = new MemTable(internalKeyComparator);
+                // create a new mem table, older ones are flushed in order
+                immutableMemTables =
+                        ImmutableList.<ImmutableMemTable>builder()
+                                .add(new ImmutableMemTable(memTable, memTableUnlogged, logNumber))
+                                .addAll(immutableMemTables)
+                                .build();
+                memTable = newMemTable();
+                memTableUnlogged = false;
+                installSuperVersion();
 
                 // Do not force another compaction there is space available
                 force = false;
@@ -1188,28 +1950,97 @@ public class DbImpl implements DB {
         }
     }
 
+    private void updateWriteController() {
+        checkState(mutex.isHeldByCurrentThread());
+        MemTable memTable = this.memTable;
+        double memTableFill =
+                immutableMemTables.size() < options.maxImmutableMemTables() || memTable == null
+                        ? 0
+                        : (double) memTable.approximateMemoryUsage() / options.writeBufferSize();
+        writeController.update(
+                versions.numberOfFilesInLevel(0),
+                memTableFill,
+                versions.getPendingCompactionBytes());
+        if (rateLimiter != null) {
+            // flush and compact faster as compactions fall behind, before writes get delayed
+            rateLimiter.tune(
+                    versions.getPendingCompactionBytes(),
+                    options.softPendingCompactionBytesLimit() > 0
+                            ? options.softPendingCompactionBytesLimit()
+                            : options.hardPendingCompactionBytesLimit());
+        }
+    }
+
+    /** Sleep for a write delay, cut short when compactions catch up. Must not hold the mutex. */
+    private void awaitDelay(long start, long delayNanos) {
+        long remaining = delayNanos;
+        while (remaining > 0 && writeController.getState() == WriteController.State.DELAYED) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(Math.min(remaining, TimeUnit.MILLISECONDS.toNanos(1)));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new DBException(e);
+            }
+            remaining = delayNanos - (System.nanoTime() - start);
+        }
+    }
+
+    /** Stop writing until a background compaction completes, recording the stall. */
+    private void awaitBackgroundWork() {
+        writeController.recordStop();
+        long start = System.nanoTime();
+        backgroundCondition.awaitUninterruptibly();
+        writeController.recordStall(System.nanoTime() - start);
+    }
+
+    private MemTable newMemTable() {
+        MemTable memTable = memTableFactory.newMemTable(internalKeyComparator, options);
+        if (options.memTableBloomSizeRatio() > 0) {
+            memTable =
+                    new BloomMemTable(
+                            memTable,
+                            (int) (options.writeBufferSize() * options.memTableBloomSizeRatio()));
+        }
+        return memTable;
+    }
+
     private void compactMemTable() throws IOException {
         checkState(mutex.isHeldByCurrentThread());
-        checkState(immutableMemTable != null);
+        checkState(!immutableMemTables.isEmpty());
 
         try {
-            // Save the contents of the memtable as a new Table
+            // Flush the oldest memtable, or all of them into a single table when merging
+            List<ImmutableMemTable> flushed =
+                    options.mergeImmutableMemTables()
+                            ? immutableMemTables
+                            : immutableMemTables.subList(
+                                    immutableMemTables.size() - 1, immutableMemTables.size());
+            List<MemTable> memTables = new ArrayList<>(flushed.size());
+            for (ImmutableMemTable immutableMemTable : flushed) {
+                memTables.add(immutableMemTable.memTable);
+            }
+
+            // Save the contents of the memtables as a new Table
             VersionEdit edit = new VersionEdit();
             Version base = versions.getCurrent();
             base.retain();
-            writeLevel0Table(immutableMemTable, edit, base);
+            writeLevel0Table(memTables, edit, base);
             base.release();
 
             if (shuttingDown.get()) {
                 throw new DatabaseShutdownException("Database shutdown during memtable compaction");
             }
 
-            // Replace immutable memtable with the generated Table
+            // Replace immutable memtables with the generated Table. Logs older than the one
+            // started when the newest flushed memtable was sealed are no longer needed.
             edit.setPreviousLogNumber(0);
-            edit.setLogNumber(log.getFileNumber()); // Earlier logs no longer needed
+            edit.setLogNumber(flushed.get(0).nextLogNumber);
             versions.logAndApply(edit, mutex);
 
-            immutableMemTable = null;
+            // memtables sealed during the flush are newer, they are kept at the head
+            immutableMemTables =
+                    immutableMemTables.subList(0, immutableMemTables.size() - flushed.size());
+            installSuperVersion();
             deleteObsoleteFiles();
         } finally {
             backgroundCondition.signalAll();
@@ -1217,11 +2048,16 @@ public class DbImpl implements DB {
     }
 
     private void writeLevel0Table(MemTable mem, VersionEdit edit, Version base) throws IOException {
+        writeLevel0Table(Collections.singletonList(mem), edit, base);
+    }
+
+    private void writeLevel0Table(List<MemTable> mems, VersionEdit edit, Version base)
+            throws IOException {
         final long startMicros = env.nowMicros();
         checkState(mutex.isHeldByCurrentThread());
 
-        // skip empty mem table
-        if (mem.isEmpty()) {
+        // skip empty mem tables
+        if (mems.stream().allMatch(MemTable::isEmpty)) {
             return;
         }
 
@@ -1233,7 +2069,7 @@ public class DbImpl implements DB {
         mutex.unlock();
         FileMetaData meta;
         try {
-            meta = buildTable(mem, fileNumber);
+            meta = buildTable(mems, fileNumber);
         } finally {
             mutex.lock();
         }
@@ -1254,19 +2090,20 @@ public class DbImpl implements DB {
         this.stats[level].add(env.nowMicros() - startMicros, 0, meta.getFileSize());
     }
 
-    private FileMetaData buildTable(MemTable data, long fileNumber) throws IOException {
+    private FileMetaData buildTable(List<MemTable> data, long fileNumber) throws IOException {
         File file = databaseDir.child(Filename.tableFileName(fileNumber));
         try {
             InternalKey smallest = null;
             InternalKey largest = null;
-            try (WritableFile writableFile = env.newWritableFile(file)) {
+            List<RangeTombstone> rangeTombstones = new ArrayList<>();
+            try (WritableFile writableFile = newTableFile(file, RateLimiter.Priority.HIGH)) {
                 TableBuilder tableBuilder =
                         new TableBuilder(
                                 options,
                                 writableFile,
                                 new InternalUserComparator(internalKeyComparator));
 
-                try (InternalIterator it = data.iterator()) {
+                try (InternalIterator it = memTablesIterator(data)) {
                     for (boolean valid = it.seekToFirst(); valid; valid = it.next()) {
                         // update keys
                         InternalKey key = it.key();
@@ -1279,6 +2116,23 @@ public class DbImpl implements DB {
                     }
                 }
 
+                for (MemTable memTable : data) {
+                    rangeTombstones.addAll(memTable.rangeTombstones());
+                }
+                if (!rangeTombstones.isEmpty()) {
+                    tableBuilder.addMetaBlock(
+                            RangeTombstone.META_BLOCK_NAME,
+                            RangeTombstone.writeBlock(
+                                    rangeTombstones,
+                                    internalKeyComparator,
+                                    options.blockRestartInterval()));
+                    // the table covers the ranges it deletes
+                    for (RangeTombstone tombstone : rangeTombstones) {
+                        smallest = min(smallest, tombstone.getKey());
+                        largest = max(largest, tombstone.getLargestKey());
+                    }
+                }
+
                 tableBuilder.finish();
                 writableFile.force();
             }
@@ -1289,7 +2143,13 @@ public class DbImpl implements DB {
                 return new FileMetaData(fileNumber, 0, null, null);
             }
             FileMetaData fileMetaData =
-                    new FileMetaData(fileNumber, file.length(), smallest, largest);
+                    new FileMetaData(
+                            fileNumber,
+                            file.length(),
+                            smallest,
+                            largest,
+                            0,
+                            !rangeTombstones.isEmpty());
 
             // verify table can be opened
             tableCache.newIterator(fileMetaData, new ReadOptions()).close();
@@ -1301,7 +2161,31 @@ public class DbImpl implements DB {
         }
     }
 
-    private void doCompactionWork(CompactionState compactionState) throws IOException {
+    private InternalKey min(InternalKey key, InternalKey other) {
+        return key == null || internalKeyComparator.compare(other, key) < 0 ? other : key;
+    }
+
+    private InternalKey max(InternalKey key, InternalKey other) {
+        return key == null || internalKeyComparator.compare(other, key) > 0 ? other : key;
+    }
+
+    private InternalIterator memTablesIterator(List<MemTable> memTables) throws IOException {
+        if (memTables.size() == 1) {
+            return memTables.get(0).iterator();
+        }
+        try (SafeListBuilder<InternalIterator> builder = SafeListBuilder.builder()) {
+            for (MemTable memTable : memTables) {
+                builder.add(memTable.iterator());
+            }
+            return new MergingIterator(builder.build(), internalKeyComparator);
+        }
+    }
+
+    /**
+     * Compact and install the outputs. Returns false, without installing the outputs, if a snapshot
+     * taken during the compaction can see values changed by the compaction filter.
+     */
+    private boolean doCompactionWork(CompactionState compactionState) throws IOException {
         final long startMicros = env.nowMicros();
         long immMicros = 0; // Micros spent doing imm_ compactions
         options.logger()
@@ -1320,12 +2204,15 @@ public class DbImpl implements DB {
 
         compactionState.smallestSnapshot =
                 snapshots.isEmpty() ? versions.getLastSequence() : snapshots.getOldest();
+        compactionState.newestSnapshot = snapshots.isEmpty() ? -1 : snapshots.getNewest();
 
         // Release mutex while we're actually doing the compaction work
         final MergingIterator mergingIterator =
                 versions.makeInputIterator(compactionState.compaction);
         mutex.unlock();
         try (MergingIterator iterator = mergingIterator) {
+            readRangeTombstones(compactionState);
+
             Slice currentUserKey = null;
             boolean hasCurrentUserKey = false;
 
@@ -1334,7 +2221,7 @@ public class DbImpl implements DB {
                     valid && !shuttingDown.get();
                     valid = iterator.next()) {
                 // always give priority to compacting the current mem table
-                if (immutableMemTable != null) {
+                if (!immutableMemTables.isEmpty()) {
                     long immStart = env.nowMicros();
                     mutex.lock();
                     try {
@@ -1345,9 +2232,17 @@ public class DbImpl implements DB {
                     immMicros += (env.nowMicros() - immStart);
                 }
                 InternalKey key = iterator.key();
+                if (!compactionState.mergeKeys.isEmpty()
+                        && internalKeyComparator
+                                        .getUserComparator()
+                                        .compare(key.getUserKey(), currentUserKey)
+                                != 0) {
+                    // The operands apply to values in deeper levels, if any
+                    finishMergeOperands(compactionState, null, false);
+                }
                 if (compactionState.compaction.shouldStopBefore(key)
                         && compactionState.builder != null) {
-                    finishCompactionOutputFile(compactionState);
+                    compactionState.closeCurrentOutput = true;
                 }
 
                 // Handle key/value, add to state, etc.
@@ -1370,9 +2265,36 @@ public class DbImpl implements DB {
                         lastSequenceForKey = MAX_SEQUENCE_NUMBER;
                     }
 
-                    if (lastSequenceForKey <= compactionState.smallestSnapshot) {
+                    if (compactionState.obsoleteRanges.isCovered(
+                            key.getUserKey(), key.getSequenceNumber())) {
+                        // Deleted by a range tombstone visible to all snapshots, so are the
+                        // older entries of the key. Held back operands apply to nothing.
+                        drop = true;
+                        if (!compactionState.mergeKeys.isEmpty()) {
+                            finishMergeOperands(compactionState, null, true);
+                        }
+                    } else if (lastSequenceForKey <= compactionState.smallestSnapshot) {
                         // Hidden by an newer entry for same user key
                         drop = true; // (A)
+                    } else if (!compactionState.mergeKeys.isEmpty()) {
+                        // Older than merge operands visible to all snapshots, merge them
+                        // into a single value if this is the value or deletion they apply to.
+                        drop = true;
+                        if (key.getValueType() == MERGE) {
+                            compactionState.mergeKeys.add(key);
+                            compactionState.mergeOperands.add(iterator.value());
+                        } else {
+                            finishMergeOperands(
+                                    compactionState,
+                                    key.getValueType() == VALUE ? iterator.value() : null,
+                                    true);
+                        }
+                    } else if (key.getValueType() == MERGE
+                            && key.getSequenceNumber() <= compactionState.smallestSnapshot) {
+                        // No snapshot can see this operand without the older entries of the key
+                        drop = true;
+                        compactionState.mergeKeys.add(key);
+                        compactionState.mergeOperands.add(iterator.value());
                     } else if (key.getValueType() == DELETION
                             && key.getSequenceNumber() <= compactionState.smallestSnapshot
                             && compactionState.compaction.isBaseLevelForKey(key.getUserKey())) {
@@ -1386,24 +2308,20 @@ public class DbImpl implements DB {
                         drop = true;
                     }
 
-                    lastSequenceForKey = key.getSequenceNumber();
+                    // merge operands do not hide older entries
+                    if (key.getValueType() != MERGE) {
+                        lastSequenceForKey = key.getSequenceNumber();
+                    }
                 }
 
                 if (!drop) {
-                    // Open output file if necessary
-                    if (compactionState.builder == null) {
-                        openCompactionOutputFile(compactionState);
-                    }
-                    if (compactionState.builder.getEntryCount() == 0) {
-                        compactionState.currentSmallest = key;
-                    }
-                    compactionState.currentLargest = key;
-                    compactionState.builder.add(key.encode(), iterator.value());
-
-                    // Close output file if it is big enough
-                    if (compactionState.builder.getFileSize()
-                            >= compactionState.compaction.getMaxOutputFileSize()) {
-                        finishCompactionOutputFile(compactionState);
+                    if (compactionFilter != null
+                            && key.getValueType() == VALUE
+                            && key.getSequenceNumber() > compactionState.newestSnapshot) {
+                        // Value visible to no snapshot, changing it keeps snapshots intact
+                        addFilteredCompactionOutput(compactionState, key, iterator.value());
+                    } else {
+                        addCompactionOutput(compactionState, key, iterator.value());
                     }
                 }
             }
@@ -1411,8 +2329,15 @@ public class DbImpl implements DB {
             if (shuttingDown.get()) {
                 throw new DatabaseShutdownException("DB shutdown during compaction");
             }
+            if (!compactionState.mergeKeys.isEmpty()) {
+                finishMergeOperands(compactionState, null, false);
+            }
+            if (compactionState.builder == null && !compactionState.rangeTombstones.isEmpty()) {
+                // the tombstones outlive all the entries of the inputs
+                openCompactionOutputFile(compactionState);
+            }
             if (compactionState.builder != null) {
-                finishCompactionOutputFile(compactionState);
+                finishCompactionOutputFile(compactionState, null);
             }
         } finally {
             long micros = env.nowMicros() - startMicros - immMicros;
@@ -1430,8 +2355,132 @@ public class DbImpl implements DB {
             this.stats[compactionState.compaction.getLevel() + 1].add(
                     micros, bytesRead, bytesWritten);
         }
+        if (!snapshots.isEmpty()
+                && snapshots.getNewest() >= compactionState.oldestFilteredSequence) {
+            options.logger().log("Compaction filter raced with a new snapshot, compacting again");
+            return false;
+        }
         installCompactionResults(compactionState);
         options.logger().log("compacted to: %s", versions.levelSummary());
+        return true;
+    }
+
+    /**
+     * Split the range tombstones of the compaction inputs into the ones that hide entries visible
+     * to no snapshot, and the ones to write to the outputs. Tombstones visible to all snapshots are
+     * dropped when no deeper level holds keys they may cover.
+     */
+    private void readRangeTombstones(CompactionState compactionState) {
+        List<RangeTombstone> inputRangeTombstones = new ArrayList<>();
+        for (int which = 0; which < 2; which++) {
+            for (FileMetaData file : compactionState.compaction.input(which)) {
+                inputRangeTombstones.addAll(tableCache.getRangeTombstones(file));
+            }
+        }
+        if (inputRangeTombstones.isEmpty()) {
+            return;
+        }
+        compactionState.obsoleteRanges =
+                RangeTombstones.create(
+                        inputRangeTombstones,
+                        internalKeyComparator.getUserComparator(),
+                        compactionState.smallestSnapshot);
+        for (RangeTombstone tombstone : inputRangeTombstones) {
+            if (tombstone.getSequenceNumber() > compactionState.smallestSnapshot
+                    || !compactionState.compaction.isBaseLevelForRange(
+                            tombstone.getBegin(), tombstone.getEnd())) {
+                compactionState.rangeTombstones.add(tombstone);
+            }
+        }
+    }
+
+    private void addCompactionOutput(CompactionState compactionState, InternalKey key, Slice value)
+            throws IOException {
+        if (compactionState.closeCurrentOutput
+                && internalKeyComparator
+                                .getUserComparator()
+                                .compare(
+                                        key.getUserKey(),
+                                        compactionState.currentLargest.getUserKey())
+                        != 0) {
+            // Close the output before the next user key, the range tombstones of the output
+            // then cover entries of the output only
+            finishCompactionOutputFile(compactionState, key.getUserKey().copySlice());
+        }
+        // Open output file if necessary
+        if (compactionState.builder == null) {
+            openCompactionOutputFile(compactionState);
+        }
+        if (compactionState.builder.getEntryCount() == 0) {
+            compactionState.currentSmallest = key;
+        }
+        compactionState.currentLargest = key;
+        compactionState.builder.add(key.encode(), value);
+
+        // Close output file if it is big enough
+        if (compactionState.builder.getFileSize()
+                >= compactionState.compaction.getMaxOutputFileSize()) {
+            compactionState.closeCurrentOutput = true;
+        }
+    }
+
+    /**
+     * Write the entry as decided by the compaction filter. A removed value is dropped if there is
+     * no snapshot, so that rule (A) drops the older entries of the compaction inputs, and the
+     * compaction output is the deepest data of the key. Else it is replaced by a deletion marker
+     * hiding the older values kept for snapshots or held by deeper levels.
+     */
+    private void addFilteredCompactionOutput(
+            CompactionState compactionState, InternalKey key, Slice value) throws IOException {
+        byte[] existingValue = value.getBytes();
+        byte[] newValue =
+                compactionFilter.filter(
+                        compactionState.compaction.getLevel(),
+                        key.getUserKey().getBytes(),
+                        existingValue);
+        if (newValue != existingValue) {
+            compactionState.oldestFilteredSequence =
+                    Math.min(compactionState.oldestFilteredSequence, key.getSequenceNumber());
+        }
+        if (newValue == null) {
+            if (compactionState.newestSnapshot >= 0
+                    || !compactionState.compaction.isBaseLevelForKey(key.getUserKey())) {
+                addCompactionOutput(
+                        compactionState,
+                        new InternalKey(key.getUserKey(), key.getSequenceNumber(), DELETION),
+                        Slices.EMPTY_SLICE);
+            }
+        } else if (newValue != existingValue) {
+            addCompactionOutput(compactionState, key, Slices.wrappedBuffer(newValue));
+        } else {
+            addCompactionOutput(compactionState, key, value);
+        }
+    }
+
+    /**
+     * Write the held back merge operands as a single value if {@code foundBase} or the compaction
+     * output is the deepest data of the key, else write them unchanged.
+     *
+     * @param existingValue value the operands apply to, null if none or deleted
+     */
+    private void finishMergeOperands(
+            CompactionState compactionState, Slice existingValue, boolean foundBase)
+            throws IOException {
+        List<InternalKey> keys = compactionState.mergeKeys;
+        List<Slice> operands = compactionState.mergeOperands;
+        Slice userKey = keys.get(0).getUserKey();
+        if (foundBase || compactionState.compaction.isBaseLevelForKey(userKey)) {
+            addCompactionOutput(
+                    compactionState,
+                    new InternalKey(userKey, keys.get(0).getSequenceNumber(), VALUE),
+                    mergeOperator.fullMerge(userKey, existingValue, operands));
+        } else {
+            for (int i = 0; i < keys.size(); i++) {
+                addCompactionOutput(compactionState, keys.get(i), operands.get(i));
+            }
+        }
+        keys.clear();
+        operands.clear();
     }
 
     private void openCompactionOutputFile(CompactionState compactionState) throws IOException {
@@ -1447,11 +2496,12 @@ public class DbImpl implements DB {
             compactionState.currentFileSize = 0;
             compactionState.currentSmallest = null;
             compactionState.currentLargest = null;
+            compactionState.closeCurrentOutput = false;
         } finally {
             mutex.unlock();
         }
         File file = databaseDir.child(Filename.tableFileName(fileNumber));
-        compactionState.outfile = env.newWritableFile(file);
+        compactionState.outfile = newTableFile(file, RateLimiter.Priority.LOW);
         compactionState.builder =
                 new TableBuilder(
                         options,
@@ -1459,7 +2509,18 @@ public class DbImpl implements DB {
                         new InternalUserComparator(internalKeyComparator));
     }
 
-    private void finishCompactionOutputFile(CompactionState compactionState) throws IOException {
+    /** Table files of flushes and compactions are written through the rate limiter, if any. */
+    private WritableFile newTableFile(File file, RateLimiter.Priority priority) throws IOException {
+        WritableFile writableFile = env.newWritableFile(file);
+        return rateLimiter == null ? writableFile : rateLimiter.limit(writableFile, priority);
+    }
+
+    /**
+     * @param upperBound first user key of the next output, null for the last output. Range
+     *     tombstones are clipped to the keys between the outputs bounds.
+     */
+    private void finishCompactionOutputFile(CompactionState compactionState, Slice upperBound)
+            throws IOException {
         requireNonNull(compactionState, "compactionState is null");
         checkArgument(compactionState.outfile != null);
         checkArgument(compactionState.builder != null);
@@ -1467,6 +2528,27 @@ public class DbImpl implements DB {
         long outputNumber = compactionState.currentFileNumber;
         checkArgument(outputNumber != 0);
 
+        List<RangeTombstone> rangeTombstones =
+                clipRangeTombstones(
+                        compactionState.rangeTombstones,
+                        compactionState.currentLowerBound,
+                        upperBound);
+        compactionState.currentLowerBound = upperBound;
+        if (!rangeTombstones.isEmpty()) {
+            compactionState.builder.addMetaBlock(
+                    RangeTombstone.META_BLOCK_NAME,
+                    RangeTombstone.writeBlock(
+                            rangeTombstones,
+                            internalKeyComparator,
+                            options.blockRestartInterval()));
+            for (RangeTombstone tombstone : rangeTombstones) {
+                compactionState.currentSmallest =
+                        min(compactionState.currentSmallest, tombstone.getKey());
+                compactionState.currentLargest =
+                        max(compactionState.currentLargest, tombstone.getLargestKey());
+            }
+        }
+
         long currentEntries = compactionState.builder.getEntryCount();
         long currentBytes = 0;
         try {
@@ -1483,7 +2565,9 @@ public class DbImpl implements DB {
                         compactionState.currentFileNumber,
                         compactionState.currentFileSize,
                         compactionState.currentSmallest,
-                        compactionState.currentLargest);
+                        compactionState.currentLargest,
+                        0,
+                        !rangeTombstones.isEmpty());
         compactionState.outputs.add(currentFileMetaData);
 
         compactionState.builder = null;
@@ -1505,6 +2589,27 @@ public class DbImpl implements DB {
         }
     }
 
+    /** Parts of the tombstones in [lowerBound, upperBound), a null bound is unbounded. */
+    private List<RangeTombstone> clipRangeTombstones(
+            List<RangeTombstone> rangeTombstones, Slice lowerBound, Slice upperBound) {
+        UserComparator userComparator = internalKeyComparator.getUserComparator();
+        List<RangeTombstone> clipped = new ArrayList<>();
+        for (RangeTombstone tombstone : rangeTombstones) {
+            Slice begin = tombstone.getBegin();
+            if (lowerBound != null && userComparator.compare(begin, lowerBound) < 0) {
+                begin = lowerBound;
+            }
+            Slice end = tombstone.getEnd();
+            if (upperBound != null && userComparator.compare(upperBound, end) < 0) {
+                end = upperBound;
+            }
+            if (userComparator.compare(begin, end) < 0) {
+                clipped.add(new RangeTombstone(begin, end, tombstone.getSequenceNumber()));
+            }
+        }
+        return clipped;
+    }
+
     private void installCompactionResults(CompactionState compact) throws IOException {
         checkState(mutex.isHeldByCurrentThread());
         options.logger()
@@ -1525,6 +2630,7 @@ public class DbImpl implements DB {
         }
 
         versions.logAndApply(compact.compaction.getEdit(), mutex);
+        installSuperVersion();
     }
 
     @VisibleForTesting
@@ -1589,6 +2695,10 @@ public class DbImpl implements DB {
         private final List<FileMetaData> outputs = new ArrayList<>();
 
         private long smallestSnapshot;
+        // entries above it are visible to no snapshot, -1 if there is no snapshot
+        private long newestSnapshot;
+        // oldest entry removed or rewritten by the compaction filter
+        private long oldestFilteredSequence = MAX_SEQUENCE_NUMBER;
 
         // State kept for output being generated
         private WritableFile outfile;
@@ -1602,6 +2712,20 @@ public class DbImpl implements DB {
 
         private long totalBytes;
 
+        // Merge operands of the current user key visible to all snapshots, newest first,
+        // held back until the value they apply to is found
+        private final List<InternalKey> mergeKeys = new ArrayList<>();
+        private final List<Slice> mergeOperands = new ArrayList<>();
+
+        // Range tombstones of the inputs visible to all snapshots, entries they cover are dropped
+        private RangeTombstones obsoleteRanges = RangeTombstones.EMPTY;
+        // Range tombstones of the inputs that must be kept, written to the outputs they overlap
+        private final List<RangeTombstone> rangeTombstones = new ArrayList<>();
+        // Outputs end between user keys, the current one covers [currentLowerBound, ...),
+        // null if unbounded
+        private Slice currentLowerBound;
+        private boolean closeCurrentOutput;
+
         private CompactionState(Compaction compaction) {
             this.compaction = compaction;
         }
@@ -1644,55 +2768,111 @@ public class DbImpl implements DB {
         }
     }
 
-    private WriteBatchImpl readWriteBatch(SliceInput record, int updateSize) throws IOException {
-        WriteBatchImpl writeBatch = new WriteBatchImpl();
-        int entries = 0;
-        while (record.isReadable()) {
-            entries++;
-            ValueType valueType = ValueType.getValueTypeByPersistentId(record.readByte());
-            if (valueType == VALUE) {
-                Slice key = readLengthPrefixedBytes(record);
-                Slice value = readLengthPrefixedBytes(record);
-                writeBatch.put(key, value);
-            } else if (valueType == DELETION) {
-                Slice key = readLengthPrefixedBytes(record);
-                writeBatch.delete(key);
-            } else {
-                throw new IllegalStateException("Unexpected value type " + valueType);
+    /** Memtable that no longer takes writes and waits to be written to a level-0 table. */
+    private static final class ImmutableMemTable {
+        private final MemTable memTable;
+        // holds writes that were not logged, it must be flushed on close
+        private final boolean unlogged;
+        // first log that does not hold writes of this memtable
+        private final long nextLogNumber;
+
+        private ImmutableMemTable(MemTable memTable, boolean unlogged, long nextLogNumber) {
+            this.memTable = memTable;
+            this.unlogged = unlogged;
+            this.nextLogNumber = nextLogNumber;
+        }
+    }
+
+    /**
+     * Memtables and current version read together by lookups and iterators. Readers retain it
+     * without the mutex, the version is released once the holder is replaced and no reader
+     * uses it anymore.
+     */
+    private final class SuperVersion {
+        private final MemTable memTable;
+        private final ImmutableList<ImmutableMemTable> immutableMemTables;
+        private final Version current;
+        // one reference while installed plus one per reader, 0 once released
+        private final AtomicInteger references = new AtomicInteger(1);
+
+        private SuperVersion(
+                MemTable memTable,
+                ImmutableList<ImmutableMemTable> immutableMemTables,
+                Version current) {
+            this.memTable = memTable;
+            this.immutableMemTables = immutableMemTables;
+            this.current = current;
+            current.retain();
+            retainMemTable(memTable);
+            for (ImmutableMemTable immutableMemTable : immutableMemTables) {
+                retainMemTable(immutableMemTable.memTable);
             }
         }
 
-        if (entries != updateSize) {
-            throw new IOException(
-                    String.format(
-                            "Expected %d entries in log record but found %s entries",
-                            updateSize, entries));
+        /** Retain the holder unless it is already released. */
+        private boolean tryRetain() {
+            while (true) {
+                int count = references.get();
+                if (count == 0) {
+                    return false;
+                }
+                if (references.compareAndSet(count, count + 1)) {
+                    return true;
+                }
+            }
+        }
+
+        private void retain() {
+            int was = references.getAndIncrement();
+            assert was > 0 : "SuperVersion was retained after it was released.";
+        }
+
+        private void release() {
+            if (references.decrementAndGet() == 0) {
+                current.release();
+                releaseMemTable(memTable);
+                for (ImmutableMemTable immutableMemTable : immutableMemTables) {
+                    releaseMemTable(immutableMemTable.memTable);
+                }
+            }
         }
+    }
 
-        return writeBatch;
+    /** Reads a value found by a lookup while the memtable it may point into is retained. */
+    @FunctionalInterface
+    private interface ValueReader<T> {
+        /** {@code inTableBlock} is true if the value is a view of a table block. */
+        T read(Slice value, boolean inTableBlock);
     }
 
-    static Slice writeWriteBatch(WriteBatchImpl updates, long sequenceBegin) {
-        Slice record = Slices.allocate(SIZE_OF_LONG + SIZE_OF_INT + updates.getApproximateSize());
-        final SliceOutput sliceOutput = record.output();
-        sliceOutput.writeLong(sequenceBegin);
-        sliceOutput.writeInt(updates.size());
-        updates.forEach(
-                new Handler() {
-                    @Override
-                    public void put(Slice key, Slice value) {
-                        sliceOutput.writeByte(VALUE.getPersistentId());
-                        writeLengthPrefixedBytes(sliceOutput, key);
-                        writeLengthPrefixedBytes(sliceOutput, value);
-                    }
+    /** Table file written outside of the database, waiting to be ingested. */
+    private static final class ExternalFile {
+        private final File file;
+        private final long fileSize;
+        // keys of the file, with sequence number 0
+        private final InternalKey smallest;
+        private final InternalKey largest;
+        // number of the file in the database directory
+        private long number;
+
+        private ExternalFile(File file, long fileSize, InternalKey smallest, InternalKey largest) {
+            this.file = file;
+            this.fileSize = fileSize;
+            this.smallest = smallest;
+            this.largest = largest;
+        }
+    }
 
-                    @Override
-                    public void delete(Slice key) {
-                        sliceOutput.writeByte(DELETION.getPersistentId());
-                        writeLengthPrefixedBytes(sliceOutput, key);
-                    }
-                });
-        return record.slice(0, sliceOutput.size());
+    private static final class ExternalFileIngestion {
+        private final List<ExternalFile> files;
+        // sequence number of all entries of the files
+        private final long sequence;
+        private boolean done;
+
+        private ExternalFileIngestion(List<ExternalFile> files, long sequence) {
+            this.files = files;
+            this.sequence = sequence;
+        }
     }
 
     public static class DatabaseShutdownException extends DBException {
@@ -1796,16 +2976,60 @@ public class DbImpl implements DB {
 
     @VisibleForTesting
     void testCompactMemTable() throws DBException {
+        flushMemTable();
+    }
+
+    /** Write current memtable to a table file and wait for it to be installed. */
+    private void flushMemTable() throws DBException {
         // NULL batch means just wait for earlier writes to be done
         writeInternal(null, new WriteOptions());
-        // Wait until the compaction completes
+        awaitMemTableFlush();
+    }
+
+    /**
+     * Flush the memtables holding writes that skipped the log, only a table file can recover them.
+     * Runs once {@link #closing} is set: it leads after the writes that already started to lead,
+     * and the writes led later fail, so no unlogged write can reach the memtable afterwards.
+     */
+    private void flushUnloggedWrites() throws DBException {
+        WriteQueue.Writer w = new WriteQueue.Writer(null, false);
+        // writers without a batch always lead
+        checkState(writeQueue.joinBatchGroup(w) == WriteQueue.STATE_GROUP_LEADER);
+        WriteQueue.WriteGroup group = new WriteQueue.WriteGroup(w);
+        boolean unlogged;
+        Throwable error = null;
+        try {
+            mutex.lock();
+            try {
+                unlogged =
+                        memTableUnlogged
+                                || immutableMemTables.stream().anyMatch(m -> m.unlogged);
+                if (memTableUnlogged) {
+                    makeRoomForWrite(true);
+                }
+            } finally {
+                mutex.unlock();
+            }
+        } catch (RuntimeException e) {
+            error = e;
+            throw e;
+        } finally {
+            writeQueue.exitAsBatchGroupLeader(group, error);
+        }
+        if (unlogged) {
+            awaitMemTableFlush();
+        }
+    }
+
+    /** Wait until the immutable memtables are flushed. */
+    private void awaitMemTableFlush() throws DBException {
         mutex.lock();
 
         try {
-            while (immutableMemTable != null && backgroundException == null) {
+            while (!immutableMemTables.isEmpty() && backgroundException == null) {
                 backgroundCondition.awaitUninterruptibly();
             }
-            if (immutableMemTable != null) {
+            if (!immutableMemTables.isEmpty()) {
                 if (backgroundException != null) {
                     throw new DBException(backgroundException);
                 }
@@ -1888,34 +3112,6 @@ public class DbImpl implements DB {
         }
     }
 
-    private class WriteBatchInternal {
-        private final WriteBatchImpl batch;
-        private final boolean sync;
-        private final Condition backgroundCondition;
-        boolean done = false;
-        public Throwable error;
-
-        WriteBatchInternal(WriteBatchImpl batch, boolean sync, Condition backgroundCondition) {
-            this.batch = batch;
-            this.sync = sync;
-            this.backgroundCondition = backgroundCondition;
-        }
-
-        void signal() {
-            backgroundCondition.signal();
-        }
-
-        void checkExceptions() {
-            checkBackgroundException();
-            if (error instanceof Error) {
-                throw (Error) error;
-            }
-            if (error != null) {
-                throw new DBException(error);
-            }
-        }
-    }
-
     @Override
     public String toString() {
         return this.getClass().getName() + "{" + databaseDir + "}";
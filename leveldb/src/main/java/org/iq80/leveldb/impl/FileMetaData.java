@@ -31,15 +31,45 @@ public class FileMetaData {
     /** Largest internal key served by table */
     private final InternalKey largest;
 
+    /**
+     * Sequence number of every entry of an ingested table, whose keys are stored with sequence 0.
+     * 0 when entries carry their own sequence number.
+     */
+    private final long globalSequenceNumber;
+
+    /** Whether the table holds range tombstones, which may extend its key range */
+    private final boolean hasRangeDeletions;
+
     /** Seeks allowed until compaction */
     // todo this mutable state should be moved elsewhere
     private final AtomicInteger allowedSeeks = new AtomicInteger(1 << 30);
 
     public FileMetaData(long number, long fileSize, InternalKey smallest, InternalKey largest) {
+        this(number, fileSize, smallest, largest, 0);
+    }
+
+    public FileMetaData(
+            long number,
+            long fileSize,
+            InternalKey smallest,
+            InternalKey largest,
+            long globalSequenceNumber) {
+        this(number, fileSize, smallest, largest, globalSequenceNumber, false);
+    }
+
+    public FileMetaData(
+            long number,
+            long fileSize,
+            InternalKey smallest,
+            InternalKey largest,
+            long globalSequenceNumber,
+            boolean hasRangeDeletions) {
         this.number = number;
         this.fileSize = fileSize;
         this.smallest = smallest.compact();
         this.largest = largest.compact();
+        this.globalSequenceNumber = globalSequenceNumber;
+        this.hasRangeDeletions = hasRangeDeletions;
     }
 
     public long getFileSize() {
@@ -58,6 +88,14 @@ public class FileMetaData {
         return largest;
     }
 
+    public long getGlobalSequenceNumber() {
+        return globalSequenceNumber;
+    }
+
+    public boolean hasRangeDeletions() {
+        return hasRangeDeletions;
+    }
+
     public int getAllowedSeeks() {
         return allowedSeeks.get();
     }
@@ -78,6 +116,12 @@ public class FileMetaData {
         sb.append(", fileSize=").append(fileSize);
         sb.append(", smallest=").append(smallest);
         sb.append(", largest=").append(largest);
+        if (globalSequenceNumber != 0) {
+            sb.append(", globalSequenceNumber=").append(globalSequenceNumber);
+        }
+        if (hasRangeDeletions) {
+            sb.append(", hasRangeDeletions=true");
+        }
         sb.append(", allowedSeeks=").append(allowedSeeks);
         sb.append('}');
         return sb.toString();
@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iq80.leveldb.impl;
+
+import static java.util.Objects.requireNonNull;
+import static org.iq80.leveldb.util.SizeOf.SIZE_OF_LONG;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import org.iq80.leveldb.iterator.InternalIterator;
+import org.iq80.leveldb.iterator.MemTableIterator;
+import org.iq80.leveldb.iterator.MergingIterator;
+import org.iq80.leveldb.util.Slice;
+
+/**
+ * {@link MemTable} partitioned by the first {@code prefixLength} bytes of user keys, each partition
+ * being a concurrent skiplist. Keys shorter than {@code prefixLength} are their own prefix.
+ */
+public class HashSkipListMemTable implements MemTable {
+    private final InternalKeyComparator internalKeyComparator;
+    private final int prefixLength;
+    private final ConcurrentMap<Slice, ConcurrentNavigableMap<InternalKey, Slice>> buckets =
+            new ConcurrentHashMap<>();
+    private final AtomicLong approximateMemoryUsage = new AtomicLong();
+    private final Queue<RangeTombstone> rangeTombstones = new ConcurrentLinkedQueue<>();
+
+    public HashSkipListMemTable(InternalKeyComparator internalKeyComparator, int prefixLength) {
+        this.internalKeyComparator = internalKeyComparator;
+        this.prefixLength = prefixLength;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return buckets.isEmpty() && rangeTombstones.isEmpty();
+    }
+
+    @Override
+    public long approximateMemoryUsage() {
+        return approximateMemoryUsage.get();
+    }
+
+    @Override
+    public void add(long sequenceNumber, ValueType valueType, Slice key, Slice value) {
+        requireNonNull(valueType, "valueType is null");
+        requireNonNull(key, "key is null");
+        requireNonNull(value, "value is null");
+
+        Slice userKey = key.copySlice();
+        ConcurrentNavigableMap<InternalKey, Slice> bucket =
+                buckets.computeIfAbsent(
+                        prefix(userKey), k -> new ConcurrentSkipListMap<>(internalKeyComparator));
+        bucket.put(
+                new InternalKey(userKey, sequenceNumber, valueType),
+                value.length() == 0 ? value : value.copySlice());
+
+        approximateMemoryUsage.addAndGet(key.length() + SIZE_OF_LONG + value.length());
+    }
+
+    @Override
+    public void addRangeDeletion(long sequenceNumber, Slice begin, Slice end) {
+        requireNonNull(begin, "begin is null");
+        requireNonNull(end, "end is null");
+
+        rangeTombstones.add(
+                new RangeTombstone(begin.copySlice(), end.copySlice(), sequenceNumber));
+
+        approximateMemoryUsage.addAndGet(begin.length() + SIZE_OF_LONG + end.length());
+    }
+
+    @Override
+    public Collection<RangeTombstone> rangeTombstones() {
+        return Collections.unmodifiableCollection(rangeTombstones);
+    }
+
+    @Override
+    public LookupResult get(LookupKey key) {
+        requireNonNull(key, "key is null");
+
+        ConcurrentNavigableMap<InternalKey, Slice> bucket = buckets.get(prefix(key.getUserKey()));
+        if (bucket == null) {
+            return null;
+        }
+        return SkipListMemTable.get(bucket, key);
+    }
+
+    @Override
+    public InternalIterator iterator() {
+        List<InternalIterator> iterators = new ArrayList<>(buckets.size());
+        for (ConcurrentNavigableMap<InternalKey, Slice> bucket : buckets.values()) {
+            iterators.add(new MemTableIterator(bucket));
+        }
+        if (iterators.size() == 1) {
+            return iterators.get(0);
+        }
+        return new MergingIterator(iterators, internalKeyComparator);
+    }
+
+    private Slice prefix(Slice userKey) {
+        return userKey.length() <= prefixLength ? userKey : userKey.slice(0, prefixLength);
+    }
+}
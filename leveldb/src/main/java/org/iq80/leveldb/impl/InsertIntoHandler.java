@@ -18,6 +18,7 @@
 package org.iq80.leveldb.impl;
 
 import static org.iq80.leveldb.impl.ValueType.DELETION;
+import static org.iq80.leveldb.impl.ValueType.MERGE;
 import static org.iq80.leveldb.impl.ValueType.VALUE;
 
 import org.iq80.leveldb.util.Slice;
@@ -34,11 +35,21 @@ final class InsertIntoHandler implements WriteBatchImpl.Handler {
 
     @Override
     public void put(Slice key, Slice value) {
-        memTable.add(sequence++, VALUE, key.copySlice(), value.copySlice());
+        memTable.add(sequence++, VALUE, key, value);
     }
 
     @Override
     public void delete(Slice key) {
-        memTable.add(sequence++, DELETION, key.copySlice(), Slices.EMPTY_SLICE);
+        memTable.add(sequence++, DELETION, key, Slices.EMPTY_SLICE);
+    }
+
+    @Override
+    public void merge(Slice key, Slice value) {
+        memTable.add(sequence++, MERGE, key, value);
+    }
+
+    @Override
+    public void deleteRange(Slice begin, Slice end) {
+        memTable.addRangeDeletion(sequence++, begin, end);
     }
 }
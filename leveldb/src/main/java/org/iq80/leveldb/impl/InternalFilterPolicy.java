@@ -21,7 +21,9 @@ import static com.google.common.base.Preconditions.checkArgument;
 
 import com.google.common.base.Function;
 import com.google.common.collect.Lists;
+import java.util.ArrayList;
 import java.util.List;
+import org.iq80.leveldb.PrefixExtractor;
 import org.iq80.leveldb.XFilterPolicy;
 import org.iq80.leveldb.util.Slice;
 
@@ -38,12 +40,20 @@ final class InternalFilterPolicy implements org.iq80.leveldb.table.FilterPolicy
     private static final Function<Slice, Slice> EXTRACT_USER_KEY =
             InternalFilterPolicy::extractUserKey;
     private org.iq80.leveldb.table.FilterPolicy userPolicy;
+    // null if only whole keys are added to filters
+    private final UserPrefixExtractor prefixExtractor;
 
-    private InternalFilterPolicy(org.iq80.leveldb.table.FilterPolicy userPolicy) {
+    private InternalFilterPolicy(
+            org.iq80.leveldb.table.FilterPolicy userPolicy, UserPrefixExtractor prefixExtractor) {
         this.userPolicy = userPolicy;
+        this.prefixExtractor = prefixExtractor;
     }
 
-    static InternalFilterPolicy convert(XFilterPolicy policy) {
+    /**
+     * @param prefixExtractor extractor of the prefixes of user keys to add to the filters along
+     *     with the keys, or null
+     */
+    static InternalFilterPolicy convert(XFilterPolicy policy, PrefixExtractor prefixExtractor) {
         checkArgument(
                 policy == null || policy instanceof org.iq80.leveldb.table.FilterPolicy,
                 "Filter policy must implement Java interface FilterPolicy");
@@ -52,7 +62,9 @@ final class InternalFilterPolicy implements org.iq80.leveldb.table.FilterPolicy
         }
         return policy == null
                 ? null
-                : new InternalFilterPolicy((org.iq80.leveldb.table.FilterPolicy) policy);
+                : new InternalFilterPolicy(
+                        (org.iq80.leveldb.table.FilterPolicy) policy,
+                        UserPrefixExtractor.of(prefixExtractor));
     }
 
     @Override
@@ -63,7 +75,21 @@ final class InternalFilterPolicy implements org.iq80.leveldb.table.FilterPolicy
     @Override
     public byte[] createFilter(final List<Slice> keys) {
         // instead of copying all the keys to a shorter form, make it lazy
-        return userPolicy.createFilter(Lists.transform(keys, EXTRACT_USER_KEY));
+        List<Slice> userKeys = Lists.transform(keys, EXTRACT_USER_KEY);
+        if (prefixExtractor == null) {
+            return userPolicy.createFilter(userKeys);
+        }
+        // the prefixes follow the keys, each once as keys sharing a prefix are adjacent
+        List<Slice> keysAndPrefixes = new ArrayList<>(userKeys);
+        Slice lastPrefix = null;
+        for (Slice userKey : userKeys) {
+            Slice prefix = prefixExtractor.prefix(userKey);
+            if (prefix != null && !prefix.equals(lastPrefix)) {
+                keysAndPrefixes.add(prefix);
+                lastPrefix = prefix;
+            }
+        }
+        return userPolicy.createFilter(keysAndPrefixes);
     }
 
     @Override
@@ -71,6 +97,26 @@ final class InternalFilterPolicy implements org.iq80.leveldb.table.FilterPolicy
         return userPolicy.keyMayMatch(extractUserKey(key), filter);
     }
 
+    @Override
+    public String prefixExtractorName() {
+        return prefixExtractor == null ? null : prefixExtractor.name();
+    }
+
+    @Override
+    public boolean prefixMayMatch(Slice key, Slice filter) {
+        Slice prefix = prefixExtractor == null ? null : prefixExtractor.prefix(extractUserKey(key));
+        return prefix == null || userPolicy.keyMayMatch(prefix, filter);
+    }
+
+    @Override
+    public org.iq80.leveldb.table.FilterPolicy compatiblePolicy(String name) {
+        org.iq80.leveldb.table.FilterPolicy policy = userPolicy.compatiblePolicy(name);
+        if (policy == null || policy == userPolicy) {
+            return policy == null ? null : this;
+        }
+        return new InternalFilterPolicy(policy, prefixExtractor);
+    }
+
     private static Slice extractUserKey(Slice key) {
         checkArgument(key.length() >= 8);
         return key.slice(0, key.length() - 8);
@@ -19,6 +19,7 @@
 package org.iq80.leveldb.impl;
 
 import static com.google.common.base.Preconditions.checkState;
+import static org.iq80.leveldb.impl.ValueType.MERGE;
 import static org.iq80.leveldb.impl.ValueType.VALUE;
 
 import org.iq80.leveldb.table.KeyValueFunction;
@@ -42,9 +43,11 @@ public class KeyMatchingLookup implements KeyValueFunction<LookupResult> {
         // if this is a value key (not a delete) and the keys match, return the value
         if (key.getUserKey().equals(internalKey.getUserKey())) {
             if (internalKey.getValueType() == ValueType.DELETION) {
-                return LookupResult.deleted(key);
+                return LookupResult.deleted(key, internalKey.getSequenceNumber());
             } else if (internalKey.getValueType() == VALUE) {
-                return LookupResult.ok(key, value);
+                return LookupResult.ok(key, value, internalKey.getSequenceNumber());
+            } else if (internalKey.getValueType() == MERGE) {
+                return LookupResult.merge(key, value, internalKey.getSequenceNumber());
             }
         }
         return null;
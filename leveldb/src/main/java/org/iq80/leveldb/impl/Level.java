@@ -33,8 +33,10 @@ import org.iq80.leveldb.DBException;
 import org.iq80.leveldb.ReadOptions;
 import org.iq80.leveldb.iterator.InternalIterator;
 import org.iq80.leveldb.iterator.MergingIterator;
+import org.iq80.leveldb.iterator.PrefixBlockFilter;
 import org.iq80.leveldb.iterator.SeekingIterator;
 import org.iq80.leveldb.iterator.SeekingIterators;
+import org.iq80.leveldb.table.KeyValueFunction;
 import org.iq80.leveldb.table.UserComparator;
 import org.iq80.leveldb.util.SafeListBuilder;
 import org.iq80.leveldb.util.Slice;
@@ -94,6 +96,12 @@ public class Level {
         SeekingIterator<InternalKey, FileMetaData> iterator =
                 SeekingIterators.fromSortedList(
                         files, FileMetaData::getLargest, f -> f, internalKeyComparator);
+        // with prefix seeks, files whose filter rules the prefix out are not even opened
+        PrefixBlockFilter<InternalKey, FileMetaData> prefixFilter =
+                options.prefixSameAsStart()
+                        ? (target, largest, file) ->
+                                tableCache.prefixMayMatch(file, target.encode())
+                        : null;
         return SeekingIterators.twoLevelInternalIterator(
                 iterator,
                 fileMetaData -> {
@@ -103,6 +111,7 @@ public class Level {
                         throw new DBException(e);
                     }
                 },
+                prefixFilter,
                 () -> {});
     }
 
@@ -128,12 +137,17 @@ public class Level {
             lasReadFile.setSeekFile(fileMetaData);
             lasReadFile.setSeekFileLevel(levelNumber);
 
-            final LookupResult lookupResult =
+            LookupResult lookupResult =
                     tableCache.get(
                             options,
                             key.getInternalKey().encode(),
                             fileMetaData,
                             new KeyMatchingLookup(key));
+            if (fileMetaData.hasRangeDeletions()) {
+                lookupResult =
+                        withRangeDeletions(
+                                lookupResult, key, tableCache.getRangeTombstones(fileMetaData));
+            }
             if (lookupResult != null) {
                 return lookupResult;
             }
@@ -142,6 +156,130 @@ public class Level {
         return null;
     }
 
+    /**
+     * Same as {@link #get(ReadOptions, LookupKey, ReadStats, ReadStats)} for each of {@code keys}
+     * whose result is still null, {@code keys} being sorted by user key and sharing one sequence
+     * number. Each file is searched once for all the keys that may be in it, in the same order as
+     * single lookups.
+     *
+     * @param lastReadFiles last file read for each key
+     */
+    public void get(
+            ReadOptions options,
+            List<LookupKey> keys,
+            LookupResult[] results,
+            ReadStats readStats,
+            ReadStats[] lastReadFiles) {
+        if (files.isEmpty()) {
+            return;
+        }
+
+        if (levelNumber == 0) {
+            // files overlap, search them newest first, each for the keys still not found
+            final UserComparator userComparator = internalKeyComparator.getUserComparator();
+            List<FileMetaData> newestFirst = new ArrayList<>(files);
+            newestFirst.sort(NEWEST_FIRST);
+            for (FileMetaData fileMetaData : newestFirst) {
+                List<Integer> batch = new ArrayList<>();
+                for (int i = 0; i < keys.size(); i++) {
+                    Slice userKey = keys.get(i).getUserKey();
+                    if (results[i] == null
+                            && userComparator.compare(
+                                            userKey, fileMetaData.getSmallest().getUserKey())
+                                    >= 0
+                            && userComparator.compare(
+                                            userKey, fileMetaData.getLargest().getUserKey())
+                                    <= 0) {
+                        batch.add(i);
+                    }
+                }
+                get(options, fileMetaData, keys, batch, results, readStats, lastReadFiles);
+            }
+        } else {
+            // files are sorted and disjoint, the keys that follow a key in the same file are
+            // the ones before the largest key of the file
+            int i = 0;
+            while (i < keys.size()) {
+                if (results[i] != null) {
+                    i++;
+                    continue;
+                }
+                LookupKey key = keys.get(i);
+                List<FileMetaData> fileMetaDataList =
+                        getFilesForKey(key.getUserKey(), key.getInternalKey());
+                if (fileMetaDataList.isEmpty()) {
+                    i++;
+                    continue;
+                }
+                FileMetaData fileMetaData = fileMetaDataList.get(0);
+                List<Integer> batch = new ArrayList<>();
+                while (i < keys.size()
+                        && internalKeyComparator.compare(
+                                        fileMetaData.getLargest(), keys.get(i).getInternalKey())
+                                >= 0) {
+                    if (results[i] == null) {
+                        batch.add(i);
+                    }
+                    i++;
+                }
+                get(options, fileMetaData, keys, batch, results, readStats, lastReadFiles);
+            }
+        }
+    }
+
+    private void get(
+            ReadOptions options,
+            FileMetaData fileMetaData,
+            List<LookupKey> keys,
+            List<Integer> batch,
+            LookupResult[] results,
+            ReadStats readStats,
+            ReadStats[] lastReadFiles) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        List<Slice> internalKeys = new ArrayList<>(batch.size());
+        List<KeyValueFunction<LookupResult>> lookups = new ArrayList<>(batch.size());
+        for (int index : batch) {
+            ReadStats lastReadFile = lastReadFiles[index];
+            if (lastReadFile.getSeekFile() != null && readStats.getSeekFile() == null) {
+                // We have had more than one seek for this read.  Charge the first file.
+                readStats.setSeekFile(lastReadFile.getSeekFile());
+                readStats.setSeekFileLevel(lastReadFile.getSeekFileLevel());
+            }
+            lastReadFile.setSeekFile(fileMetaData);
+            lastReadFile.setSeekFileLevel(levelNumber);
+
+            LookupKey key = keys.get(index);
+            internalKeys.add(key.getInternalKey().encode());
+            lookups.add(new KeyMatchingLookup(key));
+        }
+
+        List<LookupResult> lookupResults =
+                tableCache.get(options, internalKeys, fileMetaData, lookups);
+        List<RangeTombstone> rangeTombstones = tableCache.getRangeTombstones(fileMetaData);
+        for (int i = 0; i < batch.size(); i++) {
+            int index = batch.get(i);
+            LookupResult lookupResult = lookupResults.get(i);
+            if (!rangeTombstones.isEmpty()) {
+                lookupResult = withRangeDeletions(lookupResult, keys.get(index), rangeTombstones);
+            }
+            results[index] = lookupResult;
+        }
+    }
+
+    private LookupResult withRangeDeletions(
+            LookupResult lookupResult, LookupKey key, List<RangeTombstone> rangeTombstones) {
+        return LookupResult.withRangeDeletion(
+                lookupResult,
+                key,
+                RangeTombstone.maxCoveringSequence(
+                        rangeTombstones,
+                        internalKeyComparator.getUserComparator(),
+                        key.getUserKey(),
+                        key.getInternalKey().getSequenceNumber()));
+    }
+
     public List<FileMetaData> getFilesForKey(Slice userKey, InternalKey internalKey) {
         final UserComparator userComparator = internalKeyComparator.getUserComparator();
         if (levelNumber == 0) {
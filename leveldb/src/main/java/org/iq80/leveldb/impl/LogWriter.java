@@ -22,22 +22,26 @@ import static com.google.common.base.Preconditions.checkState;
 import static java.util.Objects.requireNonNull;
 import static org.iq80.leveldb.impl.LogConstants.BLOCK_SIZE;
 import static org.iq80.leveldb.impl.LogConstants.HEADER_SIZE;
-import static org.iq80.leveldb.impl.Logs.getChunkChecksum;
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
 import java.util.concurrent.atomic.AtomicBoolean;
 import org.iq80.leveldb.env.WritableFile;
+import org.iq80.leveldb.util.PureJavaCrc32C;
 import org.iq80.leveldb.util.Slice;
-import org.iq80.leveldb.util.SliceInput;
-import org.iq80.leveldb.util.SliceOutput;
-import org.iq80.leveldb.util.Slices;
 
 public class LogWriter implements Closeable {
-    private static final byte[] SA = new byte[HEADER_SIZE];
     private final WritableFile writableFile;
     private final long fileNumber;
     private final AtomicBoolean closed = new AtomicBoolean();
+    private final PureJavaCrc32C crc32C = new PureJavaCrc32C();
+    private final ByteBuffer padding = ByteBuffer.allocate(HEADER_SIZE);
+    private ByteBuffer[] headers = new ByteBuffer[2];
+    private int headerCount;
+    private ByteBuffer[] buffers = new ByteBuffer[4];
 
     /** Current offset in the current block */
     private int blockOffset;
@@ -73,11 +77,18 @@ public class LogWriter implements Closeable {
         return fileNumber;
     }
 
-    // Writes a stream of chunks such that no chunk is split across a block boundary
+    // Writes a stream of chunks such that no chunk is split across a block boundary.
+    // All chunks of the record, their headers and any block trailer are handed to the
+    // file in a single gathering append; headers and trailer buffers are reused.
     public void addRecord(Slice record, boolean force) throws IOException {
         checkState(!closed.get(), "Log has been closed");
 
-        SliceInput sliceInput = record.input();
+        ByteBuffer payload =
+                ByteBuffer.wrap(record.getRawArray(), record.getRawOffset(), record.length());
+        int position = record.getRawOffset();
+        int available = record.length();
+        int count = 0;
+        headerCount = 0;
 
         // used to track first, middle and last blocks
         boolean begin = true;
@@ -92,9 +103,9 @@ public class LogWriter implements Closeable {
             // Switch to a new block if necessary
             if (bytesRemainingInBlock < HEADER_SIZE) {
                 if (bytesRemainingInBlock > 0) {
-                    // Fill the rest of the block with zeros
-                    // todo lame... need a better way to write zeros
-                    writableFile.append(new Slice(SA, 0, bytesRemainingInBlock));
+                    // Fill the rest of the block with zeros, at most once per record
+                    padding.clear().limit(bytesRemainingInBlock);
+                    count = add(count, padding);
                 }
                 blockOffset = 0;
                 bytesRemainingInBlock = BLOCK_SIZE - blockOffset;
@@ -108,12 +119,12 @@ public class LogWriter implements Closeable {
             // fragment the record; otherwise write to the end of the record
             boolean end;
             int fragmentLength;
-            if (sliceInput.available() > bytesAvailableInBlock) {
+            if (available > bytesAvailableInBlock) {
                 end = false;
                 fragmentLength = bytesAvailableInBlock;
             } else {
                 end = true;
-                fragmentLength = sliceInput.available();
+                fragmentLength = available;
             }
 
             // determine block type
@@ -128,47 +139,68 @@ public class LogWriter implements Closeable {
                 type = LogChunkType.MIDDLE;
             }
 
-            // write the chunk
-            writeChunk(type, sliceInput.readBytes(fragmentLength));
+            // queue the chunk
+            ByteBuffer fragment = payload;
+            if (!(begin && end)) {
+                fragment = payload.duplicate();
+                fragment.limit(position + fragmentLength).position(position);
+            }
+            count = addChunk(count, type, fragment, position, fragmentLength);
+            position += fragmentLength;
+            available -= fragmentLength;
 
             // we are no longer on the first chunk
             begin = false;
-        } while (sliceInput.isReadable());
+        } while (available > 0);
+
+        try {
+            writableFile.append(buffers, 0, count);
+        } finally {
+            // do not retain references to the caller's record
+            Arrays.fill(buffers, 0, count, null);
+        }
 
         if (force) {
             writableFile.force();
         }
     }
 
-    private void writeChunk(LogChunkType type, Slice slice) throws IOException {
-        checkArgument(
-                slice.length() <= 0xffff, "length %s is larger than two bytes", slice.length());
+    private int addChunk(int count, LogChunkType type, ByteBuffer payload, int offset, int length) {
+        checkArgument(length <= 0xffff, "length %s is larger than two bytes", length);
         checkArgument(blockOffset + HEADER_SIZE <= BLOCK_SIZE);
 
-        // create header
-        Slice header = newLogRecordHeader(type, slice, slice.length());
+        // Compute the crc of the record type and the payload.
+        crc32C.reset();
+        crc32C.update(type.getPersistentId());
+        crc32C.update(payload.array(), offset, length);
 
-        // write the header and the payload
-        writableFile.append(header);
-        writableFile.append(slice);
-
-        blockOffset += HEADER_SIZE + slice.length();
+        // Format the header
+        if (headerCount == headers.length) {
+            headers = Arrays.copyOf(headers, headers.length * 2);
+        }
+        ByteBuffer header = headers[headerCount];
+        if (header == null) {
+            header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            headers[headerCount] = header;
+        }
+        headerCount++;
+        header.clear();
+        header.putInt(crc32C.getMaskedValue());
+        header.put((byte) (length & 0xff));
+        header.put((byte) (length >>> 8));
+        header.put((byte) (type.getPersistentId()));
+        header.flip();
+
+        blockOffset += HEADER_SIZE + length;
+        return add(add(count, header), payload);
     }
 
-    private static Slice newLogRecordHeader(LogChunkType type, Slice slice, int length) {
-        int crc =
-                getChunkChecksum(
-                        type.getPersistentId(), slice.getRawArray(), slice.getRawOffset(), length);
-
-        // Format the header
-        Slice header = Slices.allocate(HEADER_SIZE);
-        SliceOutput sliceOutput = header.output();
-        sliceOutput.writeInt(crc);
-        sliceOutput.writeByte((byte) (length & 0xff));
-        sliceOutput.writeByte((byte) (length >>> 8));
-        sliceOutput.writeByte((byte) (type.getPersistentId()));
-
-        return header;
+    private int add(int count, ByteBuffer buffer) {
+        if (count == buffers.length) {
+            buffers = Arrays.copyOf(buffers, buffers.length * 2);
+        }
+        buffers[count] = buffer;
+        return count + 1;
     }
 
     @Override
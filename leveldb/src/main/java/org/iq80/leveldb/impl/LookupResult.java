@@ -22,19 +22,29 @@ import static java.util.Objects.requireNonNull;
 import org.iq80.leveldb.util.Slice;
 
 public class LookupResult {
-    public static LookupResult ok(LookupKey key, Slice value) {
-        return new LookupResult(key, value, false);
+    public static LookupResult ok(LookupKey key, Slice value, long sequenceNumber) {
+        return new LookupResult(key, value, ValueType.VALUE, sequenceNumber);
     }
 
-    public static LookupResult deleted(LookupKey key) {
-        return new LookupResult(key, null, true);
+    public static LookupResult deleted(LookupKey key, long sequenceNumber) {
+        return new LookupResult(key, null, ValueType.DELETION, sequenceNumber);
+    }
+
+    /**
+     * Newest merge operand of the key, the lookup must go on below {@code sequenceNumber} to find
+     * older operands and the value they apply to.
+     */
+    public static LookupResult merge(LookupKey key, Slice operand, long sequenceNumber) {
+        return new LookupResult(key, operand, ValueType.MERGE, sequenceNumber);
     }
 
     private final LookupKey key;
     private final Slice value;
-    private final boolean deleted;
+    private final ValueType valueType;
+    // sequence number of the entry found, or of the range deletion that covers it
+    private final long sequenceNumber;
 
-    private LookupResult(LookupKey key, Slice value, boolean deleted) {
+    private LookupResult(LookupKey key, Slice value, ValueType valueType, long sequenceNumber) {
         requireNonNull(key, "key is null");
         this.key = key;
         if (value != null) {
@@ -42,7 +52,8 @@ public class LookupResult {
         } else {
             this.value = null;
         }
-        this.deleted = deleted;
+        this.valueType = valueType;
+        this.sequenceNumber = sequenceNumber;
     }
 
     public LookupKey getKey() {
@@ -57,6 +68,29 @@ public class LookupResult {
     }
 
     public boolean isDeleted() {
-        return deleted;
+        return valueType == ValueType.DELETION;
+    }
+
+    public boolean isMerge() {
+        return valueType == ValueType.MERGE;
+    }
+
+    public long getSequenceNumber() {
+        return sequenceNumber;
+    }
+
+    /**
+     * Apply the newest range deletion of the same source that covers the key, {@code
+     * rangeDeletionSequence} is 0 if there is none. Returns null if nothing is found.
+     */
+    static LookupResult withRangeDeletion(
+            LookupResult result, LookupKey key, long rangeDeletionSequence) {
+        if (result != null && result.sequenceNumber > rangeDeletionSequence) {
+            return result;
+        }
+        if (rangeDeletionSequence > 0) {
+            return deleted(key, rangeDeletionSequence);
+        }
+        return result;
     }
 }
@@ -17,63 +17,50 @@
  */
 package org.iq80.leveldb.impl;
 
-import static java.util.Objects.requireNonNull;
-import static org.iq80.leveldb.util.SizeOf.SIZE_OF_LONG;
-
-import java.util.Map.Entry;
-import java.util.concurrent.ConcurrentSkipListMap;
-import java.util.concurrent.atomic.AtomicLong;
-import org.iq80.leveldb.iterator.MemTableIterator;
+import java.util.Collection;
+import org.iq80.leveldb.iterator.InternalIterator;
 import org.iq80.leveldb.util.Slice;
 
-public class MemTable {
-    private final ConcurrentSkipListMap<InternalKey, Slice> table;
-    private final AtomicLong approximateMemoryUsage = new AtomicLong();
-
-    public MemTable(InternalKeyComparator internalKeyComparator) {
-        table = new ConcurrentSkipListMap<>(internalKeyComparator);
-    }
-
-    public boolean isEmpty() {
-        return table.isEmpty();
-    }
-
-    public long approximateMemoryUsage() {
-        return approximateMemoryUsage.get();
-    }
+/**
+ * In memory, sorted, write buffer of a database. Entries are ordered by {@link
+ * InternalKeyComparator}. Implementations must support concurrent {@link #add} calls and reads
+ * concurrent with writes.
+ */
+public interface MemTable {
+    boolean isEmpty();
 
-    public void add(long sequenceNumber, ValueType valueType, Slice key, Slice value) {
-        requireNonNull(valueType, "valueType is null");
-        requireNonNull(key, "key is null");
-        requireNonNull(valueType, "valueType is null");
+    /** Approximate number of bytes of memory used by entries of this table */
+    long approximateMemoryUsage();
 
-        InternalKey internalKey = new InternalKey(key, sequenceNumber, valueType);
-        table.put(internalKey, value);
+    /**
+     * Add an entry that maps key to value at the specified sequence number and with the specified
+     * type. {@code key} and {@code value} may refer to a reused buffer, implementations must copy
+     * them if they need to retain them.
+     */
+    void add(long sequenceNumber, ValueType valueType, Slice key, Slice value);
 
-        approximateMemoryUsage.addAndGet(key.length() + SIZE_OF_LONG + value.length());
-    }
+    /**
+     * Add a deletion of all user keys in {@code [begin, end)} at the specified sequence number.
+     * Range deletions are not visible to {@link #get} and {@link #iterator()}, readers apply {@link
+     * #rangeTombstones()} themselves.
+     */
+    void addRangeDeletion(long sequenceNumber, Slice begin, Slice end);
 
-    public LookupResult get(LookupKey key) {
-        requireNonNull(key, "key is null");
+    /** Range deletions added to this table, in no particular order. */
+    Collection<RangeTombstone> rangeTombstones();
 
-        InternalKey internalKey = key.getInternalKey();
-        Entry<InternalKey, Slice> entry = table.ceilingEntry(internalKey);
-        if (entry == null) {
-            return null;
-        }
+    /**
+     * If memtable contains a value for key, returns it as {@link LookupResult#ok}. If memtable
+     * contains a deletion for key, returns {@link LookupResult#deleted}. If the newest entry of key
+     * is a merge operand, returns it as {@link LookupResult#merge}. Else, return null.
+     */
+    LookupResult get(LookupKey key);
 
-        InternalKey entryKey = entry.getKey();
-        if (entryKey.getUserKey().equals(key.getUserKey())) {
-            if (entryKey.getValueType() == ValueType.DELETION) {
-                return LookupResult.deleted(key);
-            } else {
-                return LookupResult.ok(key, entry.getValue());
-            }
-        }
-        return null;
-    }
+    InternalIterator iterator();
 
-    public MemTableIterator iterator() {
-        return new MemTableIterator(table);
-    }
+    /**
+     * Called once the table is neither used by the database nor by any reader. Implementations may
+     * then reuse its memory, keys and values returned earlier must not be read anymore.
+     */
+    default void release() {}
 }
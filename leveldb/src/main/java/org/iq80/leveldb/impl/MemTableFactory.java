@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iq80.leveldb.impl;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.iq80.leveldb.Options;
+import org.iq80.leveldb.XMemTableFactory;
+
+/** Creates the memtables of a database, see {@link Options#memTableFactory(XMemTableFactory)}. */
+@FunctionalInterface
+public interface MemTableFactory extends XMemTableFactory {
+    MemTable newMemTable(InternalKeyComparator internalKeyComparator, Options options);
+
+    /** Concurrent skiplist of entries, the default. */
+    static MemTableFactory skipList() {
+        return (internalKeyComparator, options) -> new SkipListMemTable(internalKeyComparator);
+    }
+
+    /**
+     * Skiplist of primitive offsets over entries copied into large byte blocks, reduce garbage
+     * collection pressure of large write buffers. The memtables of all databases opened with the
+     * returned factory recycle the blocks of flushed memtables, keeping up to one write buffer of
+     * blocks for reuse. Iterator entries point into the blocks and must be read before the
+     * iterator is closed.
+     */
+    static MemTableFactory arena() {
+        Map<Integer, ArenaMemTable.BlockPool> blockPools = new ConcurrentHashMap<>();
+        return (internalKeyComparator, options) -> {
+            // scale blocks with the write buffer, small buffers should not over allocate
+            int blockSize = Math.min(Math.max(options.writeBufferSize() / 8, 4 << 10), 4 << 20);
+            ArenaMemTable.BlockPool blockPool =
+                    blockPools.computeIfAbsent(
+                            blockSize,
+                            size -> new ArenaMemTable.BlockPool(size, options.writeBufferSize()));
+            return new ArenaMemTable(internalKeyComparator, blockPool);
+        };
+    }
+
+    /**
+     * One skiplist per distinct user key prefix of {@code prefixLength} bytes. Point lookups only
+     * search the skiplist of their prefix, full scans merge all of them.
+     */
+    static MemTableFactory hashSkipList(int prefixLength) {
+        checkArgument(prefixLength > 0, "prefixLength must be positive");
+        return (internalKeyComparator, options) ->
+                new HashSkipListMemTable(internalKeyComparator, prefixLength);
+    }
+
+    /**
+     * Unsorted append only vector, sorted once when first read. Cheapest inserts, but reads are
+     * expensive: meant for bulk loads that do not read their own writes before flush.
+     */
+    static MemTableFactory vector() {
+        return (internalKeyComparator, options) -> new VectorMemTable(internalKeyComparator);
+    }
+}
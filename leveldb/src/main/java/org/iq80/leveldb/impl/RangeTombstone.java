@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iq80.leveldb.impl;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Objects.requireNonNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import org.iq80.leveldb.table.Block;
+import org.iq80.leveldb.table.BlockBuilder;
+import org.iq80.leveldb.table.BlockIterator;
+import org.iq80.leveldb.util.Slice;
+
+/**
+ * Deletion of all user keys in {@code [begin, end)} written before {@code sequenceNumber}, see
+ * {@link org.iq80.leveldb.DB#deleteRange(byte[], byte[])}.
+ */
+public final class RangeTombstone {
+    /** Name of the table meta block holding the range tombstones of the table. */
+    public static final String META_BLOCK_NAME = "leveldb.range_del";
+
+    private final Slice begin;
+    private final Slice end;
+    private final long sequenceNumber;
+
+    public RangeTombstone(Slice begin, Slice end, long sequenceNumber) {
+        requireNonNull(begin, "begin is null");
+        requireNonNull(end, "end is null");
+        this.begin = begin;
+        this.end = end;
+        this.sequenceNumber = sequenceNumber;
+    }
+
+    public Slice getBegin() {
+        return begin;
+    }
+
+    public Slice getEnd() {
+        return end;
+    }
+
+    public long getSequenceNumber() {
+        return sequenceNumber;
+    }
+
+    /** Key of the tombstone in a table, the value of the entry is the end of the range. */
+    public InternalKey getKey() {
+        return new InternalKey(begin, sequenceNumber, ValueType.RANGE_DELETION);
+    }
+
+    /**
+     * Largest key of a table holding this tombstone, ordered before all entries of {@code end}, the
+     * first key the tombstone does not cover.
+     */
+    public InternalKey getLargestKey() {
+        return new InternalKey(end, SequenceNumber.MAX_SEQUENCE_NUMBER, ValueType.RANGE_DELETION);
+    }
+
+    public boolean covers(Comparator<Slice> userComparator, Slice userKey) {
+        return userComparator.compare(begin, userKey) <= 0
+                && userComparator.compare(userKey, end) < 0;
+    }
+
+    /**
+     * Greatest sequence number of the tombstones visible at {@code sequence} that cover {@code
+     * userKey}, 0 if none does. Entries of the key older than the result are deleted.
+     */
+    public static long maxCoveringSequence(
+            Iterable<RangeTombstone> tombstones,
+            Comparator<Slice> userComparator,
+            Slice userKey,
+            long sequence) {
+        long max = 0;
+        for (RangeTombstone tombstone : tombstones) {
+            if (tombstone.sequenceNumber <= sequence
+                    && tombstone.sequenceNumber > max
+                    && tombstone.covers(userComparator, userKey)) {
+                max = tombstone.sequenceNumber;
+            }
+        }
+        return max;
+    }
+
+    /**
+     * Encode tombstones as a block of {@code begin internal key -> end} entries, ordered by {@code
+     * internalKeyComparator}.
+     */
+    static Slice writeBlock(
+            List<RangeTombstone> tombstones,
+            InternalKeyComparator internalKeyComparator,
+            int blockRestartInterval) {
+        List<RangeTombstone> sorted = new ArrayList<>(tombstones);
+        sorted.sort((o1, o2) -> internalKeyComparator.compare(o1.getKey(), o2.getKey()));
+        BlockBuilder blockBuilder =
+                new BlockBuilder(
+                        256,
+                        blockRestartInterval,
+                        new InternalUserComparator(internalKeyComparator));
+        for (RangeTombstone tombstone : sorted) {
+            blockBuilder.add(tombstone.getKey().encode(), tombstone.end);
+        }
+        return blockBuilder.finish();
+    }
+
+    /** Decode a block written by {@link #writeBlock}, a null block holds no tombstones. */
+    static List<RangeTombstone> readBlock(Block block) {
+        if (block == null) {
+            return Collections.emptyList();
+        }
+        List<RangeTombstone> tombstones = new ArrayList<>();
+        try (BlockIterator iterator = block.iterator()) {
+            for (boolean valid = iterator.seekToFirst(); valid; valid = iterator.next()) {
+                InternalKey key = new InternalKey(iterator.key().copySlice());
+                tombstones.add(
+                        new RangeTombstone(
+                                key.getUserKey(),
+                                iterator.value().copySlice(),
+                                key.getSequenceNumber()));
+            }
+        }
+        return Collections.unmodifiableList(tombstones);
+    }
+
+    @Override
+    public String toString() {
+        return "RangeTombstone{["
+                + begin.toString(UTF_8)
+                + ", "
+                + end.toString(UTF_8)
+                + ")@"
+                + sequenceNumber
+                + '}';
+    }
+}
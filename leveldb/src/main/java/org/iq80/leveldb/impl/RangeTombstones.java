@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iq80.leveldb.impl;
+
+import static java.util.Objects.requireNonNull;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.TreeSet;
+import org.iq80.leveldb.util.Slice;
+
+/**
+ * Range tombstones visible at a sequence number, split into non overlapping fragments so that the
+ * newest tombstone covering a user key is found with a binary search. Used by iterators and
+ * compactions, which check every key they visit.
+ */
+public final class RangeTombstones {
+    public static final RangeTombstones EMPTY =
+            new RangeTombstones(Comparator.naturalOrder(), new Slice[0], new long[0]);
+
+    private final Comparator<Slice> userComparator;
+    // fragment i covers [starts[i], starts[i + 1]), the last start only ends the previous fragment
+    private final Slice[] starts;
+    // newest sequence number covering each fragment, 0 if none does
+    private final long[] sequences;
+
+    private RangeTombstones(Comparator<Slice> userComparator, Slice[] starts, long[] sequences) {
+        this.userComparator = userComparator;
+        this.starts = starts;
+        this.sequences = sequences;
+    }
+
+    /** Index the tombstones with a sequence number at most {@code sequence}. */
+    public static RangeTombstones create(
+            Iterable<RangeTombstone> tombstones, Comparator<Slice> userComparator, long sequence) {
+        requireNonNull(userComparator, "userComparator is null");
+        TreeSet<Slice> bounds = new TreeSet<>(userComparator);
+        for (RangeTombstone tombstone : tombstones) {
+            if (tombstone.getSequenceNumber() <= sequence) {
+                bounds.add(tombstone.getBegin());
+                bounds.add(tombstone.getEnd());
+            }
+        }
+        if (bounds.isEmpty()) {
+            return EMPTY;
+        }
+        Slice[] starts = bounds.toArray(new Slice[0]);
+        long[] sequences = new long[starts.length];
+        for (RangeTombstone tombstone : tombstones) {
+            if (tombstone.getSequenceNumber() <= sequence) {
+                int begin = Arrays.binarySearch(starts, tombstone.getBegin(), userComparator);
+                int end = Arrays.binarySearch(starts, tombstone.getEnd(), userComparator);
+                for (int i = begin; i < end; i++) {
+                    sequences[i] = Math.max(sequences[i], tombstone.getSequenceNumber());
+                }
+            }
+        }
+        return new RangeTombstones(userComparator, starts, sequences);
+    }
+
+    public boolean isEmpty() {
+        return starts.length == 0;
+    }
+
+    /**
+     * Greatest sequence number of the tombstones covering {@code userKey}, 0 if none does. Entries
+     * of the key older than the result are deleted.
+     */
+    public long maxCoveringSequence(Slice userKey) {
+        int low = 0;
+        int high = starts.length;
+        // find the first start greater than userKey, the fragment before it may cover the key
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (userComparator.compare(starts[mid], userKey) <= 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low == 0 ? 0 : sequences[low - 1];
+    }
+
+    /** True if an entry of {@code userKey} with {@code sequenceNumber} is deleted. */
+    public boolean isCovered(Slice userKey, long sequenceNumber) {
+        return sequenceNumber < maxCoveringSequence(userKey);
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iq80.leveldb.impl;
+
+import static java.util.Objects.requireNonNull;
+import static org.iq80.leveldb.util.SizeOf.SIZE_OF_LONG;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map.Entry;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import org.iq80.leveldb.iterator.MemTableIterator;
+import org.iq80.leveldb.util.Slice;
+
+/** {@link MemTable} backed by a {@link ConcurrentSkipListMap} of {@link InternalKey} objects. */
+public class SkipListMemTable implements MemTable {
+    private final ConcurrentSkipListMap<InternalKey, Slice> table;
+    private final AtomicLong approximateMemoryUsage = new AtomicLong();
+    private final Queue<RangeTombstone> rangeTombstones = new ConcurrentLinkedQueue<>();
+
+    public SkipListMemTable(InternalKeyComparator internalKeyComparator) {
+        table = new ConcurrentSkipListMap<>(internalKeyComparator);
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return table.isEmpty() && rangeTombstones.isEmpty();
+    }
+
+    @Override
+    public long approximateMemoryUsage() {
+        return approximateMemoryUsage.get();
+    }
+
+    @Override
+    public void add(long sequenceNumber, ValueType valueType, Slice key, Slice value) {
+        requireNonNull(valueType, "valueType is null");
+        requireNonNull(key, "key is null");
+        requireNonNull(value, "value is null");
+
+        InternalKey internalKey = new InternalKey(key.copySlice(), sequenceNumber, valueType);
+        table.put(internalKey, value.length() == 0 ? value : value.copySlice());
+
+        approximateMemoryUsage.addAndGet(key.length() + SIZE_OF_LONG + value.length());
+    }
+
+    @Override
+    public void addRangeDeletion(long sequenceNumber, Slice begin, Slice end) {
+        requireNonNull(begin, "begin is null");
+        requireNonNull(end, "end is null");
+
+        rangeTombstones.add(
+                new RangeTombstone(begin.copySlice(), end.copySlice(), sequenceNumber));
+
+        approximateMemoryUsage.addAndGet(begin.length() + SIZE_OF_LONG + end.length());
+    }
+
+    @Override
+    public Collection<RangeTombstone> rangeTombstones() {
+        return Collections.unmodifiableCollection(rangeTombstones);
+    }
+
+    @Override
+    public LookupResult get(LookupKey key) {
+        requireNonNull(key, "key is null");
+
+        return get(table, key);
+    }
+
+    @Override
+    public MemTableIterator iterator() {
+        return new MemTableIterator(table);
+    }
+
+    static LookupResult get(ConcurrentNavigableMap<InternalKey, Slice> table, LookupKey key) {
+        InternalKey internalKey = key.getInternalKey();
+        Entry<InternalKey, Slice> entry = table.ceilingEntry(internalKey);
+        if (entry == null) {
+            return null;
+        }
+        InternalKey entryKey = entry.getKey();
+        if (entryKey.getUserKey().equals(key.getUserKey())) {
+            if (entryKey.getValueType() == ValueType.DELETION) {
+                return LookupResult.deleted(key, entryKey.getSequenceNumber());
+            } else if (entryKey.getValueType() == ValueType.MERGE) {
+                return LookupResult.merge(key, entry.getValue(), entryKey.getSequenceNumber());
+            } else {
+                return LookupResult.ok(key, entry.getValue(), entryKey.getSequenceNumber());
+            }
+        }
+        return null;
+    }
+}
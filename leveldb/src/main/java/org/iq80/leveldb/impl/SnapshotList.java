@@ -84,17 +84,28 @@ final class SnapshotList {
         return list.next.number;
     }
 
+    /**
+     * Return newest sequence number of this list
+     *
+     * @return newest sequence number
+     * @throws IllegalStateException if mutex is not held by current thread or list is empty
+     */
+    public long getNewest() {
+        checkState(mutex.isHeldByCurrentThread());
+        checkState(!isEmpty());
+        return list.prev.number;
+    }
+
     /**
      * Return sequence corresponding to given snapshot.
      *
      * @param snapshot snapshot to read from
      * @return Return sequence corresponding to given snapshot.
      * @throws IllegalArgumentException if snapshot concrete type does not come from current list
-     * @throws IllegalStateException if mutex is not held by current thread
      */
     public long getSequenceFrom(Snapshot snapshot) {
         checkArgument(snapshot instanceof SnapshotNode);
-        checkState(mutex.isHeldByCurrentThread());
+        // immutable, readers do not need the mutex
         return ((SnapshotNode) snapshot).number;
     }
 
@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iq80.leveldb.impl;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+import static java.util.Objects.requireNonNull;
+
+import java.io.Closeable;
+import java.io.IOException;
+import org.iq80.leveldb.DBComparator;
+import org.iq80.leveldb.Options;
+import org.iq80.leveldb.env.Env;
+import org.iq80.leveldb.env.File;
+import org.iq80.leveldb.env.WritableFile;
+import org.iq80.leveldb.fileenv.EnvImpl;
+import org.iq80.leveldb.table.BytewiseComparator;
+import org.iq80.leveldb.table.CustomUserComparator;
+import org.iq80.leveldb.table.TableBuilder;
+import org.iq80.leveldb.table.UserComparator;
+import org.iq80.leveldb.util.Slice;
+import org.iq80.leveldb.util.Slices;
+
+/**
+ * Writes a table file outside of any database, to be added to one with {@link
+ * DbImpl#ingestExternalFiles(java.util.List)}. Keys must be added in strictly increasing order of
+ * the comparator of the target database, which must be set in the options along with its filter
+ * policy.
+ *
+ * <p>Entries are stored with sequence number 0, the database gives all entries of the file one
+ * sequence number when it ingests it.
+ */
+public class SstFileWriter implements Closeable {
+    private final UserComparator userComparator;
+    private final File file;
+    private final WritableFile writableFile;
+    private final TableBuilder tableBuilder;
+    private Slice lastKey;
+    private boolean closed;
+
+    public SstFileWriter(Options options, java.io.File file) throws IOException {
+        this(options, file.getAbsolutePath(), EnvImpl.createEnv());
+    }
+
+    public SstFileWriter(Options options, String fileName, Env env) throws IOException {
+        requireNonNull(options, "options is null");
+        requireNonNull(fileName, "fileName is null");
+        requireNonNull(env, "env is null");
+
+        DBComparator comparator = options.comparator();
+        this.userComparator =
+                (comparator != null)
+                        ? new CustomUserComparator(comparator)
+                        : new BytewiseComparator();
+
+        // filters must be built on user keys, like the tables of the database
+        Options tableOptions = Options.fromOptions(options);
+        tableOptions.filterPolicy(
+                InternalFilterPolicy.convert(options.filterPolicy(), options.prefixExtractor()));
+
+        this.file = env.toFile(fileName);
+        this.writableFile = env.newWritableFile(file);
+        this.tableBuilder =
+                new TableBuilder(
+                        tableOptions,
+                        writableFile,
+                        new InternalUserComparator(new InternalKeyComparator(userComparator)));
+    }
+
+    /** Add an entry for {@code key}, greater than all keys added so far. */
+    public void put(byte[] key, byte[] value) throws IOException {
+        add(key, Slices.wrappedBuffer(value), ValueType.VALUE);
+    }
+
+    /** Add a deletion of {@code key}, greater than all keys added so far. */
+    public void delete(byte[] key) throws IOException {
+        add(key, Slices.EMPTY_SLICE, ValueType.DELETION);
+    }
+
+    private void add(byte[] key, Slice value, ValueType valueType) throws IOException {
+        checkState(!closed, "File is finished");
+        Slice userKey = Slices.wrappedBuffer(key);
+        checkArgument(
+                lastKey == null || userComparator.compare(userKey, lastKey) > 0,
+                "Keys must be added in strictly increasing order");
+        tableBuilder.add(new InternalKey(userKey, 0, valueType).encode(), value);
+        lastKey = userKey.copySlice();
+    }
+
+    public long getEntryCount() {
+        return tableBuilder.getEntryCount();
+    }
+
+    public long getFileSize() {
+        return tableBuilder.getFileSize();
+    }
+
+    /** Write the table footer and sync the file. The file must hold at least one entry. */
+    public void finish() throws IOException {
+        checkState(!closed, "File is finished");
+        checkState(lastKey != null, "Cannot finish a file without entries");
+        closed = true;
+        try {
+            tableBuilder.finish();
+            writableFile.force();
+        } finally {
+            writableFile.close();
+        }
+    }
+
+    /** Abandon the file, unless it is finished. */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        tableBuilder.abandon();
+        writableFile.close();
+        file.delete();
+    }
+}
@@ -24,6 +24,9 @@ import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
 import com.google.common.cache.RemovalListener;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.ExecutionException;
 import org.iq80.leveldb.DBException;
 import org.iq80.leveldb.Options;
@@ -96,12 +99,18 @@ public class TableCache {
 
     public InternalTableIterator newIterator(FileMetaData file, ReadOptions options)
             throws IOException {
-        return newIterator(file.getNumber(), options);
+        return newIterator(file.getNumber(), file.getGlobalSequenceNumber(), options);
     }
 
     public InternalTableIterator newIterator(long number, ReadOptions options) throws IOException {
+        return newIterator(number, 0, options);
+    }
+
+    private InternalTableIterator newIterator(
+            long number, long globalSequenceNumber, ReadOptions options) throws IOException {
         try (Table table = getTable(number)) { // same as release
-            return new InternalTableIterator(table.iterator(options)); // make its own retain
+            return new InternalTableIterator(
+                    table.iterator(options), globalSequenceNumber); // make its own retain
         }
     }
 
@@ -110,6 +119,10 @@ public class TableCache {
             Slice key,
             FileMetaData fileMetaData,
             KeyValueFunction<T> resultBuilder) {
+        final long globalSequenceNumber = fileMetaData.getGlobalSequenceNumber();
+        if (globalSequenceNumber != 0) {
+            resultBuilder = withSequenceNumber(key, globalSequenceNumber, resultBuilder);
+        }
         try (Table table = getTable(fileMetaData.getNumber())) { // same as release
             return table.internalGet(options, key, resultBuilder);
         } catch (Exception e) {
@@ -117,6 +130,78 @@ public class TableCache {
         }
     }
 
+    /**
+     * Look up sorted {@code keys} in the table of {@code fileMetaData}, reading each data block
+     * once for all the keys that fall in it.
+     */
+    public <T> List<T> get(
+            ReadOptions options,
+            List<Slice> keys,
+            FileMetaData fileMetaData,
+            List<KeyValueFunction<T>> resultBuilders) {
+        final long globalSequenceNumber = fileMetaData.getGlobalSequenceNumber();
+        if (globalSequenceNumber != 0) {
+            List<KeyValueFunction<T>> withSequenceNumbers = new ArrayList<>(keys.size());
+            for (int i = 0; i < keys.size(); i++) {
+                withSequenceNumbers.add(
+                        withSequenceNumber(
+                                keys.get(i), globalSequenceNumber, resultBuilders.get(i)));
+            }
+            resultBuilders = withSequenceNumbers;
+        }
+        try (Table table = getTable(fileMetaData.getNumber())) { // same as release
+            return table.internalGet(options, keys, resultBuilders);
+        } catch (Exception e) {
+            throw new DBException(e);
+        }
+    }
+
+    /**
+     * Give the keys of an ingested table their global sequence number. The key found is ignored
+     * when it is newer than the lookup {@code key}, each user key is stored once in such a table.
+     */
+    private static <T> KeyValueFunction<T> withSequenceNumber(
+            Slice key, long globalSequenceNumber, KeyValueFunction<T> resultBuilder) {
+        final long lookupSequenceNumber = new InternalKey(key).getSequenceNumber();
+        return (internalKey, value) -> {
+            if (globalSequenceNumber > lookupSequenceNumber) {
+                return null;
+            }
+            InternalKey found = new InternalKey(internalKey);
+            return resultBuilder.apply(
+                    new InternalKey(found.getUserKey(), globalSequenceNumber, found.getValueType())
+                            .encode(),
+                    value);
+        };
+    }
+
+    /** Range tombstones of the table, empty unless {@link FileMetaData#hasRangeDeletions()}. */
+    public List<RangeTombstone> getRangeTombstones(FileMetaData file) {
+        if (!file.hasRangeDeletions()) {
+            return Collections.emptyList();
+        }
+        TableAndFile tableAndFile = getTableAndFile(file.getNumber());
+        try {
+            return tableAndFile.getRangeTombstones();
+        } catch (IOException e) {
+            throw new DBException(e);
+        } finally {
+            release(tableAndFile.getTable());
+        }
+    }
+
+    /**
+     * False if the table of {@code file} has no key with the prefix of the internal key {@code
+     * key}, see {@link Table#prefixMayMatch(Slice)}.
+     */
+    public boolean prefixMayMatch(FileMetaData file, Slice key) {
+        try (Table table = getTable(file.getNumber())) {
+            return table.prefixMayMatch(key);
+        } catch (IOException e) {
+            throw new DBException(e);
+        }
+    }
+
     public long getApproximateOffsetOf(FileMetaData file, Slice key) {
         try (Table table = getTable(file.getNumber())) {
             return table.getApproximateOffsetOf(key);
@@ -125,12 +210,25 @@ public class TableCache {
         }
     }
 
+    private static void release(Table table) {
+        try {
+            table.release();
+        } catch (IOException e) {
+            throw new DBException(e);
+        }
+    }
+
     private Table getTable(long number) {
-        Table table;
+        return getTableAndFile(number).getTable();
+    }
+
+    /** Entry of the table, whose table is retained. */
+    private TableAndFile getTableAndFile(long number) {
+        TableAndFile tableAndFile;
         try {
             do {
-                table = cache.get(number).getTable();
-            } while (!table.retain());
+                tableAndFile = cache.get(number);
+            } while (!tableAndFile.getTable().retain());
         } catch (ExecutionException e) {
             Throwable cause = e;
             if (e.getCause() != null) {
@@ -138,7 +236,7 @@ public class TableCache {
             }
             throw new DBException("Could not open table " + number, cause);
         }
-        return table;
+        return tableAndFile;
     }
 
     public void close() {
@@ -159,6 +257,9 @@ public class TableCache {
 
     private static final class TableAndFile {
         private final Table table;
+        private final boolean paranoidChecks;
+        // read on first use, guarded by this
+        private List<RangeTombstone> rangeTombstones;
 
         private TableAndFile(
                 File databaseDir,
@@ -168,6 +269,7 @@ public class TableCache {
                 ILRUCache<CacheKey, Slice> blockCache,
                 Env env)
                 throws IOException {
+            this.paranoidChecks = options.paranoidChecks();
             final File tableFile = tableFileName(databaseDir, fileNumber);
             RandomInputFile source = env.newRandomAccessFile(tableFile);
             table =
@@ -202,6 +304,16 @@ public class TableCache {
         public Table getTable() {
             return table;
         }
+
+        public synchronized List<RangeTombstone> getRangeTombstones() throws IOException {
+            if (rangeTombstones == null) {
+                rangeTombstones =
+                        RangeTombstone.readBlock(
+                                table.readMetaBlock(
+                                        RangeTombstone.META_BLOCK_NAME, paranoidChecks));
+            }
+            return rangeTombstones;
+        }
     }
 
     public long getApproximateMemoryUsage() {
@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iq80.leveldb.impl;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.util.Objects.requireNonNull;
+import static org.iq80.leveldb.util.SizeOf.SIZE_OF_LONG;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import org.iq80.leveldb.CompactionFilter;
+import org.iq80.leveldb.util.Slice;
+import org.iq80.leveldb.util.Slices;
+
+/**
+ * {@link CompactionFilter} removing the values older than a time to live. Values must end with the
+ * time they were written, in milliseconds since the epoch, as added by {@link
+ * #withTimestamp(byte[], long)}; values too short to hold a timestamp are kept.
+ *
+ * <p>Expired values stay readable until a compaction meets them, readers that must not see them
+ * can check {@link #isExpired(byte[])}.
+ */
+public class TtlCompactionFilter implements CompactionFilter {
+    private final long ttlMillis;
+    private final LongSupplier clock;
+
+    public TtlCompactionFilter(long ttl, TimeUnit unit) {
+        this(ttl, unit, System::currentTimeMillis);
+    }
+
+    /** @param clock current time in milliseconds since the epoch */
+    public TtlCompactionFilter(long ttl, TimeUnit unit, LongSupplier clock) {
+        checkArgument(ttl >= 0, "ttl must not be negative");
+        this.ttlMillis = requireNonNull(unit, "unit is null").toMillis(ttl);
+        this.clock = requireNonNull(clock, "clock is null");
+    }
+
+    @Override
+    public byte[] filter(int level, byte[] key, byte[] value) {
+        return isExpired(value) ? null : value;
+    }
+
+    /** True if {@code value} holds a timestamp older than the time to live. */
+    public boolean isExpired(byte[] value) {
+        return value.length >= SIZE_OF_LONG && clock.getAsLong() - getTimestamp(value) > ttlMillis;
+    }
+
+    /** {@code value} followed by {@code timestampMillis}. */
+    public static byte[] withTimestamp(byte[] value, long timestampMillis) {
+        Slice slice = Slices.allocate(value.length + SIZE_OF_LONG);
+        slice.setBytes(0, value, 0, value.length);
+        slice.setLong(value.length, timestampMillis);
+        return slice.getBytes();
+    }
+
+    /** Time {@code value} was written, in milliseconds since the epoch. */
+    public static long getTimestamp(byte[] value) {
+        checkArgument(value.length >= SIZE_OF_LONG, "value holds no timestamp");
+        return Slices.wrappedBuffer(value).getLong(value.length - SIZE_OF_LONG);
+    }
+
+    /** {@code value} without its timestamp. */
+    public static byte[] stripTimestamp(byte[] value) {
+        checkArgument(value.length >= SIZE_OF_LONG, "value holds no timestamp");
+        return Arrays.copyOf(value, value.length - SIZE_OF_LONG);
+    }
+}
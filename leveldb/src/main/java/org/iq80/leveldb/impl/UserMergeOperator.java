@@ -0,0 +1,60 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iq80.leveldb.impl;
+
+import static java.util.Objects.requireNonNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.iq80.leveldb.DBException;
+import org.iq80.leveldb.MergeOperator;
+import org.iq80.leveldb.util.Slice;
+import org.iq80.leveldb.util.Slices;
+
+/** Applies the {@link MergeOperator} of a database to the operands of a key. */
+public final class UserMergeOperator {
+    private final MergeOperator mergeOperator;
+
+    /** @param mergeOperator operator of the database, null if none is configured */
+    public UserMergeOperator(MergeOperator mergeOperator) {
+        this.mergeOperator = mergeOperator;
+    }
+
+    /**
+     * Value of {@code userKey} after applying {@code operands}, newest first, to {@code
+     * existingValue}, null if the key has no value or is deleted.
+     *
+     * @throws DBException if no merge operator is configured
+     */
+    public Slice fullMerge(Slice userKey, Slice existingValue, List<Slice> operands) {
+        if (mergeOperator == null) {
+            throw new DBException("Merge operands found for a key but no merge operator is set");
+        }
+        List<byte[]> operandBytes = new ArrayList<>(operands.size());
+        for (int i = operands.size() - 1; i >= 0; i--) {
+            operandBytes.add(operands.get(i).getBytes());
+        }
+        byte[] value =
+                mergeOperator.fullMerge(
+                        userKey.getBytes(),
+                        existingValue == null ? null : existingValue.getBytes(),
+                        operandBytes);
+        requireNonNull(value, "Merge operator returned null");
+        return Slices.wrappedBuffer(value);
+    }
+}
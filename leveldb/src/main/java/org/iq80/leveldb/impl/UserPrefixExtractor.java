@@ -0,0 +1,54 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iq80.leveldb.impl;
+
+import static com.google.common.base.Preconditions.checkState;
+import static java.util.Objects.requireNonNull;
+
+import org.iq80.leveldb.PrefixExtractor;
+import org.iq80.leveldb.util.Slice;
+
+/** Applies the {@link PrefixExtractor} of a database to user keys. */
+public final class UserPrefixExtractor {
+    private final PrefixExtractor prefixExtractor;
+
+    public UserPrefixExtractor(PrefixExtractor prefixExtractor) {
+        this.prefixExtractor = requireNonNull(prefixExtractor, "prefixExtractor is null");
+    }
+
+    /** Wrap {@code prefixExtractor}, null if none is configured. */
+    public static UserPrefixExtractor of(PrefixExtractor prefixExtractor) {
+        return prefixExtractor == null ? null : new UserPrefixExtractor(prefixExtractor);
+    }
+
+    public String name() {
+        return prefixExtractor.name();
+    }
+
+    /** Prefix of {@code userKey}, sharing its bytes, or null if the key has no prefix. */
+    public Slice prefix(Slice userKey) {
+        int length =
+                prefixExtractor.prefixLength(
+                        userKey.getRawArray(), userKey.getRawOffset(), userKey.length());
+        if (length < 0) {
+            return null;
+        }
+        checkState(length <= userKey.length(), "Prefix is longer than the key");
+        return userKey.slice(0, length);
+    }
+}
@@ -19,7 +19,9 @@ package org.iq80.leveldb.impl;
 
 public enum ValueType {
     DELETION(0x00),
-    VALUE(0x01);
+    VALUE(0x01),
+    MERGE(0x02),
+    RANGE_DELETION(0x0F);
 
     public static ValueType getValueTypeByPersistentId(int persistentId) {
         switch (persistentId) {
@@ -27,6 +29,10 @@ public enum ValueType {
                 return DELETION;
             case 1:
                 return VALUE;
+            case 2:
+                return MERGE;
+            case 0x0F:
+                return RANGE_DELETION;
             default:
                 throw new IllegalArgumentException("Unknown persistentId " + persistentId);
         }
@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iq80.leveldb.impl;
+
+import static java.util.Objects.requireNonNull;
+import static org.iq80.leveldb.util.SizeOf.SIZE_OF_LONG;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import org.iq80.leveldb.iterator.InternalIterator;
+import org.iq80.leveldb.iterator.SeekingIterators;
+import org.iq80.leveldb.util.Slice;
+
+/**
+ * {@link MemTable} that appends entries to an unsorted vector. Entries are sorted when the table is
+ * read, typically once when it is flushed. Any read after new writes sorts a new copy, this table
+ * is meant for bulk loads that do not read their own writes.
+ */
+public class VectorMemTable implements MemTable {
+    private final InternalKeyComparator internalKeyComparator;
+    private final AtomicLong approximateMemoryUsage = new AtomicLong();
+    private final Queue<RangeTombstone> rangeTombstones = new ConcurrentLinkedQueue<>();
+    // guarded by this
+    private final List<InternalEntry> entries = new ArrayList<>();
+    // guarded by this, sorted copy of entries, shared with iterators
+    private List<InternalEntry> sortedEntries = Collections.emptyList();
+
+    public VectorMemTable(InternalKeyComparator internalKeyComparator) {
+        this.internalKeyComparator = internalKeyComparator;
+    }
+
+    @Override
+    public synchronized boolean isEmpty() {
+        return entries.isEmpty() && rangeTombstones.isEmpty();
+    }
+
+    @Override
+    public long approximateMemoryUsage() {
+        return approximateMemoryUsage.get();
+    }
+
+    @Override
+    public void add(long sequenceNumber, ValueType valueType, Slice key, Slice value) {
+        requireNonNull(valueType, "valueType is null");
+        requireNonNull(key, "key is null");
+        requireNonNull(value, "value is null");
+
+        InternalEntry entry =
+                new InternalEntry(
+                        new InternalKey(key.copySlice(), sequenceNumber, valueType),
+                        value.length() == 0 ? value : value.copySlice());
+        synchronized (this) {
+            entries.add(entry);
+        }
+
+        approximateMemoryUsage.addAndGet(key.length() + SIZE_OF_LONG + value.length());
+    }
+
+    @Override
+    public void addRangeDeletion(long sequenceNumber, Slice begin, Slice end) {
+        requireNonNull(begin, "begin is null");
+        requireNonNull(end, "end is null");
+
+        rangeTombstones.add(
+                new RangeTombstone(begin.copySlice(), end.copySlice(), sequenceNumber));
+
+        approximateMemoryUsage.addAndGet(begin.length() + SIZE_OF_LONG + end.length());
+    }
+
+    @Override
+    public Collection<RangeTombstone> rangeTombstones() {
+        return Collections.unmodifiableCollection(rangeTombstones);
+    }
+
+    @Override
+    public LookupResult get(LookupKey key) {
+        requireNonNull(key, "key is null");
+
+        List<InternalEntry> sorted = sortedEntries();
+        InternalKey internalKey = key.getInternalKey();
+        // binary search for the first entry at or after internalKey
+        int low = 0;
+        int high = sorted.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (internalKeyComparator.compare(sorted.get(mid).getKey(), internalKey) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        if (low == sorted.size()) {
+            return null;
+        }
+        InternalEntry entry = sorted.get(low);
+        if (entry.getKey().getUserKey().equals(key.getUserKey())) {
+            if (entry.getKey().getValueType() == ValueType.DELETION) {
+                return LookupResult.deleted(key, entry.getKey().getSequenceNumber());
+            } else if (entry.getKey().getValueType() == ValueType.MERGE) {
+                return LookupResult.merge(
+                        key, entry.getValue(), entry.getKey().getSequenceNumber());
+            } else {
+                return LookupResult.ok(key, entry.getValue(), entry.getKey().getSequenceNumber());
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public InternalIterator iterator() {
+        return SeekingIterators.internalIteratorFromSortedList(
+                sortedEntries(),
+                InternalEntry::getKey,
+                InternalEntry::getValue,
+                internalKeyComparator);
+    }
+
+    private synchronized List<InternalEntry> sortedEntries() {
+        if (sortedEntries.size() != entries.size()) {
+            InternalEntry[] sorted = entries.toArray(new InternalEntry[0]);
+            Arrays.sort(
+                    sorted, (o1, o2) -> internalKeyComparator.compare(o1.getKey(), o2.getKey()));
+            sortedEntries = Collections.unmodifiableList(Arrays.asList(sorted));
+        }
+        return sortedEntries;
+    }
+}
@@ -33,6 +33,7 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 import org.iq80.leveldb.ReadOptions;
 import org.iq80.leveldb.iterator.InternalIterator;
 import org.iq80.leveldb.util.SafeListBuilder;
@@ -47,8 +48,9 @@ public class Version {
     // move these mutable fields somewhere else
     private int compactionLevel;
     private double compactionScore;
-    private FileMetaData fileToCompact;
-    private int fileToCompactLevel;
+    private long pendingCompactionBytes;
+    // set by readers without the mutex, level and file are published together
+    private final AtomicReference<ReadStats> fileToCompact = new AtomicReference<>();
 
     public Version(VersionSet versionSet) {
         this.versionSet = versionSet;
@@ -114,6 +116,15 @@ public class Version {
         this.compactionScore = compactionScore;
     }
 
+    /** Estimated number of bytes compactions have to rewrite to bring all levels under target. */
+    public long getPendingCompactionBytes() {
+        return pendingCompactionBytes;
+    }
+
+    public void setPendingCompactionBytes(long pendingCompactionBytes) {
+        this.pendingCompactionBytes = pendingCompactionBytes;
+    }
+
     List<InternalIterator> getLevelIterators(ReadOptions options) throws IOException {
         try (SafeListBuilder<InternalIterator> builder = SafeListBuilder.builder()) {
             for (Level level : levels) {
@@ -140,6 +151,25 @@ public class Version {
         return lookupResult;
     }
 
+    /**
+     * Look up each of {@code keys}, sorted by user key and sharing one sequence number, whose
+     * result is still null. Files are searched level by level, each once for all the keys that may
+     * be in it.
+     */
+    public void get(
+            ReadOptions options,
+            List<LookupKey> keys,
+            LookupResult[] results,
+            ReadStats readStats) {
+        ReadStats[] lastStats = new ReadStats[keys.size()];
+        for (int i = 0; i < lastStats.length; i++) {
+            lastStats[i] = new ReadStats();
+        }
+        for (Level level : levels) {
+            level.get(options, keys, results, readStats, lastStats);
+        }
+    }
+
     int pickLevelForMemTableOutput(Slice smallestUserKey, Slice largestUserKey) {
         int level = 0;
         if (!overlapInLevel(0, smallestUserKey, largestUserKey)) {
@@ -206,20 +236,18 @@ public class Version {
         }
 
         seekFile.decrementAllowedSeeks();
-        if (seekFile.getAllowedSeeks() <= 0 && fileToCompact == null) {
-            fileToCompact = seekFile;
-            fileToCompactLevel = seekFileLevel;
-            return true;
-        }
-        return false;
+        return seekFile.getAllowedSeeks() <= 0
+                && fileToCompact.compareAndSet(null, new ReadStats(seekFileLevel, seekFile));
     }
 
     public FileMetaData getFileToCompact() {
-        return fileToCompact;
+        ReadStats readStats = fileToCompact.get();
+        return readStats != null ? readStats.getSeekFile() : null;
     }
 
     public int getFileToCompactLevel() {
-        return fileToCompactLevel;
+        ReadStats readStats = fileToCompact.get();
+        return readStats != null ? readStats.getSeekFileLevel() : -1;
     }
 
     public long getApproximateOffsetOf(InternalKey key) {
@@ -170,49 +170,116 @@ public enum VersionEditTag {
     NEW_FILE(7) {
         @Override
         public void readValue(SliceInput sliceInput, VersionEdit versionEdit) {
-            // level
-            int level = VariableLengthQuantity.readVariableLengthInt(sliceInput);
+            readFile(sliceInput, versionEdit, false, false);
+        }
 
-            // file number
-            long fileNumber = VariableLengthQuantity.readVariableLengthLong(sliceInput);
+        @Override
+        public void writeValue(SliceOutput sliceOutput, VersionEdit versionEdit) {
+            for (Entry<Integer, FileMetaData> entry : versionEdit.getNewFiles().entries()) {
+                if (entry.getValue().getGlobalSequenceNumber() == 0
+                        && !entry.getValue().hasRangeDeletions()) {
+                    writeFile(sliceOutput, getPersistentId(), entry.getKey(), entry.getValue());
+                }
+            }
+        }
+    },
 
-            // file size
-            long fileSize = VariableLengthQuantity.readVariableLengthLong(sliceInput);
+    // ids from 100 are not known to other leveldb implementations
 
-            // smallest key
-            InternalKey smallestKey = new InternalKey(readLengthPrefixedBytes(sliceInput));
+    NEW_INGESTED_FILE(100) {
+        @Override
+        public void readValue(SliceInput sliceInput, VersionEdit versionEdit) {
+            readFile(sliceInput, versionEdit, true, false);
+        }
 
-            // largest key
-            InternalKey largestKey = new InternalKey(readLengthPrefixedBytes(sliceInput));
+        @Override
+        public void writeValue(SliceOutput sliceOutput, VersionEdit versionEdit) {
+            for (Entry<Integer, FileMetaData> entry : versionEdit.getNewFiles().entries()) {
+                if (entry.getValue().getGlobalSequenceNumber() != 0) {
+                    writeFile(sliceOutput, getPersistentId(), entry.getKey(), entry.getValue());
+                }
+            }
+        }
+    },
 
-            versionEdit.addFile(level, fileNumber, fileSize, smallestKey, largestKey);
+    // same as NEW_FILE, for tables holding range tombstones
+    NEW_FILE_WITH_RANGE_DELETIONS(101) {
+        @Override
+        public void readValue(SliceInput sliceInput, VersionEdit versionEdit) {
+            readFile(sliceInput, versionEdit, false, true);
         }
 
         @Override
         public void writeValue(SliceOutput sliceOutput, VersionEdit versionEdit) {
             for (Entry<Integer, FileMetaData> entry : versionEdit.getNewFiles().entries()) {
-                VariableLengthQuantity.writeVariableLengthInt(getPersistentId(), sliceOutput);
+                if (entry.getValue().getGlobalSequenceNumber() == 0
+                        && entry.getValue().hasRangeDeletions()) {
+                    writeFile(sliceOutput, getPersistentId(), entry.getKey(), entry.getValue());
+                }
+            }
+        }
+    };
 
-                // level
-                VariableLengthQuantity.writeVariableLengthInt(entry.getKey(), sliceOutput);
+    private static void readFile(
+            SliceInput sliceInput,
+            VersionEdit versionEdit,
+            boolean globalSequenceNumber,
+            boolean hasRangeDeletions) {
+        // level
+        int level = VariableLengthQuantity.readVariableLengthInt(sliceInput);
+
+        // file number
+        long fileNumber = VariableLengthQuantity.readVariableLengthLong(sliceInput);
+
+        // file size
+        long fileSize = VariableLengthQuantity.readVariableLengthLong(sliceInput);
+
+        // smallest key
+        InternalKey smallestKey = new InternalKey(readLengthPrefixedBytes(sliceInput));
+
+        // largest key
+        InternalKey largestKey = new InternalKey(readLengthPrefixedBytes(sliceInput));
+
+        // sequence number of all entries of the file
+        long sequenceNumber =
+                globalSequenceNumber ? VariableLengthQuantity.readVariableLengthLong(sliceInput) : 0;
+
+        versionEdit.addFile(
+                level,
+                new FileMetaData(
+                        fileNumber,
+                        fileSize,
+                        smallestKey,
+                        largestKey,
+                        sequenceNumber,
+                        hasRangeDeletions));
+    }
 
-                // file number
-                FileMetaData fileMetaData = entry.getValue();
-                VariableLengthQuantity.writeVariableLengthLong(
-                        fileMetaData.getNumber(), sliceOutput);
+    private static void writeFile(
+            SliceOutput sliceOutput, int persistentId, int level, FileMetaData fileMetaData) {
+        VariableLengthQuantity.writeVariableLengthInt(persistentId, sliceOutput);
 
-                // file size
-                VariableLengthQuantity.writeVariableLengthLong(
-                        fileMetaData.getFileSize(), sliceOutput);
+        // level
+        VariableLengthQuantity.writeVariableLengthInt(level, sliceOutput);
 
-                // smallest key
-                writeLengthPrefixedBytes(sliceOutput, fileMetaData.getSmallest().encode());
+        // file number
+        VariableLengthQuantity.writeVariableLengthLong(fileMetaData.getNumber(), sliceOutput);
 
-                // smallest key
-                writeLengthPrefixedBytes(sliceOutput, fileMetaData.getLargest().encode());
-            }
+        // file size
+        VariableLengthQuantity.writeVariableLengthLong(fileMetaData.getFileSize(), sliceOutput);
+
+        // smallest key
+        writeLengthPrefixedBytes(sliceOutput, fileMetaData.getSmallest().encode());
+
+        // largest key
+        writeLengthPrefixedBytes(sliceOutput, fileMetaData.getLargest().encode());
+
+        // sequence number of all entries of the file
+        if (fileMetaData.getGlobalSequenceNumber() != 0) {
+            VariableLengthQuantity.writeVariableLengthLong(
+                    fileMetaData.getGlobalSequenceNumber(), sliceOutput);
         }
-    };
+    }
 
     public static VersionEditTag getValueTypeByPersistentId(int persistentId) {
         for (VersionEditTag compressionType : VersionEditTag.values()) {
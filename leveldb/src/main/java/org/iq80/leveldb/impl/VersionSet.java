@@ -63,8 +63,9 @@ public class VersionSet {
 
     private final AtomicLong nextFileNumber = new AtomicLong(2);
     private long manifestFileNumber = 1;
-    private Version current;
-    private long lastSequence;
+    private volatile Version current;
+    // written by the write group leader without holding the mutex
+    private volatile long lastSequence;
     private long logNumber;
     private long prevLogNumber;
 
@@ -232,6 +233,10 @@ public class VersionSet {
         return current.numberOfFilesInLevel(level);
     }
 
+    public long getPendingCompactionBytes() {
+        return current.getPendingCompactionBytes();
+    }
+
     public long getLastSequence() {
         return lastSequence;
     }
@@ -453,6 +458,7 @@ public class VersionSet {
         // Precomputed best level for next compaction
         int bestLevel = -1;
         double bestScore = -1;
+        long pendingCompactionBytes = 0;
 
         for (int level = 0; level < version.numberOfLevels() - 1; level++) {
             double score;
@@ -469,6 +475,11 @@ public class VersionSet {
                 // setting, or very high compression ratios, or lots of
                 // overwrites/deletions).
                 score = 1.0 * version.numberOfFilesInLevel(level) / L0_COMPACTION_TRIGGER;
+                if (score >= 1) {
+                    for (FileMetaData fileMetaData : version.getFiles(level)) {
+                        pendingCompactionBytes += fileMetaData.getFileSize();
+                    }
+                }
             } else {
                 // Compute the ratio of current size to size limit.
                 long levelBytes = 0;
@@ -476,6 +487,7 @@ public class VersionSet {
                     levelBytes += fileMetaData.getFileSize();
                 }
                 score = 1.0 * levelBytes / maxBytesForLevel(level);
+                pendingCompactionBytes += Math.max(0, levelBytes - (long) maxBytesForLevel(level));
             }
 
             if (score > bestScore) {
@@ -486,6 +498,7 @@ public class VersionSet {
 
         version.setCompactionLevel(bestLevel);
         version.setCompactionScore(bestScore);
+        version.setPendingCompactionBytes(pendingCompactionBytes);
     }
 
     private static <V> V coalesce(V... values) {
@@ -17,93 +17,217 @@
  */
 package org.iq80.leveldb.impl;
 
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
 import static java.util.Objects.requireNonNull;
+import static org.iq80.leveldb.impl.ValueType.DELETION;
+import static org.iq80.leveldb.impl.ValueType.MERGE;
+import static org.iq80.leveldb.impl.ValueType.RANGE_DELETION;
+import static org.iq80.leveldb.impl.ValueType.VALUE;
+import static org.iq80.leveldb.util.Slices.readLengthPrefixedBytes;
+import static org.iq80.leveldb.util.Slices.writeLengthPrefixedBytes;
 
-import com.google.common.collect.Maps;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Map.Entry;
 import org.iq80.leveldb.WriteBatch;
+import org.iq80.leveldb.util.DynamicSliceOutput;
 import org.iq80.leveldb.util.Slice;
-import org.iq80.leveldb.util.Slices;
+import org.iq80.leveldb.util.SliceInput;
+import org.iq80.leveldb.util.VariableLengthQuantity;
 
+/**
+ * Batch kept in its log record format (sequence, count and tagged length prefixed entries) so that
+ * it can be logged, grouped and applied without being copied or re-encoded.
+ */
 public class WriteBatchImpl implements WriteBatch {
     // WriteBatch header has an 8-byte sequence number followed by a 4-byte count.
-    private static final int HEADER_SIZE = 12;
+    static final int HEADER_SIZE = 12;
+
+    private final DynamicSliceOutput rep = new DynamicSliceOutput(64);
+    private int count;
 
-    private final List<Entry<Slice, Slice>> batch = new ArrayList<>();
-    private int approximateSize;
+    public WriteBatchImpl() {
+        rep.writeZero(HEADER_SIZE);
+    }
 
     @Override
     public int getApproximateSize() {
-        return approximateSize;
+        return rep.size();
     }
 
     @Override
     public int size() {
-        return batch.size();
+        return count;
     }
 
     @Override
     public WriteBatchImpl put(byte[] key, byte[] value) {
         requireNonNull(key, "key is null");
         requireNonNull(value, "value is null");
-        batch.add(Maps.immutableEntry(Slices.wrappedBuffer(key), Slices.wrappedBuffer(value)));
-        approximateSize += HEADER_SIZE + key.length + value.length;
+        count++;
+        rep.writeByte(VALUE.getPersistentId());
+        VariableLengthQuantity.writeVariableLengthInt(key.length, rep);
+        rep.writeBytes(key);
+        VariableLengthQuantity.writeVariableLengthInt(value.length, rep);
+        rep.writeBytes(value);
         return this;
     }
 
     public WriteBatchImpl put(Slice key, Slice value) {
         requireNonNull(key, "key is null");
         requireNonNull(value, "value is null");
-        batch.add(Maps.immutableEntry(key, value));
-        approximateSize += HEADER_SIZE + key.length() + value.length();
+        count++;
+        rep.writeByte(VALUE.getPersistentId());
+        writeLengthPrefixedBytes(rep, key);
+        writeLengthPrefixedBytes(rep, value);
         return this;
     }
 
     @Override
     public WriteBatchImpl delete(byte[] key) {
         requireNonNull(key, "key is null");
-        batch.add(Maps.immutableEntry(Slices.wrappedBuffer(key), (Slice) null));
-        approximateSize += 6 + key.length;
+        count++;
+        rep.writeByte(DELETION.getPersistentId());
+        VariableLengthQuantity.writeVariableLengthInt(key.length, rep);
+        rep.writeBytes(key);
         return this;
     }
 
     public WriteBatchImpl delete(Slice key) {
         requireNonNull(key, "key is null");
-        batch.add(Maps.immutableEntry(key, (Slice) null));
-        approximateSize += 6 + key.length();
+        count++;
+        rep.writeByte(DELETION.getPersistentId());
+        writeLengthPrefixedBytes(rep, key);
+        return this;
+    }
+
+    @Override
+    public WriteBatchImpl merge(byte[] key, byte[] value) {
+        requireNonNull(key, "key is null");
+        requireNonNull(value, "value is null");
+        count++;
+        rep.writeByte(MERGE.getPersistentId());
+        VariableLengthQuantity.writeVariableLengthInt(key.length, rep);
+        rep.writeBytes(key);
+        VariableLengthQuantity.writeVariableLengthInt(value.length, rep);
+        rep.writeBytes(value);
+        return this;
+    }
+
+    public WriteBatchImpl merge(Slice key, Slice value) {
+        requireNonNull(key, "key is null");
+        requireNonNull(value, "value is null");
+        count++;
+        rep.writeByte(MERGE.getPersistentId());
+        writeLengthPrefixedBytes(rep, key);
+        writeLengthPrefixedBytes(rep, value);
+        return this;
+    }
+
+    @Override
+    public WriteBatchImpl deleteRange(byte[] begin, byte[] end) {
+        requireNonNull(begin, "begin is null");
+        requireNonNull(end, "end is null");
+        count++;
+        rep.writeByte(RANGE_DELETION.getPersistentId());
+        VariableLengthQuantity.writeVariableLengthInt(begin.length, rep);
+        rep.writeBytes(begin);
+        VariableLengthQuantity.writeVariableLengthInt(end.length, rep);
+        rep.writeBytes(end);
+        return this;
+    }
+
+    public WriteBatchImpl deleteRange(Slice begin, Slice end) {
+        requireNonNull(begin, "begin is null");
+        requireNonNull(end, "end is null");
+        count++;
+        rep.writeByte(RANGE_DELETION.getPersistentId());
+        writeLengthPrefixedBytes(rep, begin);
+        writeLengthPrefixedBytes(rep, end);
         return this;
     }
 
     @Override
     public void close() {}
 
+    /**
+     * Replay all entries in order. Keys and values given to {@code handler} are views of this batch
+     * and are only valid until the batch is modified.
+     */
     public void forEach(Handler handler) {
-        for (Entry<Slice, Slice> entry : batch) {
-            Slice key = entry.getKey();
-            Slice value = entry.getValue();
-            if (value != null) {
+        forEach(rep.slice(), count, handler);
+    }
+
+    /**
+     * Replay all entries of a batch in its log record format, without copying them.
+     *
+     * @throws IllegalStateException if {@code contents} is not a well formed batch
+     */
+    public static void forEach(Slice contents, Handler handler) {
+        checkArgument(contents.length() >= HEADER_SIZE, "log record too small");
+        forEach(contents, contents.getInt(8), handler);
+    }
+
+    private static void forEach(Slice contents, int expected, Handler handler) {
+        SliceInput input = contents.input();
+        input.skipBytes(HEADER_SIZE);
+        int found = 0;
+        while (input.isReadable()) {
+            found++;
+            ValueType valueType = ValueType.getValueTypeByPersistentId(input.readByte());
+            if (valueType == VALUE) {
+                Slice key = readLengthPrefixedBytes(input);
+                Slice value = readLengthPrefixedBytes(input);
                 handler.put(key, value);
-            } else {
+            } else if (valueType == DELETION) {
+                Slice key = readLengthPrefixedBytes(input);
                 handler.delete(key);
+            } else if (valueType == MERGE) {
+                Slice key = readLengthPrefixedBytes(input);
+                Slice value = readLengthPrefixedBytes(input);
+                handler.merge(key, value);
+            } else if (valueType == RANGE_DELETION) {
+                Slice begin = readLengthPrefixedBytes(input);
+                Slice end = readLengthPrefixedBytes(input);
+                handler.deleteRange(begin, end);
+            } else {
+                throw new IllegalStateException("Unexpected value type " + valueType);
             }
         }
+        checkState(
+                found == expected,
+                "Expected %s entries in log record but found %s entries",
+                expected,
+                found);
+    }
+
+    /**
+     * Log record of this batch, starting at {@code sequence}. The record shares the buffer of this
+     * batch and is only valid until the batch is modified.
+     */
+    public Slice contents(long sequence) {
+        Slice contents = rep.slice();
+        contents.setLong(0, sequence);
+        contents.setInt(8, count);
+        return contents;
     }
 
     public void append(WriteBatchImpl batch) {
-        this.batch.addAll(batch.batch);
-        this.approximateSize += batch.approximateSize;
+        rep.writeBytes(batch.rep.slice(), HEADER_SIZE, batch.rep.size() - HEADER_SIZE);
+        count += batch.count;
     }
 
     public void clear() {
-        approximateSize = 0;
-        batch.clear();
+        rep.reset();
+        rep.writeZero(HEADER_SIZE);
+        count = 0;
     }
 
     public interface Handler {
         void put(Slice key, Slice value);
 
         void delete(Slice key);
+
+        void merge(Slice key, Slice value);
+
+        void deleteRange(Slice begin, Slice end);
     }
 }
@@ -0,0 +1,173 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iq80.leveldb.impl;
+
+import static org.iq80.leveldb.impl.DbConstants.L0_SLOWDOWN_WRITES_TRIGGER;
+import static org.iq80.leveldb.impl.DbConstants.L0_STOP_WRITES_TRIGGER;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides how fast writes may go given the compaction backlog.
+ *
+ * <p>Instead of a fixed sleep once level-0 has too many files, writes are metered at a delayed
+ * write rate that decreases smoothly from {@code maxDelayedWriteRate} as the level-0 file count,
+ * the fill of the memtable that waits for the immutable one to be flushed and the estimated pending
+ * compaction bytes get closer to the point where writes stop completely. Each write group is
+ * delayed in proportion to its size.
+ *
+ * <p>Except for {@link #getState()}, all methods must be called with the database mutex held.
+ */
+final class WriteController {
+    enum State {
+        NORMAL,
+        DELAYED,
+        STOPPED
+    }
+
+    // never throttle below this rate, in bytes per second
+    static final long MIN_DELAYED_WRITE_RATE = 16 << 10;
+    // writes may burst for this long at the delayed write rate without being delayed
+    private static final long MAX_CREDIT_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final long maxDelayedWriteRate;
+    private final long softPendingCompactionBytesLimit;
+    private final long hardPendingCompactionBytesLimit;
+
+    private volatile State state = State.NORMAL;
+    private long delayedWriteRate;
+    // time at which all bytes metered so far are paid for
+    private long nextWriteNanos;
+
+    private long stallMicros;
+    private long delayedWrites;
+    private long stoppedWrites;
+
+    WriteController(
+            long maxDelayedWriteRate,
+            long softPendingCompactionBytesLimit,
+            long hardPendingCompactionBytesLimit) {
+        this.maxDelayedWriteRate = Math.max(maxDelayedWriteRate, MIN_DELAYED_WRITE_RATE);
+        this.softPendingCompactionBytesLimit = softPendingCompactionBytesLimit;
+        this.hardPendingCompactionBytesLimit = hardPendingCompactionBytesLimit;
+        this.delayedWriteRate = this.maxDelayedWriteRate;
+    }
+
+    /**
+     * Recompute state and delayed write rate.
+     *
+     * @param level0Files number of files in level-0
+     * @param memTableFill usage of the memtable relative to the write buffer size when an immutable
+     *     memtable is waiting to be flushed, 0 otherwise
+     * @param pendingCompactionBytes estimated number of bytes compactions need to rewrite
+     */
+    void update(int level0Files, double memTableFill, long pendingCompactionBytes) {
+        if (level0Files >= L0_STOP_WRITES_TRIGGER
+                || memTableFill > 1
+                || (hardPendingCompactionBytesLimit > 0
+                        && pendingCompactionBytes >= hardPendingCompactionBytesLimit)) {
+            state = State.STOPPED;
+            return;
+        }
+
+        // how close, from 0 to 1, each trigger is to stopping writes
+        double pressure = 0;
+        if (level0Files > L0_SLOWDOWN_WRITES_TRIGGER) {
+            pressure =
+                    (double) (level0Files - L0_SLOWDOWN_WRITES_TRIGGER)
+                            / (L0_STOP_WRITES_TRIGGER - L0_SLOWDOWN_WRITES_TRIGGER);
+        }
+        if (memTableFill > 0.5) {
+            pressure = Math.max(pressure, (memTableFill - 0.5) * 2);
+        }
+        if (softPendingCompactionBytesLimit > 0
+                && pendingCompactionBytes > softPendingCompactionBytesLimit) {
+            double limit =
+                    hardPendingCompactionBytesLimit > softPendingCompactionBytesLimit
+                            ? hardPendingCompactionBytesLimit
+                            : 4.0 * softPendingCompactionBytesLimit;
+            pressure =
+                    Math.max(
+                            pressure,
+                            Math.min(
+                                    1,
+                                    (pendingCompactionBytes - softPendingCompactionBytesLimit)
+                                            / (limit - softPendingCompactionBytesLimit)));
+        }
+
+        if (pressure <= 0) {
+            state = State.NORMAL;
+            delayedWriteRate = maxDelayedWriteRate;
+            return;
+        }
+        if (state != State.DELAYED) {
+            // start metering from now, do not charge for writes done before the slowdown
+            nextWriteNanos = System.nanoTime();
+        }
+        delayedWriteRate =
+                Math.max(MIN_DELAYED_WRITE_RATE, (long) (maxDelayedWriteRate * (1 - pressure)));
+        state = State.DELAYED;
+    }
+
+    State getState() {
+        return state;
+    }
+
+    long getDelayedWriteRate() {
+        return delayedWriteRate;
+    }
+
+    /**
+     * Meter a write of {@code bytes}.
+     *
+     * @return nanoseconds the write should wait for the delayed write rate to be respected
+     */
+    long getDelayNanos(long bytes, long nowNanos) {
+        if (state != State.DELAYED) {
+            return 0;
+        }
+        delayedWrites++;
+        // unused credit does not accumulate beyond a short burst
+        if (nextWriteNanos - nowNanos < -MAX_CREDIT_NANOS) {
+            nextWriteNanos = nowNanos - MAX_CREDIT_NANOS;
+        }
+        nextWriteNanos += (long) (bytes * 1e9 / delayedWriteRate);
+        return Math.max(0, nextWriteNanos - nowNanos);
+    }
+
+    /** Record a writer that was stopped until compactions caught up. */
+    void recordStop() {
+        stoppedWrites++;
+    }
+
+    void recordStall(long nanos) {
+        stallMicros += TimeUnit.NANOSECONDS.toMicros(nanos);
+    }
+
+    long getStallMicros() {
+        return stallMicros;
+    }
+
+    long getDelayedWrites() {
+        return delayedWrites;
+    }
+
+    long getStoppedWrites() {
+        return stoppedWrites;
+    }
+}
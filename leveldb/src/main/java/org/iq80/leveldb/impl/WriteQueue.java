@@ -0,0 +1,399 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iq80.leveldb.impl;
+
+import static com.google.common.base.Preconditions.checkState;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+
+/**
+ * Lock free queue of pending writers.
+ *
+ * <p>Writers link themselves at the head of the queue with a single CAS. A writer that finds the
+ * queue empty becomes the group leader: it collects the writers queued behind it into a {@link
+ * WriteGroup}, commits them all with a single log record and then either completes them or hands
+ * them their memtable insert. When the leader is done it elects the first writer that did not fit
+ * in its group as next leader. Waiting writers spin for a short while before parking, so that the
+ * hand off of short groups does not pay for a context switch. Asynchronous writers do not wait at
+ * all, they are notified through a listener instead.
+ */
+final class WriteQueue {
+    static final int STATE_INIT = 1;
+    static final int STATE_GROUP_LEADER = 2;
+    static final int STATE_MEMTABLE_WRITER = 4;
+    static final int STATE_COMPLETED = 8;
+
+    private static final int SPIN_ROUNDS = 256;
+    private static final int YIELD_ROUNDS = 16;
+    private static final long GROUP_COMMIT_POLL_NANOS = 20_000;
+
+    // newest writer in the queue, null when queue is empty
+    private final AtomicReference<Writer> newestWriter = new AtomicReference<>();
+
+    /**
+     * Add {@code w} to the queue and wait until it is either group leader, asked to insert its own
+     * batch into the memtable or completed by another leader.
+     *
+     * @return new state of {@code w}
+     */
+    int joinBatchGroup(Writer w) {
+        if (linkOne(w)) {
+            return STATE_GROUP_LEADER;
+        }
+        return awaitState(w, STATE_GROUP_LEADER | STATE_MEMTABLE_WRITER | STATE_COMPLETED);
+    }
+
+    /**
+     * Add asynchronous writer {@code w} to the queue without waiting. If {@code w} does not become
+     * leader right away, its listener is called when it is either elected leader or completed.
+     *
+     * @return true if {@code w} is the group leader
+     */
+    boolean joinBatchGroupAsync(Writer w) {
+        checkState(w.isAsync(), "Writer must have a listener");
+        return linkOne(w);
+    }
+
+    private boolean linkOne(Writer w) {
+        Writer older;
+        do {
+            older = newestWriter.get();
+            w.older = older;
+        } while (!newestWriter.compareAndSet(older, w));
+
+        if (older == null) {
+            // queue was empty, we are the leader
+            w.state = STATE_GROUP_LEADER;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Collect into {@code group} all writers queued after its leader that can be committed together
+     * with the leader write. REQUIRES: caller is the group leader.
+     */
+    void enterAsBatchGroupLeader(WriteGroup group) {
+        enterAsBatchGroupLeader(group, 0);
+    }
+
+    /**
+     * Same as {@link #enterAsBatchGroupLeader(WriteGroup)} but let the group grow up to {@code
+     * maxGroupSize} bytes, when larger than the default limit.
+     */
+    void enterAsBatchGroupLeader(WriteGroup group, int maxGroupSize) {
+        final Writer leader = group.leader;
+        checkState(leader.state == STATE_GROUP_LEADER, "Only the group leader can build a group");
+        checkState(leader.batch != null, "Batch must be non null");
+
+        int size = leader.batch.getApproximateSize();
+        // Allow the group to grow up to a maximum size, but if the
+        // original write is small, limit the growth so we do not slow
+        // down the small write too much.
+        int maxSize = 1 << 20;
+        if (size <= (128 << 10)) {
+            maxSize = size + (128 << 10);
+        }
+        maxSize = Math.max(maxSize, maxGroupSize);
+
+        Writer newest = newestWriter.get();
+        createMissingNewerLinks(newest);
+
+        Writer last = leader;
+        for (Writer w = leader.newer; w != null; w = w.newer) {
+            if (w.batch == null) {
+                // Writers without a batch must lead, they act on the database while no write runs.
+                break;
+            }
+            if (w.sync && !leader.sync) {
+                // Do not include a sync write into a batch handled by a non-sync write.
+                break;
+            }
+            if (w.disableWAL != leader.disableWAL) {
+                // Do not mix logged and unlogged writes, the group is written as one record.
+                break;
+            }
+            size += w.batch.getApproximateSize();
+            if (size > maxSize) {
+                // Do not make batch too big
+                break;
+            }
+            last = w;
+            group.size++;
+            if (w == newest) {
+                break;
+            }
+        }
+        group.last = last;
+    }
+
+    /**
+     * Wait up to {@code windowNanos} for writers to queue behind the leader of {@code group}, or
+     * until they add up to {@code maxBytes}. Used by sync leaders to commit more writers with a
+     * single fsync. REQUIRES: caller is the group leader.
+     */
+    void awaitGroupCommitWindow(WriteGroup group, long windowNanos, int maxBytes) {
+        final long deadline = System.nanoTime() + windowNanos;
+        long remaining = windowNanos;
+        while (remaining > 0 && queuedBytes(group.leader) < maxBytes) {
+            LockSupport.parkNanos(this, Math.min(remaining, GROUP_COMMIT_POLL_NANOS));
+            remaining = deadline - System.nanoTime();
+        }
+    }
+
+    /** Approximate size of all batches queued, {@code leader} included */
+    private int queuedBytes(Writer leader) {
+        int size = 0;
+        for (Writer w = newestWriter.get(); w != null; w = w.older) {
+            if (w.batch != null) {
+                size += w.batch.getApproximateSize();
+            }
+            if (w == leader) {
+                break;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Hand each follower of {@code group} that has a non empty batch the memtable it must insert
+     * into, with sequence numbers assigned in queue order starting at {@code sequenceBegin}. The
+     * leader keeps {@code sequenceBegin} for its own batch. Asynchronous followers have no thread
+     * to insert with, the leader must insert their batch itself.
+     */
+    void launchParallelMemTableWriters(WriteGroup group, MemTable memTable, long sequenceBegin) {
+        long sequence = sequenceBegin;
+        for (Writer w : group) {
+            if (w.batch != null) {
+                w.sequence = sequence;
+                sequence += w.batch.size();
+                if (w != group.leader && w.batch.size() > 0 && !w.isAsync()) {
+                    w.memTable = memTable;
+                    w.group = group;
+                    group.pendingInserts.incrementAndGet();
+                }
+            }
+        }
+        for (Writer w : group) {
+            if (w.group == group) {
+                setState(w, STATE_MEMTABLE_WRITER);
+            }
+        }
+    }
+
+    /**
+     * Called by a follower once its memtable insert is done. Blocks until the leader completes the
+     * group.
+     *
+     * @return new state of {@code w}, always {@link #STATE_COMPLETED}
+     */
+    int completeParallelMemTableWriter(Writer w, Throwable error) {
+        final WriteGroup group = w.group;
+        if (error != null) {
+            group.insertError.compareAndSet(null, error);
+        }
+        if (group.pendingInserts.decrementAndGet() == 0) {
+            LockSupport.unpark(group.leaderThread);
+        }
+        return awaitState(w, STATE_COMPLETED);
+    }
+
+    /**
+     * Wait for all followers of {@code group} to finish their memtable insert.
+     *
+     * @return first error raised by a follower while inserting, if any
+     */
+    Throwable awaitParallelMemTableWriters(WriteGroup group) {
+        spinThenPark(() -> group.pendingInserts.get() == 0);
+        return group.insertError.get();
+    }
+
+    /**
+     * Complete every follower of {@code group} with {@code error} and elect the next leader, if any
+     * writer is waiting. REQUIRES: caller is the group leader.
+     */
+    void exitAsBatchGroupLeader(WriteGroup group, Throwable error) {
+        final Writer last = group.last;
+        if (!newestWriter.compareAndSet(last, null)) {
+            // other writers joined after our group; link them and promote the first one
+            createMissingNewerLinks(newestWriter.get());
+            Writer next = last.newer;
+            checkState(next != null, "Next writer should be linked");
+            next.older = null;
+            setState(next, STATE_GROUP_LEADER);
+        }
+        for (Writer w : group) {
+            if (w != group.leader) {
+                w.error = error;
+                setState(w, STATE_COMPLETED);
+            }
+        }
+    }
+
+    private static void createMissingNewerLinks(Writer head) {
+        while (true) {
+            Writer next = head.older;
+            if (next == null || next.newer != null) {
+                break;
+            }
+            next.newer = head;
+            head = next;
+        }
+    }
+
+    private static void setState(Writer w, int state) {
+        w.state = state;
+        if (w.listener != null) {
+            w.listener.accept(w);
+        } else {
+            LockSupport.unpark(w.thread);
+        }
+    }
+
+    private static int awaitState(Writer w, int goalMask) {
+        spinThenPark(() -> (w.state & goalMask) != 0);
+        return w.state;
+    }
+
+    private static void spinThenPark(BooleanSupplier done) {
+        for (int i = 0; i < SPIN_ROUNDS; i++) {
+            if (done.getAsBoolean()) {
+                return;
+            }
+        }
+        for (int i = 0; i < YIELD_ROUNDS; i++) {
+            if (done.getAsBoolean()) {
+                return;
+            }
+            Thread.yield();
+        }
+        boolean interrupted = false;
+        while (!done.getAsBoolean()) {
+            LockSupport.park(WriteQueue.class);
+            interrupted |= Thread.interrupted();
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    static final class Writer {
+        final WriteBatchImpl batch;
+        final boolean sync;
+        final boolean disableWAL;
+        final Thread thread;
+        // called on state change of asynchronous writers, that have no thread waiting
+        final Consumer<Writer> listener;
+        volatile int state = STATE_INIT;
+
+        // queue links, "older" is set before the writer is published and
+        // "newer" is filled lazily by group leaders
+        private Writer older;
+        private Writer newer;
+
+        // set by the leader before publishing a new state to this writer
+        long sequence;
+        MemTable memTable;
+        WriteGroup group;
+        Throwable error;
+
+        Writer(WriteBatchImpl batch, boolean sync) {
+            this(batch, sync, false);
+        }
+
+        Writer(WriteBatchImpl batch, boolean sync, boolean disableWAL) {
+            this.batch = batch;
+            this.sync = sync;
+            this.disableWAL = disableWAL;
+            this.thread = Thread.currentThread();
+            this.listener = null;
+        }
+
+        Writer(WriteBatchImpl batch, boolean sync, Consumer<Writer> listener) {
+            this(batch, sync, false, listener);
+        }
+
+        Writer(WriteBatchImpl batch, boolean sync, boolean disableWAL, Consumer<Writer> listener) {
+            this.batch = batch;
+            this.sync = sync;
+            this.disableWAL = disableWAL;
+            this.thread = null;
+            this.listener = listener;
+        }
+
+        boolean isAsync() {
+            return listener != null;
+        }
+    }
+
+    /**
+     * Writers committed together by a single leader, from leader to last in queue order. Must be
+     * created by the thread running the leader.
+     */
+    static final class WriteGroup implements Iterable<Writer> {
+        private final Writer leader;
+        // thread running the leader, asynchronous leaders run on any thread
+        private final Thread leaderThread = Thread.currentThread();
+        private Writer last;
+        private int size = 1;
+        private final AtomicInteger pendingInserts = new AtomicInteger();
+        private final AtomicReference<Throwable> insertError = new AtomicReference<>();
+
+        WriteGroup(Writer leader) {
+            this.leader = leader;
+            this.last = leader;
+        }
+
+        Writer getLeader() {
+            return leader;
+        }
+
+        /** Number of writers in this group, leader included */
+        int size() {
+            return size;
+        }
+
+        @Override
+        public Iterator<Writer> iterator() {
+            return new Iterator<Writer>() {
+                private Writer next = leader;
+
+                @Override
+                public boolean hasNext() {
+                    return next != null;
+                }
+
+                @Override
+                public Writer next() {
+                    if (next == null) {
+                        throw new NoSuchElementException();
+                    }
+                    Writer current = next;
+                    next = current == last ? null : current.newer;
+                    return current;
+                }
+            };
+        }
+    }
+}
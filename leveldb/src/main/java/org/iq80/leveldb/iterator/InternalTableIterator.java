@@ -23,10 +23,17 @@ import org.iq80.leveldb.util.Slice;
 
 public class InternalTableIterator implements InternalIterator {
     private final SliceIterator tableIterator;
+    // when not 0, replaces the sequence number of every key of an ingested table
+    private final long globalSequenceNumber;
     private InternalKey key;
 
     public InternalTableIterator(SliceIterator tableIterator) {
+        this(tableIterator, 0);
+    }
+
+    public InternalTableIterator(SliceIterator tableIterator, long globalSequenceNumber) {
         this.tableIterator = tableIterator;
+        this.globalSequenceNumber = globalSequenceNumber;
     }
 
     @Override
@@ -42,7 +49,14 @@ public class InternalTableIterator implements InternalIterator {
 
     public boolean seek(InternalKey targetKey) {
         this.key = null;
-        return tableIterator.seek(targetKey.encode());
+        boolean valid = tableIterator.seek(targetKey.encode());
+        if (valid
+                && globalSequenceNumber > targetKey.getSequenceNumber()
+                && key().getUserKey().equals(targetKey.getUserKey())) {
+            // stored with sequence 0 the entry was found, but it is newer than the target
+            return next();
+        }
+        return valid;
     }
 
     @Override
@@ -67,7 +81,11 @@ public class InternalTableIterator implements InternalIterator {
     public InternalKey key() {
         if (key == null) {
             // cache key decomposition
-            this.key = new InternalKey(tableIterator.key());
+            InternalKey key = new InternalKey(tableIterator.key());
+            if (globalSequenceNumber != 0) {
+                key = new InternalKey(key.getUserKey(), globalSequenceNumber, key.getValueType());
+            }
+            this.key = key;
         }
         return this.key;
     }
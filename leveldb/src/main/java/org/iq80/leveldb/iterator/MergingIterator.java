@@ -43,7 +43,7 @@ public final class MergingIterator extends ASeekingIterator<InternalKey, Slice>
     private void rebuildQueue(boolean reverse, Function<InternalIterator, Boolean> func) {
         this.queue =
                 new PriorityQueue<>(
-                        iterators.size(),
+                        Math.max(1, iterators.size()),
                         reverse ? iteratorComparator.reversed() : iteratorComparator);
         for (InternalIterator iterator : iterators) {
             if (func.apply(iterator)) {
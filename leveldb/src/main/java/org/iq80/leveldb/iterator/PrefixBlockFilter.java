@@ -15,31 +15,20 @@
  * See the License for the specific language governing permissions and
  * limitations under the License.
  */
-package org.iq80.leveldb.impl;
-
-/** Value holder for reference modification like in C++ */
-final class ValueHolder<V> {
-    private V value;
-
-    public ValueHolder(V value) {
-        this.value = value;
-    }
-
-    /**
-     * Setter for property 'value'.
-     *
-     * @param value Value to set for property 'value'.
-     */
-    public void setValue(V value) {
-        this.value = value;
-    }
+package org.iq80.leveldb.iterator;
 
+/**
+ * Filter of the blocks of a two level iterator, consulted by seeks that only look for the keys
+ * having the prefix of their target.
+ *
+ * @param <K> type of the key
+ * @param <T> type of the block handles
+ */
+@FunctionalInterface
+public interface PrefixBlockFilter<K, T> {
     /**
-     * Getter for property 'value'.
-     *
-     * @return Value for property 'value'.
+     * False if the block of {@code blockHandle}, whose index key is {@code indexKey}, has no key
+     * with the prefix of {@code target}.
      */
-    public V getValue() {
-        return value;
-    }
+    boolean prefixMayMatch(K target, K indexKey, T blockHandle);
 }
@@ -45,18 +45,57 @@ public final class SeekingIterators {
         return new SortedCollectionIterator<>(list, keyExtractor, valueExtractor, comparator);
     }
 
+    /**
+     * Internal iterator based on provided sorted list. Unpredictable behavior will happen if {@code
+     * list} is not sorted according to {@code comparator}
+     */
+    public static <T> InternalIterator internalIteratorFromSortedList(
+            List<T> list,
+            Function<T, InternalKey> keyExtractor,
+            Function<T, Slice> valueExtractor,
+            Comparator<InternalKey> comparator) {
+        return new InternalSortedCollectionIterator<>(
+                list, keyExtractor, valueExtractor, comparator);
+    }
+
     public static SliceIterator twoLevelSliceIterator(
             SliceIterator indexIterator,
             Function<Slice, SeekingIterator<Slice, Slice>> blockFunction,
             Closeable closeableResources) {
-        return new SliceTwoLevelIterator(indexIterator, blockFunction, closeableResources);
+        return twoLevelSliceIterator(indexIterator, blockFunction, null, closeableResources);
     }
 
+    /**
+     * @param prefixFilter if not null, seeks skip the blocks it rules out and only look for the
+     *     keys having the prefix of their target
+     */
+    public static SliceIterator twoLevelSliceIterator(
+            SliceIterator indexIterator,
+            Function<Slice, SeekingIterator<Slice, Slice>> blockFunction,
+            PrefixBlockFilter<Slice, Slice> prefixFilter,
+            Closeable closeableResources) {
+        return new SliceTwoLevelIterator(
+                indexIterator, blockFunction, prefixFilter, closeableResources);
+    }
+
+    public static <T> InternalIterator twoLevelInternalIterator(
+            SeekingIterator<InternalKey, T> indexIterator,
+            Function<T, SeekingIterator<InternalKey, Slice>> blockFunction,
+            Closeable closeableResources) {
+        return twoLevelInternalIterator(indexIterator, blockFunction, null, closeableResources);
+    }
+
+    /**
+     * @param prefixFilter if not null, seeks skip the blocks it rules out and only look for the
+     *     keys having the prefix of their target
+     */
     public static <T> InternalIterator twoLevelInternalIterator(
             SeekingIterator<InternalKey, T> indexIterator,
             Function<T, SeekingIterator<InternalKey, Slice>> blockFunction,
+            PrefixBlockFilter<InternalKey, T> prefixFilter,
             Closeable closeableResources) {
-        return new InternalTwoLevelIterator<>(indexIterator, blockFunction, closeableResources);
+        return new InternalTwoLevelIterator<>(
+                indexIterator, blockFunction, prefixFilter, closeableResources);
     }
 
     private static class InternalTwoLevelIterator<T> extends TwoLevelIterator<T, InternalKey, Slice>
@@ -64,8 +103,20 @@ public final class SeekingIterators {
         InternalTwoLevelIterator(
                 SeekingIterator<InternalKey, T> indexIterator,
                 Function<T, SeekingIterator<InternalKey, Slice>> blockFunction,
+                PrefixBlockFilter<InternalKey, T> prefixFilter,
                 Closeable closeableResources) {
-            super(indexIterator, blockFunction, closeableResources);
+            super(indexIterator, blockFunction, prefixFilter, closeableResources);
+        }
+    }
+
+    private static class InternalSortedCollectionIterator<T>
+            extends SortedCollectionIterator<T, InternalKey, Slice> implements InternalIterator {
+        InternalSortedCollectionIterator(
+                List<T> entries,
+                Function<T, InternalKey> keyExtractor,
+                Function<T, Slice> valueExtractor,
+                Comparator<InternalKey> comparator) {
+            super(entries, keyExtractor, valueExtractor, comparator);
         }
     }
 
@@ -74,8 +125,9 @@ public final class SeekingIterators {
         SliceTwoLevelIterator(
                 SliceIterator indexIterator,
                 Function<Slice, SeekingIterator<Slice, Slice>> blockFunction,
+                PrefixBlockFilter<Slice, Slice> prefixFilter,
                 Closeable closeableResources) {
-            super(indexIterator, blockFunction, closeableResources);
+            super(indexIterator, blockFunction, prefixFilter, closeableResources);
         }
     }
 }
@@ -19,8 +19,13 @@ package org.iq80.leveldb.iterator;
 
 import com.google.common.base.Preconditions;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Comparator;
+import java.util.List;
 import org.iq80.leveldb.impl.InternalKey;
+import org.iq80.leveldb.impl.RangeTombstones;
+import org.iq80.leveldb.impl.UserMergeOperator;
+import org.iq80.leveldb.impl.UserPrefixExtractor;
 import org.iq80.leveldb.impl.ValueType;
 import org.iq80.leveldb.util.Slice;
 
@@ -30,6 +35,11 @@ public final class SnapshotSeekingIterator extends ASeekingIterator<Slice, Slice
     private final long sequence;
     private final Comparator<Slice> userComparator;
     private final IRecordBytesListener listener;
+    private final UserMergeOperator mergeOperator;
+    private final RangeTombstones rangeTombstones;
+    private final UserPrefixExtractor prefixExtractor;
+    // prefix of the last seek target that all returned keys have, or null
+    private Slice prefix;
     private Slice key;
     private Slice value;
 
@@ -38,10 +48,58 @@ public final class SnapshotSeekingIterator extends ASeekingIterator<Slice, Slice
             long sequence,
             Comparator<Slice> userComparator,
             IRecordBytesListener listener) {
+        this(iterator, sequence, userComparator, listener, new UserMergeOperator(null));
+    }
+
+    public SnapshotSeekingIterator(
+            InternalIterator iterator,
+            long sequence,
+            Comparator<Slice> userComparator,
+            IRecordBytesListener listener,
+            UserMergeOperator mergeOperator) {
+        this(iterator, sequence, userComparator, listener, mergeOperator, RangeTombstones.EMPTY);
+    }
+
+    /**
+     * @param rangeTombstones range tombstones of all sources of {@code iterator} visible at {@code
+     *     sequence}, entries they cover are skipped like deleted ones
+     */
+    public SnapshotSeekingIterator(
+            InternalIterator iterator,
+            long sequence,
+            Comparator<Slice> userComparator,
+            IRecordBytesListener listener,
+            UserMergeOperator mergeOperator,
+            RangeTombstones rangeTombstones) {
+        this(
+                iterator,
+                sequence,
+                userComparator,
+                listener,
+                mergeOperator,
+                rangeTombstones,
+                null);
+    }
+
+    /**
+     * @param prefixExtractor if not null, the iteration ends at the first key whose prefix is not
+     *     the one of the last seek target
+     */
+    public SnapshotSeekingIterator(
+            InternalIterator iterator,
+            long sequence,
+            Comparator<Slice> userComparator,
+            IRecordBytesListener listener,
+            UserMergeOperator mergeOperator,
+            RangeTombstones rangeTombstones,
+            UserPrefixExtractor prefixExtractor) {
         this.iterator = iterator;
         this.sequence = sequence;
         this.userComparator = userComparator;
         this.listener = listener;
+        this.mergeOperator = mergeOperator;
+        this.rangeTombstones = rangeTombstones;
+        this.prefixExtractor = prefixExtractor;
     }
 
     @Override
@@ -51,18 +109,32 @@ public final class SnapshotSeekingIterator extends ASeekingIterator<Slice, Slice
 
     @Override
     protected boolean internalSeekToFirst() {
+        prefix = null;
         return iterator.seekToFirst() && findNextUserEntry(false, null);
     }
 
     @Override
     protected boolean internalSeekToLast() {
+        prefix = null;
         return iterator.seekToLast() && findPrevUserEntry();
     }
 
     @Override
     protected boolean internalSeek(Slice targetKey) {
+        prefix = prefixExtractor == null ? null : prefixExtractor.prefix(targetKey);
         return iterator.seek(new InternalKey(targetKey, sequence, ValueType.VALUE))
-                && findNextUserEntry(false, null);
+                && findNextUserEntry(false, null)
+                && hasPrefix();
+    }
+
+    /** Whether the current key has the prefix of the last seek, the iteration ends otherwise. */
+    private boolean hasPrefix() {
+        if (prefix == null || prefix.equals(prefixExtractor.prefix(key))) {
+            return true;
+        }
+        this.key = null;
+        this.value = null;
+        return false;
     }
 
     @Override
@@ -85,20 +157,23 @@ public final class SnapshotSeekingIterator extends ASeekingIterator<Slice, Slice
             }
         }
         // find the next user entry after the key we are about to return
-        return findNextUserEntry(true, this.key);
+        return findNextUserEntry(true, this.key) && hasPrefix();
     }
 
     @Override
     protected boolean internalPrev(boolean switchDirection) {
         if (switchDirection) {
-            Preconditions.checkState(iterator.valid(), "Should be valid");
-            do {
+            // merging the operands of the last key may have moved the iterator past its end
+            if (!iterator.valid()) {
+                Preconditions.checkState(iterator.seekToLast(), "Should be valid");
+            }
+            while (userComparator.compare(iterator.key().getUserKey(), this.key) >= 0) {
                 if (!iterator.prev()) {
                     return false;
                 }
-            } while (userComparator.compare(iterator.key().getUserKey(), this.key) >= 0);
+            }
         }
-        return findPrevUserEntry();
+        return findPrevUserEntry() && hasPrefix();
     }
 
     @Override
@@ -111,21 +186,25 @@ public final class SnapshotSeekingIterator extends ASeekingIterator<Slice, Slice
         if (!iterator.valid()) {
             return false;
         }
+        Slice userKey = null;
+        Slice existingValue = null;
+        // operands of userKey newer than existingValue, newest first
+        List<Slice> operands = new ArrayList<>();
         do {
             InternalKey key = iterator.key();
             if (key.getSequenceNumber() <= sequence) {
                 if (valueType != ValueType.DELETION
-                        && userComparator.compare(key.getUserKey(), this.key) < 0) {
+                        && userComparator.compare(key.getUserKey(), userKey) < 0) {
                     // We encountered a non-deleted value in entries for previous keys,
-                    return true;
+                    break;
                 }
-                valueType = key.getValueType();
-                if (valueType == ValueType.DELETION) {
-                    this.key = null;
-                    this.value = null;
+                valueType = valueType(key);
+                userKey = key.getUserKey();
+                if (valueType == ValueType.MERGE) {
+                    operands.add(0, iterator.value());
                 } else {
-                    this.key = key.getUserKey();
-                    this.value = iterator.value();
+                    existingValue = valueType == ValueType.DELETION ? null : iterator.value();
+                    operands.clear();
                 }
             }
         } while (iterator.prev());
@@ -133,9 +212,13 @@ public final class SnapshotSeekingIterator extends ASeekingIterator<Slice, Slice
             this.key = null;
             this.value = null;
             return false;
-        } else {
-            return true;
         }
+        this.key = userKey;
+        this.value =
+                operands.isEmpty()
+                        ? existingValue
+                        : mergeOperator.fullMerge(userKey, existingValue, operands);
+        return true;
     }
 
     @Override
@@ -153,7 +236,8 @@ public final class SnapshotSeekingIterator extends ASeekingIterator<Slice, Slice
             Slice value = iterator.value();
             listener.record(ikey, ikey.size() + value.length());
             if (ikey.getSequenceNumber() <= sequence) {
-                switch (ikey.getValueType()) {
+                ValueType valueType = valueType(ikey);
+                switch (valueType) {
                     case DELETION:
                         // Arrange to skip all upcoming entries for this key since
                         // they are hidden by this deletion.
@@ -161,11 +245,15 @@ public final class SnapshotSeekingIterator extends ASeekingIterator<Slice, Slice
                         skipping = true;
                         break;
                     case VALUE:
+                    case MERGE:
                         if (skipping && userComparator.compare(ikey.getUserKey(), savedKey) <= 0) {
                             // Entry hidden
                         } else {
                             this.key = ikey.getUserKey();
-                            this.value = value;
+                            this.value =
+                                    valueType == ValueType.MERGE
+                                            ? mergeOperands(ikey.getUserKey(), value)
+                                            : value;
                             return true;
                         }
                         break;
@@ -177,6 +265,40 @@ public final class SnapshotSeekingIterator extends ASeekingIterator<Slice, Slice
         return false;
     }
 
+    /**
+     * Apply the newest {@code operand} of {@code userKey} and the older ones following it to the
+     * value or deletion they apply to. The iterator is left on an entry of {@code userKey} or past
+     * them.
+     */
+    private Slice mergeOperands(Slice userKey, Slice operand) {
+        List<Slice> operands = new ArrayList<>();
+        operands.add(operand);
+        Slice existingValue = null;
+        while (iterator.next()) {
+            InternalKey ikey = iterator.key();
+            if (userComparator.compare(ikey.getUserKey(), userKey) != 0) {
+                break;
+            }
+            Slice value = iterator.value();
+            listener.record(ikey, ikey.size() + value.length());
+            ValueType valueType = valueType(ikey);
+            if (valueType != ValueType.MERGE) {
+                existingValue = valueType == ValueType.VALUE ? value : null;
+                break;
+            }
+            operands.add(value);
+        }
+        return mergeOperator.fullMerge(userKey, existingValue, operands);
+    }
+
+    /** Type of the entry, a deletion if a range tombstone covers it. */
+    private ValueType valueType(InternalKey key) {
+        if (rangeTombstones.isCovered(key.getUserKey(), key.getSequenceNumber())) {
+            return ValueType.DELETION;
+        }
+        return key.getValueType();
+    }
+
     @Override
     public String toString() {
         return "SnapshotSeekingIterator" + "{sequence=" + sequence + ", iterator=" + iterator + '}';
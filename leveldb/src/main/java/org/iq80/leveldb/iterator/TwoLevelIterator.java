@@ -25,6 +25,8 @@ import org.iq80.leveldb.DBException;
 /** Equivalent to TwoLevelIterator int google leveldb */
 class TwoLevelIterator<T, K, V> extends ASeekingIterator<K, V> {
     private final Function<T, SeekingIterator<K, V>> blockFunction;
+    // null if seeks look for all the keys after their target
+    private final PrefixBlockFilter<K, T> prefixFilter;
     private Closeable closeableResources;
     private SeekingIterator<K, T> indexIterator;
     private SeekingIterator<K, V> current;
@@ -32,9 +34,11 @@ class TwoLevelIterator<T, K, V> extends ASeekingIterator<K, V> {
     TwoLevelIterator(
             SeekingIterator<K, T> indexIterator,
             Function<T, SeekingIterator<K, V>> blockFunction,
+            PrefixBlockFilter<K, T> prefixFilter,
             Closeable closeableResources) {
         this.indexIterator = indexIterator;
         this.blockFunction = blockFunction;
+        this.prefixFilter = prefixFilter;
         this.closeableResources = closeableResources;
     }
 
@@ -48,6 +52,9 @@ class TwoLevelIterator<T, K, V> extends ASeekingIterator<K, V> {
 
     @Override
     protected boolean internalSeek(K targetKey) {
+        if (prefixFilter != null) {
+            return prefixSeek(targetKey);
+        }
         // seek the index to the block containing the key
         // if indexIterator does not have a next, it mean the key does not exist in this iterator
         if (initDataBlock(indexIterator.seek(targetKey)) && current.seek(targetKey)) {
@@ -56,6 +63,34 @@ class TwoLevelIterator<T, K, V> extends ASeekingIterator<K, V> {
         return skipEmptyDataBlocksForward();
     }
 
+    /**
+     * Seek to the first key after {@code targetKey} in the blocks that may have keys with its
+     * prefix. All the keys of the blocks following the block of the target are after the target,
+     * if the next one has no key with the prefix neither do the next ones: keys sharing a prefix
+     * are adjacent. The iterator is not valid when no key with the prefix may remain.
+     */
+    private boolean prefixSeek(K targetKey) {
+        if (!indexIterator.seek(targetKey)) {
+            closeAndResetCurrent();
+            return false;
+        }
+        if (prefixFilter.prefixMayMatch(targetKey, indexIterator.key(), indexIterator.value())
+                && initDataBlock(true)
+                && current.seek(targetKey)) {
+            return true;
+        }
+        closeAndResetCurrent();
+        if (!indexIterator.next()
+                || !prefixFilter.prefixMayMatch(
+                        targetKey, indexIterator.key(), indexIterator.value())) {
+            return false;
+        }
+        if (initDataBlock(true) && current.seekToFirst()) {
+            return true;
+        }
+        return skipEmptyDataBlocksForward();
+    }
+
     @Override
     protected boolean internalSeekToLast() {
         if (!indexIterator.seekToLast()) {
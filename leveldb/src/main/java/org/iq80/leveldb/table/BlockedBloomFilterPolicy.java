@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.iq80.leveldb.table;
+
+import java.util.List;
+import org.iq80.leveldb.XFilterPolicy;
+import org.iq80.leveldb.util.Hash;
+import org.iq80.leveldb.util.Slice;
+
+/**
+ * Bloom filter policy setting all the probes of a key within one 64 bytes cache line, a lookup
+ * touches a single line of the filter whatever the number of probes. False positive rate is a bit
+ * higher than {@link BloomFilterPolicy} for the same number of bits per key.
+ */
+public final class BlockedBloomFilterPolicy
+        implements org.iq80.leveldb.table.FilterPolicy, XFilterPolicy {
+    static final String NAME = "leveldb.BlockedBloomFilter";
+    private static final int LINE_BYTES = 64;
+    private static final int LINE_BITS = LINE_BYTES * 8;
+
+    private final int bitsPerKey;
+    private final int k;
+
+    public BlockedBloomFilterPolicy(final int bitsPerKey) {
+        this.bitsPerKey = bitsPerKey;
+        int k = (int) (bitsPerKey * 0.69);
+        if (k < 1) {
+            k = 1;
+        } else if (k > 30) {
+            k = 30;
+        }
+        this.k = k;
+    }
+
+    @Override
+    public String name() {
+        return NAME;
+    }
+
+    @Override
+    public byte[] createFilter(List<Slice> keys) {
+        // Round up to whole lines, at least one
+        long bits = (long) keys.size() * bitsPerKey;
+        int lines = (int) Math.max(1, (bits + LINE_BITS - 1) / LINE_BITS);
+
+        final byte[] array = new byte[lines * LINE_BYTES + 1];
+        array[array.length - 1] = (byte) k; // Remember # of probes in filter
+
+        for (Slice key : keys) {
+            int h = bloomHash(key);
+            int line = line(h, lines) * LINE_BYTES;
+            int probe = remix(h);
+            for (int j = 0; j < k; j++) {
+                // Multiplying by an odd constant gives a new probe in the high bits
+                probe *= 0x9e3779b9;
+                int bitpos = probe >>> 23;
+                array[line + (bitpos >>> 3)] |= (byte) (1 << (bitpos & 7));
+            }
+        }
+        return array;
+    }
+
+    @Override
+    public boolean keyMayMatch(Slice key, Slice filter) {
+        int len = filter.length();
+        if (len < LINE_BYTES + 1 || (len - 1) % LINE_BYTES != 0) {
+            return false;
+        }
+        byte[] data = filter.getRawArray();
+        int offset = filter.getRawOffset();
+
+        // Use the encoded k so that we can read filters generated with different parameters
+        int k = data[offset + len - 1];
+        if (k > 30) {
+            // Reserved for potentially new encodings, consider it a match
+            return true;
+        }
+
+        int h = bloomHash(key);
+        int line = offset + line(h, (len - 1) / LINE_BYTES) * LINE_BYTES;
+        int probe = remix(h);
+        for (int j = 0; j < k; j++) {
+            probe *= 0x9e3779b9;
+            int bitpos = probe >>> 23;
+            if ((data[line + (bitpos >>> 3)] & (1 << (bitpos & 7))) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int bloomHash(Slice data) {
+        return Hash.hash(data.getRawArray(), data.getRawOffset(), data.length(), 0xbc9f1d34);
+    }
+
+    /** Map the hash to a line in [0, lines) using its high bits, without a division. */
+    private static int line(int h, int lines) {
+        return (int) (((h & 0xffffffffL) * lines) >>> 32);
+    }
+
+    /** Probes are drawn from the low bits of the hash too, so that keys of a line differ. */
+    private static int remix(int h) {
+        return (h ^ (h >>> 16)) * 0x85ebca6b;
+    }
+}
@@ -30,6 +30,8 @@ import org.iq80.leveldb.util.Slice;
  * @link https://github.com/google/leveldb/commit/85584d497e7b354853b72f450683d59fcf6b9c5c
  */
 public final class BloomFilterPolicy implements org.iq80.leveldb.table.FilterPolicy, XFilterPolicy {
+    static final String NAME = "leveldb.BuiltinBloomFilter2";
+
     private final int bitsPerKey;
     private final int k;
 
@@ -46,7 +48,7 @@ public final class BloomFilterPolicy implements org.iq80.leveldb.table.FilterPol
 
     @Override
     public String name() {
-        return "leveldb.BuiltinBloomFilter2";
+        return NAME;
     }
 
     @Override
@@ -107,4 +107,8 @@ public class FilterBlockBuilder {
     public String name() {
         return policy.name();
     }
+
+    public FilterPolicy policy() {
+        return policy;
+    }
 }
@@ -51,13 +51,24 @@ final class FilterBlockReader {
     }
 
     public boolean keyMayMatch(long offset1, Slice key) {
+        return mayMatch(offset1, key, false);
+    }
+
+    /** Same as {@link #keyMayMatch(long, Slice)} for the prefix of {@code key}. */
+    public boolean prefixMayMatch(long offset1, Slice key) {
+        return mayMatch(offset1, key, true);
+    }
+
+    private boolean mayMatch(long offset1, Slice key, boolean prefix) {
         final int index = (int) (offset1 >> baseLg);
         if (index < num) {
             final int start = contents.getInt(this.offset + index * 4);
             final int limit = contents.getInt(this.offset + index * 4 + 4);
             if (start <= limit && limit <= offset) {
                 Slice filter = contents.slice(start, limit - start);
-                return filterPolicy.keyMayMatch(key, filter);
+                return prefix
+                        ? filterPolicy.prefixMayMatch(key, filter)
+                        : filterPolicy.keyMayMatch(key, filter);
             } else if (start == limit) {
                 // Empty filters do not match any keys
                 return false;
@@ -51,4 +51,33 @@ public interface FilterPolicy extends org.iq80.leveldb.XFilterPolicy {
      * false with a high probability.
      */
     boolean keyMayMatch(Slice key, Slice filter);
+
+    /**
+     * Name of the extractor of the key prefixes that {@link #createFilter(List)} adds to the
+     * filters along with the keys, or null if only keys are added.
+     */
+    default String prefixExtractorName() {
+        return null;
+    }
+
+    /**
+     * Same as {@link #keyMayMatch(Slice, Slice)} for the prefix of {@code key}, in a filter
+     * created with prefixes. Must return true if {@code key} has no prefix.
+     */
+    default boolean prefixMayMatch(Slice key, Slice filter) {
+        return true;
+    }
+
+    /**
+     * Policy able to read the filters written by the policy named {@code name}, or null if this
+     * policy cannot read them. Tables without a filter of this policy fall back on the builtin
+     * bloom filter they were written with, if any.
+     */
+    default FilterPolicy compatiblePolicy(String name) {
+        if (name.equals(name())) {
+            return this;
+        }
+        // the number of probes is read from the filter, bits per key only matter to write
+        return BloomFilterPolicy.NAME.equals(name) ? new BloomFilterPolicy(10) : null;
+    }
 }
@@ -0,0 +1,220 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.iq80.leveldb.table;
+
+import java.util.List;
+import org.iq80.leveldb.XFilterPolicy;
+import org.iq80.leveldb.util.Hash;
+import org.iq80.leveldb.util.Slice;
+
+/**
+ * Ribbon filter policy, a filter about 20% smaller than a bloom filter with the same false positive
+ * rate, which costs more to create.
+ *
+ * <p>Each key is hashed to a row of 64 coefficients starting at some slot and to a fingerprint of
+ * {@code r} bits. Creating the filter solves the linear system over GF(2) where, for each key, the
+ * XOR of the {@code r} bits words of the slots selected by its coefficients equals its
+ * fingerprint. A key may match if that still holds, with a probability of {@code 2^-r} for a key
+ * that was not added. The solution is stored column-wise per block of 64 slots, so that a lookup
+ * reads {@code r} words of at most two consecutive blocks.
+ *
+ * @link https://arxiv.org/abs/2103.02515
+ */
+public final class RibbonFilterPolicy
+        implements org.iq80.leveldb.table.FilterPolicy, XFilterPolicy {
+    static final String NAME = "leveldb.RibbonFilter";
+    private static final int WIDTH = 64;
+    // seed of the hash, one byte of the filter
+    private static final int MAX_SEED = 255;
+    private static final int SEEDS_PER_SIZE = 8;
+
+    private final int resultBits;
+
+    /**
+     * @param bloomEquivalentBitsPerKey bits per key of the {@link BloomFilterPolicy} having about
+     *     the same false positive rate
+     */
+    public RibbonFilterPolicy(final int bloomEquivalentBitsPerKey) {
+        int r = (int) Math.round(bloomEquivalentBitsPerKey * 0.69);
+        if (r < 1) {
+            r = 1;
+        } else if (r > 32) {
+            r = 32;
+        }
+        this.resultBits = r;
+    }
+
+    @Override
+    public String name() {
+        return NAME;
+    }
+
+    @Override
+    public byte[] createFilter(List<Slice> keys) {
+        int[] hashes = new int[keys.size()];
+        for (int i = 0; i < hashes.length; i++) {
+            hashes[i] = ribbonHash(keys.get(i));
+        }
+        // a few percent more slots than keys are needed for the system to be solvable with a
+        // high probability, relatively more for small and for very large filters
+        long slots = hashes.length + hashes.length / (hashes.length < (1 << 15) ? 16 : 8) + 32;
+        for (int seed = 0; seed <= MAX_SEED; seed++) {
+            if (seed > 0 && seed % SEEDS_PER_SIZE == 0) {
+                slots += slots / 8;
+            }
+            int blocks = (int) Math.min((slots + WIDTH - 1) / WIDTH, Integer.MAX_VALUE / 8 / 32);
+            byte[] filter = createFilter(hashes, blocks, seed);
+            if (filter != null) {
+                return filter;
+            }
+        }
+        // A filter that matches all keys
+        return new byte[] {0, 0};
+    }
+
+    private byte[] createFilter(int[] hashes, int blocks, int seed) {
+        final int slots = blocks * WIDTH;
+        final int starts = slots - WIDTH + 1;
+        final long fingerprintMask = -1L >>> (64 - resultBits);
+        long[] coefficients = new long[slots];
+        int[] results = new int[slots];
+        // Gaussian elimination of each row as it is added, rows are kept with their first
+        // coefficient on the diagonal
+        for (int h : hashes) {
+            long hash = mix(h, seed);
+            int i = start(hash, starts);
+            long c = coefficients(hash);
+            int result = (int) (hash & fingerprintMask);
+            while (true) {
+                if (coefficients[i] == 0) {
+                    coefficients[i] = c;
+                    results[i] = result;
+                    break;
+                }
+                c ^= coefficients[i];
+                result ^= results[i];
+                if (c == 0) {
+                    if (result != 0) {
+                        return null; // inconsistent row, try another seed
+                    }
+                    break; // redundant row, same hash as a previous key
+                }
+                int shift = Long.numberOfTrailingZeros(c);
+                i += shift;
+                c >>>= shift;
+            }
+        }
+
+        // Back substitution, the slots without row are free and left to zero
+        int[] solution = new int[slots];
+        for (int i = slots - 1; i >= 0; i--) {
+            long c = coefficients[i];
+            if (c != 0) {
+                int value = results[i];
+                for (c &= c - 1; c != 0; c &= c - 1) {
+                    value ^= solution[i + Long.numberOfTrailingZeros(c)];
+                }
+                solution[i] = value;
+            }
+        }
+
+        // For each block, one word per result bit holding the bit of the 64 slots
+        byte[] array = new byte[blocks * resultBits * 8 + 2];
+        Slice filter = new Slice(array);
+        for (int block = 0; block < blocks; block++) {
+            for (int bit = 0; bit < resultBits; bit++) {
+                long word = 0;
+                for (int slot = 0; slot < WIDTH; slot++) {
+                    word |= ((long) ((solution[block * WIDTH + slot] >>> bit) & 1)) << slot;
+                }
+                filter.setLong((block * resultBits + bit) * 8, word);
+            }
+        }
+        filter.setByte(filter.length() - 2, seed);
+        filter.setByte(filter.length() - 1, resultBits);
+        return array;
+    }
+
+    @Override
+    public boolean keyMayMatch(Slice key, Slice filter) {
+        int len = filter.length();
+        if (len < 2) {
+            return false;
+        }
+        int seed = filter.getUnsignedByte(len - 2);
+        // Use the encoded number of result bits so that we can read filters generated with
+        // different parameters
+        int r = filter.getUnsignedByte(len - 1);
+        if (len == 2 || r < 1 || r > 32 || (len - 2) % (r * 8) != 0) {
+            // Reserved for filters matching everything and new encodings, consider it a match
+            return true;
+        }
+        int blocks = (len - 2) / (r * 8);
+        long hash = mix(ribbonHash(key), seed);
+        int start = start(hash, blocks * WIDTH - WIDTH + 1);
+        long c = coefficients(hash);
+        int expected = (int) (hash & (-1L >>> (64 - r)));
+
+        int word = (start / WIDTH) * r * 8;
+        int shift = start % WIDTH;
+        // coefficients of the row falling in the first block and in the next one
+        long first = c << shift;
+        long second = shift == 0 ? 0 : c >>> (WIDTH - shift);
+        for (int bit = 0; bit < r; bit++) {
+            long parity = filter.getLong(word + bit * 8) & first;
+            if (second != 0) {
+                parity ^= filter.getLong(word + (r + bit) * 8) & second;
+            }
+            if ((Long.bitCount(parity) & 1) != ((expected >>> bit) & 1)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int ribbonHash(Slice data) {
+        return Hash.hash(data.getRawArray(), data.getRawOffset(), data.length(), 0xbc9f1d34);
+    }
+
+    /**
+     * Expand the hash of a key to 64 bits for {@code seed}. Keys with the same hash get the same
+     * row whatever the seed, which keeps the system consistent.
+     */
+    private static long mix(int h, int seed) {
+        long k = (h & 0xffffffffL) | ((long) seed << 32);
+        k ^= k >>> 33;
+        k *= 0xff51afd7ed558ccdL;
+        k ^= k >>> 33;
+        k *= 0xc4ceb9fe1a85ec53L;
+        k ^= k >>> 33;
+        return k;
+    }
+
+    /** First slot of the row, in [0, starts), from the high bits of the hash. */
+    private static int start(long hash, int starts) {
+        return (int) (((hash >>> 32) * starts) >>> 32);
+    }
+
+    /** Coefficients of the row, the first one is always set. */
+    private static long coefficients(long hash) {
+        long z = hash * 0x9e3779b97f4a7c15L;
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        return z ^ (z >>> 31) | 1;
+    }
+}
@@ -27,7 +27,9 @@ import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Comparator;
+import java.util.List;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
@@ -53,6 +55,15 @@ public final class Table implements Closeable {
     private final RandomInputFile source;
     private final ILRUCache<CacheKey, Slice> blockCache;
     private final FilterBlockReader filter;
+    private final FilterPolicy filterPolicy;
+    // filter of all the keys of the table, checked before the index
+    private final Slice fullFilter;
+    // last key of each index partition to the filter of its keys, checked before the index
+    private final Block filterIndexBlock;
+    // filters also hold the key prefixes of the extractor of the filter policy
+    private final boolean prefixFiltered;
+    // index holds the handles of index partitions instead of data blocks
+    private final boolean partitionedIndex;
     // use ref count to release resource early
     // external user iterator are required to be closed
     private final AtomicInteger refCount = new AtomicInteger(1);
@@ -84,29 +95,95 @@ public final class Table implements Closeable {
                         readRawBlock(footer.getIndexBlockHandle(), paranoidChecks),
                         comparator); // no need for cache
         metaindexBlockHandle = footer.getMetaindexBlockHandle();
-        this.filter = readMeta(filterPolicy, paranoidChecks);
+        final Block meta =
+                new Block(
+                        readRawBlock(metaindexBlockHandle, paranoidChecks),
+                        new BytewiseComparator());
+        this.filterPolicy = filterPolicy;
+        this.filter = readMeta(meta, filterPolicy, paranoidChecks);
+        Slice fullFilterHandle = null;
+        Slice filterIndexHandle = null;
+        if (filterPolicy != null) {
+            fullFilterHandle =
+                    findMetaBlock(meta, TableBuilder.FULL_FILTER_PREFIX + filterPolicy.name());
+            filterIndexHandle =
+                    findMetaBlock(
+                            meta, TableBuilder.PARTITIONED_FILTER_PREFIX + filterPolicy.name());
+        }
+        this.fullFilter =
+                fullFilterHandle == null
+                        ? null
+                        : readRawBlock(
+                                BlockHandle.readBlockHandle(fullFilterHandle.input()),
+                                paranoidChecks);
+        this.filterIndexBlock =
+                filterIndexHandle == null
+                        ? null
+                        : new Block(
+                                readRawBlock(
+                                        BlockHandle.readBlockHandle(filterIndexHandle.input()),
+                                        paranoidChecks),
+                                comparator);
+        this.partitionedIndex = findMetaBlock(meta, TableBuilder.PARTITIONED_INDEX_NAME) != null;
+        this.prefixFiltered =
+                filterPolicy != null
+                        && filterPolicy.prefixExtractorName() != null
+                        && findMetaBlock(
+                                        meta,
+                                        TableBuilder.PREFIX_EXTRACTOR_PREFIX
+                                                + filterPolicy.prefixExtractorName())
+                                != null;
     }
 
-    private FilterBlockReader readMeta(FilterPolicy filterPolicy, boolean verifyChecksum)
+    private FilterBlockReader readMeta(Block meta, FilterPolicy filterPolicy, boolean verifyChecksum)
             throws IOException {
         assert refCount.get() > 0;
         if (filterPolicy == null) {
             return null; // Do not need any metadata
         }
 
-        final Block meta =
-                new Block(
-                        readRawBlock(metaindexBlockHandle, verifyChecksum),
-                        new BytewiseComparator());
+        Slice filterHandle = findMetaBlock(meta, "filter." + filterPolicy.name());
+        if (filterHandle != null) {
+            return readFilter(filterPolicy, filterHandle, verifyChecksum);
+        }
+        // table written before the policy was changed
+        FilterPolicy bloomPolicy = filterPolicy.compatiblePolicy(BloomFilterPolicy.NAME);
+        filterHandle = findMetaBlock(meta, "filter." + BloomFilterPolicy.NAME);
+        if (bloomPolicy != null && filterHandle != null) {
+            return readFilter(bloomPolicy, filterHandle, verifyChecksum);
+        }
+        return null;
+    }
+
+    /** Handle of the meta block registered under {@code name} in the metaindex, or null. */
+    private static Slice findMetaBlock(Block meta, String name) {
         try (BlockIterator iterator = meta.iterator()) {
-            final Slice targetKey = new Slice(("filter." + filterPolicy.name()).getBytes(CHARSET));
+            final Slice targetKey = new Slice(name.getBytes(CHARSET));
             if (iterator.seek(targetKey) && iterator.key().equals(targetKey)) {
-                return readFilter(filterPolicy, iterator.value(), verifyChecksum);
+                return iterator.value();
             }
             return null;
         }
     }
 
+    /**
+     * Read the meta block registered under {@code name} in the metaindex, null if the table has no
+     * such block. Entries of the block are ordered by the comparator of the table.
+     */
+    public Block readMetaBlock(String name, boolean verifyChecksum) throws IOException {
+        assert refCount.get() > 0;
+        final Block meta =
+                new Block(
+                        readRawBlock(metaindexBlockHandle, verifyChecksum),
+                        new BytewiseComparator());
+        Slice metaBlockHandle = findMetaBlock(meta, name);
+        if (metaBlockHandle != null) {
+            BlockHandle blockHandle = BlockHandle.readBlockHandle(metaBlockHandle.input());
+            return new Block(readRawBlock(blockHandle, verifyChecksum), comparator);
+        }
+        return null;
+    }
+
     FilterBlockReader readFilter(
             FilterPolicy filterPolicy, Slice filterHandle, boolean verifyChecksum)
             throws IOException {
@@ -120,11 +197,67 @@ public final class Table implements Closeable {
         assert refCount.get() > 0;
         this.retain();
         return SeekingIterators.twoLevelSliceIterator(
-                indexBlock.iterator(),
+                indexIterator(options),
                 blockHandle -> openBlock(options, blockHandle),
+                options.prefixSameAsStart() && prefixFiltered
+                        ? (target, indexKey, blockHandle) ->
+                                blockPrefixMayMatch(options, target, indexKey, blockHandle)
+                        : null,
                 this::release);
     }
 
+    /**
+     * Check the filter of the data block of {@code blockHandle} for the prefix of {@code key}. The
+     * filter of the whole table or of the index partition of the block is checked if the table
+     * has one.
+     */
+    private boolean blockPrefixMayMatch(
+            ReadOptions options, Slice key, Slice indexKey, Slice blockHandle) {
+        if (fullFilter != null) {
+            return filterPolicy.prefixMayMatch(key, fullFilter);
+        }
+        if (filterIndexBlock != null) {
+            try (BlockIterator iterator = filterIndexBlock.iterator()) {
+                if (!iterator.seek(indexKey)) {
+                    return true;
+                }
+                BlockHandle partitionHandle = BlockHandle.readBlockHandle(iterator.value().input());
+                return filterPolicy.prefixMayMatch(
+                        key, readBlockContents(partitionHandle, options));
+            } catch (IOException e) {
+                throw new DBException(e);
+            }
+        }
+        if (filter != null) {
+            return filter.prefixMayMatch(
+                    BlockHandle.readBlockHandle(blockHandle.input()).getOffset(), key);
+        }
+        return true;
+    }
+
+    /**
+     * False if the table has no key with the prefix of {@code key}, as told by the filter of the
+     * whole table. True if the table has no such filter.
+     */
+    public boolean prefixMayMatch(Slice key) {
+        assert refCount.get() > 0;
+        return !prefixFiltered
+                || fullFilter == null
+                || filterPolicy.prefixMayMatch(key, fullFilter);
+    }
+
+    /**
+     * Iterator over the handles of the data blocks, which reads the index partitions through the
+     * block cache if the index is partitioned.
+     */
+    private SliceIterator indexIterator(ReadOptions options) {
+        if (!partitionedIndex) {
+            return indexBlock.iterator();
+        }
+        return SeekingIterators.twoLevelSliceIterator(
+                indexBlock.iterator(), blockHandle -> openBlock(options, blockHandle), () -> {});
+    }
+
     private BlockIterator openBlock(ReadOptions options, Slice blockHandle) {
         Block dataBlock = openBlock(blockHandle, options);
         return dataBlock.iterator();
@@ -148,6 +281,11 @@ public final class Table implements Closeable {
     }
 
     private Block readBlock(BlockHandle blockHandle, ReadOptions options) throws IOException {
+        return new Block(readBlockContents(blockHandle, options), comparator);
+    }
+
+    private Slice readBlockContents(BlockHandle blockHandle, ReadOptions options)
+            throws IOException {
         assert refCount.get() > 0;
         try {
             final Slice rawBlock;
@@ -166,7 +304,7 @@ public final class Table implements Closeable {
                                 new CacheKey(id, blockHandle),
                                 () -> readRawBlock(blockHandle, options.verifyChecksums()));
             }
-            return new Block(rawBlock, comparator);
+            return rawBlock;
         } catch (ExecutionException e) {
             Throwables.propagateIfPossible(e.getCause(), IOException.class);
             throw new IOException(e.getCause());
@@ -211,7 +349,10 @@ public final class Table implements Closeable {
 
     public <T> T internalGet(ReadOptions options, Slice key, KeyValueFunction<T> keyValueFunction) {
         assert refCount.get() > 0;
-        try (final BlockIterator iterator = indexBlock.iterator()) {
+        if (!tableMayContain(options, key)) {
+            return null;
+        }
+        try (final SliceIterator iterator = indexIterator(options)) {
             if (iterator.seek(key)) {
                 final Slice handleValue = iterator.value();
                 if (filter != null
@@ -227,9 +368,82 @@ public final class Table implements Closeable {
                 }
             }
             return null;
+        } catch (IOException e) {
+            throw new DBException(e);
         }
     }
 
+    /**
+     * Check the filter of the whole table or of the index partition of {@code key}, if the table
+     * has one, which needs no index search.
+     */
+    private boolean tableMayContain(ReadOptions options, Slice key) {
+        if (fullFilter != null) {
+            return filterPolicy.keyMayMatch(key, fullFilter);
+        }
+        if (filterIndexBlock != null) {
+            try (BlockIterator iterator = filterIndexBlock.iterator()) {
+                if (!iterator.seek(key)) {
+                    return false; // after the last key of the table
+                }
+                BlockHandle blockHandle = BlockHandle.readBlockHandle(iterator.value().input());
+                return filterPolicy.keyMayMatch(key, readBlockContents(blockHandle, options));
+            } catch (IOException e) {
+                throw new DBException(e);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Same as {@link #internalGet(ReadOptions, Slice, KeyValueFunction)} for each of {@code keys},
+     * sorted in the order of the table. The index block and the filter are probed once per key,
+     * each data block is read once for all the keys that fall in it.
+     *
+     * @return result of {@code keyValueFunctions[i]} for {@code keys[i]}, or null
+     */
+    public <T> List<T> internalGet(
+            ReadOptions options, List<Slice> keys, List<KeyValueFunction<T>> keyValueFunctions) {
+        assert refCount.get() > 0;
+        checkArgument(keys.size() == keyValueFunctions.size(), "one function per key is required");
+        List<T> results = new ArrayList<>(keys.size());
+        BlockIterator dataIterator = null;
+        long dataBlockOffset = -1;
+        try (final SliceIterator iterator = indexIterator(options)) {
+            for (int i = 0; i < keys.size(); i++) {
+                Slice key = keys.get(i);
+                T result = null;
+                if (tableMayContain(options, key) && iterator.seek(key)) {
+                    final Slice handleValue = iterator.value();
+                    long offset = BlockHandle.readBlockHandle(handleValue.input()).getOffset();
+                    if (filter == null || filter.keyMayMatch(offset, key)) {
+                        if (offset != dataBlockOffset) {
+                            if (dataIterator != null) {
+                                dataIterator.close();
+                            }
+                            dataIterator = openBlock(handleValue, options).iterator();
+                            dataBlockOffset = offset;
+                        }
+                        if (dataIterator.seek(key)) {
+                            result =
+                                    keyValueFunctions
+                                            .get(i)
+                                            .apply(dataIterator.key(), dataIterator.value());
+                        }
+                    }
+                }
+                results.add(result);
+            }
+        } catch (IOException e) {
+            throw new DBException(e);
+        } finally {
+            if (dataIterator != null) {
+                dataIterator.close();
+            }
+        }
+        return results;
+    }
+
     /**
      * Given a key, return an approximate byte offset in the file where the data for that key begins
      * (or would begin if the key were present in the file). The returned value is in terms of file
@@ -238,11 +452,13 @@ public final class Table implements Closeable {
      */
     public long getApproximateOffsetOf(Slice key) {
         assert refCount.get() > 0;
-        try (BlockIterator iterator = indexBlock.iterator()) {
+        try (SliceIterator iterator = indexIterator(new ReadOptions())) {
             if (iterator.seek(key)) {
                 BlockHandle blockHandle = BlockHandle.readBlockHandle(iterator.value().input());
                 return blockHandle.getOffset();
             }
+        } catch (IOException e) {
+            throw new DBException(e);
         }
 
         // key is past the last key in the file.  Approximate the offset
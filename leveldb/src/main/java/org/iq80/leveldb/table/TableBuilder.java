@@ -21,7 +21,12 @@ import static com.google.common.base.Preconditions.checkState;
 import static java.nio.charset.StandardCharsets.UTF_8;
 import static java.util.Objects.requireNonNull;
 
+import com.google.common.collect.Maps;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 import org.iq80.leveldb.CompressionType;
 import org.iq80.leveldb.Options;
 import org.iq80.leveldb.env.WritableFile;
@@ -37,16 +42,47 @@ public class TableBuilder {
      */
     public static final long TABLE_MAGIC_NUMBER = 0xdb4775248b80fb57L;
 
+    /**
+     * Metaindex entry of tables whose index is partitioned, pointing at the top-level index. Each
+     * entry of the top-level index maps the last key of an index partition to its handle.
+     */
+    static final String PARTITIONED_INDEX_NAME = "index.partitioned";
+
+    /** Metaindex prefix of the filter of all the keys of a table, followed by the policy name. */
+    static final String FULL_FILTER_PREFIX = "fullfilter.";
+
+    /**
+     * Metaindex prefix of the top-level index of a partitioned filter, followed by the policy name.
+     * Each entry of the top-level index maps the last key of an index partition to the filter of
+     * the keys of its data blocks.
+     */
+    static final String PARTITIONED_FILTER_PREFIX = "partitionedfilter.";
+
+    /**
+     * Metaindex prefix of the empty block telling that the filters also hold the key prefixes,
+     * followed by the name of the prefix extractor of the filter policy.
+     */
+    static final String PREFIX_EXTRACTOR_PREFIX = "prefixextractor.";
+
     private static final int MIN_SIZE_COMPRESSION = 1024;
 
     private final int blockRestartInterval;
     private final int blockSize;
     private final CompressionType compressionType;
+    private final boolean partitionIndex;
 
     private final WritableFile file;
     private final BlockBuilder dataBlockBuilder;
     private final BlockBuilder indexBlockBuilder;
+    // finished index partitions by last key, written when the table is finished so that they do
+    // not move the data blocks the filter is built for
+    private final List<Map.Entry<Slice, Slice>> indexPartitions = new ArrayList<>();
     private final FilterBlockBuilder filterPolicyBuilder;
+    private final FilterPolicy fullFilterPolicy;
+    // keys of the full filter, or of its current partition if the index is partitioned
+    private final List<Slice> fullFilterKeys = new ArrayList<>();
+    // filters of the finished index partitions, in the same order
+    private final List<Slice> filterPartitions = new ArrayList<>();
     private Slice lastKey;
     private final UserComparator userComparator;
 
@@ -67,6 +103,9 @@ public class TableBuilder {
 
     private Slice compressedOutput;
 
+    // meta blocks by name, listed in the metaindex in name order
+    private final Map<String, Slice> metaBlocks = new TreeMap<>();
+
     private long position;
 
     public TableBuilder(Options options, WritableFile file, UserComparator userComparator) {
@@ -79,6 +118,7 @@ public class TableBuilder {
         blockRestartInterval = options.blockRestartInterval();
         blockSize = options.blockSize();
         compressionType = options.compressionType();
+        partitionIndex = options.partitionIndex();
 
         dataBlockBuilder =
                 new BlockBuilder(
@@ -94,11 +134,16 @@ public class TableBuilder {
 
         lastKey = Slices.EMPTY_SLICE;
 
-        if (options.filterPolicy() != null) {
+        if (options.filterPolicy() != null && options.fullFilter()) {
+            filterPolicyBuilder = null;
+            fullFilterPolicy = (FilterPolicy) options.filterPolicy();
+        } else if (options.filterPolicy() != null) {
             filterPolicyBuilder = new FilterBlockBuilder((FilterPolicy) options.filterPolicy());
             filterPolicyBuilder.startBlock(0);
+            fullFilterPolicy = null;
         } else {
             filterPolicyBuilder = null;
+            fullFilterPolicy = null;
         }
     }
 
@@ -133,14 +178,16 @@ public class TableBuilder {
 
             Slice shortestSeparator = userComparator.findShortestSeparator(lastKey, key);
 
-            Slice handleEncoding = BlockHandle.writeBlockHandle(pendingHandle);
-            indexBlockBuilder.add(shortestSeparator, handleEncoding);
+            addIndexEntry(shortestSeparator, pendingHandle);
             pendingIndexEntry = false;
         }
 
         if (filterPolicyBuilder != null) {
             filterPolicyBuilder.addKey(key);
         }
+        if (fullFilterPolicy != null) {
+            fullFilterKeys.add(key);
+        }
 
         lastKey = key;
         entryCount++;
@@ -152,6 +199,37 @@ public class TableBuilder {
         }
     }
 
+    /**
+     * Store {@code contents}, a block finished by a {@link BlockBuilder}, registered under {@code
+     * name} in the metaindex block, see {@link Table#readMetaBlock(String, boolean)}.
+     */
+    public void addMetaBlock(String name, Slice contents) {
+        requireNonNull(name, "name is null");
+        requireNonNull(contents, "contents is null");
+        checkState(!closed, "table is finished");
+        metaBlocks.put(name, contents);
+    }
+
+    private void addIndexEntry(Slice key, BlockHandle blockHandle) {
+        indexBlockBuilder.add(key, BlockHandle.writeBlockHandle(blockHandle));
+        if (partitionIndex && indexBlockBuilder.currentSizeEstimate() >= blockSize) {
+            finishIndexPartition(key);
+        }
+    }
+
+    private void finishIndexPartition(Slice lastIndexKey) {
+        indexPartitions.add(
+                Maps.immutableEntry(
+                        lastIndexKey.copySlice(), indexBlockBuilder.finish().copySlice()));
+        indexBlockBuilder.reset();
+        // the keys of the data blocks of the partition, the key that follows them is added later
+        if (fullFilterPolicy != null) {
+            filterPartitions.add(
+                    Slices.wrappedBuffer(fullFilterPolicy.createFilter(fullFilterKeys)));
+            fullFilterKeys.clear();
+        }
+    }
+
     private void flush() throws IOException {
         checkState(!closed, "table is finished");
         if (dataBlockBuilder.isEmpty()) {
@@ -228,35 +306,90 @@ public class TableBuilder {
         // mark table as closed
         closed = true;
 
-        BlockHandle filterBlockHandle = null;
+        // add last handle to index block
+        if (pendingIndexEntry) {
+            Slice shortSuccessor = userComparator.findShortSuccessor(lastKey);
+
+            addIndexEntry(shortSuccessor, pendingHandle);
+            if (partitionIndex && !indexBlockBuilder.isEmpty()) {
+                finishIndexPartition(shortSuccessor);
+            }
+            pendingIndexEntry = false;
+        }
+
+        Map<String, BlockHandle> metaBlockHandles = new TreeMap<>();
 
         if (filterPolicyBuilder != null) {
-            filterBlockHandle = writeRawBlock(filterPolicyBuilder.finish());
+            metaBlockHandles.put(
+                    "filter." + filterPolicyBuilder.name(),
+                    writeRawBlock(filterPolicyBuilder.finish()));
+        }
+        if (fullFilterPolicy != null && !partitionIndex) {
+            metaBlockHandles.put(
+                    FULL_FILTER_PREFIX + fullFilterPolicy.name(),
+                    writeRawBlock(
+                            Slices.wrappedBuffer(fullFilterPolicy.createFilter(fullFilterKeys))));
+        }
+        FilterPolicy filterPolicy =
+                filterPolicyBuilder != null ? filterPolicyBuilder.policy() : fullFilterPolicy;
+        if (filterPolicy != null && filterPolicy.prefixExtractorName() != null) {
+            metaBlockHandles.put(
+                    PREFIX_EXTRACTOR_PREFIX + filterPolicy.prefixExtractorName(),
+                    writeRawBlock(Slices.EMPTY_SLICE));
+        }
+        for (Map.Entry<String, Slice> metaBlock : metaBlocks.entrySet()) {
+            metaBlockHandles.put(metaBlock.getKey(), writeRawBlock(metaBlock.getValue()));
+        }
+
+        // write index partitions and the top-level index pointing at them
+        BlockHandle indexBlockHandle = null;
+        if (partitionIndex) {
+            BlockBuilder topLevelIndexBlockBuilder =
+                    new BlockBuilder(
+                            BlockHandle.MAX_ENCODED_LENGTH * indexPartitions.size() + 64,
+                            1,
+                            userComparator);
+            for (Map.Entry<Slice, Slice> indexPartition : indexPartitions) {
+                topLevelIndexBlockBuilder.add(
+                        indexPartition.getKey(),
+                        BlockHandle.writeBlockHandle(writeRawBlock(indexPartition.getValue())));
+            }
+            indexBlockHandle = writeBlock(topLevelIndexBlockBuilder);
+            metaBlockHandles.put(PARTITIONED_INDEX_NAME, indexBlockHandle);
+
+            if (fullFilterPolicy != null) {
+                BlockBuilder topLevelFilterBlockBuilder =
+                        new BlockBuilder(
+                                BlockHandle.MAX_ENCODED_LENGTH * indexPartitions.size() + 64,
+                                1,
+                                userComparator);
+                for (int i = 0; i < indexPartitions.size(); i++) {
+                    topLevelFilterBlockBuilder.add(
+                            indexPartitions.get(i).getKey(),
+                            BlockHandle.writeBlockHandle(writeRawBlock(filterPartitions.get(i))));
+                }
+                metaBlockHandles.put(
+                        PARTITIONED_FILTER_PREFIX + fullFilterPolicy.name(),
+                        writeBlock(topLevelFilterBlockBuilder));
+            }
         }
 
         // write (empty) meta index block
         BlockBuilder metaIndexBlockBuilder =
                 new BlockBuilder(256, blockRestartInterval, new BytewiseComparator());
 
-        if (filterBlockHandle != null) {
+        for (Map.Entry<String, BlockHandle> metaBlockHandle : metaBlockHandles.entrySet()) {
             metaIndexBlockBuilder.add(
-                    new Slice(("filter." + filterPolicyBuilder.name()).getBytes(UTF_8)),
-                    BlockHandle.writeBlockHandle(filterBlockHandle));
+                    new Slice(metaBlockHandle.getKey().getBytes(UTF_8)),
+                    BlockHandle.writeBlockHandle(metaBlockHandle.getValue()));
         }
 
         BlockHandle metaindexBlockHandle = writeBlock(metaIndexBlockBuilder);
 
-        // add last handle to index block
-        if (pendingIndexEntry) {
-            Slice shortSuccessor = userComparator.findShortSuccessor(lastKey);
-
-            Slice handleEncoding = BlockHandle.writeBlockHandle(pendingHandle);
-            indexBlockBuilder.add(shortSuccessor, handleEncoding);
-            pendingIndexEntry = false;
-        }
-
         // write index block
-        BlockHandle indexBlockHandle = writeBlock(indexBlockBuilder);
+        if (!partitionIndex) {
+            indexBlockHandle = writeBlock(indexBlockBuilder);
+        }
 
         // write footer
         Footer footer = new Footer(metaindexBlockHandle, indexBlockHandle);
@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iq80.leveldb.env;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import org.iq80.leveldb.env.RateLimiter.Priority;
+import org.iq80.leveldb.util.Slice;
+import org.testng.annotations.Test;
+
+public class RateLimiterTest {
+    private static final long MILLIS = TimeUnit.MILLISECONDS.toNanos(1);
+    // bytes per millisecond at 1MB/s
+    private static final long KB = 1000;
+
+    @Test
+    public void testLowPriorityPaysForAllBytes() {
+        RateLimiter limiter = new RateLimiter(1_000_000);
+        long now = System.nanoTime() + TimeUnit.SECONDS.toNanos(1);
+        // 100ms burst
+        assertEquals(limiter.reserve(100 * KB, Priority.LOW, now), 0);
+        assertEquals(limiter.reserve(10 * KB, Priority.LOW, now), 10 * MILLIS);
+        assertEquals(limiter.reserve(10 * KB, Priority.HIGH, now), 0);
+        assertEquals(limiter.reserve(10 * KB, Priority.LOW, now), 30 * MILLIS);
+        assertEquals(limiter.getTotalBytesThrough(), 130 * KB);
+    }
+
+    @Test
+    public void testHighPriorityBorrowsAhead() {
+        RateLimiter limiter = new RateLimiter(1_000_000);
+        long now = System.nanoTime() + TimeUnit.SECONDS.toNanos(1);
+        assertEquals(limiter.reserve(500 * KB, Priority.LOW, now), 400 * MILLIS);
+        // flushes are not delayed by compactions
+        assertEquals(limiter.reserve(100 * KB, Priority.HIGH, now), 0);
+        assertEquals(limiter.reserve(10 * KB, Priority.HIGH, now), 10 * MILLIS);
+        // but compactions wait for the bandwidth flushes borrowed
+        assertEquals(limiter.reserve(0, Priority.LOW, now), 510 * MILLIS);
+    }
+
+    @Test
+    public void testAutoTune() {
+        RateLimiter limiter = RateLimiter.autoTuned(1_000_000, 5_000_000);
+        assertEquals(limiter.getBytesPerSecond(), 1_000_000);
+        limiter.tune(50, 100);
+        assertEquals(limiter.getBytesPerSecond(), 3_000_000);
+        limiter.tune(1000, 100);
+        assertEquals(limiter.getBytesPerSecond(), 5_000_000);
+        limiter.tune(0, 100);
+        assertEquals(limiter.getBytesPerSecond(), 1_000_000);
+
+        RateLimiter fixed = new RateLimiter(1_000_000);
+        fixed.tune(1000, 100);
+        assertEquals(fixed.getBytesPerSecond(), 1_000_000);
+    }
+
+    @Test
+    public void testLimitedFile() throws IOException {
+        RateLimiter limiter = new RateLimiter(1_000_000);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        WritableFile file =
+                limiter.limit(
+                        new WritableFile() {
+                            @Override
+                            public void append(Slice data) throws IOException {
+                                out.write(data.getBytes());
+                            }
+
+                            @Override
+                            public void force() {}
+
+                            @Override
+                            public void close() {}
+                        },
+                        Priority.LOW);
+        long start = System.nanoTime();
+        file.append(new Slice(new byte[50_000]));
+        file.append(
+                new ByteBuffer[] {ByteBuffer.allocate(50_000), ByteBuffer.allocate(70_000)}, 0, 2);
+        file.close();
+        assertEquals(out.size(), 170_000);
+        assertEquals(limiter.getTotalBytesThrough(), 170_000);
+        // 100ms burst, then 70ms at 1MB/s
+        assertTrue(System.nanoTime() - start >= 60 * MILLIS);
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iq80.leveldb.fileenv;
+
+import static org.testng.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Random;
+import org.iq80.leveldb.env.WritableFile;
+import org.iq80.leveldb.util.Slice;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+public class WritableFileTest {
+    @DataProvider(name = "files")
+    public Object[][] filesProvider() {
+        return new Object[][] {{"Unbuffered"}, {"MMap"}};
+    }
+
+    @Test(dataProvider = "files")
+    public void testGatheringAppend(String type) throws IOException {
+        File file = File.createTempFile("log", ".db");
+        byte[] bytes = new byte[10_000];
+        new Random(7).nextBytes(bytes);
+        try {
+            try (WritableFile writableFile = open(type, file)) {
+                writableFile.append(new Slice(bytes, 0, 10));
+                ByteBuffer[] buffers = {
+                    ByteBuffer.wrap(bytes, 0, 1),
+                    ByteBuffer.wrap(bytes, 10, 3000),
+                    ByteBuffer.wrap(bytes, 3010, 0),
+                    ByteBuffer.wrap(bytes, 3010, 5000),
+                    ByteBuffer.wrap(bytes, 0, 1)
+                };
+                // only the middle buffers are appended
+                writableFile.append(buffers, 1, 3);
+                writableFile.append(new Slice(bytes, 8010, 1990));
+                writableFile.force();
+            }
+            byte[] content = Files.readAllBytes(file.toPath());
+            assertEquals(content.length, bytes.length);
+            assertEquals(content, bytes);
+        } finally {
+            file.delete();
+        }
+    }
+
+    private static WritableFile open(String type, File file) throws IOException {
+        if (type.equals("MMap")) {
+            // small page size to force remapping in the middle of a gathering append
+            return MMWritableFile.open(file, 1024);
+        }
+        return UnbufferedWritableFile.open(file, false);
+    }
+}
@@ -31,6 +31,7 @@ import static org.iq80.leveldb.table.BlockHelper.assertSequence;
 import static org.iq80.leveldb.table.BlockHelper.beforeString;
 import static org.testng.Assert.assertEquals;
 import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotEquals;
 import static org.testng.Assert.assertNotNull;
 import static org.testng.Assert.assertNull;
 import static org.testng.Assert.assertThrows;
@@ -47,19 +48,31 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map.Entry;
 import java.util.NoSuchElementException;
 import java.util.Random;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import org.iq80.leveldb.CompactionFilter;
 import org.iq80.leveldb.CompressionType;
 import org.iq80.leveldb.DB;
 import org.iq80.leveldb.DBComparator;
+import org.iq80.leveldb.DBException;
+import org.iq80.leveldb.DBIterator;
 import org.iq80.leveldb.Logger;
+import org.iq80.leveldb.MergeOperator;
 import org.iq80.leveldb.Options;
+import org.iq80.leveldb.PrefixExtractor;
 import org.iq80.leveldb.Range;
 import org.iq80.leveldb.ReadOptions;
 import org.iq80.leveldb.Snapshot;
@@ -69,6 +82,7 @@ import org.iq80.leveldb.env.DbLock;
 import org.iq80.leveldb.env.Env;
 import org.iq80.leveldb.env.File;
 import org.iq80.leveldb.env.RandomInputFile;
+import org.iq80.leveldb.env.RateLimiter;
 import org.iq80.leveldb.env.SequentialFile;
 import org.iq80.leveldb.env.WritableFile;
 import org.iq80.leveldb.fileenv.EnvImpl;
@@ -77,7 +91,9 @@ import org.iq80.leveldb.iterator.InternalIterator;
 import org.iq80.leveldb.iterator.IteratorTestUtils;
 import org.iq80.leveldb.iterator.SeekingDBIteratorAdapter;
 import org.iq80.leveldb.iterator.SeekingIterator;
+import org.iq80.leveldb.table.BlockedBloomFilterPolicy;
 import org.iq80.leveldb.table.BloomFilterPolicy;
+import org.iq80.leveldb.table.RibbonFilterPolicy;
 import org.iq80.leveldb.util.Slice;
 import org.iq80.leveldb.util.Slices;
 import org.testng.Assert;
@@ -103,8 +119,20 @@ public class DbImplTest {
             {new OptionsDesc("Default")},
             // new OptionsDesc("Reuse").reuseLog(true)},
             {new OptionsDesc("Bloom Filter").filterPolicy(new BloomFilterPolicy(10))},
+            {
+                new OptionsDesc("Blocked Bloom Filter")
+                        .filterPolicy(new BlockedBloomFilterPolicy(10))
+            },
+            {new OptionsDesc("Ribbon Filter").filterPolicy(new RibbonFilterPolicy(10))},
+            {new OptionsDesc("Partitioned Index").partitionIndex(true)},
             {new OptionsDesc("No Compression").compressionType(CompressionType.NONE)},
-            {new OptionsDesc("LZ4").compressionType(CompressionType.LZ4)}
+            {new OptionsDesc("LZ4").compressionType(CompressionType.LZ4)},
+            {new OptionsDesc("Arena MemTable").memTableFactory(MemTableFactory.arena())},
+            {
+                new OptionsDesc("Hash SkipList MemTable")
+                        .memTableFactory(MemTableFactory.hashSkipList(1))
+            },
+            {new OptionsDesc("MemTable Bloom Filter").memTableBloomSizeRatio(0.1)}
         };
     }
 
@@ -125,7 +153,1069 @@ public class DbImplTest {
 
     @Test
     public void testConcurrentWrite() throws Exception {
+        concurrentWrite(new Options());
+    }
+
+    @Test
+    public void testConcurrentWriteWithConcurrentMemtableInsert() throws Exception {
+        concurrentWrite(new Options().allowConcurrentMemtableWrite(true));
+    }
+
+    @Test
+    public void testReadsDuringMemTableSwitchesAndCompactions() throws Exception {
+        DbStringWrapper db =
+                new DbStringWrapper(new Options().writeBufferSize(64 << 10), this.databaseDir);
+        int keys = 100;
+        int rounds = 300;
+        String padding = Strings.repeat("x", 1000);
+        for (int k = 0; k < keys; k++) {
+            db.put(key(k), 0 + padding);
+        }
+        AtomicBoolean done = new AtomicBoolean();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<?>> readers = new ArrayList<>();
+            for (int t = 0; t < 4; t++) {
+                readers.add(
+                        executor.submit(
+                                () -> {
+                                    // values of a key never go back to an older round
+                                    int[] lastRound = new int[keys];
+                                    Random random = new Random();
+                                    while (!done.get()) {
+                                        int k = random.nextInt(keys);
+                                        String value = db.get(key(k));
+                                        int round =
+                                                Integer.parseInt(
+                                                        value.substring(
+                                                                0, value.indexOf('x')));
+                                        assertTrue(round >= lastRound[k]);
+                                        lastRound[k] = round;
+                                    }
+                                    return null;
+                                }));
+            }
+            for (int round = 1; round <= rounds; round++) {
+                for (int k = 0; k < keys; k++) {
+                    db.put(key(k), round + padding);
+                }
+            }
+            done.set(true);
+            for (Future<?> reader : readers) {
+                reader.get(1, TimeUnit.MINUTES);
+            }
+        } finally {
+            done.set(true);
+            executor.shutdownNow();
+        }
+        for (int k = 0; k < keys; k++) {
+            assertEquals(db.get(key(k)), rounds + padding);
+        }
+        try (SeekingIterator<String, String> iterator = db.iterator()) {
+            int count = 0;
+            for (boolean valid = iterator.seekToFirst(); valid; valid = iterator.next()) {
+                assertEquals(iterator.value(), rounds + padding);
+                count++;
+            }
+            assertEquals(count, keys);
+        }
+    }
+
+    @Test
+    public void testSyncWritesWithGroupCommitWindow() throws Exception {
+        Options options =
+                new Options()
+                        .createIfMissing(true)
+                        .groupCommitWindowMicros(500)
+                        .groupCommitMaxBytes(64 << 10);
+        DbStringWrapper db = new DbStringWrapper(options, this.databaseDir, defaultEnv);
+        int threads = 8;
+        int writesPerThread = 200;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                final int thread = t;
+                futures.add(
+                        executor.submit(
+                                () -> {
+                                    for (int i = 0; i < writesPerThread; i++) {
+                                        db.db.put(
+                                                toByteArray(key(thread * writesPerThread + i)),
+                                                toByteArray("v" + i),
+                                                new WriteOptions().sync(true));
+                                    }
+                                }));
+            }
+            for (Future<?> future : futures) {
+                future.get(1, TimeUnit.MINUTES);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        db.reopen();
+        for (int t = 0; t < threads; t++) {
+            for (int i = 0; i < writesPerThread; i++) {
+                assertEquals(db.get(key(t * writesPerThread + i)), "v" + i);
+            }
+        }
+        db.close();
+    }
+
+    @Test(dataProvider = "options")
+    public void testDisableWAL(final Options options) throws Exception {
+        DbStringWrapper db = new DbStringWrapper(options, this.databaseDir, defaultEnv);
+        WriteOptions unlogged = new WriteOptions().disableWAL(true);
+        db.put("logged1", "v1");
+        db.db.put(toByteArray("unlogged1"), toByteArray("u1"), unlogged);
+        db.db.delete(toByteArray("logged1"), unlogged);
+        db.put("logged2", "v2");
+        assertNull(db.get("logged1"));
+        assertEquals(db.get("unlogged1"), "u1");
+        assertEquals(db.get("logged2"), "v2");
+        assertThrows(
+                IllegalArgumentException.class,
+                () -> db.db.put(toByteArray("k"), toByteArray("v"), unlogged.sync(true)));
+
+        // unlogged writes are flushed on close
+        db.reopen();
+        assertNull(db.get("logged1"));
+        assertEquals(db.get("unlogged1"), "u1");
+        assertEquals(db.get("logged2"), "v2");
+
+        // and after a memtable flush
+        db.db.put(toByteArray("unlogged2"), toByteArray("u2"), new WriteOptions().disableWAL(true));
+        db.testCompactMemTable();
+        db.reopen();
+        assertEquals(db.get("unlogged2"), "u2");
+        assertEquals(db.get("unlogged1"), "u1");
+        db.close();
+    }
+
+    @Test
+    public void testCloseWithConcurrentUnloggedWrites() throws Exception {
+        DbStringWrapper db = new DbStringWrapper(new Options(), this.databaseDir);
+        WriteOptions unlogged = new WriteOptions().disableWAL(true);
+        ExecutorService executor = Executors.newFixedThreadPool(6);
+        try {
+            List<Future<Integer>> writers = new ArrayList<>();
+            for (int t = 0; t < 4; t++) {
+                int writer = t;
+                writers.add(
+                        executor.submit(
+                                () -> {
+                                    // count the writes that succeed until close rejects them
+                                    int i = 0;
+                                    try {
+                                        while (true) {
+                                            db.db.put(
+                                                    toByteArray(writer + "-" + key(i)),
+                                                    toByteArray("v"),
+                                                    unlogged);
+                                            i++;
+                                        }
+                                    } catch (DbImpl.DatabaseShutdownException expected) {
+                                        return i;
+                                    }
+                                }));
+            }
+            Thread.sleep(100);
+            // both calls return once the unlogged writes are flushed
+            Future<?> close = executor.submit(db.db::close);
+            db.db.close();
+            close.get(1, TimeUnit.MINUTES);
+
+            db.reopen();
+            for (int t = 0; t < writers.size(); t++) {
+                int succeeded = writers.get(t).get(1, TimeUnit.MINUTES);
+                assertTrue(succeeded > 0);
+                for (int i = 0; i < succeeded; i++) {
+                    assertEquals(db.get(t + "-" + key(i)), "v");
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        db.close();
+    }
+
+    @Test
+    public void testWriteStallWhileMemTableFlushIsSuspended() throws Exception {
+        Options options = new Options().writeBufferSize(64 << 10).delayedWriteRate(1 << 20);
+        DbStringWrapper db = new DbStringWrapper(options, this.databaseDir);
+        assertEquals(db.db.getProperty("leveldb.write-stall-state"), "NORMAL");
+        assertEquals(db.db.getProperty("leveldb.write-stall-micros"), "0");
+        assertEquals(db.db.getProperty("leveldb.delayed-write-rate"), String.valueOf(1 << 20));
+
+        db.db.suspendCompactions();
+        String value = Strings.repeat("v", 1000);
+        Thread writer =
+                new Thread(
+                        () -> {
+                            // fill the first memtable, then most of the next one
+                            for (int i = 0; i < 250; i++) {
+                                db.put(key(i), value);
+                            }
+                        });
+        writer.start();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (db.db.getProperty("leveldb.write-stall-state").equals("NORMAL")
+                && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        assertNotEquals(db.db.getProperty("leveldb.write-stall-state"), "NORMAL");
+        db.db.resumeCompactions();
+        writer.join();
+
+        assertTrue(Long.parseLong(db.db.getProperty("leveldb.write-stall-micros")) > 0);
+        db.testCompactMemTable();
+        assertEquals(db.db.getProperty("leveldb.write-stall-state"), "NORMAL");
+        for (int i = 0; i < 250; i++) {
+            assertEquals(db.get(key(i)), value);
+        }
+        db.close();
+    }
+
+    @Test
+    public void testMultipleImmutableMemTables() throws Exception {
+        Options options = new Options().writeBufferSize(64 << 10).maxImmutableMemTables(3);
+        DbStringWrapper db = new DbStringWrapper(options, this.databaseDir);
+        // fill three memtables while none can be flushed, the writes must not stop
+        db.db.suspendCompactions();
+        String value = Strings.repeat("v", 1000);
+        fillMemTablesWithoutStall(db, value, 180);
+        for (int i = 0; i < 180; i++) {
+            assertEquals(db.get(key(i)), value);
+        }
+        try (DBIterator iterator = db.db.iterator()) {
+            iterator.seekToFirst();
+            int entries = 0;
+            for (; iterator.hasNext(); iterator.next()) {
+                entries++;
+            }
+            assertEquals(entries, 180);
+        }
+        db.db.put(toByteArray(key(0)), toByteArray("new"));
+        assertEquals(db.get(key(0)), "new");
+
+        // the memtables are flushed or recovered from their logs
+        db.db.resumeCompactions();
+        db.reopen();
+        assertEquals(db.get(key(0)), "new");
+        for (int i = 1; i < 180; i++) {
+            assertEquals(db.get(key(i)), value);
+        }
+        db.close();
+    }
+
+    @Test
+    public void testMergeImmutableMemTables() throws Exception {
+        Options options =
+                new Options()
+                        .writeBufferSize(64 << 10)
+                        .maxImmutableMemTables(3)
+                        .mergeImmutableMemTables(true);
+        DbStringWrapper db = new DbStringWrapper(options, this.databaseDir);
+        db.db.suspendCompactions();
+        String value = Strings.repeat("v", 1000);
+        fillMemTablesWithoutStall(db, value, 180);
+        db.db.resumeCompactions();
+        // let the pending flush run before the last memtable joins the immutable ones
+        db.db.waitForBackgroundCompactationToFinish();
+        db.testCompactMemTable();
+        // one table for the merged immutable memtables, one for the last memtable
+        assertEquals(db.totalTableFiles(), 2);
+        for (int i = 0; i < 180; i++) {
+            assertEquals(db.get(key(i)), value);
+        }
+        db.close();
+    }
+
+    private void fillMemTablesWithoutStall(DbStringWrapper db, String value, int count)
+            throws Exception {
+        CompletableFuture<Void> writes =
+                CompletableFuture.runAsync(
+                        () -> {
+                            for (int i = 0; i < count; i++) {
+                                db.put(key(i), value);
+                            }
+                        });
+        writes.get(10, TimeUnit.SECONDS);
+        assertEquals(db.db.getProperty("leveldb.write-stall-micros"), "0");
+    }
+
+    @Test
+    public void testMerge() throws Exception {
+        DbStringWrapper db =
+                new DbStringWrapper(new Options().mergeOperator(APPEND), this.databaseDir);
+        db.put("a", "1");
+        db.merge("a", "2");
+        db.merge("b", "1");
+        db.put("c", "1");
+        db.delete("c");
+        db.merge("c", "2");
+        Snapshot snapshot = db.getSnapshot();
+        db.merge("a", "3");
+        db.merge("b", "2");
+
+        assertEquals(db.get("a"), "1,2,3");
+        assertEquals(db.get("b"), "1,2");
+        assertEquals(db.get("c"), "2");
+        assertEquals(db.get("a", snapshot), "1,2");
+        assertEquals(db.get("b", snapshot), "1");
+        try (SeekingIterator<String, String> iterator = db.iterator()) {
+            assertTrue(iterator.seekToFirst());
+            assertSequence(
+                    iterator,
+                    immutableEntry("a", "1,2,3"),
+                    immutableEntry("b", "1,2"),
+                    immutableEntry("c", "2"));
+            iterator.seekToLast();
+            assertReverseSequence(
+                    iterator,
+                    immutableEntry("c", "2"),
+                    immutableEntry("b", "1,2"),
+                    immutableEntry("a", "1,2,3"));
+            assertTrue(iterator.seek("b"));
+            assertEquals(iterator.next(), true);
+            assertEquals(iterator.key(), "c");
+            assertEquals(iterator.prev(), true);
+            assertEquals(iterator.key(), "b");
+            assertEquals(iterator.value(), "1,2");
+        }
+
+        // operands in different tables are merged when read
+        db.testCompactMemTable();
+        db.merge("a", "4");
+        assertEquals(db.get("a"), "1,2,3,4");
+        assertEquals(db.get("a", snapshot), "1,2");
+        snapshot.close();
+
+        // operands are recovered from the log and merged by compactions
+        db.reopen();
+        db.compactRange(null, null);
+        assertEquals(db.get("a"), "1,2,3,4");
+        assertEquals(db.get("b"), "1,2");
+        assertEquals(db.get("c"), "2");
+        db.merge("b", "3");
+        assertEquals(db.get("b"), "1,2,3");
+    }
+
+    @Test
+    public void testCompactionMergesOperands() throws Exception {
+        DbStringWrapper db =
+                new DbStringWrapper(new Options().mergeOperator(APPEND), this.databaseDir);
+        db.put("a", "1");
+        db.merge("a", "2");
+        Snapshot snapshot = db.getSnapshot();
+        db.merge("a", "3");
+        db.merge("a", "4");
+        db.testCompactMemTable(); // Moves to level 2
+        assertEquals(db.allEntriesFor("a"), asList("+4", "+3", "+2", "1"));
+
+        // only the operands visible to all snapshots can be merged
+        db.testCompactRange(2, null, null);
+        assertEquals(db.allEntriesFor("a"), asList("+4", "+3", "1,2"));
+        assertEquals(db.get("a", snapshot), "1,2");
+        snapshot.close();
+        db.testCompactRange(3, null, null);
+        assertEquals(db.allEntriesFor("a"), asList("1,2,3,4"));
+        assertEquals(db.get("a"), "1,2,3,4");
+    }
+
+    @Test
+    public void testCompactionKeepsOperandsAboveTheirValue() throws Exception {
+        DbStringWrapper db =
+                new DbStringWrapper(new Options().mergeOperator(APPEND), this.databaseDir);
+        db.put("a", "1");
+        db.testCompactMemTable(); // Moves to level 2
+        db.testCompactRange(2, null, null);
+        db.testCompactRange(3, null, null);
+        db.merge("a", "2");
+        db.merge("a", "3");
+        db.testCompactMemTable(); // Moves to level 2
+
+        // the value is in level 4, below the output of the compaction
+        db.testCompactRange(2, null, null);
+        assertEquals(db.allEntriesFor("a"), asList("+3", "+2", "1"));
+        assertEquals(db.get("a"), "1,2,3");
+        db.testCompactRange(3, null, null);
+        assertEquals(db.allEntriesFor("a"), asList("1,2,3"));
+    }
+
+    @Test(expectedExceptions = IllegalStateException.class)
+    public void testMergeRequiresMergeOperator() throws Exception {
+        DbStringWrapper db = new DbStringWrapper(new Options(), this.databaseDir);
+        db.merge("a", "1");
+    }
+
+    private static final MergeOperator APPEND =
+            (key, existingValue, operands) -> {
+                StringBuilder value = new StringBuilder();
+                if (existingValue != null) {
+                    value.append(new String(existingValue, UTF_8));
+                }
+                for (byte[] operand : operands) {
+                    if (value.length() > 0) {
+                        value.append(',');
+                    }
+                    value.append(new String(operand, UTF_8));
+                }
+                return value.toString().getBytes(UTF_8);
+            };
+
+    @Test
+    public void testDeleteRange() throws Exception {
+        DbStringWrapper db = new DbStringWrapper(new Options(), this.databaseDir);
+        for (String key : asList("a", "b", "c", "d", "e")) {
+            db.put(key, "v" + key);
+        }
+        Snapshot snapshot = db.getSnapshot();
+        db.deleteRange("b", "d");
+        db.put("c", "new");
+
+        for (int i = 0; i < 3; i++) {
+            assertEquals(db.get("a"), "va");
+            assertNull(db.get("b"));
+            assertEquals(db.get("c"), "new");
+            assertEquals(db.get("d"), "vd");
+            assertEquals(db.get("b", snapshot), "vb");
+            assertEquals(db.get("c", snapshot), "vc");
+            try (SeekingIterator<String, String> iterator = db.iterator()) {
+                assertTrue(iterator.seekToFirst());
+                assertSequence(
+                        iterator,
+                        immutableEntry("a", "va"),
+                        immutableEntry("c", "new"),
+                        immutableEntry("d", "vd"),
+                        immutableEntry("e", "ve"));
+                iterator.seekToLast();
+                assertReverseSequence(
+                        iterator,
+                        immutableEntry("e", "ve"),
+                        immutableEntry("d", "vd"),
+                        immutableEntry("c", "new"),
+                        immutableEntry("a", "va"));
+                assertTrue(iterator.seek("b"));
+                assertEquals(iterator.key(), "c");
+            }
+            // the tombstone is flushed with the entries, then compacted with them
+            if (i == 0) {
+                db.testCompactMemTable();
+            } else {
+                db.compactRange(null, null);
+            }
+        }
+        snapshot.close();
+
+        db.reopen();
+        assertNull(db.get("b"));
+        assertEquals(db.get("c"), "new");
+        db.put("b", "again");
+        assertEquals(db.get("b"), "again");
+    }
+
+    @Test
+    public void testDeleteRangeInOlderLevels() throws Exception {
+        DbStringWrapper db = new DbStringWrapper(new Options(), this.databaseDir);
+        for (String key : asList("a", "b", "c", "d", "e")) {
+            db.put(key, "v" + key);
+        }
+        db.testCompactMemTable(); // Moves to level 2
+        db.deleteRange("b", "e");
+        assertNull(db.get("c"));
+        db.testCompactMemTable(); // Moves to level 1, above the entries it deletes
+        assertEquals(db.filesPerLevel(), "0,1,1");
+        assertNull(db.get("b"));
+        assertNull(db.get("d"));
+        assertEquals(db.get("e"), "ve");
+        assertEquals(db.allEntriesFor("c"), asList("vc"));
+
+        // no snapshot sees the deleted entries, the compaction drops them with the tombstone
+        db.testCompactRange(1, null, null);
+        assertEquals(db.filesPerLevel(), "0,0,1");
+        assertEquals(db.allEntriesFor("c"), asList());
+        assertEquals(db.get("a"), "va");
+        assertNull(db.get("c"));
+        assertEquals(db.get("e"), "ve");
+    }
+
+    @Test
+    public void testCompactionKeepsRangeDeletionForSnapshot() throws Exception {
+        DbStringWrapper db = new DbStringWrapper(new Options(), this.databaseDir);
+        db.put("b", "vb");
+        db.put("c", "vc");
+        db.testCompactMemTable(); // Moves to level 2
+        Snapshot snapshot = db.getSnapshot();
+        db.deleteRange("a", "z");
+        db.testCompactMemTable(); // Tombstone only table in level 1
+
+        db.testCompactRange(1, null, null);
+        db.testCompactRange(2, null, null);
+        assertEquals(db.filesPerLevel(), "0,0,0,1");
+        assertEquals(db.allEntriesFor("b"), asList("vb"));
+        assertNull(db.get("b"));
+        assertEquals(db.get("b", snapshot), "vb");
+        try (SeekingIterator<String, String> iterator = db.iterator()) {
+            assertFalse(iterator.seekToFirst());
+        }
+        snapshot.close();
+
+        // the tombstone is dropped with the entries once no snapshot needs them
+        db.testCompactRange(3, null, null);
+        assertEquals(db.allEntriesFor("b"), asList());
+        assertEquals(db.filesPerLevel(), "");
+        db.put("c", "new");
+        assertEquals(db.get("c"), "new");
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testDeleteRangeRequiresOrderedBounds() throws Exception {
+        DbStringWrapper db = new DbStringWrapper(new Options(), this.databaseDir);
+        db.deleteRange("b", "a");
+    }
+
+    @Test(dataProvider = "options")
+    public void testMultiGet(final Options options) throws Exception {
+        DbStringWrapper db =
+                new DbStringWrapper(options.mergeOperator(APPEND).blockSize(256), this.databaseDir);
+        for (int i = 0; i < 200; i++) {
+            db.put(key(i), "base" + i);
+        }
+        db.testCompactMemTable();
+        for (int i = 0; i < 200; i += 3) {
+            db.put(key(i), "overwritten" + i);
+        }
+        db.deleteRange(key(50), key(60));
+        db.testCompactMemTable();
+        Snapshot snapshot = db.getSnapshot();
+        for (int i = 0; i < 200; i += 5) {
+            db.delete(key(i));
+        }
+        for (int i = 0; i < 200; i += 7) {
+            db.merge(key(i), "merged");
+        }
+        db.testCompactMemTable();
+        for (int i = 0; i < 220; i += 11) {
+            db.put(key(i), "memtable" + i);
+        }
+
+        // unordered keys, with duplicates and keys that were never written
+        List<String> keys = new ArrayList<>();
+        for (int i = 0; i < 230; i++) {
+            keys.add(key(i));
+            if (i % 13 == 0) {
+                keys.add(key(i));
+            }
+        }
+        Collections.shuffle(keys, new Random(301));
+
+        List<String> values = db.multiGet(keys, new ReadOptions());
+        List<String> snapshotValues = db.multiGet(keys, new ReadOptions().snapshot(snapshot));
+        assertEquals(values.size(), keys.size());
+        for (int i = 0; i < keys.size(); i++) {
+            assertEquals(values.get(i), db.get(keys.get(i)), keys.get(i));
+            assertEquals(snapshotValues.get(i), db.get(keys.get(i), snapshot), keys.get(i));
+        }
+        assertEquals(
+                db.multiGet(asList(key(14), key(52), key(3), key(225)), new ReadOptions()),
+                asList("base14,merged", null, "overwritten3", null));
+        assertEquals(db.multiGet(Collections.emptyList(), new ReadOptions()), asList());
+        snapshot.close();
+    }
+
+    @Test
+    public void testGetWithoutCopy() throws Exception {
+        DbStringWrapper db =
+                new DbStringWrapper(new Options().mergeOperator(APPEND), this.databaseDir);
+        String large = Strings.repeat("v", 5000);
+        db.put("flushed", large);
+        db.put("merged", "a");
+        db.testCompactMemTable();
+        db.put("memtable", "in memory");
+        db.merge("merged", "b");
+
+        ByteBuffer buffer = db.db.getBuffer(toByteArray("flushed"), new ReadOptions());
+        assertTrue(buffer.isReadOnly());
+        assertEquals(buffer.remaining(), large.length());
+        assertEquals(UTF_8.decode(buffer).toString(), large);
+        buffer = db.db.getBuffer(toByteArray("memtable"), new ReadOptions());
+        assertEquals(UTF_8.decode(buffer).toString(), "in memory");
+        buffer = db.db.getBuffer(toByteArray("merged"), new ReadOptions());
+        assertEquals(UTF_8.decode(buffer).toString(), "a,b");
+        assertNull(db.db.getBuffer(toByteArray("missing"), new ReadOptions()));
+
+        ByteBuffer value = ByteBuffer.allocate(16);
+        assertEquals(db.db.get(toByteArray("memtable"), value, new ReadOptions()), 9);
+        value.flip();
+        assertEquals(UTF_8.decode(value).toString(), "in memory");
+        value.clear();
+        assertEquals(db.db.get(toByteArray("missing"), value, new ReadOptions()), -1);
+        assertEquals(value.position(), 0);
+        // only the bytes that fit are copied
+        assertEquals(db.db.get(toByteArray("flushed"), value, new ReadOptions()), large.length());
+        assertEquals(value.position(), 16);
+        value.flip();
+        assertEquals(UTF_8.decode(value).toString(), large.substring(0, 16));
+    }
+
+    @Test
+    public void testArenaMemTableBlocksOutliveReaders() throws Exception {
+        DbStringWrapper db =
+                new DbStringWrapper(
+                        new Options()
+                                .memTableFactory(MemTableFactory.arena())
+                                .writeBufferSize(100 << 10),
+                        this.databaseDir);
+        db.put("foo", "hello");
+        ByteBuffer buffer = db.db.getBuffer(toByteArray("foo"), new ReadOptions());
+        // flushed memtables give their blocks to the next ones
+        for (int i = 0; i < 500; i++) {
+            db.put(key(i), key(i) + longString(1000, 'v'));
+        }
+        assertEquals(UTF_8.decode(buffer).toString(), "hello");
+
+        db.put("zoo", "world");
+        try (SeekingIterator<String, String> iterator = db.iterator()) {
+            iterator.seek("zoo");
+            for (int i = 0; i < 500; i++) {
+                db.put(key(i), key(i) + longString(1000, 'w'));
+            }
+            db.put("zoo", "new");
+            assertSequence(iterator, immutableEntry("zoo", "world"));
+        }
+        for (int i = 0; i < 500; i++) {
+            assertEquals(db.get(key(i)), key(i) + longString(1000, 'w'));
+        }
+    }
+
+    @Test
+    public void testCompactionFilter() throws Exception {
+        CompactionFilter filter =
+                (level, key, value) -> {
+                    String text = new String(value, UTF_8);
+                    if (text.startsWith("remove")) {
+                        return null;
+                    }
+                    if (text.startsWith("replace")) {
+                        return text.toUpperCase(Locale.ROOT).getBytes(UTF_8);
+                    }
+                    return value;
+                };
+        DbStringWrapper db =
+                new DbStringWrapper(new Options().compactionFilter(filter), this.databaseDir);
+        db.put("a", "old");
+        db.testCompactMemTable(); // Moves to level 2
+        db.testCompactRange(2, null, null);
+        db.testCompactRange(3, null, null);
+        assertEquals(db.filesPerLevel(), "0,0,0,0,1");
+
+        db.put("a", "remove");
+        db.put("b", "replace");
+        db.put("c", "keep");
+        Snapshot snapshot = db.getSnapshot();
+        db.put("d", "remove");
+        db.put("e", "replace");
+        assertSnapshotReads(db, snapshot);
+        db.testCompactMemTable(); // Moves to level 2
+        db.testCompactRange(2, null, null);
+
+        // values the snapshot sees are not filtered
+        assertSnapshotReads(db, snapshot);
+        assertEquals(db.allEntriesFor("a"), asList("remove", "old"));
+        assertEquals(db.get("a"), "remove");
+        assertEquals(db.get("b"), "replace");
+        // newer values are, a deletion marker hides the values kept for the snapshot
+        assertEquals(db.allEntriesFor("d"), asList("DEL"));
+        assertNull(db.get("d"));
+        assertEquals(db.get("e"), "REPLACE");
+        snapshot.close();
+
+        db.testCompactRange(3, null, null);
+        assertEquals(db.allEntriesFor("a"), asList());
+        assertEquals(db.allEntriesFor("d"), asList());
+        assertEquals(db.get("b"), "REPLACE");
+        assertEquals(db.get("c"), "keep");
+        assertEquals(db.get("e"), "REPLACE");
+    }
+
+    private static void assertSnapshotReads(DbStringWrapper db, Snapshot snapshot) {
+        assertEquals(db.get("a", snapshot), "remove");
+        assertEquals(db.get("b", snapshot), "replace");
+        assertEquals(db.get("c", snapshot), "keep");
+        assertNull(db.get("d", snapshot));
+        assertNull(db.get("e", snapshot));
+    }
+
+    @Test
+    public void testCompactionFilterWithSnapshotTakenDuringCompaction() throws Exception {
+        AtomicReference<DB> database = new AtomicReference<>();
+        AtomicReference<Snapshot> snapshot = new AtomicReference<>();
+        CompactionFilter filter =
+                (level, key, value) -> {
+                    // taken after the compaction picked the snapshots to preserve
+                    if (snapshot.get() == null) {
+                        snapshot.set(database.get().getSnapshot());
+                    }
+                    return new String(value, UTF_8).startsWith("remove") ? null : value;
+                };
+        DbStringWrapper db =
+                new DbStringWrapper(new Options().compactionFilter(filter), this.databaseDir);
+        database.set(db.db);
+        db.put("a", "remove");
+        db.put("b", "keep");
+        db.testCompactMemTable(); // Moves to level 2
+        db.testCompactRange(2, null, null);
+
+        // the compaction ran again, preserving the values the new snapshot sees
+        assertEquals(db.get("a", snapshot.get()), "remove");
+        assertEquals(db.get("a"), "remove");
+        assertEquals(db.get("b", snapshot.get()), "keep");
+        snapshot.get().close();
+
+        db.testCompactRange(3, null, null);
+        assertNull(db.get("a"));
+        assertEquals(db.get("b"), "keep");
+    }
+
+    @Test
+    public void testTtlCompactionFilter() throws Exception {
+        AtomicLong now = new AtomicLong(1000);
+        TtlCompactionFilter filter = new TtlCompactionFilter(10, TimeUnit.SECONDS, now::get);
+        DbStringWrapper db =
+                new DbStringWrapper(new Options().compactionFilter(filter), this.databaseDir);
+        byte[] value = TtlCompactionFilter.withTimestamp("v1".getBytes(UTF_8), now.get());
+        assertEquals(TtlCompactionFilter.getTimestamp(value), 1000);
+        assertEquals(TtlCompactionFilter.stripTimestamp(value), "v1".getBytes(UTF_8));
+        db.db.put("a".getBytes(UTF_8), value);
+        now.addAndGet(5000);
+        db.db.put(
+                "b".getBytes(UTF_8),
+                TtlCompactionFilter.withTimestamp("v2".getBytes(UTF_8), now.get()));
+
+        now.addAndGet(6000);
+        assertTrue(filter.isExpired(db.db.get("a".getBytes(UTF_8))));
+        assertFalse(filter.isExpired(db.db.get("b".getBytes(UTF_8))));
+        db.testCompactMemTable(); // Moves to level 2
+        db.testCompactRange(2, null, null);
+        assertNull(db.db.get("a".getBytes(UTF_8)));
+        assertEquals(
+                TtlCompactionFilter.stripTimestamp(db.db.get("b".getBytes(UTF_8))),
+                "v2".getBytes(UTF_8));
+    }
+
+    @Test
+    public void testIngestExternalFiles() throws Exception {
+        Options options = new Options().filterPolicy(new BloomFilterPolicy(10));
+        DbStringWrapper db = new DbStringWrapper(options, this.databaseDir);
+        db.put("a", "old");
+        db.put("b", "old");
+        db.put("c", "old");
+        db.compactRange(null, null);
+        db.put("b", "memtable");
+        Snapshot snapshot = db.getSnapshot();
+
+        java.io.File sst1 = writeSstFile(options, "1.sst", "a", "new", "b", "new", "c", null);
+        java.io.File sst2 = writeSstFile(options, "2.sst", "x", "new", "y", "new");
+        db.db.ingestExternalFiles(Arrays.asList(sst2, sst1));
+        assertFalse(sst1.exists());
+        assertFalse(sst2.exists());
+
+        db.put("y", "after");
+        assertEquals(db.get("a"), "new");
+        assertEquals(db.get("b"), "new");
+        assertNull(db.get("c"));
+        assertEquals(db.get("x"), "new");
+        assertEquals(db.get("y"), "after");
+        // entries of the files are newer than the snapshot
+        assertEquals(db.get("a", snapshot), "old");
+        assertEquals(db.get("b", snapshot), "memtable");
+        assertEquals(db.get("c", snapshot), "old");
+        assertNull(db.get("x", snapshot));
+        try (SeekingIterator<String, String> iterator = db.iterator()) {
+            assertTrue(iterator.seekToFirst());
+            assertSequence(
+                    iterator,
+                    immutableEntry("a", "new"),
+                    immutableEntry("b", "new"),
+                    immutableEntry("x", "new"),
+                    immutableEntry("y", "after"));
+        }
+        try (SeekingIterator<String, String> iterator =
+                db.iterator(new ReadOptions().snapshot(snapshot))) {
+            assertTrue(iterator.seekToFirst());
+            assertSequence(
+                    iterator,
+                    immutableEntry("a", "old"),
+                    immutableEntry("b", "memtable"),
+                    immutableEntry("c", "old"));
+        }
+        snapshot.close();
+
+        // the files keep their sequence number in the manifest and through compactions
+        db.reopen();
+        db.compactRange(null, null);
+        assertEquals(db.get("a"), "new");
+        assertEquals(db.get("b"), "new");
+        assertNull(db.get("c"));
+        assertEquals(db.get("y"), "after");
+    }
+
+    @Test
+    public void testIngestExternalFilesInDeepestLevel() throws Exception {
+        Options options = new Options();
+        DbStringWrapper db = new DbStringWrapper(options, this.databaseDir);
+        db.put("m", "v");
+        db.testCompactMemTable();
+        db.db.ingestExternalFiles(
+                Collections.singletonList(writeSstFile(options, "1.sst", "x", "1", "y", "2")));
+        db.db.ingestExternalFiles(
+                Collections.singletonList(writeSstFile(options, "2.sst", "k", "1", "n", "2")));
+        // the flushed table is in level 2, the first file does not overlap anything and the
+        // second one must stay above the table it overlaps
+        assertEquals(db.numberOfFilesInLevel(2), 1);
+        assertEquals(db.numberOfFilesInLevel(NUM_LEVELS - 1), 1);
+        assertEquals(db.numberOfFilesInLevel(1), 1);
+        assertEquals(db.get("x"), "1");
+        assertEquals(db.get("n"), "2");
+        assertEquals(db.get("m"), "v");
+    }
+
+    @Test
+    public void testIngestExternalFilesFailureKeepsSources() throws Exception {
+        SpecialEnv env = new SpecialEnv(defaultEnv);
         Options options = new Options();
+        DbStringWrapper db = new DbStringWrapper(options, databaseDir, env);
+        db.put("a", "old");
+        java.io.File sst1 = writeSstFile(options, "1.sst", "a", "new");
+        java.io.File sst2 = writeSstFile(options, "2.sst", "x", "new");
+
+        // the files are copied, then the manifest cannot be written
+        env.manifestWriteError.set(true);
+        try {
+            db.db.ingestExternalFiles(Arrays.asList(sst1, sst2));
+            fail("ingestion should fail");
+        } catch (DBException expected) {
+        }
+        assertTrue(sst1.exists());
+        assertTrue(sst2.exists());
+
+        env.manifestWriteError.set(false);
+        db.reopen();
+        assertEquals(db.get("a"), "old");
+        assertNull(db.get("x"));
+        db.db.ingestExternalFiles(Arrays.asList(sst1, sst2));
+        assertFalse(sst1.exists());
+        assertEquals(db.get("a"), "new");
+        assertEquals(db.get("x"), "new");
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testIngestOverlappingExternalFiles() throws Exception {
+        Options options = new Options();
+        DbStringWrapper db = new DbStringWrapper(options, this.databaseDir);
+        db.db.ingestExternalFiles(
+                Arrays.asList(
+                        writeSstFile(options, "1.sst", "a", "1", "c", "1"),
+                        writeSstFile(options, "2.sst", "b", "2", "d", "2")));
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testSstFileWriterRequiresIncreasingKeys() throws Exception {
+        writeSstFile(new Options(), "1.sst", "b", "1", "a", "1");
+    }
+
+    /** Write a table with the given keys and values, a null value is a deletion */
+    private java.io.File writeSstFile(Options options, String name, String... keyValues)
+            throws IOException {
+        java.io.File file = new java.io.File(databaseDir.getParentFile().getPath(), name);
+        try (SstFileWriter writer = new SstFileWriter(options, file)) {
+            for (int i = 0; i < keyValues.length; i += 2) {
+                if (keyValues[i + 1] == null) {
+                    writer.delete(toByteArray(keyValues[i]));
+                } else {
+                    writer.put(toByteArray(keyValues[i]), toByteArray(keyValues[i + 1]));
+                }
+            }
+            writer.finish();
+        }
+        file.deleteOnExit();
+        return file;
+    }
+
+    @Test
+    public void testRateLimitedFlushAndCompaction() throws Exception {
+        RateLimiter rateLimiter = RateLimiter.autoTuned(32 << 20, 64 << 20);
+        Options options = new Options().writeBufferSize(100000).rateLimiter(rateLimiter);
+        DbStringWrapper db = new DbStringWrapper(options, this.databaseDir);
+        Random random = new Random(301);
+        List<String> values = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            String value = randomString(random, 10000);
+            db.put(key(i), value);
+            values.add(value);
+        }
+        db.compactRange("", "~");
+        assertTrue(rateLimiter.getTotalBytesThrough() > 100 * 10000);
+        for (int i = 0; i < 100; i++) {
+            assertEquals(db.get(key(i)), values.get(i));
+        }
+        db.close();
+    }
+
+    @Test
+    public void testWriteAsync() throws Exception {
+        writeAsync(new Options());
+    }
+
+    @Test
+    public void testWriteAsyncWithConcurrentMemtableInsert() throws Exception {
+        writeAsync(new Options().allowConcurrentMemtableWrite(true));
+    }
+
+    private void writeAsync(Options options) throws Exception {
+        options.createIfMissing(true);
+        DbStringWrapper db = new DbStringWrapper(options, this.databaseDir, defaultEnv);
+        int numEntries = 20000;
+        List<CompletableFuture<Snapshot>> futures = new ArrayList<>();
+        List<WriteBatch> batches = new ArrayList<>();
+        for (int i = 0; i < numEntries; i++) {
+            WriteBatch batch =
+                    db.db.createWriteBatch().put(toByteArray(key(i)), toByteArray("v" + i));
+            batches.add(batch);
+            // mix in blocking writers so that both kinds lead and follow groups
+            if (i % 100 == 0) {
+                db.put(key(i) + "s", "s" + i);
+            }
+            futures.add(db.db.writeAsync(batch, new WriteOptions().sync(i % 1000 == 0)));
+        }
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).get(1, TimeUnit.MINUTES);
+        for (WriteBatch batch : batches) {
+            batch.close();
+        }
+        for (int i = 0; i < numEntries; i++) {
+            assertEquals(db.get(key(i)), "v" + i);
+        }
+        try (Snapshot snapshot =
+                db.db.writeAsync(
+                                db.db.createWriteBatch()
+                                        .put(toByteArray("last"), toByteArray("value")),
+                                new WriteOptions().snapshot(true))
+                        .get(1, TimeUnit.MINUTES)) {
+            assertNotNull(snapshot);
+            assertEquals(db.get("last", snapshot), "value");
+        }
+        db.close();
+    }
+
+    @Test
+    public void testWriteAsyncDependentStageWrites() throws Exception {
+        DbStringWrapper db = new DbStringWrapper(new Options(), this.databaseDir, defaultEnv);
+        // stages wait for their own write, they must not hold a thread that leads writes
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            String key = key(i);
+            futures.add(
+                    db.db.writeAsync(
+                                    db.db.createWriteBatch()
+                                            .put(toByteArray(key), toByteArray("async")),
+                                    new WriteOptions())
+                            .thenAccept(snapshot -> db.put(key, "stage")));
+        }
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).get(1, TimeUnit.MINUTES);
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(db.get(key(i)), "stage");
+        }
+        db.close();
+    }
+
+    @Test
+    public void testCloseWithQueuedAsyncWrites() throws Exception {
+        SpecialEnv env = new SpecialEnv(defaultEnv);
+        DbStringWrapper db = new DbStringWrapper(new Options(), this.databaseDir, env);
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            // a sync leader blocked in the log sync, asynchronous and blocking writers behind it
+            env.delayDataSync.set(true);
+            Future<?> leader =
+                    executor.submit(() -> db.put("a", "1", new WriteOptions().sync(true)));
+            Thread.sleep(200);
+            List<CompletableFuture<Snapshot>> futures = new ArrayList<>();
+            for (int i = 0; i < 10; i++) {
+                futures.add(
+                        db.db.writeAsync(
+                                db.db.createWriteBatch().put(toByteArray(key(i)), toByteArray("v")),
+                                new WriteOptions()));
+            }
+            Future<?> follower =
+                    executor.submit(() -> db.put("b", "2", new WriteOptions().sync(true)));
+            Thread.sleep(200);
+
+            // close waits for the leader, writes fail as soon as it starts
+            Future<?> close = executor.submit(db.db::close);
+            Thread.sleep(200);
+            assertTrue(
+                    db.db.writeAsync(db.db.createWriteBatch(), new WriteOptions())
+                            .isCompletedExceptionally());
+            assertFalse(close.isDone());
+            env.delayDataSync.set(false);
+
+            // the next leader is asynchronous, its group fails and the blocking writer gets to lead
+            awaitWrite(leader);
+            close.get(1, TimeUnit.MINUTES);
+            for (CompletableFuture<Snapshot> future : futures) {
+                try {
+                    future.get(1, TimeUnit.MINUTES);
+                    fail("write should fail once the database is closed");
+                } catch (ExecutionException e) {
+                    assertTrue(e.getCause() instanceof DBException);
+                }
+            }
+            awaitWrite(follower);
+        } finally {
+            env.delayDataSync.set(false);
+            executor.shutdownNow();
+        }
+    }
+
+    /** Wait for a write racing with close, that may or may not succeed */
+    private static void awaitWrite(Future<?> write) throws Exception {
+        try {
+            write.get(1, TimeUnit.MINUTES);
+        } catch (ExecutionException ignored) {
+        }
+    }
+
+    @Test
+    public void testVectorMemTableBulkLoad() throws Exception {
+        // vector memtable is sorted on read, only read back once load is done
+        Options options =
+                new Options()
+                        .createIfMissing(true)
+                        .writeBufferSize(100 << 10)
+                        .memTableFactory(MemTableFactory.vector());
+        DbStringWrapper db = new DbStringWrapper(options, this.databaseDir, defaultEnv);
+        int numEntries = 20000;
+        for (int i = numEntries - 1; i >= 0; i--) {
+            db.put(key(i), "v" + i);
+        }
+        db.delete(key(7));
+        db.put(key(8), "v8b");
+        assertEquals(db.get(key(1)), "v1");
+        assertNull(db.get(key(7)));
+        assertEquals(db.get(key(8)), "v8b");
+        assertEquals(db.get(key(numEntries - 1)), "v" + (numEntries - 1));
+        try (SeekingIterator<String, String> iterator = db.iterator()) {
+            int count = 0;
+            for (boolean valid = iterator.seekToFirst(); valid; valid = iterator.next()) {
+                count++;
+            }
+            assertEquals(count, numEntries - 1);
+        }
+        db.close();
+    }
+
+    private void concurrentWrite(Options options) throws Exception {
         options.maxOpenFiles(50);
         options.createIfMissing(true);
         ExecutorService ex =
@@ -1582,6 +2672,163 @@ public class DbImplTest {
         db.close();
     }
 
+    @Test
+    public void testFilterPolicyChange() throws Exception {
+        SpecialEnv env = new SpecialEnv(defaultEnv);
+        env.countRandomReads = true;
+        Options options = new Options().filterPolicy(new BloomFilterPolicy(10)).cacheSize(0);
+        DbStringWrapper db = new DbStringWrapper(options, databaseDir, env);
+        int n = 10000;
+        for (int i = 0; i < n; i++) {
+            db.put(key(i), key(i));
+        }
+        db.compactRange("a", "z");
+
+        // Tables written with the bloom filter are still filtered with the new policy
+        db.reopen(new Options().filterPolicy(new RibbonFilterPolicy(10)).cacheSize(0), env);
+        for (int pass = 0; pass < 2; pass++) {
+            env.delayDataSync.set(true);
+            for (int i = 0; i < n; i++) {
+                assertEquals(db.get(key(i)), key(i));
+            }
+            env.randomReadCounter.set(0);
+            for (int i = 0; i < n; i++) {
+                assertNull(db.get(key(i) + ".missing"));
+            }
+            int reads = env.randomReadCounter.get();
+            assertTrue(reads <= 3 * n / 100, "reads " + reads);
+            env.delayDataSync.set(false);
+
+            // Rewrite the tables with the new policy
+            db.compactRange("a", "z");
+        }
+        db.close();
+    }
+
+    @DataProvider(name = "fullFilters")
+    public Object[][] fullFiltersProvider() {
+        return new Object[][] {
+            {new OptionsDesc("Full Filter").fullFilter(true)},
+            {new OptionsDesc("Partitioned Filter").fullFilter(true).partitionIndex(true)}
+        };
+    }
+
+    @Test(dataProvider = "fullFilters")
+    public void testFullFilter(final Options options) throws Exception {
+        SpecialEnv env = new SpecialEnv(defaultEnv);
+        env.countRandomReads = true;
+        options.filterPolicy(new BloomFilterPolicy(10)).blockSize(256);
+        DbStringWrapper db = new DbStringWrapper(options, databaseDir, env);
+        // Populate multiple layers
+        int n = 10000;
+        for (int i = 0; i < n; i++) {
+            db.put(key(i), key(i));
+        }
+        db.compactRange("a", "z");
+        for (int i = 0; i < n; i += 100) {
+            db.put(key(i), key(i));
+        }
+        db.testCompactMemTable();
+
+        // Prevent auto compactions triggered by seeks
+        env.delayDataSync.set(true);
+
+        for (int i = 0; i < n; i++) {
+            assertEquals(key(i), db.get(key(i)));
+        }
+
+        // Lookup missing keys, filters are checked before the index is searched
+        env.randomReadCounter.set(0);
+        for (int i = 0; i < n; i++) {
+            assertNull(db.get(key(i) + ".missing"));
+        }
+        int reads = env.randomReadCounter.get();
+        assertTrue(reads <= 3 * n / 100, "reads " + reads);
+
+        env.delayDataSync.set(false);
+        db.reopen();
+        assertEquals(db.get(key(42)), key(42));
+        assertNull(db.get(key(42) + ".missing"));
+        db.close();
+    }
+
+    @DataProvider(name = "prefixFilters")
+    public Object[][] prefixFiltersProvider() {
+        return new Object[][] {
+            {new OptionsDesc("Block Filters")},
+            {new OptionsDesc("Full Filter").fullFilter(true)},
+            {new OptionsDesc("Partitioned Filter").fullFilter(true).partitionIndex(true)}
+        };
+    }
+
+    @Test(dataProvider = "prefixFilters")
+    public void testPrefixSeek(final Options options) throws Exception {
+        SpecialEnv env = new SpecialEnv(defaultEnv);
+        env.countRandomReads = true;
+        options.filterPolicy(new BloomFilterPolicy(10))
+                .prefixExtractor(PrefixExtractor.fixedLength(4))
+                .blockSize(256);
+        DbStringWrapper db = new DbStringWrapper(options, databaseDir, env);
+        // Keys of the even prefixes only, in two layers
+        int prefixes = 200;
+        for (int p = 0; p < prefixes; p += 2) {
+            for (int i = 0; i < 20; i++) {
+                db.put(prefixKey(p, i), "v" + i);
+            }
+        }
+        db.compactRange("a", "z");
+        for (int p = 0; p < prefixes; p += 20) {
+            db.put(prefixKey(p, 20), "v20");
+        }
+        db.testCompactMemTable();
+
+        // Prevent auto compactions triggered by seeks
+        env.delayDataSync.set(true);
+
+        ReadOptions prefixSeek = new ReadOptions().prefixSameAsStart(true);
+        try (SeekingIterator<String, String> iterator = db.iterator(prefixSeek)) {
+            // the iteration ends with the keys of the prefix of the target
+            assertTrue(iterator.seek(prefixKey(20, 18)));
+            assertSequence(
+                    iterator,
+                    immutableEntry(prefixKey(20, 18), "v18"),
+                    immutableEntry(prefixKey(20, 19), "v19"),
+                    immutableEntry(prefixKey(20, 20), "v20"));
+            assertFalse(iterator.seek(prefixKey(21, 0)));
+            // all the keys follow a target without prefix
+            assertTrue(iterator.seek("p"));
+            assertEquals(iterator.key(), prefixKey(0, 0));
+        }
+        try (SeekingIterator<String, String> iterator = db.iterator()) {
+            assertTrue(iterator.seek(prefixKey(21, 0)));
+            assertEquals(iterator.key(), prefixKey(22, 0));
+        }
+
+        // Seeks to missing prefixes rarely read a data block
+        env.randomReadCounter.set(0);
+        try (SeekingIterator<String, String> iterator = db.iterator(prefixSeek)) {
+            for (int p = 1; p < prefixes; p += 2) {
+                assertFalse(iterator.seek(prefixKey(p, 0)));
+            }
+        }
+        int reads = env.randomReadCounter.get();
+        env.randomReadCounter.set(0);
+        try (SeekingIterator<String, String> iterator = db.iterator()) {
+            for (int p = 1; p < prefixes - 1; p += 2) {
+                assertTrue(iterator.seek(prefixKey(p, 0)));
+            }
+        }
+        assertTrue(reads <= 5, "reads " + reads);
+        assertTrue(env.randomReadCounter.get() >= 5 * reads + 10);
+
+        env.delayDataSync.set(false);
+        db.close();
+    }
+
+    private static String prefixKey(int prefix, int i) {
+        return String.format("p%03d/%04d", prefix, i);
+    }
+
     /**
      * Beside current test, at the end every {@link DbImplTest} test case, close is asserted for
      * opened file handles.
@@ -1832,6 +3079,18 @@ public class DbImplTest {
             return new String(slice, UTF_8);
         }
 
+        public List<String> multiGet(List<String> keys, ReadOptions readOptions) {
+            List<byte[]> encodedKeys = new ArrayList<>();
+            for (String key : keys) {
+                encodedKeys.add(toByteArray(key));
+            }
+            List<String> values = new ArrayList<>();
+            for (byte[] value : db.multiGet(encodedKeys, readOptions)) {
+                values.add(value == null ? null : new String(value, UTF_8));
+            }
+            return values;
+        }
+
         public void put(String key, String value) {
             db.put(toByteArray(key), toByteArray(value));
         }
@@ -1844,6 +3103,14 @@ public class DbImplTest {
             db.delete(toByteArray(key));
         }
 
+        public void merge(String key, String value) {
+            db.merge(toByteArray(key), toByteArray(value));
+        }
+
+        public void deleteRange(String begin, String end) {
+            db.deleteRange(toByteArray(begin), toByteArray(end));
+        }
+
         public SeekingIterator<String, String> iterator() {
             return SeekingDBIteratorAdapter.toSeekingIterator(
                     db.iterator(),
@@ -1936,6 +3203,10 @@ public class DbImplTest {
         }
 
         public void reopen(Options options) throws IOException {
+            reopen(options, defaultEnv);
+        }
+
+        public void reopen(Options options, Env env) throws IOException {
             db.close();
             db =
                     new DbImpl(
@@ -1943,7 +3214,7 @@ public class DbImplTest {
                                     .createIfMissing(false)
                                     .errorIfExists(false),
                             databaseDir.getPath(),
-                            defaultEnv);
+                            env);
         }
 
         private List<String> allEntriesFor(String userKey) throws IOException {
@@ -1955,6 +3226,8 @@ public class DbImplTest {
                     if (entryKey.equals(userKey)) {
                         if (entry.getKey().getValueType() == ValueType.VALUE) {
                             result.add(entry.getValue().toString(UTF_8));
+                        } else if (entry.getKey().getValueType() == ValueType.MERGE) {
+                            result.add("+" + entry.getValue().toString(UTF_8));
                         } else {
                             result.add("DEL");
                         }
@@ -18,11 +18,16 @@
 package org.iq80.leveldb.impl;
 
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
 import static org.testng.Assert.fail;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
 import org.iq80.leveldb.env.SequentialFile;
 import org.iq80.leveldb.env.WritableFile;
 import org.iq80.leveldb.util.Slice;
@@ -57,8 +62,49 @@ public class LogWriterTest {
         }
     }
 
+    @Test
+    public void testOneGatheringAppendPerRecord() throws Exception {
+        StringSink open = new StringSink();
+        int blockSize = LogConstants.BLOCK_SIZE;
+        int headerSize = LogConstants.HEADER_SIZE;
+        // empty record, multi block record, record leaving a trailer smaller than a header,
+        // record starting after the trailer, record filling exactly the rest of a block
+        int[] sizes = {
+            0,
+            2 * blockSize + 100,
+            // block offset is now 128, leave 3 bytes in the block
+            blockSize - 128 - headerSize - 3,
+            10,
+            // block offset is now 17
+            blockSize - 17 - headerSize
+        };
+        Random random = new Random(42);
+        List<Slice> records = new ArrayList<>();
+        try (LogWriter writer = LogWriter.createWriter(10, open)) {
+            for (int size : sizes) {
+                byte[] bytes = new byte[size + 10];
+                random.nextBytes(bytes);
+                // use an offset within the backing array
+                Slice record = new Slice(bytes, 5, size);
+                records.add(record.copySlice());
+                writer.addRecord(record, false);
+            }
+        }
+        assertEquals(open.gatheringAppends, sizes.length);
+
+        try (SequentialFile in =
+                new SequentialBytes(new ByteArrayInputStream(open.sb.toByteArray()))) {
+            LogReader logReader = new LogReader(in, new AssertNoCorruptionLogMonitor(), true, 0);
+            for (Slice record : records) {
+                assertEquals(logReader.readRecord(), record);
+            }
+            assertNull(logReader.readRecord());
+        }
+    }
+
     private static class StringSink implements WritableFile {
         private ByteArrayOutputStream sb = new ByteArrayOutputStream();
+        private int gatheringAppends;
 
         byte[] content;
 
@@ -67,6 +113,12 @@ public class LogWriterTest {
             sb.write(data.getBytes());
         }
 
+        @Override
+        public void append(ByteBuffer[] data, int offset, int length) throws IOException {
+            gatheringAppends++;
+            WritableFile.super.append(data, offset, length);
+        }
+
         @Override
         public void force() {
             content = sb.toByteArray();
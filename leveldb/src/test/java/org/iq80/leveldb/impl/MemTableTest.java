@@ -21,15 +21,22 @@ import static org.iq80.leveldb.util.TestUtils.asciiToBytes;
 import static org.iq80.leveldb.util.TestUtils.asciiToSlice;
 import static org.testng.Assert.assertEquals;
 import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
 import static org.testng.Assert.assertTrue;
 
 import com.google.common.collect.Lists;
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
 import org.iq80.leveldb.iterator.DBIteratorAdapter;
 import org.iq80.leveldb.iterator.DbIterator;
-import org.iq80.leveldb.iterator.MemTableIterator;
+import org.iq80.leveldb.iterator.InternalIterator;
 import org.iq80.leveldb.iterator.MergingIterator;
 import org.iq80.leveldb.iterator.SeekingDBIteratorAdapter;
 import org.iq80.leveldb.iterator.SeekingIterator;
@@ -37,14 +44,31 @@ import org.iq80.leveldb.iterator.SeekingIterators;
 import org.iq80.leveldb.iterator.SnapshotSeekingIterator;
 import org.iq80.leveldb.table.BytewiseComparator;
 import org.iq80.leveldb.util.Slice;
+import org.iq80.leveldb.util.Slices;
+import org.testng.annotations.DataProvider;
 import org.testng.annotations.Test;
 
 public class MemTableTest {
+    @DataProvider(name = "memtables")
+    public Object[][] memTableProvider() {
+        return new Object[][] {
+            {(Function<InternalKeyComparator, MemTable>) SkipListMemTable::new},
+            {(Function<InternalKeyComparator, MemTable>) cmp -> new ArenaMemTable(cmp, 1024)},
+            {(Function<InternalKeyComparator, MemTable>) cmp -> new HashSkipListMemTable(cmp, 1)},
+            {(Function<InternalKeyComparator, MemTable>) cmp -> new HashSkipListMemTable(cmp, 2)},
+            {(Function<InternalKeyComparator, MemTable>) VectorMemTable::new},
+            {
+                (Function<InternalKeyComparator, MemTable>)
+                        cmp -> new BloomMemTable(new SkipListMemTable(cmp), 64)
+            }
+        };
+    }
+
     /** skipFirst + iter to last ok */
-    @Test
-    public void testTestSimple() throws Exception {
-        final MemTableIterator iter =
-                getMemTableIterator(new InternalKeyComparator(new BytewiseComparator()));
+    @Test(dataProvider = "memtables")
+    public void testTestSimple(Function<InternalKeyComparator, MemTable> factory) throws Exception {
+        final InternalIterator iter =
+                getMemTableIterator(factory, new InternalKeyComparator(new BytewiseComparator()));
         assertTrue(iter.seekToFirst());
         assertEntry(iter, "k1", "v1", 101);
         assertTrue(iter.next());
@@ -58,19 +82,19 @@ public class MemTableTest {
         assertFalse(iter.next());
     }
 
-    @Test
-    public void testMemIterator() {
+    @Test(dataProvider = "memtables")
+    public void testMemIterator(Function<InternalKeyComparator, MemTable> factory) {
         BytewiseComparator userComparator = new BytewiseComparator();
         InternalKeyComparator cmp = new InternalKeyComparator(userComparator);
-        final MemTableIterator iter = getMemTableIterator(cmp);
+        final InternalIterator iter = getMemTableIterator(factory, cmp);
         test(iter);
     }
 
-    @Test
-    public void testDbIterator() {
+    @Test(dataProvider = "memtables")
+    public void testDbIterator(Function<InternalKeyComparator, MemTable> factory) {
         BytewiseComparator userComparator = new BytewiseComparator();
         InternalKeyComparator cmp = new InternalKeyComparator(userComparator);
-        final MemTableIterator iter = getMemTableIterator(cmp);
+        final InternalIterator iter = getMemTableIterator(factory, cmp);
         MergingIterator mIter = new MergingIterator(Lists.newArrayList(iter), cmp);
         testUserKey(
                 new SnapshotSeekingIterator(
@@ -80,20 +104,20 @@ public class MemTableTest {
                         (internalKey, bytes) -> {}));
     }
 
-    @Test
-    public void testMergingIterator() {
+    @Test(dataProvider = "memtables")
+    public void testMergingIterator(Function<InternalKeyComparator, MemTable> factory) {
         BytewiseComparator userComparator = new BytewiseComparator();
         InternalKeyComparator cmp = new InternalKeyComparator(userComparator);
-        final MemTableIterator iter = getMemTableIterator(cmp);
+        final InternalIterator iter = getMemTableIterator(factory, cmp);
         MergingIterator mIter = new MergingIterator(Lists.newArrayList(iter), cmp);
         test(mIter);
     }
 
-    @Test
-    public void testSeekingIteratorAdapter() {
+    @Test(dataProvider = "memtables")
+    public void testSeekingIteratorAdapter(Function<InternalKeyComparator, MemTable> factory) {
         BytewiseComparator userComparator = new BytewiseComparator();
         InternalKeyComparator cmp = new InternalKeyComparator(userComparator);
-        final MemTableIterator iter = getMemTableIterator(cmp);
+        final InternalIterator iter = getMemTableIterator(factory, cmp);
         MergingIterator mIter = new MergingIterator(Lists.newArrayList(iter), cmp);
         DBIteratorAdapter adapter =
                 new DBIteratorAdapter(
@@ -108,11 +132,11 @@ public class MemTableTest {
         testUserKey(sliceSliceSeekingIterator);
     }
 
-    @Test
-    public void testCollectionIterator() {
+    @Test(dataProvider = "memtables")
+    public void testCollectionIterator(Function<InternalKeyComparator, MemTable> factory) {
         BytewiseComparator userComparator = new BytewiseComparator();
         InternalKeyComparator cmp = new InternalKeyComparator(userComparator);
-        final MemTableIterator iter = getMemTableIterator(cmp);
+        final InternalIterator iter = getMemTableIterator(factory, cmp);
         final List<Map.Entry<InternalKey, Slice>> objects = new ArrayList<>();
         while (iter.next()) {
             objects.add(new InternalEntry(iter.key(), iter.value()));
@@ -123,6 +147,189 @@ public class MemTableTest {
         test(internalKeySliceSeekingIterator);
     }
 
+    @Test(dataProvider = "memtables")
+    public void testGet(Function<InternalKeyComparator, MemTable> factory) {
+        MemTable memTable = factory.apply(new InternalKeyComparator(new BytewiseComparator()));
+        assertTrue(memTable.isEmpty());
+        memTable.add(10, ValueType.VALUE, asciiToSlice("k1"), asciiToSlice("v1"));
+        memTable.add(11, ValueType.DELETION, asciiToSlice("k1"), Slices.EMPTY_SLICE);
+        memTable.add(12, ValueType.VALUE, asciiToSlice("k2"), asciiToSlice("v2"));
+        assertFalse(memTable.isEmpty());
+        assertTrue(memTable.approximateMemoryUsage() > 0);
+
+        assertNull(memTable.get(new LookupKey(asciiToSlice("k1"), 9)));
+        assertEquals(
+                memTable.get(new LookupKey(asciiToSlice("k1"), 10)).getValue(), asciiToSlice("v1"));
+        assertTrue(memTable.get(new LookupKey(asciiToSlice("k1"), 11)).isDeleted());
+        assertNull(memTable.get(new LookupKey(asciiToSlice("k2"), 11)));
+        assertEquals(
+                memTable.get(new LookupKey(asciiToSlice("k2"), 100)).getValue(),
+                asciiToSlice("v2"));
+        assertNull(memTable.get(new LookupKey(asciiToSlice("k3"), 100)));
+        assertEquals(memTable.get(new LookupKey(asciiToSlice("k2"), 100)).getSequenceNumber(), 12);
+    }
+
+    @Test
+    public void testBloomMemTable() {
+        int keys = 10000;
+        BloomMemTable memTable =
+                new BloomMemTable(
+                        new SkipListMemTable(new InternalKeyComparator(new BytewiseComparator())),
+                        keys * 10 / 8);
+        assertTrue(memTable.approximateMemoryUsage() >= keys * 10 / 8);
+        for (int i = 0; i < keys; i++) {
+            memTable.add(i, ValueType.VALUE, asciiToSlice("key" + i), asciiToSlice("v" + i));
+        }
+        for (int i = 0; i < keys; i++) {
+            assertTrue(memTable.mayContain(asciiToSlice("key" + i)));
+            assertEquals(
+                    memTable.get(new LookupKey(asciiToSlice("key" + i), keys)).getValue(),
+                    asciiToSlice("v" + i));
+        }
+        int falsePositives = 0;
+        for (int i = 0; i < keys; i++) {
+            if (memTable.mayContain(asciiToSlice("missing" + i))) {
+                falsePositives++;
+            }
+            assertNull(memTable.get(new LookupKey(asciiToSlice("missing" + i), keys)));
+        }
+        // about 1% expected with 10 bits per key
+        assertTrue(falsePositives < keys * 3 / 100, "false positives " + falsePositives);
+    }
+
+    @Test
+    public void testArenaMemTableRecyclesBlocks() {
+        InternalKeyComparator cmp = new InternalKeyComparator(new BytewiseComparator());
+        ArenaMemTable.BlockPool blockPool = new ArenaMemTable.BlockPool(1024, 64 * 1024);
+        ArenaMemTable first = new ArenaMemTable(cmp, blockPool);
+        // the first blocks of entries and skiplist nodes are allocated up front
+        assertEquals(first.approximateMemoryUsage(), 2 * 1024);
+        for (int i = 0; i < 100; i++) {
+            first.add(i, ValueType.VALUE, asciiToSlice("key" + i), asciiToSlice("value" + i));
+        }
+        long allocated = first.approximateMemoryUsage();
+        assertEquals(allocated % 1024, 0);
+        assertEquals(blockPool.pooledBytes(), 0);
+
+        first.release();
+        assertEquals(blockPool.pooledBytes(), allocated);
+        first.release();
+        assertEquals(blockPool.pooledBytes(), allocated);
+
+        // recycled blocks hold old entries, they must not leak into the new table
+        ArenaMemTable second = new ArenaMemTable(cmp, blockPool);
+        assertEquals(blockPool.pooledBytes(), allocated - 2 * 1024);
+        for (int i = 0; i < 100; i += 2) {
+            second.add(i, ValueType.VALUE, asciiToSlice("key" + i), asciiToSlice("other" + i));
+        }
+        assertTrue(blockPool.pooledBytes() < allocated - 2 * 1024);
+        for (int i = 0; i < 100; i++) {
+            LookupResult result = second.get(new LookupKey(asciiToSlice("key" + i), 100));
+            if (i % 2 == 0) {
+                assertEquals(result.getValue(), asciiToSlice("other" + i));
+            } else {
+                assertNull(result);
+            }
+        }
+
+        // blocks beyond the capacity of the pool are left to the garbage collector
+        ArenaMemTable.BlockPool smallPool = new ArenaMemTable.BlockPool(1024, 1024);
+        ArenaMemTable third = new ArenaMemTable(cmp, smallPool);
+        third.release();
+        assertEquals(smallPool.pooledBytes(), 1024);
+    }
+
+    @Test(dataProvider = "memtables")
+    public void testRangeDeletion(Function<InternalKeyComparator, MemTable> factory) {
+        MemTable memTable = factory.apply(new InternalKeyComparator(new BytewiseComparator()));
+        memTable.addRangeDeletion(10, asciiToSlice("a"), asciiToSlice("c"));
+        assertFalse(memTable.isEmpty());
+        assertTrue(memTable.approximateMemoryUsage() > 0);
+        assertFalse(memTable.iterator().seekToFirst());
+
+        memTable.add(11, ValueType.VALUE, asciiToSlice("b"), asciiToSlice("v"));
+        memTable.addRangeDeletion(12, asciiToSlice("b"), asciiToSlice("d"));
+        List<RangeTombstone> tombstones = new ArrayList<>(memTable.rangeTombstones());
+        tombstones.sort(Comparator.comparingLong(RangeTombstone::getSequenceNumber));
+        assertEquals(tombstones.size(), 2);
+        assertEquals(tombstones.get(1).getBegin(), asciiToSlice("b"));
+        assertEquals(tombstones.get(1).getEnd(), asciiToSlice("d"));
+
+        BytewiseComparator userComparator = new BytewiseComparator();
+        Slice b = asciiToSlice("b");
+        assertEquals(RangeTombstone.maxCoveringSequence(tombstones, userComparator, b, 11), 10);
+        assertEquals(RangeTombstone.maxCoveringSequence(tombstones, userComparator, b, 100), 12);
+        assertEquals(
+                RangeTombstone.maxCoveringSequence(
+                        tombstones, userComparator, asciiToSlice("d"), 100),
+                0);
+        RangeTombstones index = RangeTombstones.create(tombstones, userComparator, 100);
+        assertEquals(index.maxCoveringSequence(asciiToSlice("a")), 10);
+        assertEquals(index.maxCoveringSequence(b), 12);
+        assertEquals(index.maxCoveringSequence(asciiToSlice("c")), 12);
+        assertEquals(index.maxCoveringSequence(asciiToSlice("d")), 0);
+        assertEquals(index.maxCoveringSequence(asciiToSlice("0")), 0);
+        assertTrue(index.isCovered(b, 11));
+        assertFalse(index.isCovered(b, 12));
+        assertEquals(
+                RangeTombstones.create(tombstones, userComparator, 11).maxCoveringSequence(b), 10);
+    }
+
+    @Test(dataProvider = "memtables")
+    public void testConcurrentAdd(Function<InternalKeyComparator, MemTable> factory)
+            throws Exception {
+        InternalKeyComparator cmp = new InternalKeyComparator(new BytewiseComparator());
+        MemTable memTable = factory.apply(cmp);
+        int threads = 4;
+        int entriesPerThread = 5000;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                final int thread = t;
+                futures.add(
+                        executor.submit(
+                                () -> {
+                                    for (int i = 0; i < entriesPerThread; i++) {
+                                        long sequence = (long) i * threads + thread;
+                                        Slice key = asciiToSlice("key" + (sequence % 1000));
+                                        memTable.add(
+                                                sequence,
+                                                ValueType.VALUE,
+                                                key,
+                                                asciiToSlice("value" + sequence));
+                                    }
+                                }));
+            }
+            for (Future<?> future : futures) {
+                future.get(1, TimeUnit.MINUTES);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        int count = 0;
+        InternalKey previous = null;
+        try (InternalIterator iter = memTable.iterator()) {
+            for (boolean valid = iter.seekToFirst(); valid; valid = iter.next()) {
+                if (previous != null) {
+                    assertTrue(cmp.compare(previous, iter.key()) < 0);
+                }
+                previous = iter.key();
+                assertEquals(iter.value(), asciiToSlice("value" + previous.getSequenceNumber()));
+                count++;
+            }
+        }
+        assertEquals(count, threads * entriesPerThread);
+        long lastSequence = (long) threads * entriesPerThread - 1;
+        assertEquals(
+                memTable.get(
+                                new LookupKey(
+                                        asciiToSlice("key" + (lastSequence % 1000)), lastSequence))
+                        .getValue(),
+                asciiToSlice("value" + lastSequence));
+    }
+
     private void test(SeekingIterator<InternalKey, Slice> iter) {
         assertTrue(iter.next());
         assertEntry(iter, "k1", "v1", 101);
@@ -177,8 +384,9 @@ public class MemTableTest {
         assertFalse(iter.valid());
     }
 
-    private MemTableIterator getMemTableIterator(InternalKeyComparator cmp) {
-        final MemTable memtable = new MemTable(cmp);
+    private InternalIterator getMemTableIterator(
+            Function<InternalKeyComparator, MemTable> factory, InternalKeyComparator cmp) {
+        final MemTable memtable = factory.apply(cmp);
         WriteBatchImpl batch = new WriteBatchImpl();
         batch.put(asciiToBytes("k1"), asciiToBytes("v1p"));
         batch.put(asciiToBytes("k1"), asciiToBytes("v1"));
@@ -158,7 +158,7 @@ public class RecoveryTest {
         try (LogWriter writer = Logs.createLogWriter(fname, lognum, env)) {
             WriteBatchImpl batch = new WriteBatchImpl();
             batch.put(key, val);
-            writer.addRecord(DbImpl.writeWriteBatch(batch, seq), true);
+            writer.addRecord(batch.contents(seq), true);
         }
     }
 
@@ -37,6 +37,14 @@ public class VersionEditTest {
                     kBig + 400 + i,
                     new InternalKey(asciiToSlice("foo"), kBig + 500 + i, ValueType.VALUE),
                     new InternalKey(asciiToSlice("zoo"), kBig + 600 + i, ValueType.DELETION));
+            edit.addFile(
+                    2,
+                    new FileMetaData(
+                            kBig + 800 + i,
+                            kBig + 400 + i,
+                            new InternalKey(asciiToSlice("bar"), kBig + 850 + i, ValueType.VALUE),
+                            new InternalKey(asciiToSlice("baz"), kBig + 850 + i, ValueType.VALUE),
+                            kBig + 850 + i));
             edit.deleteFile(4, kBig + 700 + i);
             edit.setCompactPointer(
                     i, new InternalKey(asciiToSlice("x"), kBig + 900 + i, ValueType.VALUE));
@@ -49,6 +57,62 @@ public class VersionEditTest {
         testEncodeDecode(edit);
     }
 
+    @Test
+    public void testEncodeDecodeIngestedFile() throws Exception {
+        VersionEdit edit = new VersionEdit();
+        edit.addFile(
+                1,
+                new FileMetaData(
+                        7,
+                        100,
+                        new InternalKey(asciiToSlice("a"), 42, ValueType.VALUE),
+                        new InternalKey(asciiToSlice("b"), 42, ValueType.DELETION),
+                        42));
+        edit.addFile(
+                1,
+                8,
+                100,
+                new InternalKey(asciiToSlice("c"), 10, ValueType.VALUE),
+                new InternalKey(asciiToSlice("d"), 11, ValueType.VALUE));
+
+        VersionEdit parsed = new VersionEdit(edit.encode());
+        assertEquals(parsed.getNewFiles().get(1).size(), 2);
+        for (FileMetaData file : parsed.getNewFiles().get(1)) {
+            assertEquals(file.getGlobalSequenceNumber(), file.getNumber() == 7 ? 42 : 0);
+        }
+    }
+
+    @Test
+    public void testEncodeDecodeFileWithRangeDeletions() throws Exception {
+        VersionEdit edit = new VersionEdit();
+        edit.addFile(
+                1,
+                new FileMetaData(
+                        7,
+                        100,
+                        new InternalKey(asciiToSlice("a"), 42, ValueType.RANGE_DELETION),
+                        new InternalKey(
+                                asciiToSlice("b"),
+                                SequenceNumber.MAX_SEQUENCE_NUMBER,
+                                ValueType.RANGE_DELETION),
+                        0,
+                        true));
+        edit.addFile(
+                1,
+                8,
+                100,
+                new InternalKey(asciiToSlice("c"), 10, ValueType.VALUE),
+                new InternalKey(asciiToSlice("d"), 11, ValueType.VALUE));
+
+        VersionEdit parsed = new VersionEdit(edit.encode());
+        assertEquals(parsed.getNewFiles().get(1).size(), 2);
+        for (FileMetaData file : parsed.getNewFiles().get(1)) {
+            assertEquals(file.hasRangeDeletions(), file.getNumber() == 7);
+            assertEquals(file.getGlobalSequenceNumber(), 0);
+        }
+        testEncodeDecode(edit);
+    }
+
     void testEncodeDecode(VersionEdit edit) {
         Slice encoded = edit.encode();
         VersionEdit parsed = new VersionEdit(encoded);
@@ -17,8 +17,14 @@
  */
 package org.iq80.leveldb.impl;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.testng.Assert.assertEquals;
 import static org.testng.Assert.assertTrue;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import org.iq80.leveldb.util.Slice;
 import org.testng.annotations.Test;
 
@@ -41,6 +47,79 @@ public class WriteBatchImplTest {
         assertTrue(twoKeysSize < postDeleteSize);
     }
 
+    @Test
+    public void testLogRecordFormat() {
+        WriteBatchImpl batch = new WriteBatchImpl();
+        batch.put(slice("foo"), slice("bar"));
+        batch.delete("box".getBytes());
+        WriteBatchImpl other = new WriteBatchImpl();
+        other.put("baz".getBytes(), new byte[0]);
+        other.merge(slice("foo"), slice("+1"));
+        other.deleteRange("a".getBytes(), "c".getBytes());
+        batch.append(other);
+        assertEquals(batch.size(), 5);
+
+        Slice record = batch.contents(100);
+        assertEquals(record.length(), batch.getApproximateSize());
+        assertEquals(record.getLong(0), 100);
+        assertEquals(record.getInt(8), 5);
+        assertEquals(
+                replay(record),
+                Arrays.asList(
+                        "put foo=bar",
+                        "delete box",
+                        "put baz=",
+                        "merge foo+=+1",
+                        "deleteRange [a, c)"),
+                "record is decoded in place");
+
+        batch.clear();
+        assertEquals(batch.size(), 0);
+        assertEquals(replay(batch.contents(1)), Collections.emptyList());
+    }
+
+    @Test(expectedExceptions = IllegalStateException.class)
+    public void testCountMismatch() {
+        WriteBatchImpl batch = new WriteBatchImpl();
+        batch.put(slice("foo"), slice("bar"));
+        Slice record = batch.contents(1);
+        record.setInt(8, 2);
+        replay(record);
+    }
+
+    private static List<String> replay(Slice record) {
+        List<String> entries = new ArrayList<>();
+        WriteBatchImpl.forEach(
+                record,
+                new WriteBatchImpl.Handler() {
+                    @Override
+                    public void put(Slice key, Slice value) {
+                        entries.add("put " + key.toString(UTF_8) + "=" + value.toString(UTF_8));
+                    }
+
+                    @Override
+                    public void delete(Slice key) {
+                        entries.add("delete " + key.toString(UTF_8));
+                    }
+
+                    @Override
+                    public void merge(Slice key, Slice value) {
+                        entries.add("merge " + key.toString(UTF_8) + "+=" + value.toString(UTF_8));
+                    }
+
+                    @Override
+                    public void deleteRange(Slice begin, Slice end) {
+                        entries.add(
+                                "deleteRange ["
+                                        + begin.toString(UTF_8)
+                                        + ", "
+                                        + end.toString(UTF_8)
+                                        + ")");
+                    }
+                });
+        return entries;
+    }
+
     private static Slice slice(String txt) {
         return new Slice(txt.getBytes());
     }
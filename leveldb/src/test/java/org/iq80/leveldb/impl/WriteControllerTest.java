@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iq80.leveldb.impl;
+
+import static org.iq80.leveldb.impl.DbConstants.L0_SLOWDOWN_WRITES_TRIGGER;
+import static org.iq80.leveldb.impl.DbConstants.L0_STOP_WRITES_TRIGGER;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+import org.iq80.leveldb.impl.WriteController.State;
+import org.testng.annotations.Test;
+
+public class WriteControllerTest {
+    private static final long RATE = 1 << 20;
+
+    @Test
+    public void testLevel0Files() {
+        WriteController controller = new WriteController(RATE, 0, 0);
+        controller.update(L0_SLOWDOWN_WRITES_TRIGGER, 0, 0);
+        assertEquals(controller.getState(), State.NORMAL);
+        assertEquals(controller.getDelayNanos(RATE, System.nanoTime()), 0);
+
+        long previousRate = RATE;
+        for (int files = L0_SLOWDOWN_WRITES_TRIGGER + 1; files < L0_STOP_WRITES_TRIGGER; files++) {
+            controller.update(files, 0, 0);
+            assertEquals(controller.getState(), State.DELAYED);
+            assertTrue(controller.getDelayedWriteRate() < previousRate);
+            previousRate = controller.getDelayedWriteRate();
+        }
+
+        controller.update(L0_STOP_WRITES_TRIGGER, 0, 0);
+        assertEquals(controller.getState(), State.STOPPED);
+
+        controller.update(0, 0, 0);
+        assertEquals(controller.getState(), State.NORMAL);
+        assertEquals(controller.getDelayedWriteRate(), RATE);
+    }
+
+    @Test
+    public void testMemTableFill() {
+        WriteController controller = new WriteController(RATE, 0, 0);
+        controller.update(0, 0.5, 0);
+        assertEquals(controller.getState(), State.NORMAL);
+        controller.update(0, 0.75, 0);
+        assertEquals(controller.getState(), State.DELAYED);
+        assertEquals(controller.getDelayedWriteRate(), RATE / 2);
+        controller.update(0, 1.1, 0);
+        assertEquals(controller.getState(), State.STOPPED);
+    }
+
+    @Test
+    public void testPendingCompactionBytes() {
+        WriteController controller = new WriteController(RATE, 1000, 2000);
+        controller.update(0, 0, 1000);
+        assertEquals(controller.getState(), State.NORMAL);
+        controller.update(0, 0, 1250);
+        assertEquals(controller.getState(), State.DELAYED);
+        assertEquals(controller.getDelayedWriteRate(), RATE * 3 / 4);
+        controller.update(0, 0, 2000);
+        assertEquals(controller.getState(), State.STOPPED);
+
+        // limits disabled
+        controller = new WriteController(RATE, 0, 0);
+        controller.update(0, 0, Long.MAX_VALUE);
+        assertEquals(controller.getState(), State.NORMAL);
+    }
+
+    @Test
+    public void testDelayIsProportionalToWriteSize() {
+        WriteController controller = new WriteController(RATE, 0, 0);
+        controller.update(0, 0.75, 0);
+        long rate = controller.getDelayedWriteRate();
+        long now = System.nanoTime() + TimeUnit.SECONDS.toNanos(1);
+
+        // a short burst is allowed, then each write waits for the writes metered before it
+        long millis = TimeUnit.MILLISECONDS.toNanos(1);
+        assertEquals(controller.getDelayNanos(rate / 1000, now), 0, 10_000);
+        assertEquals(controller.getDelayNanos(rate / 100, now), 10 * millis, 10_000);
+        assertEquals(controller.getDelayNanos(rate / 50, now), 30 * millis, 10_000);
+        assertEquals(controller.getDelayNanos(0, now + 30 * millis), 0, 10_000);
+        assertEquals(controller.getDelayedWrites(), 4);
+    }
+
+    @Test
+    public void testMinimumRate() {
+        WriteController controller = new WriteController(1, 0, 0);
+        controller.update(L0_STOP_WRITES_TRIGGER - 1, 0, 0);
+        assertEquals(controller.getDelayedWriteRate(), WriteController.MIN_DELAYED_WRITE_RATE);
+    }
+}
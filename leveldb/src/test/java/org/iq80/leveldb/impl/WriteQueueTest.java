@@ -0,0 +1,231 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iq80.leveldb.impl;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.iq80.leveldb.util.Slice;
+import org.testng.annotations.Test;
+
+public class WriteQueueTest {
+    @Test
+    public void testFirstWriterIsLeader() {
+        WriteQueue queue = new WriteQueue();
+        WriteQueue.Writer w = new WriteQueue.Writer(batch(1), false);
+        assertEquals(queue.joinBatchGroup(w), WriteQueue.STATE_GROUP_LEADER);
+
+        WriteQueue.WriteGroup group = new WriteQueue.WriteGroup(w);
+        queue.enterAsBatchGroupLeader(group);
+        assertEquals(group.size(), 1);
+        queue.exitAsBatchGroupLeader(group, null);
+
+        // queue is empty again, next writer leads
+        WriteQueue.Writer w2 = new WriteQueue.Writer(batch(1), false);
+        assertEquals(queue.joinBatchGroup(w2), WriteQueue.STATE_GROUP_LEADER);
+    }
+
+    @Test
+    public void testAllWritesCommittedExactlyOnce() throws Exception {
+        final WriteQueue queue = new WriteQueue();
+        final int threads = 8;
+        final int writesPerThread = 2000;
+        final AtomicInteger committed = new AtomicInteger();
+        final CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                futures.add(
+                        executor.submit(
+                                () -> {
+                                    start.await();
+                                    for (int i = 0; i < writesPerThread; i++) {
+                                        write(queue, committed, i % 7 == 0);
+                                    }
+                                    return null;
+                                }));
+            }
+            start.countDown();
+            for (Future<?> future : futures) {
+                future.get(1, TimeUnit.MINUTES);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(committed.get(), threads * writesPerThread);
+    }
+
+    @Test
+    public void testParallelMemTableWriters() throws Exception {
+        final WriteQueue queue = new WriteQueue();
+        final WriteQueue.Writer leader = new WriteQueue.Writer(batch(2), false);
+        assertEquals(queue.joinBatchGroup(leader), WriteQueue.STATE_GROUP_LEADER);
+
+        // queue two followers behind the leader
+        final List<Integer> followerStates = new ArrayList<>();
+        final List<Long> followerSequences = new ArrayList<>();
+        List<Thread> followers = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            Thread thread =
+                    new Thread(
+                            () -> {
+                                WriteQueue.Writer w = new WriteQueue.Writer(batch(3), false);
+                                int state = queue.joinBatchGroup(w);
+                                synchronized (followerStates) {
+                                    followerStates.add(state);
+                                    followerSequences.add(w.sequence);
+                                }
+                                state = queue.completeParallelMemTableWriter(w, null);
+                                synchronized (followerStates) {
+                                    followerStates.add(state);
+                                }
+                            });
+            thread.start();
+            followers.add(thread);
+        }
+        // wait for both followers to be parked in the queue
+        for (Thread follower : followers) {
+            while (follower.getState() != Thread.State.WAITING) {
+                Thread.sleep(1);
+            }
+        }
+
+        WriteQueue.WriteGroup group = new WriteQueue.WriteGroup(leader);
+        queue.enterAsBatchGroupLeader(group);
+        assertEquals(group.size(), 3);
+        assertSame(group.getLeader(), leader);
+
+        queue.launchParallelMemTableWriters(group, null, 10);
+        assertEquals(leader.sequence, 10);
+        assertNull(queue.awaitParallelMemTableWriters(group));
+        queue.exitAsBatchGroupLeader(group, null);
+        for (Thread follower : followers) {
+            follower.join(TimeUnit.MINUTES.toMillis(1));
+        }
+        assertEquals(followerStates.size(), 4);
+        assertEquals(followerSequences.size(), 2);
+        assertEquals(followerSequences.stream().mapToLong(Long::longValue).sum(), 12L + 15L);
+        assertEquals(
+                followerStates.stream().filter(s -> s == WriteQueue.STATE_COMPLETED).count(), 2);
+    }
+
+    @Test
+    public void testAsyncWriterNotifiedByLeader() {
+        WriteQueue queue = new WriteQueue();
+        WriteQueue.Writer leader = new WriteQueue.Writer(batch(1), false);
+        assertEquals(queue.joinBatchGroup(leader), WriteQueue.STATE_GROUP_LEADER);
+
+        List<Integer> states = new ArrayList<>();
+        WriteQueue.Writer follower =
+                new WriteQueue.Writer(batch(1), false, w -> states.add(w.state));
+        assertFalse(queue.joinBatchGroupAsync(follower));
+        WriteQueue.Writer next = new WriteQueue.Writer(batch(1), true, w -> states.add(w.state));
+        assertFalse(queue.joinBatchGroupAsync(next));
+        assertTrue(states.isEmpty());
+
+        // sync writer does not fit in a non sync group, it is elected next leader
+        WriteQueue.WriteGroup group = new WriteQueue.WriteGroup(leader);
+        queue.enterAsBatchGroupLeader(group);
+        assertEquals(group.size(), 2);
+        queue.launchParallelMemTableWriters(group, null, 1);
+        assertNull(queue.awaitParallelMemTableWriters(group), "async writers insert nothing");
+        queue.exitAsBatchGroupLeader(group, null);
+        assertEquals(
+                states, Arrays.asList(WriteQueue.STATE_GROUP_LEADER, WriteQueue.STATE_COMPLETED));
+        assertEquals(follower.sequence, 2);
+    }
+
+    @Test
+    public void testGroupCommitWindow() throws Exception {
+        final WriteQueue queue = new WriteQueue();
+        final WriteQueue.Writer leader = new WriteQueue.Writer(batch(1), true);
+        assertEquals(queue.joinBatchGroup(leader), WriteQueue.STATE_GROUP_LEADER);
+        WriteQueue.WriteGroup group = new WriteQueue.WriteGroup(leader);
+
+        // nobody joins, wait for the whole window
+        long start = System.nanoTime();
+        queue.awaitGroupCommitWindow(group, TimeUnit.MILLISECONDS.toNanos(20), 1 << 20);
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(20));
+
+        // byte budget reached, do not wait
+        WriteQueue.Writer follower = new WriteQueue.Writer(batch(1), true, w -> {});
+        queue.joinBatchGroupAsync(follower);
+        start = System.nanoTime();
+        queue.awaitGroupCommitWindow(group, TimeUnit.MINUTES.toNanos(1), 1);
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(30));
+
+        queue.enterAsBatchGroupLeader(group, 1 << 20);
+        assertEquals(group.size(), 2);
+        queue.exitAsBatchGroupLeader(group, null);
+        assertEquals(follower.state, WriteQueue.STATE_COMPLETED);
+    }
+
+    @Test
+    public void testWriterWithoutBatchLeads() {
+        WriteQueue queue = new WriteQueue();
+        WriteQueue.Writer leader = new WriteQueue.Writer(batch(1), false);
+        assertEquals(queue.joinBatchGroup(leader), WriteQueue.STATE_GROUP_LEADER);
+        WriteQueue.Writer noBatch = new WriteQueue.Writer(null, false, w -> {});
+        assertFalse(queue.joinBatchGroupAsync(noBatch));
+
+        WriteQueue.WriteGroup group = new WriteQueue.WriteGroup(leader);
+        queue.enterAsBatchGroupLeader(group);
+        assertEquals(group.size(), 1);
+        queue.exitAsBatchGroupLeader(group, null);
+        assertEquals(noBatch.state, WriteQueue.STATE_GROUP_LEADER);
+    }
+
+    private static void write(WriteQueue queue, AtomicInteger committed, boolean sync) {
+        WriteQueue.Writer w = new WriteQueue.Writer(batch(1), sync);
+        int state = queue.joinBatchGroup(w);
+        if (state == WriteQueue.STATE_COMPLETED) {
+            return;
+        }
+        assertEquals(state, WriteQueue.STATE_GROUP_LEADER);
+        WriteQueue.WriteGroup group = new WriteQueue.WriteGroup(w);
+        queue.enterAsBatchGroupLeader(group);
+        int size = 0;
+        for (WriteQueue.Writer writer : group) {
+            size++;
+        }
+        assertEquals(size, group.size());
+        committed.addAndGet(size);
+        queue.exitAsBatchGroupLeader(group, null);
+    }
+
+    private static WriteBatchImpl batch(int entries) {
+        WriteBatchImpl batch = new WriteBatchImpl();
+        for (int i = 0; i < entries; i++) {
+            batch.put(new Slice(new byte[] {(byte) i}), new Slice(new byte[] {(byte) i}));
+        }
+        return batch;
+    }
+}
@@ -29,7 +29,20 @@ public class BloomFilterPolicyTest {
     public static final int BLOOM_BITS = 10;
     private byte[] filter = new byte[0];
     private List<byte[]> keys = new ArrayList<>();
-    private BloomFilterPolicy policy = new BloomFilterPolicy(BLOOM_BITS);
+    private final FilterPolicy policy;
+
+    public BloomFilterPolicyTest() {
+        this(new BloomFilterPolicy(BLOOM_BITS));
+    }
+
+    protected BloomFilterPolicyTest(FilterPolicy policy) {
+        this.policy = policy;
+    }
+
+    /** Largest expected size of a filter of {@code length} keys. */
+    protected int maxFilterLength(int length) {
+        return (length * BLOOM_BITS / 8) + 40;
+    }
 
     @Test
     public void emptyBloom() throws Exception {
@@ -60,7 +73,7 @@ public class BloomFilterPolicyTest {
             }
             build();
 
-            Assert.assertTrue(filter.length <= (length * BLOOM_BITS / 8) + 40);
+            Assert.assertTrue(filter.length <= maxFilterLength(length));
 
             // All added keys must match
             for (int i = 0; i < length; i++) {
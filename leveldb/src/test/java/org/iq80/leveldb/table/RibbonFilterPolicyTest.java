@@ -0,0 +1,62 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iq80.leveldb.table;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.testng.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.iq80.leveldb.util.Slice;
+import org.testng.annotations.Test;
+
+public class RibbonFilterPolicyTest extends BloomFilterPolicyTest {
+    public RibbonFilterPolicyTest() {
+        super(new RibbonFilterPolicy(BLOOM_BITS));
+    }
+
+    @Override
+    protected int maxFilterLength(int length) {
+        // small filters have at least one block of slots
+        return super.maxFilterLength(length) + 64;
+    }
+
+    @Test
+    public void testSmallerThanBloom() {
+        List<Slice> keys = new ArrayList<>();
+        for (int i = 0; i < 100000; i++) {
+            keys.add(new Slice(("key" + i).getBytes(UTF_8)));
+        }
+        int ribbon = new RibbonFilterPolicy(BLOOM_BITS).createFilter(keys).length;
+        int bloom = new BloomFilterPolicy(BLOOM_BITS).createFilter(keys).length;
+        assertTrue(ribbon < bloom * 0.85, ribbon + " < 0.85 * " + bloom);
+    }
+
+    @Test
+    public void testDuplicateKeys() {
+        List<Slice> keys = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            keys.add(new Slice(("key" + (i % 100)).getBytes(UTF_8)));
+        }
+        RibbonFilterPolicy policy = new RibbonFilterPolicy(BLOOM_BITS);
+        Slice filter = new Slice(policy.createFilter(keys));
+        for (Slice key : keys) {
+            assertTrue(policy.keyMayMatch(key, filter));
+        }
+    }
+}
@@ -55,6 +55,7 @@ import org.iq80.leveldb.impl.DbImpl;
 import org.iq80.leveldb.impl.InternalKey;
 import org.iq80.leveldb.impl.InternalKeyComparator;
 import org.iq80.leveldb.impl.MemTable;
+import org.iq80.leveldb.impl.SkipListMemTable;
 import org.iq80.leveldb.impl.ValueType;
 import org.iq80.leveldb.iterator.SeekingDBIteratorAdapter;
 import org.iq80.leveldb.iterator.SeekingIterator;
@@ -769,7 +770,7 @@ public abstract class TableTest {
         @Override
         protected void finish(Options options, Env env, UserComparator comparator, KVMap kvMap)
                 throws IOException {
-            table = new MemTable(new InternalKeyComparator(comparator));
+            table = new SkipListMemTable(new InternalKeyComparator(comparator));
             int seq = 1;
             for (Map.Entry<Slice, Slice> e : kvMap.entrySet()) {
                 table.add(seq++, ValueType.VALUE, e.getKey(), e.getValue());
@@ -916,9 +917,22 @@ public abstract class TableTest {
 
     private void tableTest(int blockSize, int blockRestartInterval, List<BlockEntry> entries)
             throws Exception {
+        tableTest(blockSize, blockRestartInterval, entries, false);
+        tableTest(blockSize, blockRestartInterval, entries, true);
+    }
+
+    private void tableTest(
+            int blockSize,
+            int blockRestartInterval,
+            List<BlockEntry> entries,
+            boolean partitionIndex)
+            throws Exception {
         reopenFile();
         Options options =
-                new Options().blockSize(blockSize).blockRestartInterval(blockRestartInterval);
+                new Options()
+                        .blockSize(blockSize)
+                        .blockRestartInterval(blockRestartInterval)
+                        .partitionIndex(partitionIndex);
         try (WritableFile writableFile =
                 defaultEnv.newWritableFile(defaultEnv.toFile(file.getPath()))) {
             TableBuilder builder =
@@ -981,6 +995,20 @@ public abstract class TableTest {
 
                 long approximateOffset = table.getApproximateOffsetOf(endKey);
                 assertTrue(approximateOffset >= lastApproximateOffset);
+
+                // batched lookups read each block once for all its keys
+                List<Slice> keys = new ArrayList<>();
+                List<KeyValueFunction<Slice>> lookups = new ArrayList<>();
+                List<Slice> expected = new ArrayList<>();
+                for (BlockEntry entry : entries) {
+                    keys.add(entry.getKey());
+                    lookups.add((key, value) -> key.equals(entry.getKey()) ? value : null);
+                    expected.add(entry.getValue());
+                }
+                keys.add(endKey);
+                lookups.add((key, value) -> value);
+                expected.add(null);
+                assertEquals(table.internalGet(new ReadOptions(), keys, lookups), expected);
             }
         } finally {
             if (table != null) {